@@ -26,7 +26,7 @@ import java.util.List;
 import sci.crayfis.shramp.analysis.AnalysisController;
 import sci.crayfis.shramp.camera2.capture.CaptureConfiguration;
 import sci.crayfis.shramp.camera2.capture.CaptureController;
-import sci.crayfis.shramp.util.StorageMedia;
+import sci.crayfis.shramp.util.Quiesce;
 
 /**
  * The device will run the operations listed in FlightPlan()
@@ -81,16 +81,10 @@ public final class FlightPlan {
                 AnalysisController.makePixelMask();
 
                 // Wait for writing to finish
-                synchronized (this) {
-                    while (StorageMedia.isBusy()) {
-                        try {
-                            Log.e(Thread.currentThread().getName(), "Waiting for writing to finish..");
-                            this.wait(5 * GlobalSettings.DEFAULT_WAIT_MS);
-                        }
-                        catch (InterruptedException e) {
-                            // TODO: error
-                        }
-                    }
+                String waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS, Quiesce.Stage.STORAGE_MEDIA);
+                while (waitingOn != null) {
+                    Log.e(Thread.currentThread().getName(), "Waiting for writing to finish on: " + waitingOn);
+                    waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS, Quiesce.Stage.STORAGE_MEDIA);
                 }
                 AnalysisController.importLatestCalibration();
             }
@@ -151,16 +145,10 @@ public final class FlightPlan {
                 AnalysisController.makePixelMask();
 
                 // Wait for writing to finish
-                synchronized (this) {
-                    while (StorageMedia.isBusy()) {
-                        try {
-                            Log.e(Thread.currentThread().getName(), "Waiting for writing to finish..");
-                            this.wait(5 * GlobalSettings.DEFAULT_WAIT_MS);
-                        }
-                        catch (InterruptedException e) {
-                            // TODO: error
-                        }
-                    }
+                String waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS, Quiesce.Stage.STORAGE_MEDIA);
+                while (waitingOn != null) {
+                    Log.e(Thread.currentThread().getName(), "Waiting for writing to finish on: " + waitingOn);
+                    waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS, Quiesce.Stage.STORAGE_MEDIA);
                 }
                 AnalysisController.importLatestCalibration();
             }
@@ -97,10 +97,41 @@ abstract public class GlobalSettings {
     // Resource Limits
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
+    // Zero-copy processing: hold Images open and process straight from the ImageReader plane buffer
+    // instead of copying pixels into an array first, this needs more than one ImageReader buffer
+    // (only takes effect on Android Q and later, see ImageWrapper.isZeroCopy())
+    public static final Boolean ENABLE_ZERO_COPY = false;
+
     // Memory and ImageReader buffer limits
     public static final Long    AMPLE_MEMORY_MiB        = 200L;
     public static final Long    LOW_MEMORY_MiB          = 100L;
-    public static final Integer MAX_SIMULTANEOUS_IMAGES = 1;
+    public static final Integer MAX_SIMULTANEOUS_IMAGES = ENABLE_ZERO_COPY ? 4 : 1;
+
+    // Maximum number of metadata (and separately, image data) the DataQueue holds while waiting
+    // for a timestamp match, beyond this the oldest is dropped as an orphan
+    public static final Integer DATA_QUEUE_CAPACITY = 16;
+
+    // Maximum number of idle pixel arrays (per image size) kept for reuse by the PixelBufferPool,
+    // each one is a full frame (~12-24 MB at full sensor resolution)
+    public static final Integer PIXEL_BUFFER_POOL_SIZE = 3;
+
+    // Number of image Allocations (with their per-frame outputs) ImageProcessor rotates through,
+    // with 2 or more, uploading a frame overlaps the previous frame's kernel, 1 runs serially
+    public static final Integer IMAGE_BUFFER_COUNT = 2;
+
+    // Do live and post processing in pure Java (multi-threaded) instead of RenderScript, for devices
+    // where RenderScript is slow or only runs on the CPU anyway, results are identical either way
+    public static final Boolean ENABLE_CPU_BACKEND = false;
+
+    // With significance enabled, only make the trigger decision: compare each raw pixel value to a
+    // precomputed integer threshold instead of computing its significance, running sums are not
+    // updated (frames that save full significance still go through the full kernel)
+    public static final Boolean ENABLE_TRIGGER_ONLY = true;
+
+    // Maximum number of pixels above threshold recorded in a frame's hit list, per row of pixels
+    // and per frame, beyond this the hit list is flagged as overflowed
+    public static final Integer MAX_HITS_PER_ROW   = 4;
+    public static final Integer MAX_HITS_PER_FRAME = 1024;
 
     // RenderScript
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -120,6 +151,9 @@ abstract public class GlobalSettings {
     public static final Integer IMAGE_READER_THREAD_PRIORITY      = Process.THREAD_PRIORITY_URGENT_AUDIO;
     public static final Integer IMAGE_PROCESSOR_THREAD_PRIORITY   = Process.THREAD_PRIORITY_LESS_FAVORABLE;
     public static final Integer STORAGE_MEDIA_THREAD_PRIORITY     = Process.THREAD_PRIORITY_LESS_FAVORABLE;
+    public static final Integer STATISTICS_THREAD_PRIORITY        = Process.THREAD_PRIORITY_BACKGROUND;
+    public static final Integer UPLOAD_THREAD_PRIORITY            = Process.THREAD_PRIORITY_BACKGROUND;
+    public static final Integer BACKGROUND_THREAD_PRIORITY        = Process.THREAD_PRIORITY_BACKGROUND;
 
     // Delays
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -130,6 +164,10 @@ abstract public class GlobalSettings {
     // Long wait time for wait() calls, 1 minute
     public static final Long DEFAULT_LONG_WAIT = 60 * 1000L;
 
+    // How long to wait for the data pipeline to go idle before reporting which stage is stuck
+    // (waiting then continues), 5 seconds
+    public static final Long QUIESCE_TIMEOUT_MS = 5 * 1000L;
+
 
     // Time-Codes
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -158,6 +196,86 @@ abstract public class GlobalSettings {
     public static final String HISTOGRAM_FILE = ".hist";
     public static final String SIGNIF_FILE    = ".signif";
     public static final String IMAGE_FILE     = ".frame";
+    public static final String HITS_FILE      = ".hits";
+    public static final String CLUSTERS_FILE  = ".clusters";
+    public static final String SEGMENT_FILE   = ".segment";
+    public static final String MANIFEST_FILE  = ".manifest";
+
+    // Run outputs are appended to a segment file, a new segment is started once one reaches this
+    // size, 64 MiB
+    public static final long SEGMENT_SIZE_LIMIT = 64L * 1024L * 1024L;
+
+    // Losslessly compress frames and statistics appended to run segments (see util/Compression)
+    public static final boolean ENABLE_COMPRESSION = true;
+
+    // Outputs are appended uncompressed while more than this many are waiting to be written,
+    // so compression never lets the storage backlog run away
+    public static final int COMPRESSION_BACKLOG_LIMIT = 4;
+
+    // Most frame / statistics sized output buffers kept for reuse once written (see OutputWrapper)
+    public static final int OUTPUT_BUFFER_POOL_SIZE = 4;
+
+    // Number of storage writer threads
+    public static final int STORAGE_WRITER_THREADS = 2;
+
+    // Most writes allowed to wait in the storage queue, producers wait (or debug frames are
+    // evicted) when it is full, so queued data can't exhaust the heap
+    public static final int STORAGE_QUEUE_CAPACITY = 32;
+
+    // Debug frames and significance maps are dropped while at least this many writes are waiting
+    public static final int STORAGE_SHED_BACKLOG = 4;
+
+    // Most of the disk ShRAMP will fill, debug outputs of older runs are trimmed to stay under it
+    // (see util/StorageBudget)
+    public static final double STORAGE_USAGE_LIMIT = 0.9;
+
+    // Free space is estimated from bytes written, and only measured again after this many bytes
+    // have been written (256 MiB) or this much time has passed (1 minute)
+    public static final long STORAGE_REFRESH_BYTES = 256L * 1024L * 1024L;
+    public static final long STORAGE_REFRESH_MS    = 60L * 1000L;
+
+
+    // Background work (see util/BackgroundScheduler)
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Deferrable work runs only below this temperature [Celsius] (or while cooling down)
+    public static final Double BACKGROUND_TEMPERATURE_LIMIT = TEMPERATURE_GOAL;
+
+    // ..and only if plugged in or the battery is above this percent
+    public static final double BACKGROUND_MIN_BATTERY_PERCENT = 50.;
+
+    // ..and, on battery, the device is drawing less than this [mW] (when known)
+    public static final double BACKGROUND_POWER_LIMIT = 4000.;
+
+    // How often deferred work checks for headroom again, 10 seconds
+    public static final long BACKGROUND_CHECK_MS = 10L * 1000L;
+
+
+    // Uploads (see ssh/UploadQueue)
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Upload the Transmittable directory in the background.
+    // TODO: SSH is disabled for now, false for normal operation until it is revisited
+    public static final boolean ENABLE_UPLOADS = false;
+
+    // Where uploads go, the private key is relative to external storage
+    public static final String UPLOAD_USER             = "shramp";
+    public static final String UPLOAD_HOST             = "craydata.ps.uci.edu";
+    public static final int    UPLOAD_PORT             = 22;
+    public static final String UPLOAD_IDENTITY_FILE    = ".ssh/id_rsa";
+    public static final String UPLOAD_REMOTE_DIRECTORY = "/data/shramp";
+
+    // SSH connect / read timeout, 10 seconds
+    public static final int UPLOAD_TIMEOUT_MS = 10 * 1000;
+
+    // Upload stream buffer size, 64 KiB
+    public static final int UPLOAD_BUFFER_BYTES = 64 * 1024;
+
+    // Most files sent (then verified) per SCP channel
+    public static final int UPLOAD_BATCH_FILES = 32;
+
+    // Time between upload passes over Transmittable (and retries after a failure), 1 minute
+    public static final long UPLOAD_RETRY_MS = 60L * 1000L;
 
 
     // Debugging
@@ -185,6 +303,16 @@ abstract public class GlobalSettings {
     public static final Boolean DEBUG_SAVE_SIGNIFICANCE            = false;
     public static final Integer DEBUG_SIGNIFICANCE_SAVING_INTERVAL = 10;
 
+    // Save a frame's hit list (pixels above threshold) whenever it has any (provided
+    // DISABLE_ALL_SAVING isn't true), these are only a few kilobytes.
+    // True for normal operation.
+    public static final Boolean DEBUG_SAVE_HITS = true;
+
+    // Save a frame's reconstructed clusters (cosmic-ray candidates) whenever it has any (provided
+    // DISABLE_ALL_SAVING isn't true).
+    // True for normal operation.
+    public static final Boolean DEBUG_SAVE_CLUSTERS = true;
+
     // Save new statistics (provided DISABLE_ALL_SAVING isn't true).
     // True for normal operation.
     public static final Boolean DEBUG_SAVE_MEAN   = true;
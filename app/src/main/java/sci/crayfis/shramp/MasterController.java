@@ -30,6 +30,7 @@ import sci.crayfis.shramp.battery.BatteryController;
 import sci.crayfis.shramp.camera2.CameraController;
 import sci.crayfis.shramp.camera2.capture.CaptureController;
 import sci.crayfis.shramp.sensor.SensorController;
+import sci.crayfis.shramp.ssh.UploadQueue;
 import sci.crayfis.shramp.surfaces.SurfaceController;
 import sci.crayfis.shramp.util.StorageMedia;
 import sci.crayfis.shramp.util.HandlerManager;
@@ -108,6 +109,11 @@ public final class MasterController extends Activity {
         // Set up ShRAMP data directory
         StorageMedia.setUpShrampDirectory();
 
+        // Upload anything waiting in Transmittable in the background
+        if (GlobalSettings.ENABLE_UPLOADS) {
+            UploadQueue.start();
+        }
+
         // In the future, sensors will be initialized here
         //Log.e(Thread.currentThread().getName(), "Loading sensor package");
         //SensorController.initializeTemperature(mInstance, false);
@@ -191,6 +197,10 @@ public final class MasterController extends Activity {
         Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> MasterController quitSafely <<\n ");
         CameraController.closeCamera();
         BatteryController.shutdown();
+        StorageMedia.closeSegment();
+        if (GlobalSettings.ENABLE_UPLOADS) {
+            UploadQueue.stop();
+        }
         HandlerManager.finish();
         mInstance.finish();
     }
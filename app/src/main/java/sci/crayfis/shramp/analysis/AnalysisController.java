@@ -47,13 +47,6 @@ import sci.crayfis.shramp.util.StorageMedia;
 @TargetApi(21)
 public abstract class AnalysisController {
 
-    // Private Class Constants
-    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
-
-    // WAIT.........................................................................................
-    // Dummy object for calling wait()
-    private final static Object WAIT = new Object();
-
     // Private Class Fields
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
@@ -81,6 +74,10 @@ public abstract class AnalysisController {
     // RenderScript Allocation unsigned int type [width x height pixels]
     private static Type mUIntType;
 
+    // mULongType...................................................................................
+    // RenderScript Allocation unsigned long type [width x height pixels]
+    private static Type mULongType;
+
     // mFloatType...................................................................................
     // RenderScript Allocation float type [width x height pixels]
     private static Type mFloatType;
@@ -93,6 +90,15 @@ public abstract class AnalysisController {
     // RenderScript Allocation signed long type [1 x 1]
     private static Type mSimpleLongType;
 
+    // mRowCountType................................................................................
+    // RenderScript Allocation unsigned int type [height], one element per row of pixels
+    private static Type mRowCountType;
+
+    // mHitUIntType / mHitFloatType.................................................................
+    // RenderScript Allocation unsigned int / float type [MAX_HITS_PER_ROW x height], hit list slots
+    private static Type mHitUIntType;
+    private static Type mHitFloatType;
+
     // mNpixels.....................................................................................
     // Total number of pixels [width * height pixels]
     private static int mNpixels;
@@ -125,8 +131,6 @@ public abstract class AnalysisController {
 
         mLiveProcessing = new ScriptC_LiveProcessing(mRS);
         mPostProcessing = new ScriptC_PostProcessing(mRS);
-        ImageProcessor.setLiveProcessor(mLiveProcessing);
-        ImageProcessor.setPostProcessor(mPostProcessing);
 
         Element ucharElement  = Element.U8(mRS);
         Element ushortElement = Element.U16(mRS);
@@ -154,10 +158,14 @@ public abstract class AnalysisController {
         mUCharType  = new Type.Builder(mRS, ucharElement ).setX(width).setY(height).create();
         mUShortType = new Type.Builder(mRS, ushortElement).setX(width).setY(height).create();
         mUIntType   = new Type.Builder(mRS, uintElement  ).setX(width).setY(height).create();
+        mULongType  = new Type.Builder(mRS, ulongElement ).setX(width).setY(height).create();
         mFloatType  = new Type.Builder(mRS, floatElement ).setX(width).setY(height).create();
         mDoubleType = new Type.Builder(mRS, doubleElement).setX(width).setY(height).create();
 
         mSimpleLongType = new Type.Builder(mRS, ulongElement).setX(1).setY(1).create();
+        mRowCountType   = new Type.Builder(mRS, uintElement ).setX(height).create();
+        mHitUIntType    = new Type.Builder(mRS, uintElement ).setX(GlobalSettings.MAX_HITS_PER_ROW).setY(height).create();
+        mHitFloatType   = new Type.Builder(mRS, floatElement).setX(GlobalSettings.MAX_HITS_PER_ROW).setY(height).create();
 
         Integer outputFormat = CameraController.getOutputFormat();
         if (outputFormat == null) {
@@ -169,12 +177,10 @@ public abstract class AnalysisController {
         switch (outputFormat) {
             case (ImageFormat.YUV_420_888): {
                 ImageWrapper.setAs8bitData();
-                ImageProcessor.setImageAllocation(newUCharAllocation());
                 break;
             }
             case (ImageFormat.RAW_SENSOR): {
                 ImageWrapper.setAs16bitData();
-                ImageProcessor.setImageAllocation(newUShortAllocation());
                 break;
             }
             default: {
@@ -189,11 +195,19 @@ public abstract class AnalysisController {
         // TODO: maybe make it so it can be set at the same time?
         OutputWrapper.configure();
 
+        // Rotating per-frame slots, so uploading one frame can overlap processing the last
+        ComputeBackend backend;
+        if (GlobalSettings.ENABLE_CPU_BACKEND) {
+            backend = new CpuBackend(GlobalSettings.IMAGE_BUFFER_COUNT);
+        }
+        else {
+            backend = new RenderScriptBackend(mLiveProcessing, mPostProcessing,
+                                              GlobalSettings.IMAGE_BUFFER_COUNT);
+        }
+        ImageProcessor.setBackend(backend);
+
         importLatestCalibration();
 
-        ImageProcessor.setSignificanceAllocation(newFloatAllocation());
-        ImageProcessor.setCountAboveThresholdAllocation(newSimpleLongAllocation());
-        ImageProcessor.setAnomalousStdDevAllocation(newSimpleLongAllocation());
         ImageProcessor.disableSignificance();
         ImageProcessor.resetTotals();
     }
@@ -254,6 +268,12 @@ public abstract class AnalysisController {
         mNeedsCalibration = !(hasMean && hasStdDev && hasMask);
         ImageProcessor.setStatistics(mean, stddev, stderr, mask);
         ImageProcessor.resetTotals();
+
+        // ImageProcessor keeps its own copies
+        destroyAllocation(mean);
+        destroyAllocation(stddev);
+        destroyAllocation(stderr);
+        destroyAllocation(mask);
     }
 
     // makePixelMask................................................................................
@@ -344,34 +364,16 @@ public abstract class AnalysisController {
     // runStatistics................................................................................
     /**
      * Post process a run and compute run statistics
+     * Returns right away: the running totals so far are snapshotted in order with the frames already
+     * queued and statistics are computed in the background while the next run carries on.
+     * isBusy() stays true until they are done.
+     * @param filename Filename to save statistics under (file extension is added)
+     * @param exposure (Optional) Sensor exposure [ns] of the run, for finding calibrations by exposure
      */
-    public static void runStatistics(String filename) {
-        synchronized (WAIT) {
-
-            DataQueue.purge();
-            while (!DataQueue.isEmpty() || ImageProcessor.isBusy()) {
-                try {
-                    Log.e(Thread.currentThread().getName(), "Waiting for queue to empty/processor to finish before running statistics");
-                    DataQueue.purge();
-                    WAIT.wait(GlobalSettings.DEFAULT_WAIT_MS);
-                }
-                catch (InterruptedException e) {
-                    // TODO: error
-                }
-            }
-
-            ImageProcessor.runStatistics(filename);
-
-            while (ImageProcessor.isBusy()) {
-                try {
-                    Log.e(Thread.currentThread().getName(), "Waiting for processor to finish with statistics");
-                    WAIT.wait(GlobalSettings.DEFAULT_WAIT_MS);
-                }
-                catch (InterruptedException e) {
-                    // TODO: error
-                }
-            }
-        }
+    public static void runStatistics(String filename, @Nullable Long exposure) {
+        // Leftovers belong to the session that ended
+        DataQueue.purge();
+        ImageProcessor.runStatistics(filename, exposure);
     }
 
     // Package-private Class Methods
@@ -403,6 +405,15 @@ public abstract class AnalysisController {
         return Allocation.createTyped(mRS, mUIntType, Allocation.USAGE_SCRIPT);
     }
 
+    // newULongAllocation...........................................................................
+    /**
+     * @return Empty unsigned long Allocation [width x height pixels]
+     */
+    @NonNull
+    static Allocation newULongAllocation() {
+        return Allocation.createTyped(mRS, mULongType, Allocation.USAGE_SCRIPT);
+    }
+
     // newFloatAllocation...........................................................................
     /**
      * @return Empty float Allocation [width x height pixels]
@@ -429,6 +440,33 @@ public abstract class AnalysisController {
         return Allocation.createTyped(mRS, mSimpleLongType, Allocation.USAGE_SCRIPT);
     }
 
+    // newRowCountAllocation........................................................................
+    /**
+     * @return Empty unsigned integer Allocation [height], one element per row of pixels
+     */
+    @NonNull
+    static Allocation newRowCountAllocation() {
+        return Allocation.createTyped(mRS, mRowCountType, Allocation.USAGE_SCRIPT);
+    }
+
+    // newHitUIntAllocation.........................................................................
+    /**
+     * @return Empty unsigned integer Allocation [MAX_HITS_PER_ROW x height] for hit list slots
+     */
+    @NonNull
+    static Allocation newHitUIntAllocation() {
+        return Allocation.createTyped(mRS, mHitUIntType, Allocation.USAGE_SCRIPT);
+    }
+
+    // newHitFloatAllocation........................................................................
+    /**
+     * @return Empty float Allocation [MAX_HITS_PER_ROW x height] for hit list slots
+     */
+    @NonNull
+    static Allocation newHitFloatAllocation() {
+        return Allocation.createTyped(mRS, mHitFloatType, Allocation.USAGE_SCRIPT);
+    }
+
     // destroyAllocation............................................................................
     /**
      * TODO: might not be needed, still not completely sure about freeing Allocations
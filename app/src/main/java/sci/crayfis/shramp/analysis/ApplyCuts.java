@@ -18,15 +18,21 @@ package sci.crayfis.shramp.analysis;
 
 import android.annotation.TargetApi;
 import android.renderscript.Allocation;
+import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.Range;
 
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import sci.crayfis.shramp.GlobalSettings;
 
 import sci.crayfis.shramp.camera2.capture.CaptureConfiguration;
 import sci.crayfis.shramp.util.Datestamp;
 import sci.crayfis.shramp.util.HeapMemory;
 import sci.crayfis.shramp.util.NumToString;
+import sci.crayfis.shramp.util.StopWatch;
 import sci.crayfis.shramp.util.StorageMedia;
 
 /**
@@ -34,9 +40,11 @@ import sci.crayfis.shramp.util.StorageMedia;
  * This could be performed in RenderScript for a substantial performance boost, but as doing so would
  * be quite cumbersome and the app can afford to take a little time on this calculation without
  * sacrificing data capture abilities, it's done in Java for simplicity / ease in changing.
+ * Pixels are processed in chunks across all cores, and each set of calibration files is walked
+ * twice: once to histogram the cut statistics (which set the cut limits), and once to apply the
+ * cuts and estimate the statistics at FPS fps and TEMPERATURE Celsius.
  * TODO: fine tune cuts
  * TODO: make cut return successful or fail
- * TODO: (PRIORITY) update InputWrapper/this code to process bytes from files instead of whole file
  */
 @TargetApi(21)
 abstract class ApplyCuts {
@@ -57,9 +65,56 @@ abstract class ApplyCuts {
     // Low and high bound for histograms (pixel value)
     private static final Range<Integer> HISTOGRAM_BOUNDS = new Range<Integer>(-100, 100);
 
+    // PIXELS_PER_TASK..............................................................................
+    // Pixels processed by one task before splitting the work any further
+    private static final int PIXELS_PER_TASK = 1 << 16;
+
+    // PixelKernel..................................................................................
+    // Work done for a chunk of pixels [from, to)
+    private interface PixelKernel {
+        void run(int from, int to);
+    }
+
+    // PixelChunks..................................................................................
+    // Runs a PixelKernel over pixels [first, last), splitting in half until PIXELS_PER_TASK are left
+    private static final class PixelChunks extends RecursiveAction {
+        private final PixelKernel mKernel;
+        private final int mFirst;
+        private final int mLast;
+
+        PixelChunks(@NonNull PixelKernel kernel, int first, int last) {
+            mKernel = kernel;
+            mFirst  = first;
+            mLast   = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst <= PIXELS_PER_TASK) {
+                mKernel.run(mFirst, mLast);
+                return;
+            }
+            int middle = (mFirst + mLast) >>> 1;
+            invokeAll(new PixelChunks(mKernel, mFirst, middle), new PixelChunks(mKernel, middle, mLast));
+        }
+    }
+
+    // For now, monitor performance (TODO: remove in the future)
+    private abstract static class StopWatches {
+        final static StopWatch LoadMeans      = new StopWatch("ApplyCuts: load mean calibrations");
+        final static StopWatch MeanHistograms = new StopWatch("ApplyCuts: temperature/exposure histograms");
+        final static StopWatch MeanCuts       = new StopWatch("ApplyCuts: temperature/exposure cuts and mean estimate");
+        final static StopWatch LoadStdDevs    = new StopWatch("ApplyCuts: load stddev calibrations");
+        final static StopWatch StdDevCut      = new StopWatch("ApplyCuts: stddev cut, stddev and stderr estimates");
+    }
+
     // Private Class Fields
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
+    // mPool........................................................................................
+    // One thread per core while makePixelMask() runs, null otherwise
+    private static ForkJoinPool mPool;
+
     // Allocations..................................................................................
     // For transferring the findings of this class over to ImageProcessor
     private static Allocation mMeanAlloc;
@@ -75,6 +130,10 @@ abstract class ApplyCuts {
     // A general slush array for pixel-wise statistics used for making cuts
     private static float[] mCutStatistic;
 
+    // mStdErrStatistic.............................................................................
+    // Pixel-wise standard error estimate, filled in alongside the standard deviation estimate
+    private static float[] mStdErrStatistic;
+
     // mTotalMeanFrames.............................................................................
     // The total number of frames used across all "mean" files
     private static Long mTotalMeanFrames;
@@ -111,15 +170,20 @@ abstract class ApplyCuts {
         }
 
         // Apply cuts
-        if (!applyMeanCuts()) {
-            return;
-        }
-        System.gc();
+        mPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            if (!applyMeanCuts()) {
+                return;
+            }
 
-        if (!applyStdDevCuts()) {
-            return;
+            if (!applyStdDevCuts()) {
+                return;
+            }
+        }
+        finally {
+            mPool.shutdown();
+            mPool = null;
         }
-        System.gc();
 
         HeapMemory.logAvailableMiB();
 
@@ -181,7 +245,8 @@ abstract class ApplyCuts {
             mMask[i] = 1;
         }
 
-        // Reading in 4 calibration files is going to take ~200 MB of heap memory
+        // Calibration files are memory-mapped (off the heap), but the cut statistic and mask arrays
+        // still take ~5 bytes per pixel
         if (!HeapMemory.isMemoryAmple()) {
             // TODO: error
             Log.e(Thread.currentThread().getName(), "Not enough memory to apply cuts");
@@ -189,8 +254,9 @@ abstract class ApplyCuts {
             return false;
         }
 
-        // Please don't run out of memory, please don't run out of memory, please don't run out of..
+        // Map the calibration files, pages are read in by the OS as the passes below touch them
         HeapMemory.logAvailableMiB();
+        StopWatches.LoadMeans.start();
         InputWrapper coldFast = new InputWrapper(coldFastMeanPath);
         HeapMemory.logAvailableMiB();
         InputWrapper coldSlow = new InputWrapper(coldSlowMeanPath);
@@ -199,35 +265,19 @@ abstract class ApplyCuts {
         HeapMemory.logAvailableMiB();
         InputWrapper hotSlow = new InputWrapper(hotSlowMeanPath);
         HeapMemory.logAvailableMiB();
-
-        if (HeapMemory.isMemoryLow()) {
-            // TODO: error
-            Log.e(Thread.currentThread().getName(), "Not enough memory to apply cuts");
-            HeapMemory.logAvailableMiB();
-            coldFast = null;
-            coldSlow = null;
-            hotFast = null;
-            hotSlow = null;
-            System.gc();
-            return false;
-        }
+        logPhase(StopWatches.LoadMeans);
 
         // Checks
         //=======
 
-        float[] cf = coldFast.getStatisticsData();
-        float[] cs = coldSlow.getStatisticsData();
-        float[] hf = hotFast.getStatisticsData();
-        float[] hs = hotSlow.getStatisticsData();
+        final FloatBuffer cf = coldFast.getStatisticsBuffer();
+        final FloatBuffer cs = coldSlow.getStatisticsBuffer();
+        final FloatBuffer hf = hotFast.getStatisticsBuffer();
+        final FloatBuffer hs = hotSlow.getStatisticsBuffer();
 
         if (cf == null || cs == null || hf == null || hs == null) {
             // TODO: error
             Log.e(Thread.currentThread().getName(), "Missing statistical data, cannot continue");
-            coldFast = null;
-            coldSlow = null;
-            hotFast = null;
-            hotSlow = null;
-            System.gc();
             return false;
         }
 
@@ -245,86 +295,42 @@ abstract class ApplyCuts {
         mTotalMeanFrames = coldFastFrames + coldSlowFrames + hotFastFrames + hotSlowFrames;
 
         mCutStatistic = new float[npixels];
-        Histogram histogram = new Histogram(HISTOGRAM_BOUNDS);
         HeapMemory.logAvailableMiB();
 
-        // Temperature-based cut
-        ////////////////////////////////////////////////////////////////////////////////////////////
-        Log.e(Thread.currentThread().getName(), "Applying temperature-based cut..");
-
-        for (int i = 0; i < npixels; i++) {
-            mCutStatistic[i] = mMaxPixelValue * ((hf[i] + hs[i]) - (cf[i] + cs[i])) / 2.f;
-            histogram.add(mCutStatistic[i]);
-        }
-
-        double maxValue = histogram.getBinCenter(histogram.getMaxBin());
-        double stddev = histogram.getMaxStdDev();
-        double upperLimit = maxValue + Math.max(1., 3. * stddev);
-        double lowerLimit = maxValue - Math.max(1., 3. * stddev);
-
-        String status = "Max value: " + NumToString.decimal(maxValue)
-                + ", Max std dev: " + NumToString.decimal(stddev)
-                + ", upper/lower limit: " + NumToString.decimal(upperLimit)
-                + "/" + NumToString.decimal(lowerLimit);
-        Log.e(Thread.currentThread().getName(), status);
-
-        String filename = "hot-cold_" + Datestamp.getDate() + GlobalSettings.HISTOGRAM_FILE;
-        StorageMedia.writeCalibration(new OutputWrapper(filename, histogram,
-                                        new Range<Float>((float) lowerLimit, (float) upperLimit)));
-
-        int kept = 0;
-        for (int i = 0; i < npixels; i++) {
-            float val = mCutStatistic[i];
-            if (val < lowerLimit || val > upperLimit) {
-                mMask[i] = 0;
-            } else {
-                kept++;
-            }
-        }
-
-        String efficiency = NumToString.number(100. * kept / (float) npixels);
-        String cut = "cut " + NumToString.number(npixels - kept) + " out of " + NumToString.number(npixels);
-        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tTemperature cut efficiency: " + cut + " = " + efficiency + "%\n ");
-
-        // Exposure-based cut
+        // Temperature and exposure-based cut histograms (first pass)
         ////////////////////////////////////////////////////////////////////////////////////////////
-        Log.e(Thread.currentThread().getName(), "Applying exposure-based cut..");
-
-        histogram.reset();
-        for (int i = 0; i < npixels; i++) {
-            mCutStatistic[i] = mMaxPixelValue * ((hs[i] + cs[i]) - (hf[i] + cf[i])) / 2.f;
-            histogram.add(mCutStatistic[i]);
-        }
-
-        maxValue = histogram.getBinCenter(histogram.getMaxBin());
-        stddev = histogram.getMaxStdDev();
-        upperLimit = maxValue + Math.max(1., 3. * stddev);
-        lowerLimit = maxValue - Math.max(1., 3. * stddev);
-
-        status = "Max value: " + NumToString.decimal(maxValue)
-                + ", Max std dev: " + NumToString.decimal(stddev)
-                + ", upper/lower limit: " + NumToString.decimal(upperLimit)
-                + "/" + NumToString.decimal(lowerLimit);
-        Log.e(Thread.currentThread().getName(), status);
-
-        filename = "slow-fast_" + Datestamp.getDate() + GlobalSettings.HISTOGRAM_FILE;
-        StorageMedia.writeCalibration(new OutputWrapper(filename, histogram,
-                                        new Range<Float>((float) lowerLimit, (float) upperLimit)));
-
-        kept = 0;
-        for (int i = 0; i < npixels; i++) {
-            float val = mCutStatistic[i];
-            if (val < lowerLimit || val > upperLimit) {
-                mMask[i] = 0;
-            } else {
-                kept++;
+        Log.e(Thread.currentThread().getName(), "Histogramming temperature and exposure-based cut statistics..");
+        StopWatches.MeanHistograms.start();
+
+        final Histogram temperatureHistogram = new Histogram(HISTOGRAM_BOUNDS);
+        final Histogram exposureHistogram    = temperatureHistogram.newEmptyCopy();
+        runParallel(npixels, new PixelKernel() {
+            @Override
+            public void run(int from, int to) {
+                Histogram temperature = temperatureHistogram.newEmptyCopy();
+                Histogram exposure    = temperatureHistogram.newEmptyCopy();
+                for (int i = from; i < to; i++) {
+                    float coldFast = cf.get(i);
+                    float coldSlow = cs.get(i);
+                    float hotFast  = hf.get(i);
+                    float hotSlow  = hs.get(i);
+                    temperature.add(temperatureStatistic(coldFast, coldSlow, hotFast, hotSlow));
+                    exposure.add(exposureStatistic(coldFast, coldSlow, hotFast, hotSlow));
+                }
+                synchronized (temperatureHistogram) {
+                    temperatureHistogram.merge(temperature);
+                    exposureHistogram.merge(exposure);
+                }
             }
-        }
+        });
+        logPhase(StopWatches.MeanHistograms);
 
-        HeapMemory.logAvailableMiB();
-        efficiency = NumToString.number(100. * kept / (float) npixels);
-        cut = "cut " + NumToString.number(npixels - kept) + " out of " + NumToString.number(npixels);
-        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tExposure cut efficiency: " + cut + " = " + efficiency + "%\n ");
+        Range<Double> temperatureLimits = findCutLimits(temperatureHistogram, "hot-cold");
+        Range<Double> exposureLimits    = findCutLimits(exposureHistogram,    "slow-fast");
+        final double temperatureLow  = temperatureLimits.getLower();
+        final double temperatureHigh = temperatureLimits.getUpper();
+        final double exposureLow     = exposureLimits.getLower();
+        final double exposureHigh    = exposureLimits.getUpper();
 
         // Estimate the mean for FPS fps at TEMPERATURE deg Celsius
         // coordinate system:
@@ -332,9 +338,6 @@ abstract class ApplyCuts {
         //      y-axis:  exposure (short to long)
         ////////////////////////////////////////////////////////////////////////////////////////////
 
-        Log.e(Thread.currentThread().getName(), "Estimating mean value for " + NumToString.number(FPS)
-                + " fps at " + NumToString.number(TEMPERATURE) + " Celsius ..");
-
         Float coldFastTemp = coldFast.getTemperature();
         Float coldSlowTemp = coldSlow.getTemperature();
         Float hotFastTemp = hotFast.getTemperature();
@@ -343,11 +346,6 @@ abstract class ApplyCuts {
         if (coldFastTemp == null || coldSlowTemp == null || hotFastTemp == null || hotSlowTemp == null) {
             // TODO: error
             Log.e(Thread.currentThread().getName(), "At least one temperature is null, cannot continue");
-            coldFast = null;
-            coldSlow = null;
-            hotFast = null;
-            hotSlow = null;
-            System.gc();
             return false;
         }
 
@@ -355,7 +353,7 @@ abstract class ApplyCuts {
         float hotTemp = (hotFastTemp + hotSlowTemp) / 2.f;
         float tempRange = hotTemp - coldTemp;
         float temp = TEMPERATURE;
-        float x = (temp - coldTemp) / tempRange;
+        final float x = (temp - coldTemp) / tempRange;
 
         Long coldFastExp = CaptureConfiguration.EXPOSURE_BOUNDS.getLower();
         Long coldSlowExp = CaptureConfiguration.EXPOSURE_BOUNDS.getUpper();
@@ -366,16 +364,59 @@ abstract class ApplyCuts {
         float longExp = (coldSlowExp + hotSlowExp) / 2.f;
         float expRange = longExp - shortExp;
         float exp = (float) 1e9 / FPS;
-        float y = (exp - shortExp) / expRange;
+        final float y = (exp - shortExp) / expRange;
 
-        for (int i = 0; i < npixels; i++) {
-            float f00 = cf[i];
-            float f10 = hf[i];
-            float f01 = cs[i];
-            float f11 = hs[i];
+        // Temperature and exposure-based cuts, and mean estimate (second pass)
+        ////////////////////////////////////////////////////////////////////////////////////////////
+        Log.e(Thread.currentThread().getName(), "Applying temperature and exposure-based cuts, estimating mean value for "
+                + NumToString.number(FPS) + " fps at " + NumToString.number(TEMPERATURE) + " Celsius ..");
+        StopWatches.MeanCuts.start();
+
+        // [0]: kept by the temperature cut, [1]: kept by the exposure cut
+        final int[] kept = new int[2];
+        runParallel(npixels, new PixelKernel() {
+            @Override
+            public void run(int from, int to) {
+                int keptTemperature = 0;
+                int keptExposure    = 0;
+                for (int i = from; i < to; i++) {
+                    float coldFast = cf.get(i);
+                    float coldSlow = cs.get(i);
+                    float hotFast  = hf.get(i);
+                    float hotSlow  = hs.get(i);
+
+                    float val = temperatureStatistic(coldFast, coldSlow, hotFast, hotSlow);
+                    if (val < temperatureLow || val > temperatureHigh) {
+                        mMask[i] = 0;
+                    } else {
+                        keptTemperature++;
+                    }
+
+                    val = exposureStatistic(coldFast, coldSlow, hotFast, hotSlow);
+                    if (val < exposureLow || val > exposureHigh) {
+                        mMask[i] = 0;
+                    } else {
+                        keptExposure++;
+                    }
+
+                    mCutStatistic[i] = interpolate(coldFast, hotFast, coldSlow, hotSlow, x, y);
+                }
+                synchronized (kept) {
+                    kept[0] += keptTemperature;
+                    kept[1] += keptExposure;
+                }
+            }
+        });
+        logPhase(StopWatches.MeanCuts);
 
-            mCutStatistic[i] = f00 * (1.f - x) * (1.f - y) + f10 * x * (1.f - y) + f01 * (1.f - x) * y + f11 * x * y;
-        }
+        String efficiency = NumToString.number(100. * kept[0] / (float) npixels);
+        String cut = "cut " + NumToString.number(npixels - kept[0]) + " out of " + NumToString.number(npixels);
+        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tTemperature cut efficiency: " + cut + " = " + efficiency + "%\n ");
+
+        HeapMemory.logAvailableMiB();
+        efficiency = NumToString.number(100. * kept[1] / (float) npixels);
+        cut = "cut " + NumToString.number(npixels - kept[1]) + " out of " + NumToString.number(npixels);
+        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tExposure cut efficiency: " + cut + " = " + efficiency + "%\n ");
 
         // Store in allocation
         mMeanAlloc = AnalysisController.newFloatAllocation();
@@ -420,7 +461,8 @@ abstract class ApplyCuts {
             return false;
         }
 
-        // Please don't run out of memory, please don't run out of memory, please don't run out of..
+        // Map the calibration files, pages are read in by the OS as the passes below touch them
+        StopWatches.LoadStdDevs.start();
         InputWrapper coldFast = new InputWrapper(coldFastStdDevPath);
         HeapMemory.logAvailableMiB();
         InputWrapper coldSlow = new InputWrapper(coldSlowStdDevPath);
@@ -429,81 +471,29 @@ abstract class ApplyCuts {
         HeapMemory.logAvailableMiB();
         InputWrapper hotSlow  = new InputWrapper(hotSlowStdDevPath);
         HeapMemory.logAvailableMiB();
+        logPhase(StopWatches.LoadStdDevs);
 
-        float[] cf = coldFast.getStatisticsData();
-        float[] cs = coldSlow.getStatisticsData();
-        float[] hf = hotFast.getStatisticsData();
-        float[] hs = hotSlow.getStatisticsData();
+        final FloatBuffer cf = coldFast.getStatisticsBuffer();
+        final FloatBuffer cs = coldSlow.getStatisticsBuffer();
+        final FloatBuffer hf = hotFast.getStatisticsBuffer();
+        final FloatBuffer hs = hotSlow.getStatisticsBuffer();
 
         HeapMemory.logAvailableMiB();
 
         if (cf == null || cs == null || hf == null || hs == null) {
             // TODO: error
             Log.e(Thread.currentThread().getName(), "Missing statistical data, cannot continue");
-            coldFast = null;
-            coldSlow = null;
-            hotFast  = null;
-            hotSlow  = null;
-            System.gc();
             return false;
         }
 
         int npixels = ImageWrapper.getNpixels();
 
-        // Standard Deviation-based cut
-        ////////////////////////////////////////////////////////////////////////////////////////////
-
-        Log.e(Thread.currentThread().getName(), "Applying standard deviation-based cut..");
-        Histogram histogram = new Histogram(HISTOGRAM_BOUNDS);
-
-        int kept = 0;
-        for (int i = 0; i < npixels; i++) {
-            float val = (float) Math.sqrt(hs[i]*hs[i]+ hf[i]*hf[i] + cs[i]*cs[i] + cf[i]*cf[i]) / 4.f;
-            histogram.add(mMaxPixelValue * val);
-            if (val > 0.03f) {
-                mMask[i] = 0;
-            }
-            else {
-                kept++;
-            }
-        }
-
-        String filename = "stddev_" + Datestamp.getDate() + GlobalSettings.HISTOGRAM_FILE;
-        StorageMedia.writeCalibration(new OutputWrapper(filename, histogram,
-                                        new Range<Float>(0.f, 0.03f * mMaxPixelValue)));
-
-        HeapMemory.logAvailableMiB();
-        String efficiency = NumToString.number(100. * kept / (float) npixels);
-        String cut = "cut " + NumToString.number(npixels - kept) + " out of " + NumToString.number(npixels);
-        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tStandard deviation cut efficiency: " + cut + " = " + efficiency + "%\n ");
-
-        // Summary
-        ////////////////////////////////////////////////////////////////////////////////////////////
-
-        kept = 0;
-        for (int i = 0; i < npixels; i++) {
-            if (mMask[i] == 1) {
-                kept++;
-            }
-        }
-
-        // Store in allocation
-        mMaskAlloc = AnalysisController.newUCharAllocation();
-        mMaskAlloc.copyFrom(mMask);
-
-        efficiency = NumToString.number(100. * kept / (float) npixels);
-        cut = "cut " + NumToString.number(npixels - kept) + " out of " + NumToString.number(npixels);
-        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tCombined cut efficiency: " + cut + " = " + efficiency + "%\n ");
-
         // Estimate the standard deviation for FPS fps at TEMPERATURE deg Celsius
         // coordinate system:
         //      x-axis:  temperature (cold to hot)
         //      y-axis:  exposure (short to long)
         ////////////////////////////////////////////////////////////////////////////////////////////
 
-        Log.e(Thread.currentThread().getName(), "Estimating mean value for " + NumToString.number(FPS)
-                + " fps at " + NumToString.number(TEMPERATURE) + " Celsius ..");
-
         Float coldFastTemp = coldFast.getTemperature();
         Float coldSlowTemp = coldSlow.getTemperature();
         Float hotFastTemp  = hotFast.getTemperature();
@@ -512,11 +502,17 @@ abstract class ApplyCuts {
         if (coldFastTemp == null || coldSlowTemp == null || hotFastTemp == null || hotSlowTemp == null) {
             // TODO: error
             Log.e(Thread.currentThread().getName(), "At least one temperature is null, cannot continue");
-            coldFast = null;
-            coldSlow = null;
-            hotFast  = null;
-            hotSlow  = null;
-            System.gc();
+            return false;
+        }
+
+        Long coldFastFrames = coldFast.getNframes();
+        Long coldSlowFrames = coldSlow.getNframes();
+        Long hotFastFrames  = hotFast.getNframes();
+        Long hotSlowFrames  = hotSlow.getNframes();
+
+        if (coldFastFrames == null || coldSlowFrames == null || hotFastFrames == null || hotSlowFrames == null) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Missing number of frames, cannot continue");
             return false;
         }
 
@@ -524,7 +520,7 @@ abstract class ApplyCuts {
         float hotTemp   = (hotFastTemp  + hotSlowTemp ) / 2.f;
         float tempRange = hotTemp - coldTemp;
         float temp      = TEMPERATURE;
-        float x         = (temp - coldTemp) / tempRange;
+        final float x   = (temp - coldTemp) / tempRange;
 
         Long coldFastExp = CaptureConfiguration.EXPOSURE_BOUNDS.getLower();
         Long coldSlowExp = CaptureConfiguration.EXPOSURE_BOUNDS.getUpper();
@@ -535,16 +531,86 @@ abstract class ApplyCuts {
         float longExp  = (coldSlowExp + hotSlowExp) / 2.f;
         float expRange = longExp - shortExp;
         float exp      = (float) 1e9 / FPS;
-        float y        = (exp - shortExp) / expRange;
+        final float y  = (exp - shortExp) / expRange;
 
-        for (int i = 0; i < npixels; i++) {
-            float f00 = cf[i];
-            float f10 = hf[i];
-            float f01 = cs[i];
-            float f11 = hs[i];
+        // Standard Deviation-based cut, standard deviation and standard error estimates
+        ////////////////////////////////////////////////////////////////////////////////////////////
 
-            mCutStatistic[i] = f00*(1.f - x)*(1.f - y) + f10*x*(1.f - y) + f01*(1.f - x)*y + f11*x*y;
-        }
+        // Standard error of the average of the four (each over its own number of frames)
+        mTotalStdDevFrames = coldFastFrames + coldSlowFrames + hotFastFrames + hotSlowFrames;
+        final float coldFastRoot = (float) Math.sqrt(coldFastFrames);
+        final float coldSlowRoot = (float) Math.sqrt(coldSlowFrames);
+        final float hotFastRoot  = (float) Math.sqrt(hotFastFrames);
+        final float hotSlowRoot  = (float) Math.sqrt(hotSlowFrames);
+        mStdErrStatistic = new float[npixels];
+
+        Log.e(Thread.currentThread().getName(), "Applying standard deviation-based cut, estimating standard deviation and error for "
+                + NumToString.number(FPS) + " fps at " + NumToString.number(TEMPERATURE) + " Celsius ..");
+        StopWatches.StdDevCut.start();
+
+        // [0]: kept by the standard deviation cut, [1]: kept by all cuts combined
+        final int[] kept = new int[2];
+        final Histogram histogram = new Histogram(HISTOGRAM_BOUNDS);
+        runParallel(npixels, new PixelKernel() {
+            @Override
+            public void run(int from, int to) {
+                Histogram stddev = histogram.newEmptyCopy();
+                int keptStdDev   = 0;
+                int keptCombined = 0;
+                for (int i = from; i < to; i++) {
+                    float coldFast = cf.get(i);
+                    float coldSlow = cs.get(i);
+                    float hotFast  = hf.get(i);
+                    float hotSlow  = hs.get(i);
+
+                    float val = (float) Math.sqrt(hotSlow*hotSlow + hotFast*hotFast + coldSlow*coldSlow + coldFast*coldFast) / 4.f;
+                    stddev.add(mMaxPixelValue * val);
+                    if (val > 0.03f) {
+                        mMask[i] = 0;
+                    }
+                    else {
+                        keptStdDev++;
+                    }
+                    if (mMask[i] == 1) {
+                        keptCombined++;
+                    }
+
+                    mCutStatistic[i] = interpolate(coldFast, hotFast, coldSlow, hotSlow, x, y);
+
+                    float cferr = coldFast / coldFastRoot;
+                    float cserr = coldSlow / coldSlowRoot;
+                    float hferr = hotFast  / hotFastRoot;
+                    float hserr = hotSlow  / hotSlowRoot;
+                    mStdErrStatistic[i] = (float) Math.sqrt(cferr*cferr + cserr*cserr + hferr*hferr + hserr*hserr);
+                }
+                synchronized (kept) {
+                    histogram.merge(stddev);
+                    kept[0] += keptStdDev;
+                    kept[1] += keptCombined;
+                }
+            }
+        });
+        logPhase(StopWatches.StdDevCut);
+
+        String filename = "stddev_" + Datestamp.getDate() + GlobalSettings.HISTOGRAM_FILE;
+        StorageMedia.writeCalibration(new OutputWrapper(filename, histogram,
+                                        new Range<Float>(0.f, 0.03f * mMaxPixelValue)));
+
+        HeapMemory.logAvailableMiB();
+        String efficiency = NumToString.number(100. * kept[0] / (float) npixels);
+        String cut = "cut " + NumToString.number(npixels - kept[0]) + " out of " + NumToString.number(npixels);
+        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tStandard deviation cut efficiency: " + cut + " = " + efficiency + "%\n ");
+
+        // Summary
+        ////////////////////////////////////////////////////////////////////////////////////////////
+
+        // Store in allocation
+        mMaskAlloc = AnalysisController.newUCharAllocation();
+        mMaskAlloc.copyFrom(mMask);
+
+        efficiency = NumToString.number(100. * kept[1] / (float) npixels);
+        cut = "cut " + NumToString.number(npixels - kept[1]) + " out of " + NumToString.number(npixels);
+        Log.e(Thread.currentThread().getName(), " \n\n\t\t\tCombined cut efficiency: " + cut + " = " + efficiency + "%\n ");
 
         HeapMemory.logAvailableMiB();
 
@@ -552,36 +618,87 @@ abstract class ApplyCuts {
         mStdDevAlloc = AnalysisController.newFloatAllocation();
         mStdDevAlloc.copyFrom(mCutStatistic);
 
-        // Compute average standard error
-        ////////////////////////////////////////////////////////////////////////////////////////////
+        // Store in allocation
+        mStdErrAlloc = AnalysisController.newFloatAllocation();
+        mStdErrAlloc.copyFrom(mStdErrStatistic);
+        mStdErrStatistic = null;
 
-        Long coldFastFrames = coldFast.getNframes();
-        Long coldSlowFrames = coldSlow.getNframes();
-        Long hotFastFrames  = hotFast.getNframes();
-        Long hotSlowFrames  = hotSlow.getNframes();
+        return true;
+    }
 
-        if (coldFastFrames == null || coldSlowFrames == null || hotFastFrames == null || hotSlowFrames == null) {
-            // TODO: error
-            Log.e(Thread.currentThread().getName(), "Missing number of frames, cannot continue");
-            return false;
-        }
+    // runParallel..................................................................................
+    /**
+     * Run a kernel over all pixels in chunks across all cores, returns when every chunk is done
+     * @param npixels Number of pixels
+     * @param kernel Work to do for each chunk of pixels
+     */
+    private static void runParallel(int npixels, @NonNull PixelKernel kernel) {
+        mPool.invoke(new PixelChunks(kernel, 0, npixels));
+    }
 
-        mTotalStdDevFrames = coldFastFrames + coldSlowFrames + hotFastFrames + hotSlowFrames;
+    // temperatureStatistic.........................................................................
+    /**
+     * @return Temperature-based cut statistic (hot minus cold, in pixel value units) of a pixel
+     */
+    private static float temperatureStatistic(float cf, float cs, float hf, float hs) {
+        return mMaxPixelValue * ((hf + hs) - (cf + cs)) / 2.f;
+    }
 
-        for (int i = 0; i < npixels; i++) {
-            float cferr = cf[i] / (float) Math.sqrt(coldFastFrames);
-            float cserr = cs[i] / (float) Math.sqrt(coldSlowFrames);
-            float hferr = hf[i] / (float) Math.sqrt(hotFastFrames);
-            float hserr = hs[i] / (float) Math.sqrt(hotSlowFrames);
+    // exposureStatistic............................................................................
+    /**
+     * @return Exposure-based cut statistic (slow minus fast, in pixel value units) of a pixel
+     */
+    private static float exposureStatistic(float cf, float cs, float hf, float hs) {
+        return mMaxPixelValue * ((hs + cs) - (hf + cf)) / 2.f;
+    }
 
-            mCutStatistic[i] = (float) Math.sqrt(cferr*cferr + cserr*cserr + hferr*hferr + hserr*hserr);
-        }
+    // interpolate..................................................................................
+    /**
+     * Bilinear interpolation between cold/hot (x-axis) and fast/slow (y-axis) calibrations
+     * @return Interpolated value at (x, y)
+     */
+    private static float interpolate(float f00, float f10, float f01, float f11, float x, float y) {
+        return f00 * (1.f - x) * (1.f - y) + f10 * x * (1.f - y) + f01 * (1.f - x) * y + f11 * x * y;
+    }
 
-        // Store in allocation
-        mStdErrAlloc = AnalysisController.newFloatAllocation();
-        mStdErrAlloc.copyFrom(mCutStatistic);
+    // findCutLimits................................................................................
+    /**
+     * Cut limits are 3 standard deviations (at least 1 pixel value) around the histogram peak,
+     * the histogram is saved along with them
+     * @param histogram Histogram of a cut statistic
+     * @param name Filename prefix for saving the histogram
+     * @return Lower and upper limit of values to keep
+     */
+    @NonNull
+    private static Range<Double> findCutLimits(@NonNull Histogram histogram, @NonNull String name) {
+        double maxValue = histogram.getBinCenter(histogram.getMaxBin());
+        double stddev = histogram.getMaxStdDev();
+        double upperLimit = maxValue + Math.max(1., 3. * stddev);
+        double lowerLimit = maxValue - Math.max(1., 3. * stddev);
 
-        return true;
+        String status = "Max value: " + NumToString.decimal(maxValue)
+                + ", Max std dev: " + NumToString.decimal(stddev)
+                + ", upper/lower limit: " + NumToString.decimal(upperLimit)
+                + "/" + NumToString.decimal(lowerLimit);
+        Log.e(Thread.currentThread().getName(), status);
+
+        String filename = name + "_" + Datestamp.getDate() + GlobalSettings.HISTOGRAM_FILE;
+        StorageMedia.writeCalibration(new OutputWrapper(filename, histogram,
+                                        new Range<Float>((float) lowerLimit, (float) upperLimit)));
+
+        return new Range<Double>(lowerLimit, upperLimit);
+    }
+
+    // logPhase.....................................................................................
+    /**
+     * Stop a phase's stop watch and log how long the phase took
+     * @param watch Stop watch started at the beginning of the phase
+     */
+    private static void logPhase(@NonNull StopWatch watch) {
+        long elapsed = watch.stop();
+        watch.addTime(elapsed);
+        Log.e(Thread.currentThread().getName(), "Phase time: " + NumToString.number(elapsed / 1000000L)
+                + " [ms]");
     }
 
 }
\ No newline at end of file
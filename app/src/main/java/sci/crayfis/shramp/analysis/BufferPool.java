@@ -0,0 +1,119 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of same-sized direct ByteBuffers, so frame and statistics sized outputs reuse native
+ * memory instead of allocating (and garbage collecting) tens of megabytes of heap per output.
+ * Leasing never blocks, if the pool is empty a new buffer is made, and at most mMaxPooled
+ * buffers are kept when given back (the rest are left for the garbage collector).
+ * Thread-safe, the lock is only held to take or return a buffer.
+ */
+@TargetApi(21)
+final class BufferPool {
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mBufferBytes.................................................................................
+    // Capacity of every buffer in this pool
+    private final int mBufferBytes;
+
+    // mMaxPooled...................................................................................
+    // Most buffers kept waiting for reuse
+    private final int mMaxPooled;
+
+    // mFree........................................................................................
+    // Buffers waiting for reuse
+    private final ArrayDeque<ByteBuffer> mFree = new ArrayDeque<>();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // BufferPool...................................................................................
+    /**
+     * @param bufferBytes Capacity of every buffer in this pool
+     * @param maxPooled Most buffers kept waiting for reuse
+     */
+    BufferPool(int bufferBytes, int maxPooled) {
+        mBufferBytes = bufferBytes;
+        mMaxPooled   = maxPooled;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Package-private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // lease........................................................................................
+    /**
+     * @return A cleared (native byte order) direct buffer of getBufferBytes() capacity, give it back when done
+     */
+    @NonNull
+    ByteBuffer lease() {
+        ByteBuffer buffer;
+        synchronized (mFree) {
+            buffer = mFree.pollFirst();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(mBufferBytes);
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    // giveBack.....................................................................................
+    /**
+     * @param buffer A buffer from lease() that is no longer in use (by anyone)
+     */
+    void giveBack(@NonNull ByteBuffer buffer) {
+        if (buffer.capacity() != mBufferBytes) {
+            return;
+        }
+        synchronized (mFree) {
+            if (mFree.size() < mMaxPooled) {
+                mFree.addLast(buffer);
+            }
+        }
+    }
+
+    // getBufferBytes...............................................................................
+    /**
+     * @return Capacity of every buffer in this pool
+     */
+    @Contract(pure = true)
+    int getBufferBytes() {
+        return mBufferBytes;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,229 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the pixels of a HitList into connected (8-neighbor) clusters, i.e. cosmic-ray candidates.
+ * Works on the sparse hits only (the image is never touched again), using a run-length scan:
+ * hits arrive sorted by row then column, so each hit only needs to be compared with the hit to its
+ * left and the hits of the previous row within one column, merging with union-find.
+ */
+@TargetApi(21)
+abstract class ClusterBuilder {
+
+    // Inner Classes
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Cluster......................................................................................
+    // A connected group of hits: size, total charge (sum of raw values), charge-weighted centroid,
+    // bounding box and peak significance (with its location)
+    static final class Cluster {
+        private int    mSize;
+        private long   mCharge;
+        private double mSumX;
+        private double mSumY;
+        private int    mMinX = Integer.MAX_VALUE;
+        private int    mMinY = Integer.MAX_VALUE;
+        private int    mMaxX = Integer.MIN_VALUE;
+        private int    mMaxY = Integer.MIN_VALUE;
+        private float  mPeakSignificance = Float.NEGATIVE_INFINITY;
+        private int    mPeakX;
+        private int    mPeakY;
+
+        // Add a hit pixel to this cluster
+        private void add(int x, int y, int value, float significance) {
+            mSize   += 1;
+            mCharge += value;
+            mSumX   += (double) x * value;
+            mSumY   += (double) y * value;
+            mMinX = Math.min(mMinX, x);
+            mMinY = Math.min(mMinY, y);
+            mMaxX = Math.max(mMaxX, x);
+            mMaxY = Math.max(mMaxY, y);
+            if (significance > mPeakSignificance) {
+                mPeakSignificance = significance;
+                mPeakX = x;
+                mPeakY = y;
+            }
+        }
+
+        /** @return Number of pixels in the cluster */
+        @Contract(pure = true)
+        int getSize() { return mSize; }
+
+        /** @return Sum of raw pixel values */
+        @Contract(pure = true)
+        long getCharge() { return mCharge; }
+
+        /** @return Charge-weighted centroid column (bounding box center if charge is 0) */
+        @Contract(pure = true)
+        float getCentroidX() {
+            if (mCharge == 0L) {
+                return (mMinX + mMaxX) / 2.f;
+            }
+            return (float) (mSumX / mCharge);
+        }
+
+        /** @return Charge-weighted centroid row (bounding box center if charge is 0) */
+        @Contract(pure = true)
+        float getCentroidY() {
+            if (mCharge == 0L) {
+                return (mMinY + mMaxY) / 2.f;
+            }
+            return (float) (mSumY / mCharge);
+        }
+
+        /** @return Bounding box, inclusive */
+        @Contract(pure = true)
+        int getMinX() { return mMinX; }
+        @Contract(pure = true)
+        int getMinY() { return mMinY; }
+        @Contract(pure = true)
+        int getMaxX() { return mMaxX; }
+        @Contract(pure = true)
+        int getMaxY() { return mMaxY; }
+
+        /** @return Largest significance in the cluster, and where it is */
+        @Contract(pure = true)
+        float getPeakSignificance() { return mPeakSignificance; }
+        @Contract(pure = true)
+        int getPeakX() { return mPeakX; }
+        @Contract(pure = true)
+        int getPeakY() { return mPeakY; }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Package-private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // build........................................................................................
+    /**
+     * Reconstruct clusters from a frame's hits
+     * @param hits HitList sorted by row then column (as collected from the live kernel)
+     * @return Clusters in order of their first (top-left most) pixel, empty if there are no hits
+     */
+    @NonNull
+    static List<Cluster> build(@NonNull HitList hits) {
+        int nHits = hits.getNhits();
+        List<Cluster> clusters = new ArrayList<>();
+        if (nHits == 0) {
+            return clusters;
+        }
+
+        int[] parent = new int[nHits];
+
+        // Hits [prevStart, prevEnd) are the previous row's, only if it is directly above
+        int prevStart = 0;
+        int prevEnd   = 0;
+        int rowStart  = 0;
+        int above     = 0;
+        for (int i = 0; i < nHits; i++) {
+            int x = hits.getX(i);
+            int y = hits.getY(i);
+            parent[i] = i;
+
+            // New row
+            if (i > 0 && y != hits.getY(i - 1)) {
+                if (hits.getY(i - 1) == y - 1) {
+                    prevStart = rowStart;
+                    prevEnd   = i;
+                }
+                else {
+                    prevStart = i;
+                    prevEnd   = i;
+                }
+                rowStart = i;
+                above    = prevStart;
+            }
+
+            // Left neighbor
+            if (i > rowStart && hits.getX(i - 1) == x - 1) {
+                union(parent, i, i - 1);
+            }
+
+            // Neighbors above (x - 1, x, x + 1)
+            while (above < prevEnd && hits.getX(above) < x - 1) {
+                above++;
+            }
+            for (int j = above; j < prevEnd && hits.getX(j) <= x + 1; j++) {
+                union(parent, i, j);
+            }
+        }
+
+        // Accumulate each hit into its root's cluster
+        int[] clusterOf = new int[nHits];
+        for (int i = 0; i < nHits; i++) {
+            clusterOf[i] = -1;
+        }
+        for (int i = 0; i < nHits; i++) {
+            int root = find(parent, i);
+            if (clusterOf[root] < 0) {
+                clusterOf[root] = clusters.size();
+                clusters.add(new Cluster());
+            }
+            clusters.get(clusterOf[root]).add(hits.getX(i), hits.getY(i), hits.getValue(i), hits.getSignificance(i));
+        }
+        return clusters;
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // find.........................................................................................
+    /**
+     * @param parent Union-find parent links
+     * @param i Hit index
+     * @return Root of i's set (with path halving)
+     */
+    private static int find(@NonNull int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // union........................................................................................
+    /**
+     * Merge the sets of i and j, the lower index becomes the root so clusters keep scan order
+     * @param parent Union-find parent links
+     * @param i Hit index
+     * @param j Hit index
+     */
+    private static void union(@NonNull int[] parent, int i, int j) {
+        int rootI = find(parent, i);
+        int rootJ = find(parent, j);
+        if (rootI < rootJ) {
+            parent[rootJ] = rootI;
+        }
+        else if (rootJ < rootI) {
+            parent[rootI] = rootJ;
+        }
+    }
+
+}
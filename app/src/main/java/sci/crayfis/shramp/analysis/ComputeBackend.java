@@ -0,0 +1,193 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+
+/**
+ * The number crunching behind ImageProcessor: accumulating running sums, pixel significance,
+ * counting / listing pixels above threshold, and computing mean, standard deviation, standard
+ * error and the anomalous standard deviation count.
+ * ImageProcessor decides what to do with each frame (and when), a backend only does the math.
+ * Implementations:
+ *      RenderScriptBackend: LiveProcessing.rs and PostProcessing.rs
+ *      CpuBackend:          pure Java, row-striped over a fork-join pool
+ * Both give identical results.  Statistics, significance and running totals are exchanged as
+ * plain arrays (row-major, index = row * width + column), a backend copies them in and out of
+ * whatever it keeps internally (RenderScriptBackend: its own Allocations).
+ * Frames are processed in "slots", each with its own image data, row counts and hit list slots,
+ * so one frame can be uploaded while another is still being processed.
+ * Running totals are double-buffered: snapshotTotals() freezes the totals so far and carries on
+ * into fresh ones, so statistics can be computed from the frozen set while frames keep coming.
+ * Note: all methods are called from the ImageProcessorThread only, except computeStatistics()
+ * which runs on its own thread alongside live processing.
+ */
+@TargetApi(21)
+interface ComputeBackend {
+
+    // getName......................................................................................
+    /**
+     * @return Short name of this backend for logging
+     */
+    @NonNull
+    String getName();
+
+    // getFrameSlots................................................................................
+    /**
+     * @return Number of frame slots this backend rotates through
+     */
+    int getFrameSlots();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // setStatistics................................................................................
+    /**
+     * Use these statistics for significance testing from now on (they are copied, the arrays can
+     * be reused afterwards)
+     * @param mean Pixel means (normalized to the max pixel value)
+     * @param stdDev Pixel standard deviations (normalized to the max pixel value)
+     * @param stdErr Pixel standard errors (normalized to the max pixel value)
+     * @param mask Pixel mask, 1 to test the pixel, 0 to ignore it
+     */
+    void setStatistics(@NonNull float[] mean, @NonNull float[] stdDev,
+                       @NonNull float[] stdErr, @NonNull byte[] mask);
+
+    // setSignificanceEnabled.......................................................................
+    /**
+     * @param enabled True to test pixel significance in frames launched from now on, false not to
+     */
+    void setSignificanceEnabled(boolean enabled);
+
+    // setSignificanceThreshold.....................................................................
+    /**
+     * @param threshold Pixels with significance at or above this are "above threshold"
+     */
+    void setSignificanceThreshold(float threshold);
+
+    // resetTotals..................................................................................
+    /**
+     * Zero the running sums and totals, anything still in flight is abandoned
+     */
+    void resetTotals();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // upload.......................................................................................
+    /**
+     * Copy a frame's pixels into a slot, the wrapper can be released afterwards
+     * @param slot Frame slot [0, getFrameSlots())
+     * @param wrapper Image data
+     */
+    void upload(int slot, @NonNull ImageWrapper wrapper);
+
+    // launch.......................................................................................
+    /**
+     * Start processing the frame in a slot (asynchronously): add it to the running sums, and if
+     * significance is enabled, count and list its pixels above threshold
+     * @param slot Frame slot with an uploaded frame
+     * @param writeSignificance True to keep every pixel's significance (for getSignificance())
+     */
+    void launch(int slot, boolean writeSignificance);
+
+    // computeThresholds............................................................................
+    /**
+     * Precompute the trigger threshold map from the current statistics and significance threshold:
+     * for each pixel, the smallest raw value whose significance reaches the threshold (masked
+     * pixels and pixels with zero standard deviation can never trigger)
+     */
+    void computeThresholds();
+
+    // launchTrigger................................................................................
+    /**
+     * Start the trigger decision on the frame in a slot (asynchronously): one compare per pixel
+     * against the threshold map from computeThresholds(), giving the same row counts and hit
+     * list as launch() with significance enabled, but the running sums are not touched
+     * @param slot Frame slot with an uploaded frame
+     */
+    void launchTrigger(int slot);
+
+    // finish.......................................................................................
+    /**
+     * Wait for a launched slot to be done and read back its per-row counts of pixels above
+     * threshold (unsigned, possibly more than GlobalSettings.MAX_HITS_PER_ROW)
+     * @param slot Frame slot that was launched
+     * @param rowCounts Output, one element per row of pixels
+     */
+    void finish(int slot, @NonNull int[] rowCounts);
+
+    // readHits.....................................................................................
+    /**
+     * Read back the hit list slots of a finished slot, row y's hits are in elements
+     * [y * MAX_HITS_PER_ROW, y * MAX_HITS_PER_ROW + min(rowCounts[y], MAX_HITS_PER_ROW))
+     * @param slot Frame slot that was finished
+     * @param column Output, pixel column [MAX_HITS_PER_ROW x height]
+     * @param value Output, raw pixel value [MAX_HITS_PER_ROW x height]
+     * @param significance Output, pixel significance [MAX_HITS_PER_ROW x height]
+     */
+    void readHits(int slot, @NonNull int[] column, @NonNull int[] value, @NonNull float[] significance);
+
+    // getSignificance..............................................................................
+    /**
+     * Read back the significance of every pixel of the last finished frame launched with
+     * writeSignificance
+     * @param significance Output [width x height pixels]
+     */
+    void getSignificance(@NonNull float[] significance);
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // flushRunningSums.............................................................................
+    /**
+     * Add the 32-bit running sums into the 64-bit running totals and zero the 32-bit sums
+     */
+    void flushRunningSums();
+
+    // snapshotTotals...............................................................................
+    /**
+     * Freeze the 64-bit running totals (flush first) for computeStatistics(), and carry on into
+     * a fresh, zeroed set of totals
+     * Note: the last snapshot's computeStatistics() must be done before the next snapshot
+     */
+    void snapshotTotals();
+
+    // computeStatistics............................................................................
+    /**
+     * Compute mean, standard deviation and standard error from the frozen running totals of the
+     * last snapshotTotals(), can run alongside live processing (it does not touch live state)
+     * @param nFrames Number of frames in the frozen running totals
+     * @param mean Output, pixel means (normalized to the max pixel value)
+     * @param stdDev Output, pixel standard deviations (normalized to the max pixel value)
+     * @param stdErr Output, pixel standard errors (normalized to the max pixel value)
+     * @return Number of pixels with anomalous running sums (an overflow under extreme conditions)
+     */
+    long computeStatistics(long nFrames, @NonNull float[] mean, @NonNull float[] stdDev,
+                           @NonNull float[] stdErr);
+
+    // getValueTotal................................................................................
+    /**
+     * @param valueTotal Output, pixel-wise sum of pixel values (64-bit), up to the last flush
+     */
+    void getValueTotal(@NonNull long[] valueTotal);
+
+    // getValue2Total...............................................................................
+    /**
+     * @param value2Total Output, pixel-wise sum of pixel values**2 (64-bit), up to the last flush
+     */
+    void getValue2Total(@NonNull long[] value2Total);
+
+}
@@ -0,0 +1,805 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.Contract;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import sci.crayfis.shramp.GlobalSettings;
+
+/**
+ * ComputeBackend in pure Java, for devices where RenderScript is slow, broken or runs on the CPU
+ * anyway.  Everything is kept in primitive arrays (row-major, index = row * width + column), and
+ * work is striped by rows over a fork-join pool, so like the RenderScript row kernels, every row
+ * (and its row count and hit list slots) is only ever written by one task.
+ * The arithmetic is the same as LiveProcessing.rs / PostProcessing.rs line for line (32-bit
+ * unsigned sums wrap the same, significance in float, variance in double), so results match the
+ * RenderScript backend.
+ * Statistics are copied in from arrays by setStatistics(), and computeStatistics() writes each row
+ * straight into the output arrays, nothing here touches RenderScript.
+ */
+@TargetApi(21)
+final class CpuBackend implements ComputeBackend {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // ROWS_PER_TASK................................................................................
+    // Row stripes are split in half until they are at most this many rows
+    private static final int ROWS_PER_TASK = 16;
+
+    // MAX_8BIT_VALUE / MAX_16BIT_VALUE.............................................................
+    // Largest pixel values, same as gMax8bitValue / gMax16bitValue in LiveProcessing.rs
+    private static final float MAX_8BIT_VALUE  = 255.f;
+    private static final float MAX_16BIT_VALUE = 1023.f;
+
+    // UNREACHABLE_THRESHOLD........................................................................
+    // Threshold no pixel value can reach, same as gUnreachableThreshold in LiveProcessing.rs
+    private static final int UNREACHABLE_THRESHOLD = 0xFFFF;
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mPool........................................................................................
+    // Fork-join pool running the row stripes, one thread per core
+    private final ForkJoinPool mPool;
+
+    // Image dimensions.............................................................................
+    private final int mRows;
+    private final int mCols;
+
+    // mIs8bit / mMaxValue..........................................................................
+    // Pixel data type and its largest value (statistics are normalized to it)
+    private final boolean mIs8bit;
+    private final float   mMaxValue;
+
+    // mSlots.......................................................................................
+    // Per-frame arrays
+    private final Slot[] mSlots;
+
+    // Running sums / totals........................................................................
+    // 32-bit running sums (unsigned, updated every frame) and 64-bit running totals (updated
+    // every flush) [width x height pixels]
+    private final int[]  mValueSum;
+    private final int[]  mValue2Sum;
+    private long[] mValueTotal;
+    private long[] mValue2Total;
+
+    // Frozen totals................................................................................
+    // 64-bit running totals of the last snapshot, made on first use
+    private long[] mFrozenValueTotal;
+    private long[] mFrozenValue2Total;
+
+    // Statistics...................................................................................
+    // Java-side copies of the statistics in use [width x height pixels]
+    private final float[] mMean;
+    private final float[] mStdDev;
+    private final byte[]  mMask;
+
+    // mThresholds..................................................................................
+    // Trigger threshold map (unsigned) [width x height pixels], made on first use
+    private short[] mThresholds;
+
+    // mStatisticsRowCounts.........................................................................
+    // Per-row counts of pixels with anomalous running sums [height] (StatisticsThread only)
+    private final int[] mStatisticsRowCounts;
+
+    // mSignificance................................................................................
+    // Significance of each pixel, only allocated once a frame asks for it to be written
+    private float[] mSignificance;
+
+    // Significance settings........................................................................
+    // Captured when a frame is launched, like RenderScript globals
+    private boolean mEnableSignificance;
+    private float   mSignificanceThreshold;
+
+    // mInFlight....................................................................................
+    // Last task submitted to the pool, sums are shared by all frames so anything touching them
+    // has to wait for it (RenderScript gets this for free from running kernels in order)
+    private ForkJoinTask<?> mInFlight;
+
+    // Slot.........................................................................................
+    // One set of per-frame arrays
+    //      Image8 / Image16: image data (only the one matching the data type is allocated)
+    //      RowCounts:        per-row count of pixels above threshold [height]
+    //      Hit*:             hit list slots [MAX_HITS_PER_ROW x height] (see LiveProcessing.rs)
+    //      Task:             the frame's processing, null if not launched
+    //      TriggerOnly:      launched with launchTrigger()
+    //      Significance*:    what the frame was launched with
+    private static final class Slot {
+        byte[]  Image8;
+        short[] Image16;
+        int[]   RowCounts;
+        int[]   HitColumn;
+        int[]   HitValue;
+        float[] HitSignificance;
+
+        ForkJoinTask<?> Task;
+        boolean TriggerOnly;
+        boolean SignificanceEnabled;
+        boolean WriteSignificance;
+        float   SignificanceThreshold;
+    }
+
+    // RowKernel....................................................................................
+    // Work done for one row of pixels
+    private interface RowKernel {
+        void run(int row);
+    }
+
+    // RowStripe....................................................................................
+    // Runs a RowKernel over rows [first, last), splitting in half until ROWS_PER_TASK rows are left
+    private static final class RowStripe extends RecursiveAction {
+        private final RowKernel mKernel;
+        private final int mFirst;
+        private final int mLast;
+
+        RowStripe(@NonNull RowKernel kernel, int first, int last) {
+            mKernel = kernel;
+            mFirst  = first;
+            mLast   = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst <= ROWS_PER_TASK) {
+                for (int row = mFirst; row < mLast; row++) {
+                    mKernel.run(row);
+                }
+                return;
+            }
+            int middle = (mFirst + mLast) >>> 1;
+            invokeAll(new RowStripe(mKernel, mFirst, middle), new RowStripe(mKernel, middle, mLast));
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // CpuBackend...................................................................................
+    /**
+     * Create the CPU backend and its arrays
+     * Note: ImageWrapper must already be set up
+     * @param nSlots Number of per-frame array sets to rotate through
+     */
+    CpuBackend(int nSlots) {
+        this(nSlots, ImageWrapper.getNrows(), ImageWrapper.getNcols(), ImageWrapper.is8bitData());
+    }
+
+    // CpuBackend...................................................................................
+    /**
+     * Create the CPU backend and its arrays for an image size
+     * @param nSlots Number of per-frame array sets to rotate through
+     * @param rows Image height [pixels]
+     * @param cols Image width [pixels]
+     * @param is8bit True for 8-bit pixel data, false for 16-bit
+     */
+    CpuBackend(int nSlots, int rows, int cols, boolean is8bit) {
+        mPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        mRows     = rows;
+        mCols     = cols;
+        mIs8bit   = is8bit;
+        mMaxValue = mIs8bit ? MAX_8BIT_VALUE : MAX_16BIT_VALUE;
+
+        int nPixels = rows * cols;
+        int nHits   = GlobalSettings.MAX_HITS_PER_ROW * mRows;
+
+        mSlots = new Slot[Math.max(1, nSlots)];
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = new Slot();
+            if (mIs8bit) {
+                slot.Image8 = new byte[nPixels];
+            }
+            else {
+                slot.Image16 = new short[nPixels];
+            }
+            slot.RowCounts       = new int[mRows];
+            slot.HitColumn       = new int[nHits];
+            slot.HitValue        = new int[nHits];
+            slot.HitSignificance = new float[nHits];
+            mSlots[i] = slot;
+        }
+
+        mValueSum    = new int[nPixels];
+        mValue2Sum   = new int[nPixels];
+        mValueTotal  = new long[nPixels];
+        mValue2Total = new long[nPixels];
+
+        mMean   = new float[nPixels];
+        mStdDev = new float[nPixels];
+        mMask   = new byte[nPixels];
+
+        mStatisticsRowCounts = new int[mRows];
+    }
+
+    // Public Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // getName......................................................................................
+    /**
+     * @return "CPU (n threads)"
+     */
+    @NonNull
+    @Override
+    public String getName() { return "CPU (" + mPool.getParallelism() + " threads)"; }
+
+    // getFrameSlots................................................................................
+    /**
+     * @return Number of per-frame array sets
+     */
+    @Override
+    public int getFrameSlots() { return mSlots.length; }
+
+    // setStatistics................................................................................
+    /**
+     * Copy statistics in (stdErr isn't needed for significance)
+     * @param mean Pixel means (normalized to the max pixel value)
+     * @param stdDev Pixel standard deviations (normalized to the max pixel value)
+     * @param stdErr Pixel standard errors (normalized to the max pixel value)
+     * @param mask Pixel mask, 1 to test the pixel, 0 to ignore it
+     */
+    @Override
+    public void setStatistics(@NonNull float[] mean, @NonNull float[] stdDev,
+                              @NonNull float[] stdErr, @NonNull byte[] mask) {
+        waitForInFlight();
+        System.arraycopy(mean,   0, mMean,   0, mMean.length);
+        System.arraycopy(stdDev, 0, mStdDev, 0, mStdDev.length);
+        System.arraycopy(mask,   0, mMask,   0, mMask.length);
+    }
+
+    // setSignificanceEnabled.......................................................................
+    /**
+     * @param enabled True to test pixel significance, false not to
+     */
+    @Override
+    public void setSignificanceEnabled(boolean enabled) { mEnableSignificance = enabled; }
+
+    // setSignificanceThreshold.....................................................................
+    /**
+     * @param threshold Pixels with significance at or above this are "above threshold"
+     */
+    @Override
+    public void setSignificanceThreshold(float threshold) { mSignificanceThreshold = threshold; }
+
+    // resetTotals..................................................................................
+    /**
+     * Zero the running sums and totals
+     */
+    @Override
+    public void resetTotals() {
+        waitForInFlight();
+        for (Slot slot : mSlots) {
+            slot.Task = null;
+        }
+        run(new RowKernel() {
+            @Override
+            public void run(int row) {
+                int first = row * mCols;
+                int last  = first + mCols;
+                for (int i = first; i < last; i++) {
+                    mValueSum[i]    = 0;
+                    mValue2Sum[i]   = 0;
+                    mValueTotal[i]  = 0L;
+                    mValue2Total[i] = 0L;
+                }
+            }
+        });
+    }
+
+    // upload.......................................................................................
+    /**
+     * Copy pixels into a slot's image array
+     * @param slot Frame slot
+     * @param wrapper Image data
+     */
+    @Override
+    public void upload(int slot, @NonNull ImageWrapper wrapper) {
+        Slot buffer = mSlots[slot];
+        if (wrapper.hasPlaneBuffer()) {
+            ByteBuffer plane = wrapper.getPlaneBuffer();
+            if (plane == null) {
+                return;
+            }
+            if (mIs8bit) {
+                plane.get(buffer.Image8);
+            }
+            else {
+                plane.asShortBuffer().get(buffer.Image16);
+            }
+        }
+        else if (mIs8bit) {
+            upload(slot, wrapper.get8bitData());
+        }
+        else {
+            upload(slot, wrapper.get16bitData());
+        }
+    }
+
+    // upload.......................................................................................
+    /**
+     * Copy 8-bit pixels into a slot's image array
+     * @param slot Frame slot
+     * @param pixels Image data [width x height pixels]
+     */
+    void upload(int slot, @NonNull byte[] pixels) {
+        Slot buffer = mSlots[slot];
+        System.arraycopy(pixels, 0, buffer.Image8, 0, buffer.Image8.length);
+    }
+
+    // upload.......................................................................................
+    /**
+     * Copy 16-bit pixels into a slot's image array
+     * @param slot Frame slot
+     * @param pixels Image data [width x height pixels]
+     */
+    void upload(int slot, @NonNull short[] pixels) {
+        Slot buffer = mSlots[slot];
+        System.arraycopy(pixels, 0, buffer.Image16, 0, buffer.Image16.length);
+    }
+
+    // launch.......................................................................................
+    /**
+     * Submit a slot's frame to the pool (asynchronous)
+     * @param slot Frame slot with an uploaded frame
+     * @param writeSignificance True to keep every pixel's significance
+     */
+    @Override
+    public void launch(int slot, boolean writeSignificance) {
+        // Frames share the running sums, one at a time
+        waitForInFlight();
+
+        final Slot buffer = mSlots[slot];
+        buffer.TriggerOnly           = false;
+        buffer.SignificanceEnabled   = mEnableSignificance;
+        buffer.WriteSignificance     = writeSignificance;
+        buffer.SignificanceThreshold = mSignificanceThreshold;
+        if (writeSignificance && mSignificance == null) {
+            mSignificance = new float[mValueSum.length];
+        }
+
+        buffer.Task = mPool.submit(new RowStripe(new RowKernel() {
+            @Override
+            public void run(int row) {
+                processRow(buffer, row);
+            }
+        }, 0, mRows));
+        mInFlight = buffer.Task;
+    }
+
+    // computeThresholds............................................................................
+    /**
+     * Fill the threshold map, row-striped
+     */
+    @Override
+    public void computeThresholds() {
+        waitForInFlight();
+        if (mThresholds == null) {
+            mThresholds = new short[mValueSum.length];
+        }
+        final float threshold = mSignificanceThreshold;
+        run(new RowKernel() {
+            @Override
+            public void run(int row) {
+                int first = row * mCols;
+                for (int i = first; i < first + mCols; i++) {
+                    mThresholds[i] = (short) computeThreshold(i, threshold);
+                }
+            }
+        });
+    }
+
+    // launchTrigger................................................................................
+    /**
+     * Submit a slot's frame to the pool for the trigger decision only (asynchronous)
+     * @param slot Frame slot with an uploaded frame
+     */
+    @Override
+    public void launchTrigger(int slot) {
+        waitForInFlight();
+
+        final Slot buffer = mSlots[slot];
+        buffer.TriggerOnly         = true;
+        buffer.SignificanceEnabled = true;
+        buffer.WriteSignificance   = false;
+
+        buffer.Task = mPool.submit(new RowStripe(new RowKernel() {
+            @Override
+            public void run(int row) {
+                triggerRow(buffer, row);
+            }
+        }, 0, mRows));
+        mInFlight = buffer.Task;
+    }
+
+    // finish.......................................................................................
+    /**
+     * Blocks until the slot's frame is done
+     * @param slot Frame slot that was launched
+     * @param rowCounts Output, one element per row of pixels
+     */
+    @Override
+    public void finish(int slot, @NonNull int[] rowCounts) {
+        Slot buffer = mSlots[slot];
+        if (buffer.Task != null) {
+            buffer.Task.join();
+            if (mInFlight == buffer.Task) {
+                mInFlight = null;
+            }
+            buffer.Task = null;
+        }
+        System.arraycopy(buffer.RowCounts, 0, rowCounts, 0, mRows);
+    }
+
+    // readHits.....................................................................................
+    /**
+     * @param slot Frame slot that was finished
+     * @param column Output, pixel column [MAX_HITS_PER_ROW x height]
+     * @param value Output, raw pixel value [MAX_HITS_PER_ROW x height]
+     * @param significance Output, pixel significance [MAX_HITS_PER_ROW x height]
+     */
+    @Override
+    public void readHits(int slot, @NonNull int[] column, @NonNull int[] value, @NonNull float[] significance) {
+        Slot buffer = mSlots[slot];
+        System.arraycopy(buffer.HitColumn,       0, column,       0, column.length);
+        System.arraycopy(buffer.HitValue,        0, value,        0, value.length);
+        System.arraycopy(buffer.HitSignificance, 0, significance, 0, significance.length);
+    }
+
+    // getSignificance..............................................................................
+    /**
+     * @param significance Output, pixel significance (left as is if no frame has written any)
+     */
+    @Override
+    public void getSignificance(@NonNull float[] significance) {
+        if (mSignificance != null) {
+            waitForInFlight();
+            System.arraycopy(mSignificance, 0, significance, 0, significance.length);
+        }
+    }
+
+    // flushRunningSums.............................................................................
+    /**
+     * Add the 32-bit running sums into the 64-bit running totals and zero the 32-bit sums
+     */
+    @Override
+    public void flushRunningSums() {
+        waitForInFlight();
+        run(new RowKernel() {
+            @Override
+            public void run(int row) {
+                int first = row * mCols;
+                int last  = first + mCols;
+                for (int i = first; i < last; i++) {
+                    // sums are unsigned
+                    mValueTotal[i]  += mValueSum[i]  & 0xFFFFFFFFL;
+                    mValue2Total[i] += mValue2Sum[i] & 0xFFFFFFFFL;
+                    mValueSum[i]  = 0;
+                    mValue2Sum[i] = 0;
+                }
+            }
+        });
+    }
+
+    // snapshotTotals...............................................................................
+    /**
+     * Swap the running total arrays, live processing carries on into the zeroed spare set
+     */
+    @Override
+    public void snapshotTotals() {
+        waitForInFlight();
+        if (mFrozenValueTotal == null || mFrozenValue2Total == null) {
+            mFrozenValueTotal  = new long[mValueTotal.length];
+            mFrozenValue2Total = new long[mValue2Total.length];
+        }
+
+        long[] spare = mFrozenValueTotal;
+        mFrozenValueTotal = mValueTotal;
+        mValueTotal       = spare;
+
+        spare = mFrozenValue2Total;
+        mFrozenValue2Total = mValue2Total;
+        mValue2Total       = spare;
+
+        run(new RowKernel() {
+            @Override
+            public void run(int row) {
+                int first = row * mCols;
+                int last  = first + mCols;
+                for (int i = first; i < last; i++) {
+                    mValueTotal[i]  = 0L;
+                    mValue2Total[i] = 0L;
+                }
+            }
+        });
+    }
+
+    // computeStatistics............................................................................
+    /**
+     * Compute statistics row-striped (same as PostProcessing.rs) from the frozen totals, each row
+     * goes straight into the output arrays, live processing carries on meanwhile
+     * @param nFrames Number of frames in the frozen running totals
+     * @param mean Output, pixel means
+     * @param stdDev Output, pixel standard deviations
+     * @param stdErr Output, pixel standard errors
+     * @return Number of pixels with anomalous running sums
+     */
+    @Override
+    public long computeStatistics(final long nFrames, @NonNull final float[] mean,
+                                  @NonNull final float[] stdDev, @NonNull final float[] stdErr) {
+        final long[] valueTotal  = mFrozenValueTotal;
+        final long[] value2Total = mFrozenValue2Total;
+        if (valueTotal == null || value2Total == null) {
+            return 0L;
+        }
+
+        run(new RowKernel() {
+            @Override
+            public void run(int row) {
+                mStatisticsRowCounts[row] = computeStatisticsRow(row, nFrames, valueTotal, value2Total,
+                                                                 mean, stdDev, stdErr);
+            }
+        });
+
+        long sum = 0L;
+        for (int count : mStatisticsRowCounts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    // getValueTotal................................................................................
+    /**
+     * @param valueTotal Output, pixel-wise sum of pixel values
+     */
+    @Override
+    public void getValueTotal(@NonNull long[] valueTotal) {
+        waitForInFlight();
+        System.arraycopy(mValueTotal, 0, valueTotal, 0, valueTotal.length);
+    }
+
+    // getValue2Total...............................................................................
+    /**
+     * @param value2Total Output, pixel-wise sum of pixel values**2
+     */
+    @Override
+    public void getValue2Total(@NonNull long[] value2Total) {
+        waitForInFlight();
+        System.arraycopy(mValue2Total, 0, value2Total, 0, value2Total.length);
+    }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // run..........................................................................................
+    /**
+     * Run a RowKernel over all rows and wait for it
+     * @param kernel Work for one row
+     */
+    private void run(@NonNull RowKernel kernel) {
+        mPool.invoke(new RowStripe(kernel, 0, mRows));
+    }
+
+    // waitForInFlight..............................................................................
+    /**
+     * Wait for the last submitted frame (if any) to be done with the running sums
+     */
+    private void waitForInFlight() {
+        ForkJoinTask<?> task = mInFlight;
+        if (task != null) {
+            task.join();
+            mInFlight = null;
+        }
+    }
+
+    // processRow...................................................................................
+    /**
+     * Same as process8bitRow / process16bitRow (and processPixel) in LiveProcessing.rs
+     * @param buffer Frame slot being processed
+     * @param row Row of pixels
+     */
+    private void processRow(@NonNull Slot buffer, int row) {
+        int hitsPerRow  = GlobalSettings.MAX_HITS_PER_ROW;
+        boolean enabled = buffer.SignificanceEnabled;
+        float threshold = buffer.SignificanceThreshold;
+        float[] significanceOut = buffer.WriteSignificance ? mSignificance : null;
+
+        int first = row * mCols;
+        int count = 0;
+        for (int col = 0; col < mCols; col++) {
+            int i = first + col;
+            int val = mIs8bit ? (buffer.Image8[i] & 0xFF) : (buffer.Image16[i] & 0xFFFF);
+
+            // Running sums, int wraps the same as RenderScript uint
+            mValueSum[i]  += val;
+            mValue2Sum[i] += val * val;
+
+            // Statistical significance
+            float significance;
+            if (!enabled) {
+                significance = 0.f;
+            }
+            else {
+                float mean   = mMean[i]   * mMaxValue;
+                float stddev = mStdDev[i] * mMaxValue;
+
+                if (stddev == 0.f) {
+                    // positive infinity, avoid 0./0.
+                    significance = Float.POSITIVE_INFINITY;
+                }
+                else {
+                    significance = ( ((float) val) - mean ) / stddev;
+
+                    if (mMask[i] == 1 && significance >= threshold) {
+                        if (count < hitsPerRow) {
+                            int hit = row * hitsPerRow + count;
+                            buffer.HitColumn[hit]       = col;
+                            buffer.HitValue[hit]        = val;
+                            buffer.HitSignificance[hit] = significance;
+                        }
+                        count++;
+                    }
+                }
+            }
+            if (significanceOut != null) {
+                significanceOut[i] = significance;
+            }
+        }
+        buffer.RowCounts[row] = count;
+    }
+
+    // triggerRow...................................................................................
+    /**
+     * Same as trigger8bitRow / trigger16bitRow (and triggerPixel) in LiveProcessing.rs
+     * @param buffer Frame slot being processed
+     * @param row Row of pixels
+     */
+    private void triggerRow(@NonNull Slot buffer, int row) {
+        int hitsPerRow = GlobalSettings.MAX_HITS_PER_ROW;
+
+        int first = row * mCols;
+        int count = 0;
+        for (int col = 0; col < mCols; col++) {
+            int i = first + col;
+            int val = mIs8bit ? (buffer.Image8[i] & 0xFF) : (buffer.Image16[i] & 0xFFFF);
+            if (val < (mThresholds[i] & 0xFFFF)) {
+                continue;
+            }
+            if (count < hitsPerRow) {
+                float mean   = mMean[i]   * mMaxValue;
+                float stddev = mStdDev[i] * mMaxValue;
+                int hit = row * hitsPerRow + count;
+                buffer.HitColumn[hit]       = col;
+                buffer.HitValue[hit]        = val;
+                buffer.HitSignificance[hit] = ( ((float) val) - mean ) / stddev;
+            }
+            count++;
+        }
+        buffer.RowCounts[row] = count;
+    }
+
+    // computeThreshold.............................................................................
+    /**
+     * Same as computeThreshold in LiveProcessing.rs: smallest pixel value processRow() would find
+     * above threshold, the (float) significance is monotonic in the pixel value, so start from
+     * mean + threshold * stddev and step to the exact edge
+     * @param i Pixel index
+     * @param threshold Significance threshold
+     * @return Trigger threshold for this pixel
+     */
+    private int computeThreshold(int i, float threshold) {
+        if (mMask[i] != 1) {
+            return UNREACHABLE_THRESHOLD;
+        }
+
+        float mean   = mMean[i]   * mMaxValue;
+        float stddev = mStdDev[i] * mMaxValue;
+        if (stddev == 0.f) {
+            // processRow() never records these
+            return UNREACHABLE_THRESHOLD;
+        }
+
+        float guess = (float) Math.ceil(mean + threshold * stddev);
+        if (!(guess < (float) UNREACHABLE_THRESHOLD)) {
+            // also catches NaN
+            return UNREACHABLE_THRESHOLD;
+        }
+        int edge = 0;
+        if (guess > 0.f) {
+            edge = (int) guess;
+        }
+        while (edge > 0 && isAbove(edge - 1, mean, stddev, threshold)) {
+            edge--;
+        }
+        while (edge < UNREACHABLE_THRESHOLD && !isAbove(edge, mean, stddev, threshold)) {
+            edge++;
+        }
+        return edge;
+    }
+
+    // isAbove......................................................................................
+    /**
+     * Same significance test as processRow()
+     * @param val Pixel value
+     * @param mean Pixel mean (not normalized)
+     * @param stddev Pixel standard deviation (not normalized, not 0)
+     * @param threshold Significance threshold
+     * @return True if the pixel value's significance reaches the threshold
+     */
+    @Contract(pure = true)
+    private static boolean isAbove(int val, float mean, float stddev, float threshold) {
+        return ( ((float) val) - mean ) / stddev >= threshold;
+    }
+
+    // computeStatisticsRow.........................................................................
+    /**
+     * Same as computeStatisticsRow (and computeStatistics) in PostProcessing.rs
+     * @param row Row of pixels
+     * @param nFrames Number of frames in the running totals
+     * @param valueTotal 64-bit pixel value totals
+     * @param value2Total 64-bit pixel value**2 totals
+     * @param mean Output, pixel means (only this row is written)
+     * @param stdDev Output, pixel standard deviations (only this row is written)
+     * @param stdErr Output, pixel standard errors (only this row is written)
+     * @return Number of pixels in this row with anomalous running sums
+     */
+    private int computeStatisticsRow(int row, long nFrames, @NonNull long[] valueTotal,
+                                     @NonNull long[] value2Total, @NonNull float[] mean,
+                                     @NonNull float[] stdDev, @NonNull float[] stdErr) {
+        double frames  = (double) nFrames;
+        float  sqrtN   = (float) Math.sqrt((float) nFrames);
+
+        int first = row * mCols;
+        int count = 0;
+        for (int col = 0; col < mCols; col++) {
+            int i = first + col;
+
+            // Mean
+            double meanPixelVal = valueTotal[i] / frames;
+            mean[i] = (float) meanPixelVal / mMaxValue;
+
+            // Standard deviation
+            double var = (value2Total[i] / frames) - (meanPixelVal * meanPixelVal);
+            float stddev;
+            if (var < 0.) {
+                // An overflow has happened in one of the running sums
+                count++;
+                stddev = 0.f;
+            }
+            else {
+                stddev = (float) Math.sqrt((float) var) / mMaxValue;
+            }
+            stdDev[i] = stddev;
+
+            // Standard error
+            stdErr[i] = stddev / sqrtN;
+        }
+        return count;
+    }
+
+}
@@ -23,14 +23,12 @@ import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import sci.crayfis.shramp.GlobalSettings;
 import sci.crayfis.shramp.MasterController;
 import sci.crayfis.shramp.camera2.util.TimeCode;
 import sci.crayfis.shramp.util.HandlerManager;
 import sci.crayfis.shramp.util.NumToString;
+import sci.crayfis.shramp.util.Quiesce;
 import sci.crayfis.shramp.util.StopWatch;
 
 /**
@@ -56,13 +54,10 @@ abstract public class DataQueue {
     // Needed because isBusy() can be called from any thread.
     private static final Object ACCESS_LOCK = new Object();
 
-    // mCaptureResultQueue..........................................................................
-    // Queue for TotalCaptureResults (metadata about the capture)
-    private static final List<TotalCaptureResult> mCaptureResultQueue = new ArrayList<>();
-
-    // mImageDataQueue..............................................................................
-    // Queue for the actual pixel image data
-    private static final List<ImageWrapper> mImageQueue = new ArrayList<>();
+    // mFrameMatcher................................................................................
+    // Timestamp-indexed ring buffers pairing TotalCaptureResults (metadata about the capture)
+    // with ImageWrappers (the actual pixel image data)
+    private static final FrameMatcher mFrameMatcher = new FrameMatcher(GlobalSettings.DATA_QUEUE_CAPACITY);
 
     // ProcessNextImage.............................................................................
     // Runnable for queue to process itself on its own thread when called from another thread
@@ -92,11 +87,16 @@ abstract public class DataQueue {
             while (processImageQueues(nPurge)) {
                 synchronized (ACCESS_LOCK) {
                     Log.e(Thread.currentThread().getName(),
-                            "Metadata Queue Size: " + NumToString.number(mCaptureResultQueue.size())
-                            + ", Image Queue Size: "     + NumToString.number(mImageQueue.size())
+                            "Metadata Queue Size: " + NumToString.number(mFrameMatcher.getResultCount())
+                            + ", Image Queue Size: "     + NumToString.number(mFrameMatcher.getImageCount())
                             + ", Processor Backlog: "    + NumToString.number(ImageProcessor.getBacklog()));
                 }
             }
+
+            // Wake up anyone waiting on the pipeline (outside ACCESS_LOCK, Quiesce checks isEmpty())
+            if (isEmpty()) {
+                Quiesce.signal();
+            }
         }
     }
     private static final DataQueue.ProcessNextImage ProcessNextImage = new ProcessNextImage();
@@ -145,24 +145,28 @@ abstract public class DataQueue {
         // Runnable action to add metadata to TotalCaptureResult queue using the QueueThread
         class Add implements Runnable {
             // Payload
+            private long nTimestamp;
             private TotalCaptureResult nResult;
 
             // Constructor
-            private Add(TotalCaptureResult result) {
-                nResult = result;
+            private Add(long timestamp, TotalCaptureResult result) {
+                nTimestamp = timestamp;
+                nResult    = result;
             }
 
             // Action
             @Override
             public void run() {
                 synchronized (ACCESS_LOCK) {
-                    mCaptureResultQueue.add(nResult);
+                    if (mFrameMatcher.addResult(nTimestamp, nResult)) {
+                        Log.e(Thread.currentThread().getName(), "Metadata queue full, dropped oldest metadata");
+                    }
                 }
             }
         }
 
         // Execute Add action on QueueThread when the opportunity arises
-        mHandler.post(new Add(result));
+        mHandler.post(new Add(time, result));
 
         StopWatches.AddTotalCaptureResult.addTime();
     }
@@ -180,6 +184,7 @@ abstract public class DataQueue {
 
         if (GlobalSettings.DEBUG_DISABLE_QUEUE) {
             Log.e(Thread.currentThread().getName(), "[DISABLED] Time code of image to queue: " + wrapper.getTimeCode());
+            wrapper.release();
             return;
         }
         Log.e(Thread.currentThread().getName(), "Time code of image to queue: " + wrapper.getTimeCode());
@@ -198,7 +203,9 @@ abstract public class DataQueue {
             @Override
             public void run() {
                 synchronized (ACCESS_LOCK) {
-                    mImageQueue.add(mWrapper);
+                    if (mFrameMatcher.addImage(mWrapper)) {
+                        Log.e(Thread.currentThread().getName(), "Image queue full, dropped oldest image");
+                    }
                 }
             }
         }
@@ -229,9 +236,9 @@ abstract public class DataQueue {
             @Override
             public void run() {
                 synchronized (ACCESS_LOCK) {
-                    mCaptureResultQueue.clear();
-                    mImageQueue.clear();
+                    mFrameMatcher.clear();
                 }
+                Quiesce.signal();
             }
         });
     }
@@ -244,15 +251,13 @@ abstract public class DataQueue {
     public static boolean isEmpty() {
         StopWatches.IsEmpty.start();
 
-        int resultSize;
-        int imageSize;
+        boolean isEmpty;
         synchronized (ACCESS_LOCK) {
-            resultSize = mCaptureResultQueue.size();
-            imageSize = mImageQueue.size();
+            isEmpty = mFrameMatcher.isEmpty();
         }
 
         StopWatches.IsEmpty.addTime();
-        return (resultSize == 0) && (imageSize == 0);
+        return isEmpty;
     }
 
     // logQueueSizes................................................................................
@@ -262,11 +267,14 @@ abstract public class DataQueue {
      */
     public static void logQueueSizes() {
         synchronized (ACCESS_LOCK) {
-            int resultSize = mCaptureResultQueue.size();
-            int imageSize  = mImageQueue.size();
+            int resultSize = mFrameMatcher.getResultCount();
+            int imageSize  = mFrameMatcher.getImageCount();
 
             Log.e(Thread.currentThread().getName(), "Items in queue (metadata, image data) = ("
-            + NumToString.number(resultSize) + ", " + NumToString.number(imageSize) + ")");
+            + NumToString.number(resultSize) + ", " + NumToString.number(imageSize) + "), "
+            + "orphans (metadata, image data) = ("
+            + NumToString.number(mFrameMatcher.getOrphanedMetadata()) + ", "
+            + NumToString.number(mFrameMatcher.getOrphanedImages()) + ")");
         }
     }
 
@@ -277,23 +285,8 @@ abstract public class DataQueue {
      */
     public static void logQueueContents() {
         synchronized (ACCESS_LOCK) {
-            String metaString   = "";
-            String imageString  = "";
-
-            for (TotalCaptureResult result : mCaptureResultQueue) {
-                Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
-                if (timestamp == null) {
-                    // TODO: error
-                    Log.e(Thread.currentThread().getName(), "Timestamp cannot be null");
-                    MasterController.quitSafely();
-                    return;
-                }
-                metaString += " " + TimeCode.toString(timestamp) + " ";
-            }
-
-            for (ImageWrapper wrapper : mImageQueue) {
-                imageString += " " + wrapper.getTimeCode() + " ";
-            }
+            String metaString  = mFrameMatcher.getResultTimeCodes();
+            String imageString = mFrameMatcher.getImageTimeCodes();
 
             String out = " \n\n";
             out += "\tMetadata time-codes: " + metaString + "\n";
@@ -314,14 +307,38 @@ abstract public class DataQueue {
         mHandler.post(ProcessNextImage.setPurge());
     }
 
+    // getOrphanedMetadataCount.....................................................................
+    /**
+     * Note: called on caller's thread, there could be a delay if queue is in use already
+     * @return The number of metadata dropped because their image data never arrived
+     */
+    public static long getOrphanedMetadataCount() {
+        synchronized (ACCESS_LOCK) {
+            return mFrameMatcher.getOrphanedMetadata();
+        }
+    }
+
+    // getOrphanedImageCount........................................................................
+    /**
+     * Note: called on caller's thread, there could be a delay if queue is in use already
+     * @return The number of image data dropped because their metadata never arrived
+     */
+    public static long getOrphanedImageCount() {
+        synchronized (ACCESS_LOCK) {
+            return mFrameMatcher.getOrphanedImages();
+        }
+    }
+
     // Private Class Methods
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
     // processImageQueues...........................................................................
     /**
-     * Sends the next image (and metadata) staged in the image queues off to ImageProcessor
-     * @param purging True if no new data is expected and clears both queues when at least one queue
-     *                has no more elements
+     * Sends the next image (and metadata) staged in the image queues off to ImageProcessor.
+     * Metadata and image data that can never be matched (e.g. the system dropped a frame) are
+     * evicted as orphans by the FrameMatcher along the way.
+     * @param purging True if no new data is expected and clears both queues when no more matches
+     *                can be made
      * @return True if after running this method, image queues still have more data staged for
      *         processing, false if queues are now empty
      */
@@ -332,158 +349,44 @@ abstract public class DataQueue {
         // All actions occur under ACCESS_LOCK
         synchronized (ACCESS_LOCK) {
 
-            int resultSize = mCaptureResultQueue.size();
-            int imageSize  = mImageQueue.size();
-
-            // Image queues are not empty
-            if (resultSize > 0 && imageSize > 0) {
-                TotalCaptureResult result = mCaptureResultQueue.remove(0);
-                ImageWrapper wrapper      = mImageQueue.remove(0);
-                resultSize -= 1;
-                imageSize  -= 1;
-
-                Long result_timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
-                if (result_timestamp == null) {
-                    // TODO: error
-                    Log.e(Thread.currentThread().getName(), "Sensor timestamp cannot be null");
-                    MasterController.quitSafely();
-                    return false;
-                }
-                String result_timecode = TimeCode.toString(result_timestamp);
+            long orphanedMetadata = mFrameMatcher.getOrphanedMetadata();
+            long orphanedImages   = mFrameMatcher.getOrphanedImages();
 
-                // Everything checks out, process image
-                if (result_timestamp == wrapper.getTimestamp()) {
-                    Log.e(Thread.currentThread().getName(), "Timestamp match, time-codes: "
-                            + result_timecode + " == " + wrapper.getTimeCode());
+            boolean isPaired = mFrameMatcher.pair();
 
-                    if (!GlobalSettings.DEBUG_DISABLE_PROCESSING) {
-                        // ImageProcessor returns rapidly as it builds a processing Runnable that
-                        // runs on the ImageProcessorThread instead of directly processing now
-                        ImageProcessor.process(result, wrapper);
-                    }
+            if (mFrameMatcher.getOrphanedMetadata() != orphanedMetadata
+                    || mFrameMatcher.getOrphanedImages() != orphanedImages) {
+                Log.e(Thread.currentThread().getName(), "Dropped frames, orphans (metadata, image data) = ("
+                        + NumToString.number(mFrameMatcher.getOrphanedMetadata()) + ", "
+                        + NumToString.number(mFrameMatcher.getOrphanedImages()) + ")");
+            }
+
+            // Everything checks out, process image
+            if (isPaired) {
+                ImageWrapper wrapper = mFrameMatcher.getPairedImage();
+                Log.e(Thread.currentThread().getName(), "Timestamp match, time-code: " + wrapper.getTimeCode());
 
-                    StopWatches.ProcessImageQueues.addTime();
-                    return (resultSize != 0 && imageSize != 0);
+                if (!GlobalSettings.DEBUG_DISABLE_PROCESSING) {
+                    // ImageProcessor returns rapidly as it builds a processing Runnable that
+                    // runs on the ImageProcessorThread instead of directly processing now
+                    ImageProcessor.process(mFrameMatcher.getPairedResult(), wrapper);
                 }
-                //----------------------------------------------------------------------------------
-                // Head-ache .. figure out what's wrong
                 else {
-                    Log.e(Thread.currentThread().getName(), "Timestamps do not match, time-codes: "
-                            + result_timecode + " != " + wrapper.getTimeCode());
-
-                    // Timestamps don't match and at least one queue is now empty
-                    //-----------------------------------------------------------
-                    if (resultSize == 0 || imageSize == 0) {
-
-                        // No new data coming in, go ahead and clear the queues
-                        if (purging) {
-                            Log.e(Thread.currentThread().getName(), "Purging image queues");
-                            mCaptureResultQueue.clear();
-                            mImageQueue.clear();
-                        }
-                        // New data will be coming in, wait for it
-                        else {
-                            Log.e(Thread.currentThread().getName(), "Requeing both image and result");
-                            mCaptureResultQueue.add(0, result);
-                            mImageQueue.add(0, wrapper);
-                        }
-
-                        StopWatches.ProcessImageQueues2.addTime();
-                        return false;
-                    }
-                    // Timestamps don't match and neither queue is empty
-                    //--------------------------------------------------
-                    else {
-                        // Look at what's next in the queues
-                        TotalCaptureResult nextResult = mCaptureResultQueue.get(0);
-                        ImageWrapper nextWrapper      = mImageQueue.get(0);
-
-                        Long nextResult_timestamp = nextResult.get(CaptureResult.SENSOR_TIMESTAMP);
-                        if (nextResult_timestamp == null) {
-                            // TODO: error
-                            Log.e(Thread.currentThread().getName(), "Sensor timestamp cannot be null");
-                            MasterController.quitSafely();
-                            return false;
-                        }
-                        String nextResult_timecode  = TimeCode.toString(nextResult_timestamp);
-
-                        // If current ImageWrapper matches next TotalCaptureResult
-                        // i.e. an image was dropped by the system
-                        // Requeue for next processImageQueues() call
-                        if (wrapper.getTimestamp() == nextResult_timestamp) {
-                            Log.e(Thread.currentThread().getName(), "An image was dropped that would have had time-code: "
-                                    + result_timecode + ", dropping that metadata from queue");
-                            mImageQueue.add(0, wrapper);
-                            StopWatches.ProcessImageQueues2.addTime();
-                            return true;
-                        }
-                        // If current TotalCaptureResult matches next ImageWrapper
-                        // i.e. metadata was dropped (extremely rare)
-                        // Requeue for next processImageQueues() call
-                        else if (result_timestamp == nextWrapper.getTimestamp()) {
-                            Log.e(Thread.currentThread().getName(), "A metadata was dropped that would have had time-code: "
-                                    + wrapper.getTimeCode() + ", dropping that image from queue");
-                            mCaptureResultQueue.add(0, result);
-                            StopWatches.ProcessImageQueues2.addTime();
-                            return true;
-                        }
-                        // ImageWrappers and TotalCaptureResults have fallen out of sync by more than
-                        // one capture (e.g. the system dropped two or more consecutive image frames)
-                        else {
-                            Log.e(Thread.currentThread().getName(), "Multiple consecutive images were dropped, dropping metadata from queue to catch up");
-                            mCaptureResultQueue.remove(0);
-                            while (mCaptureResultQueue.size() > 0) {
-                                nextResult = mCaptureResultQueue.remove(0);
-
-                                nextResult_timestamp = nextResult.get(CaptureResult.SENSOR_TIMESTAMP);
-                                if (nextResult_timestamp == null) {
-                                    // TODO: error
-                                    Log.e(Thread.currentThread().getName(), "Sensor timestamp cannot be null");
-                                    MasterController.quitSafely();
-                                    return false;
-                                }
-                                nextResult_timecode = TimeCode.toString(nextResult_timestamp);
-
-                                // Everything checks out at last, requeue for next processImageQueues() call
-                                if (wrapper.getTimestamp() == nextResult_timestamp) {
-                                    Log.e(Thread.currentThread().getName(), "Timestamp match, time-codes: "
-                                            + nextResult_timecode + " == " + wrapper.getTimeCode());
-                                    mImageQueue.add(0, wrapper);
-                                    mCaptureResultQueue.add(0, nextResult);
-                                    StopWatches.ProcessImageQueues2.addTime();
-                                    return true;
-                                }
-                                // Still not caught up
-                                else {
-                                    Log.e(Thread.currentThread().getName(), "Dropping metadata with time-code: " + nextResult_timecode);
-                                }
-                            }
-
-                            // This is exceptionally rare, could happen if the system dropped two
-                            // consecutive TotalCaptureResults, but pretty much unheard of.
-                            // Most likely this is an edge condition, either at the start or end of
-                            // a run.
-                            Log.e(Thread.currentThread().getName(), "Ran out of metadata to drop, dropping everything from both queues");
-                            mCaptureResultQueue.clear();
-                            mImageQueue.clear();
-                            StopWatches.ProcessImageQueues2.addTime();
-                            return false;
-                        }
-                    }
+                    wrapper.release();
                 }
+
+                StopWatches.ProcessImageQueues.addTime();
+                return mFrameMatcher.getResultCount() != 0 && mFrameMatcher.getImageCount() != 0;
             }
+
             // At least one image queue is empty
-            else {
-                // No new data coming in, go ahead and clear the queues
-                if (purging) {
-                    Log.e(Thread.currentThread().getName(), "Purging queues");
-                    mCaptureResultQueue.clear();
-                    mImageQueue.clear();
-                }
-                StopWatches.ProcessImageQueues2.addTime();
-                return false;
+            // No new data coming in, go ahead and clear the queues
+            if (purging) {
+                Log.e(Thread.currentThread().getName(), "Purging queues");
+                mFrameMatcher.purge();
             }
-
+            StopWatches.ProcessImageQueues2.addTime();
+            return false;
         }
     }
 
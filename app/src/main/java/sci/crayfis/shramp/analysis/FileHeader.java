@@ -0,0 +1,448 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import sci.crayfis.shramp.util.Compression;
+
+/**
+ * Self-describing header at the start of every data file (and run segment record) OutputWrapper
+ * writes, so a file can be read without knowing the sensor it came from.  Everything after the
+ * byte order field, including the data, is in the byte order of the device that wrote it
+ * (native order), so pixels can be mapped and used as-is.
+ * Version 2 layout (BYTES long):
+ *      MAGIC (4 ASCII bytes), VERSION (byte), byte order ('B' or 'L'), Datatype ordinal (byte),
+ *      Dtype ordinal (byte), Compression.Codec ordinal (byte), bits-per-pixel (byte),
+ *      reserved (short), header length in bytes (int, data starts here), rows (int), columns (int),
+ *      sensor exposure [ns] (long, 0 if n/a), number of frames (long, 0 if n/a),
+ *      temperature [C] (float, NaN if n/a), reserved (int), data length in bytes (long),
+ *      reserved (long)
+ * Legacy (version 1) files have no header of their own, just big endian metadata ahead of the
+ * data, and their Datatype has to be known from the file extension:
+ *      image:      bits-per-pixel (byte), rows (int), columns (int), exposure (long), temperature (float)
+ *      statistics: bits-per-pixel (byte), rows (int), columns (int), frames (long), temperature (float)
+ *      mask:       bits-per-pixel (byte), rows (int), columns (int)
+ */
+@TargetApi(21)
+public final class FileHeader {
+
+    // Public Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Dtype........................................................................................
+    // How the data is stored, RECORDS is for structured data (histograms, hits, clusters),
+    // the ordinal is what is recorded in the header (append only)
+    public enum Dtype {RECORDS, UINT8, UINT16, FLOAT32}
+
+    // VERSION......................................................................................
+    // Header format version written
+    public static final byte VERSION = 2;
+
+    // BYTES........................................................................................
+    // Size of a version 2 header
+    public static final int BYTES = 64;
+
+    // LEGACY_PIXEL_BYTES...........................................................................
+    // Size of legacy image and statistics metadata
+    public static final int LEGACY_PIXEL_BYTES = 1 + 4 + 4 + 8 + 4;
+
+    // LEGACY_MASK_BYTES............................................................................
+    // Size of legacy mask metadata
+    public static final int LEGACY_MASK_BYTES = 1 + 4 + 4;
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // MAGIC........................................................................................
+    // "SHRP", can't be mistaken for a legacy file (which starts with bits-per-pixel or a bin count)
+    private static final byte[] MAGIC = {'S', 'H', 'R', 'P'};
+
+    // ORDER_BIG....................................................................................
+    // Byte order field values
+    private static final byte ORDER_BIG    = 'B';
+    private static final byte ORDER_LITTLE = 'L';
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mVersion.....................................................................................
+    // Header format version (1 for legacy files)
+    private byte mVersion;
+
+    // mByteOrder...................................................................................
+    // Byte order of the metadata and data
+    private ByteOrder mByteOrder;
+
+    // mDatatype....................................................................................
+    // What the data is
+    private OutputWrapper.Datatype mDatatype;
+
+    // mDtype.......................................................................................
+    // How the data is stored
+    private Dtype mDtype;
+
+    // mCodec.......................................................................................
+    // Compression of the data
+    private Compression.Codec mCodec;
+
+    // mBitsPerPixel................................................................................
+    // Bits per pixel of the sensor
+    private byte mBitsPerPixel;
+
+    // mHeaderBytes.................................................................................
+    // Offset of the data from the start of the header
+    private int mHeaderBytes;
+
+    // mRows........................................................................................
+    // Number of rows of the sensor
+    private int mRows;
+
+    // mColumns.....................................................................................
+    // Number of columns of the sensor
+    private int mColumns;
+
+    // mExposure....................................................................................
+    // Sensor exposure [ns] for image data, null otherwise
+    private Long mExposure;
+
+    // mNframes.....................................................................................
+    // Number of frames that went into statistical data, null otherwise
+    private Long mNframes;
+
+    // mTemperature.................................................................................
+    // Temperature the data was taken at [Celsius], null if not available
+    private Float mTemperature;
+
+    // mDataBytes...................................................................................
+    // Length of the data after the header
+    private long mDataBytes;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // FileHeader...................................................................................
+    /**
+     * Use read()
+     */
+    private FileHeader() {}
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // isVersioned..................................................................................
+    /**
+     * @param buffer Start of a file, from its position (not modified)
+     * @return True if it starts with a version 2 (or later) header, false if it is a legacy file
+     */
+    public static boolean isVersioned(@NonNull ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // read.........................................................................................
+    /**
+     * @param buffer Start of a file, from its position (not modified)
+     * @param legacyDatatype (Optional) Datatype implied by the file extension, only used for
+     *                       legacy files (which can't be read without it)
+     * @return The header, or null if it is incomplete or not understood
+     */
+    @Nullable
+    public static FileHeader read(@NonNull ByteBuffer buffer, @Nullable OutputWrapper.Datatype legacyDatatype) {
+        ByteBuffer view = buffer.slice();
+        if (isVersioned(view)) {
+            return readVersioned(view);
+        }
+        if (legacyDatatype == null) {
+            return null;
+        }
+        return readLegacy(view, legacyDatatype);
+    }
+
+    // getWordBytes.................................................................................
+    /**
+     * @param dtype How data is stored
+     * @return Bytes per value, 0 for RECORDS
+     */
+    @Contract(pure = true)
+    public static int getWordBytes(@NonNull Dtype dtype) {
+        switch (dtype) {
+            case UINT8:
+                return 1;
+            case UINT16:
+                return 2;
+            case FLOAT32:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    // Package-private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // write........................................................................................
+    /**
+     * Write a version 2 header (uncompressed data) at the buffer's position, in the buffer's byte order
+     * @param buffer Where to write, at least BYTES remaining
+     * @param datatype What the data is
+     * @param dtype How the data is stored
+     * @param bitsPerPixel Bits per pixel of the sensor
+     * @param rows Number of rows of the sensor
+     * @param columns Number of columns of the sensor
+     * @param exposure Sensor exposure [ns], 0 if n/a
+     * @param Nframes Number of frames that went into the data, 0 if n/a
+     * @param temperature Temperature the data was taken at [Celsius], NaN if n/a
+     * @param dataBytes Length of the data that will follow the header
+     */
+    static void write(@NonNull ByteBuffer buffer, @NonNull OutputWrapper.Datatype datatype,
+                      @NonNull Dtype dtype, byte bitsPerPixel, int rows, int columns,
+                      long exposure, long Nframes, float temperature, long dataBytes) {
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((buffer.order() == ByteOrder.BIG_ENDIAN) ? ORDER_BIG : ORDER_LITTLE);
+        buffer.put((byte) datatype.ordinal());
+        buffer.put((byte) dtype.ordinal());
+        buffer.put((byte) Compression.Codec.NONE.ordinal());
+        buffer.put(bitsPerPixel);
+        buffer.putShort((short) 0);
+        buffer.putInt(BYTES);
+        buffer.putInt(rows);
+        buffer.putInt(columns);
+        buffer.putLong(exposure);
+        buffer.putLong(Nframes);
+        buffer.putFloat(temperature);
+        buffer.putInt(0);
+        buffer.putLong(dataBytes);
+        buffer.putLong(0L);
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // readVersioned................................................................................
+    /**
+     * @param view Header positioned at 0
+     * @return The header, or null if it is incomplete or not understood
+     */
+    @Nullable
+    private static FileHeader readVersioned(@NonNull ByteBuffer view) {
+        if (view.remaining() < BYTES) {
+            return null;
+        }
+
+        FileHeader header = new FileHeader();
+        header.mVersion = view.get(4);
+        byte order = view.get(5);
+        if (header.mVersion < 2 || header.mVersion > VERSION
+                || (order != ORDER_BIG && order != ORDER_LITTLE)) {
+            return null;
+        }
+        header.mByteOrder = (order == ORDER_BIG) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        view.order(header.mByteOrder);
+
+        int datatype = view.get(6);
+        int dtype    = view.get(7);
+        int codec    = view.get(8);
+        if (datatype < 0 || datatype >= OutputWrapper.Datatype.values().length
+                || dtype < 0 || dtype >= Dtype.values().length
+                || codec < 0 || codec >= Compression.Codec.values().length) {
+            return null;
+        }
+        header.mDatatype     = OutputWrapper.Datatype.values()[datatype];
+        header.mDtype        = Dtype.values()[dtype];
+        header.mCodec        = Compression.Codec.values()[codec];
+        header.mBitsPerPixel = view.get(9);
+        header.mHeaderBytes  = view.getInt(12);
+        header.mRows         = view.getInt(16);
+        header.mColumns      = view.getInt(20);
+        header.mDataBytes    = view.getLong(48);
+        if (header.mHeaderBytes < BYTES || header.mDataBytes < 0L) {
+            return null;
+        }
+
+        if (header.mDatatype == OutputWrapper.Datatype.IMAGE) {
+            header.mExposure = view.getLong(24);
+        }
+        else if (header.mDatatype == OutputWrapper.Datatype.STATISTICS) {
+            header.mNframes = view.getLong(32);
+        }
+        float temperature = view.getFloat(40);
+        if (!Float.isNaN(temperature)) {
+            header.mTemperature = temperature;
+        }
+        return header;
+    }
+
+    // readLegacy...................................................................................
+    /**
+     * @param view Metadata positioned at 0 (big endian)
+     * @param datatype Datatype implied by the file extension, only IMAGE, STATISTICS and MASK
+     *                 can be read
+     * @return The header, or null if it is incomplete or not understood
+     */
+    @Nullable
+    private static FileHeader readLegacy(@NonNull ByteBuffer view, @NonNull OutputWrapper.Datatype datatype) {
+        boolean isMask = (datatype == OutputWrapper.Datatype.MASK);
+        if ((datatype != OutputWrapper.Datatype.IMAGE && datatype != OutputWrapper.Datatype.STATISTICS && !isMask)
+                || view.remaining() < (isMask ? LEGACY_MASK_BYTES : LEGACY_PIXEL_BYTES)) {
+            return null;
+        }
+
+        FileHeader header = new FileHeader();
+        header.mVersion      = 1;
+        header.mByteOrder    = ByteOrder.BIG_ENDIAN;
+        header.mDatatype     = datatype;
+        header.mCodec        = Compression.Codec.NONE;
+        header.mBitsPerPixel = view.get();
+        header.mRows         = view.getInt();
+        header.mColumns      = view.getInt();
+        header.mHeaderBytes  = isMask ? LEGACY_MASK_BYTES : LEGACY_PIXEL_BYTES;
+
+        if (datatype == OutputWrapper.Datatype.IMAGE) {
+            header.mDtype    = (header.mBitsPerPixel == 8) ? Dtype.UINT8 : Dtype.UINT16;
+            header.mExposure = view.getLong();
+        }
+        else if (datatype == OutputWrapper.Datatype.STATISTICS) {
+            header.mDtype   = Dtype.FLOAT32;
+            header.mNframes = view.getLong();
+        }
+        else {
+            header.mDtype = Dtype.UINT8;
+        }
+        if (!isMask) {
+            header.mTemperature = view.getFloat();
+        }
+        header.mDataBytes = (long) header.mRows * header.mColumns * getWordBytes(header.mDtype);
+        return header;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    /**
+     * @return Header format version (1 for legacy files)
+     */
+    @Contract(pure = true)
+    public byte getVersion() { return mVersion; }
+
+    /**
+     * @return Byte order of the metadata and data
+     */
+    @NonNull
+    @Contract(pure = true)
+    public ByteOrder getByteOrder() { return mByteOrder; }
+
+    /**
+     * @return What the data is
+     */
+    @NonNull
+    @Contract(pure = true)
+    public OutputWrapper.Datatype getDatatype() { return mDatatype; }
+
+    /**
+     * @return How the data is stored
+     */
+    @NonNull
+    @Contract(pure = true)
+    public Dtype getDtype() { return mDtype; }
+
+    /**
+     * @return Compression of the data
+     */
+    @NonNull
+    @Contract(pure = true)
+    public Compression.Codec getCodec() { return mCodec; }
+
+    /**
+     * @return Bits per pixel of the sensor
+     */
+    @Contract(pure = true)
+    public byte getBitsPerPixel() { return mBitsPerPixel; }
+
+    /**
+     * @return Offset of the data from the start of the file
+     */
+    @Contract(pure = true)
+    public int getHeaderBytes() { return mHeaderBytes; }
+
+    /**
+     * @return Number of rows of the sensor
+     */
+    @Contract(pure = true)
+    public int getRows() { return mRows; }
+
+    /**
+     * @return Number of columns of the sensor
+     */
+    @Contract(pure = true)
+    public int getColumns() { return mColumns; }
+
+    /**
+     * @return Sensor exposure [ns] for image data (null if not available)
+     */
+    @Nullable
+    @Contract(pure = true)
+    public Long getExposure() { return mExposure; }
+
+    /**
+     * @return The number of frames that went into statistical data (null if not available)
+     */
+    @Nullable
+    @Contract(pure = true)
+    public Long getNframes() { return mNframes; }
+
+    /**
+     * @return Temperature in Celsius (null if not available)
+     */
+    @Nullable
+    @Contract(pure = true)
+    public Float getTemperature() { return mTemperature; }
+
+    /**
+     * @return Length of the data after the header
+     */
+    @Contract(pure = true)
+    public long getDataBytes() { return mDataBytes; }
+
+}
\ No newline at end of file
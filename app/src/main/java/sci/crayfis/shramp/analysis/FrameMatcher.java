@@ -0,0 +1,319 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.TotalCaptureResult;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.jetbrains.annotations.Contract;
+
+import sci.crayfis.shramp.camera2.util.TimeCode;
+
+/**
+ * Pairs capture metadata (TotalCaptureResults) with image data (ImageWrappers) by sensor timestamp.
+ * Both are held in fixed-capacity ring buffers, and since the camera delivers each stream in
+ * timestamp order, only the oldest element of each buffer ever needs to be compared.
+ * Orphan eviction rule:
+ *      - if the oldest metadata is older than the oldest image, its image was dropped by the system
+ *        and the metadata is evicted as an orphan (and vice versa for an image without metadata),
+ *      - if a buffer is full when something new arrives, its oldest element is evicted as an orphan,
+ *      - anything left over when the matcher is purged is counted as an orphan.
+ * Evicted image data is returned to the PixelBufferPool.
+ * Note: not thread-safe on its own, DataQueue guards all access with its ACCESS_LOCK.
+ */
+@TargetApi(21)
+final class FrameMatcher {
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mCapacity....................................................................................
+    // Maximum number of elements each ring buffer can hold
+    private final int mCapacity;
+
+    // Metadata ring buffer.........................................................................
+    // TotalCaptureResults and their sensor timestamps, oldest at mResultHead
+    private final TotalCaptureResult[] mResults;
+    private final long[]               mResultTimestamps;
+    private int mResultHead;
+    private int mResultCount;
+
+    // Image ring buffer............................................................................
+    // ImageWrappers and their sensor timestamps, oldest at mImageHead
+    private final ImageWrapper[] mImages;
+    private final long[]         mImageTimestamps;
+    private int mImageHead;
+    private int mImageCount;
+
+    // Paired frame.................................................................................
+    // The most recent successful match from pair()
+    private TotalCaptureResult mPairedResult;
+    private ImageWrapper       mPairedImage;
+
+    // Orphan counters..............................................................................
+    // Running count of metadata without image data, and image data without metadata
+    private long mOrphanedMetadata;
+    private long mOrphanedImages;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // FrameMatcher.................................................................................
+    /**
+     * Disabled
+     */
+    private FrameMatcher() { this(1); }
+
+    // FrameMatcher.................................................................................
+    /**
+     * Create a new matcher
+     * @param capacity Maximum number of metadata (and separately, image data) held at once
+     */
+    FrameMatcher(int capacity) {
+        mCapacity = Math.max(1, capacity);
+
+        mResults          = new TotalCaptureResult[mCapacity];
+        mResultTimestamps = new long[mCapacity];
+        mImages           = new ImageWrapper[mCapacity];
+        mImageTimestamps  = new long[mCapacity];
+
+        mOrphanedMetadata = 0L;
+        mOrphanedImages   = 0L;
+    }
+
+    // Package-private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // addResult....................................................................................
+    /**
+     * Add metadata to the end of the metadata ring buffer, evicting the oldest if full
+     * @param timestamp Sensor timestamp of the metadata
+     * @param result TotalCaptureResult generated from an image capture
+     * @return True if an orphan had to be evicted to make room, false if not
+     */
+    boolean addResult(long timestamp, @NonNull TotalCaptureResult result) {
+        boolean evicted = false;
+        if (mResultCount == mCapacity) {
+            dropResult();
+            mOrphanedMetadata++;
+            evicted = true;
+        }
+        int tail = (mResultHead + mResultCount) % mCapacity;
+        mResults[tail]          = result;
+        mResultTimestamps[tail] = timestamp;
+        mResultCount++;
+        return evicted;
+    }
+
+    // addImage.....................................................................................
+    /**
+     * Add image data to the end of the image ring buffer, evicting the oldest if full
+     * @param wrapper ImageWrapper created from an image capture
+     * @return True if an orphan had to be evicted to make room, false if not
+     */
+    boolean addImage(@NonNull ImageWrapper wrapper) {
+        boolean evicted = false;
+        if (mImageCount == mCapacity) {
+            evictImage();
+            mOrphanedImages++;
+            evicted = true;
+        }
+        int tail = (mImageHead + mImageCount) % mCapacity;
+        mImages[tail]          = wrapper;
+        mImageTimestamps[tail] = wrapper.getTimestamp();
+        mImageCount++;
+        return evicted;
+    }
+
+    // pair.........................................................................................
+    /**
+     * Find the next metadata/image data pair with matching timestamps, evicting orphans on the way.
+     * On success, the pair is removed from the ring buffers and is available from getPairedResult()
+     * and getPairedImage() until the next call.
+     * @return True if a pair was found, false if not (more data is needed)
+     */
+    boolean pair() {
+        mPairedResult = null;
+        mPairedImage  = null;
+
+        while (mResultCount > 0 && mImageCount > 0) {
+            long resultTimestamp = mResultTimestamps[mResultHead];
+            long imageTimestamp  = mImageTimestamps[mImageHead];
+
+            if (resultTimestamp == imageTimestamp) {
+                mPairedResult = mResults[mResultHead];
+                mPairedImage  = mImages[mImageHead];
+                dropResult();
+                dropImage();
+                return true;
+            }
+
+            // A newer image is already here, so this metadata's image was dropped
+            if (resultTimestamp < imageTimestamp) {
+                dropResult();
+                mOrphanedMetadata++;
+            }
+            // Newer metadata is already here, so this image's metadata was dropped
+            else {
+                evictImage();
+                mOrphanedImages++;
+            }
+        }
+        return false;
+    }
+
+    // purge........................................................................................
+    /**
+     * Empty both ring buffers, everything left over is counted as an orphan
+     */
+    void purge() {
+        mOrphanedMetadata += mResultCount;
+        mOrphanedImages   += mImageCount;
+        clear();
+    }
+
+    // clear........................................................................................
+    /**
+     * Empty both ring buffers without counting orphans
+     */
+    void clear() {
+        while (mResultCount > 0) {
+            dropResult();
+        }
+        while (mImageCount > 0) {
+            evictImage();
+        }
+        mResultHead = 0;
+        mImageHead  = 0;
+    }
+
+    // getPairedResult..............................................................................
+    /**
+     * @return Metadata from the last successful pair(), null if there was none
+     */
+    @Nullable
+    @Contract(pure = true)
+    TotalCaptureResult getPairedResult() { return mPairedResult; }
+
+    // getPairedImage...............................................................................
+    /**
+     * @return Image data from the last successful pair(), null if there was none
+     */
+    @Nullable
+    @Contract(pure = true)
+    ImageWrapper getPairedImage() { return mPairedImage; }
+
+    // getResultCount...............................................................................
+    /**
+     * @return The number of metadata waiting for a match
+     */
+    @Contract(pure = true)
+    int getResultCount() { return mResultCount; }
+
+    // getImageCount................................................................................
+    /**
+     * @return The number of image data waiting for a match
+     */
+    @Contract(pure = true)
+    int getImageCount() { return mImageCount; }
+
+    // isEmpty......................................................................................
+    /**
+     * @return True if both ring buffers are empty, false if not
+     */
+    @Contract(pure = true)
+    boolean isEmpty() { return mResultCount == 0 && mImageCount == 0; }
+
+    // getOrphanedMetadata..........................................................................
+    /**
+     * @return The number of metadata that never found matching image data
+     */
+    @Contract(pure = true)
+    long getOrphanedMetadata() { return mOrphanedMetadata; }
+
+    // getOrphanedImages............................................................................
+    /**
+     * @return The number of image data that never found matching metadata
+     */
+    @Contract(pure = true)
+    long getOrphanedImages() { return mOrphanedImages; }
+
+    // getResultTimeCodes...........................................................................
+    /**
+     * @return Time-codes of all metadata waiting for a match, oldest first
+     */
+    @NonNull
+    String getResultTimeCodes() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mResultCount; i++) {
+            builder.append(" ").append(TimeCode.toString(mResultTimestamps[(mResultHead + i) % mCapacity])).append(" ");
+        }
+        return builder.toString();
+    }
+
+    // getImageTimeCodes............................................................................
+    /**
+     * @return Time-codes of all image data waiting for a match, oldest first
+     */
+    @NonNull
+    String getImageTimeCodes() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mImageCount; i++) {
+            builder.append(" ").append(TimeCode.toString(mImageTimestamps[(mImageHead + i) % mCapacity])).append(" ");
+        }
+        return builder.toString();
+    }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // dropResult...................................................................................
+    /**
+     * Remove the oldest metadata from the ring buffer
+     */
+    private void dropResult() {
+        mResults[mResultHead] = null;
+        mResultHead = (mResultHead + 1) % mCapacity;
+        mResultCount--;
+    }
+
+    // evictImage...................................................................................
+    /**
+     * Remove the oldest image data from the ring buffer and return its pixels to the PixelBufferPool
+     */
+    private void evictImage() {
+        mImages[mImageHead].release();
+        dropImage();
+    }
+
+    // dropImage....................................................................................
+    /**
+     * Remove the oldest image data from the ring buffer
+     */
+    private void dropImage() {
+        mImages[mImageHead] = null;
+        mImageHead = (mImageHead + 1) % mCapacity;
+        mImageCount--;
+    }
+
+}
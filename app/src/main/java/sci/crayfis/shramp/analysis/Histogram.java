@@ -18,25 +18,68 @@ package sci.crayfis.shramp.analysis;
 
 import android.annotation.TargetApi;
 import android.support.annotation.NonNull;
+import android.util.Log;
 import android.util.Range;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * Represents a histogram and related functions
+ * Bins can be uniform (integer pixel steps, or any float width) or variable width.  Finding a
+ * value's bin is direct index arithmetic for uniform bins, and a lookup table for variable-width
+ * bins, so filling costs the same no matter how many bins there are.
+ * Histograms with the same binning (see newEmptyCopy()) merge exactly, so large arrays can be
+ * filled in parallel, one sub-histogram per thread, see addAllParallel().
  */
 @TargetApi(21)
 public class Histogram {
 
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // LOOKUP_CELLS_PER_BIN.........................................................................
+    // Variable-width bins: most lookup cells to make per bin (the lookup table is as fine as the
+    // narrowest bin, up to this limit), a value's bin is then at most a short walk away
+    private static final int LOOKUP_CELLS_PER_BIN = 16;
+
+    // VALUES_PER_TASK..............................................................................
+    // addAllParallel(): values filled into one sub-histogram before splitting the work any further
+    private static final int VALUES_PER_TASK = 1 << 16;
+
+    // Private Class Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mPool........................................................................................
+    // Shared by all histograms for addAllParallel(), created the first time it is needed
+    private static ForkJoinPool mPool;
+
     // Private Instance Fields
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-    // mBins........................................................................................
-    // Histogram bin left edges
-    int[] mBins;
+    // mEdges.......................................................................................
+    // Bin edges, bin i is [mEdges[i], mEdges[i + 1]), mNbins + 1 elements (shared by copies)
+    double[] mEdges;
 
     // mNbins.......................................................................................
     // Number of bins
     int mNbins;
 
+    // mLow / mHigh.................................................................................
+    // Low edge of the first bin, high edge of the last bin
+    double mLow;
+    double mHigh;
+
+    // mInverseWidth................................................................................
+    // Number of bins (uniform), or lookup cells (variable width), per unit value
+    double mInverseWidth;
+
+    // mLookup......................................................................................
+    // Variable-width bins only (null if uniform): bin holding the low edge of each lookup cell
+    // (shared by copies)
+    int[] mLookup;
+
     // mValues......................................................................................
     // Histogram values for each bin
     int[] mValues;
@@ -46,9 +89,42 @@ public class Histogram {
     int mUnderflow;
 
     // mOverflow....................................................................................
-    // Histogram value for overflow
+    // Histogram value for overflow (including NaN)
     int mOverflow;
 
+    // Fill.........................................................................................
+    // Fills [mFrom, mTo) of an array into sub-histograms, splitting in half until VALUES_PER_TASK
+    // values are left, then merges them back together
+    private static final class Fill extends RecursiveTask<Histogram> {
+        private final Histogram mTemplate;
+        private final float[] mArray;
+        private final int mFrom;
+        private final int mTo;
+
+        Fill(@NonNull Histogram template, @NonNull float[] array, int from, int to) {
+            mTemplate = template;
+            mArray    = array;
+            mFrom     = from;
+            mTo       = to;
+        }
+
+        @Override
+        protected Histogram compute() {
+            if (mTo - mFrom <= VALUES_PER_TASK) {
+                Histogram histogram = mTemplate.newEmptyCopy();
+                histogram.addAll(mArray, mFrom, mTo);
+                return histogram;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            Fill low  = new Fill(mTemplate, mArray, mFrom, middle);
+            Fill high = new Fill(mTemplate, mArray, middle, mTo);
+            high.fork();
+            Histogram histogram = low.compute();
+            histogram.merge(high.join());
+            return histogram;
+        }
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -69,19 +145,7 @@ public class Histogram {
      * @param high High limit in pixel value units
      */
     public Histogram(int low, int high) {
-        mNbins  = high - low;
-        mBins   = new int[mNbins];
-        mValues = new int[mNbins];
-
-        int index = 0;
-        for (int i = low; i < high; i++) {
-            mBins[index]   = i;
-            mValues[index] = 0;
-            index++;
-        }
-
-        mUnderflow = 0;
-        mOverflow  = 0;
+        this((float) low, (float) high, high - low);
     }
 
     // Histogram....................................................................................
@@ -93,9 +157,86 @@ public class Histogram {
         this(range.getLower(), range.getUpper());
     }
 
+    // Histogram....................................................................................
+    /**
+     * Creates a new histogram of nBins equal-width bins from low to high
+     * @param low Low edge of the first bin
+     * @param high High edge of the last bin (must be greater than low)
+     * @param nBins Number of bins (must be at least 1)
+     */
+    public Histogram(float low, float high, int nBins) {
+        mNbins = nBins;
+        mLow   = low;
+        mHigh  = high;
+        mEdges = new double[mNbins + 1];
+        for (int i = 0; i < mNbins; i++) {
+            mEdges[i] = low + (high - (double) low) * i / mNbins;
+        }
+        mEdges[mNbins] = high;
+
+        mInverseWidth = mNbins / (mHigh - mLow);
+        mLookup       = null;
+        mValues       = new int[mNbins];
+    }
+
+    // Histogram....................................................................................
+    /**
+     * Creates a new histogram with variable-width bins
+     * @param edges Bin edges in increasing order, bin i is [edges[i], edges[i + 1]),
+     *              so there is one less bin than edges (must be at least 2 edges)
+     */
+    public Histogram(@NonNull float[] edges) {
+        mNbins = edges.length - 1;
+        mLow   = edges[0];
+        mHigh  = edges[mNbins];
+        mEdges = new double[mNbins + 1];
+        double minWidth = mHigh - mLow;
+        for (int i = 0; i <= mNbins; i++) {
+            mEdges[i] = edges[i];
+            if (i > 0) {
+                minWidth = Math.min(minWidth, mEdges[i] - mEdges[i - 1]);
+            }
+        }
+
+        // Lookup cells as fine as the narrowest bin (within reason), each cell starts in the bin
+        // holding its low edge
+        double nCells = Math.ceil((mHigh - mLow) / minWidth);
+        int nLookup   = (int) Math.min(nCells, (double) LOOKUP_CELLS_PER_BIN * mNbins);
+        mInverseWidth = nLookup / (mHigh - mLow);
+        mLookup       = new int[nLookup];
+        int bin = 0;
+        for (int i = 0; i < nLookup; i++) {
+            double cellLow = mLow + i / mInverseWidth;
+            while (bin < mNbins - 1 && cellLow >= mEdges[bin + 1]) {
+                bin++;
+            }
+            mLookup[i] = bin;
+        }
+
+        mValues = new int[mNbins];
+    }
+
     // Public Instance Methods
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
+    // newEmptyCopy.................................................................................
+    /**
+     * @return A new, empty histogram with exactly the same bins as this one (e.g. a per-thread
+     *         sub-histogram to merge() back in later)
+     */
+    @NonNull
+    public Histogram newEmptyCopy() {
+        Histogram copy = new Histogram();
+        copy.mEdges        = mEdges;
+        copy.mNbins        = mNbins;
+        copy.mLow          = mLow;
+        copy.mHigh         = mHigh;
+        copy.mInverseWidth = mInverseWidth;
+        copy.mLookup       = mLookup;
+        copy.mValues       = new int[mNbins];
+        return copy;
+    }
+
     // add..........................................................................................
     /**
      * Add the value to the histogram
@@ -116,6 +257,56 @@ public class Histogram {
       return bin;
     }
 
+    // addAll.......................................................................................
+    /**
+     * Add a range of values to the histogram
+     * @param values Values to add
+     * @param from First element to add
+     * @param to One past the last element to add
+     */
+    public void addAll(@NonNull float[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            add(values[i]);
+        }
+    }
+
+    // addAllParallel...............................................................................
+    /**
+     * Add a range of values to the histogram, filling sub-histograms across all cores and
+     * merging them in (same result as addAll())
+     * Note: blocks until done, the histogram must not be touched by other threads meanwhile
+     * @param values Values to add
+     * @param from First element to add
+     * @param to One past the last element to add
+     */
+    public void addAllParallel(@NonNull float[] values, int from, int to) {
+        if (to - from <= VALUES_PER_TASK) {
+            addAll(values, from, to);
+            return;
+        }
+        merge(getPool().invoke(new Fill(this, values, from, to)));
+    }
+
+    // merge........................................................................................
+    /**
+     * Add another histogram's values (including underflow/overflow) into this one
+     * @param other Histogram with the same bins as this one
+     * @return True if merged, false if the bins differ (nothing is merged)
+     */
+    public boolean merge(@NonNull Histogram other) {
+        if (other.mEdges != mEdges && !Arrays.equals(other.mEdges, mEdges)) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot merge histograms with different bins");
+            return false;
+        }
+        for (int i = 0; i < mNbins; i++) {
+            mValues[i] += other.mValues[i];
+        }
+        mUnderflow += other.mUnderflow;
+        mOverflow  += other.mOverflow;
+        return true;
+    }
+
     // getBinCenter.................................................................................
     /**
      * @param bin Bin number
@@ -125,26 +316,50 @@ public class Histogram {
         if (bin < 0 || bin > mNbins - 1) {
             return Double.NaN;
         }
-        return mBins[bin] + 0.5;
+        return (mEdges[bin] + mEdges[bin + 1]) / 2.;
+    }
+
+    // getBinLowEdge................................................................................
+    /**
+     * @param bin Bin number, [0, nBins] (nBins gives the high edge of the last bin)
+     * @return The low edge of the bin, Double.NaN if bin number is beyond [0, nBins]
+     */
+    public double getBinLowEdge(int bin) {
+        if (bin < 0 || bin > mNbins) {
+            return Double.NaN;
+        }
+        return mEdges[bin];
     }
 
     // getBinNumber.................................................................................
     /**
      * @param value Value to find the bin number
-     * @return The bin number where value lies, -1 if underflow, Nbins if overflow
+     * @return The bin number where value lies, -1 if underflow, Nbins if overflow (or NaN)
      */
     public int getBinNumber(double value) {
-        if (value < mBins[0]) {
+        if (value < mLow) {
             return -1;
         }
+        if (!(value < mHigh)) {
+            return mNbins;
+        }
 
-        for (int i = 0; i < mNbins; i++) {
-            if (value >= mBins[i] && value < mBins[i] + 1) {
-                return i;
-            }
+        int bin;
+        if (mLookup == null) {
+            bin = Math.min((int) ((value - mLow) * mInverseWidth), mNbins - 1);
+        }
+        else {
+            bin = mLookup[Math.min((int) ((value - mLow) * mInverseWidth), mLookup.length - 1)];
         }
 
-        return mNbins;
+        // Rounding (or a lookup cell spanning more than one bin) can land a bin or so off
+        while (value < mEdges[bin]) {
+            bin--;
+        }
+        while (value >= mEdges[bin + 1]) {
+            bin++;
+        }
+        return bin;
     }
 
     // getValue.....................................................................................
@@ -199,7 +414,8 @@ public class Histogram {
 
     // getMaxStdDev.................................................................................
     /**
-     * @return The standard deviation immediately surrounding the max bin (+/- 10 pixel values)
+     * @return The standard deviation immediately surrounding the max bin (+/- 10 bins, i.e.
+     *         +/- 10 pixel values for integer pixel step bins)
      */
     public double getMaxStdDev() {
         int delta   = 10;
@@ -229,4 +445,19 @@ public class Histogram {
         }
     }
 
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // getPool......................................................................................
+    /**
+     * @return The fork-join pool for addAllParallel(), one thread per core
+     */
+    @NonNull
+    private static synchronized ForkJoinPool getPool() {
+        if (mPool == null) {
+            mPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return mPool;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Compact list of the pixels in one frame found to be above the significance threshold, i.e.
+ * (x, y, raw value, significance) for each, instead of a full frame of significance values.
+ * The list is bounded, if a frame has more hits than fit (or than the live kernel could record
+ * for a row), the list is flagged as overflowed and only the first hits are kept.
+ */
+@TargetApi(21)
+final class HitList {
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mTimestamp...................................................................................
+    // Sensor timestamp of the frame
+    private final long mTimestamp;
+
+    // mThreshold...................................................................................
+    // Significance threshold in use for this frame
+    private final float mThreshold;
+
+    // Hits.........................................................................................
+    // Column, row, raw pixel value and significance of each hit, only the first mNhits are valid
+    private final int[]   mX;
+    private final int[]   mY;
+    private final int[]   mValue;
+    private final float[] mSignificance;
+    private int mNhits;
+
+    // mOverflow....................................................................................
+    // True if there were more hits than this list could hold
+    private boolean mOverflow;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // HitList......................................................................................
+    /**
+     * Disabled
+     */
+    private HitList() { this(0L, 0.f, 1); }
+
+    // HitList......................................................................................
+    /**
+     * Create a new, empty hit list
+     * @param timestamp Sensor timestamp of the frame
+     * @param threshold Significance threshold in use for this frame
+     * @param capacity Maximum number of hits held
+     */
+    HitList(long timestamp, float threshold, int capacity) {
+        mTimestamp = timestamp;
+        mThreshold = threshold;
+
+        capacity = Math.max(1, capacity);
+        mX            = new int[capacity];
+        mY            = new int[capacity];
+        mValue        = new int[capacity];
+        mSignificance = new float[capacity];
+
+        mNhits    = 0;
+        mOverflow = false;
+    }
+
+    // Package-private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // add..........................................................................................
+    /**
+     * Add a hit to the end of the list, if the list is full it is flagged as overflowed instead
+     * @param x Pixel column
+     * @param y Pixel row
+     * @param value Raw pixel value
+     * @param significance Pixel significance
+     * @return True if the hit was added, false if the list was full
+     */
+    boolean add(int x, int y, int value, float significance) {
+        if (mNhits == mX.length) {
+            mOverflow = true;
+            return false;
+        }
+        mX[mNhits]            = x;
+        mY[mNhits]            = y;
+        mValue[mNhits]        = value;
+        mSignificance[mNhits] = significance;
+        mNhits++;
+        return true;
+    }
+
+    // setOverflow..................................................................................
+    /**
+     * Flag this list as overflowed, i.e. there were hits that could not be recorded
+     */
+    void setOverflow() { mOverflow = true; }
+
+    // getTimestamp.................................................................................
+    /**
+     * @return Sensor timestamp of the frame
+     */
+    @Contract(pure = true)
+    long getTimestamp() { return mTimestamp; }
+
+    // getThreshold.................................................................................
+    /**
+     * @return Significance threshold in use for this frame
+     */
+    @Contract(pure = true)
+    float getThreshold() { return mThreshold; }
+
+    // getNhits.....................................................................................
+    /**
+     * @return Number of hits in the list
+     */
+    @Contract(pure = true)
+    int getNhits() { return mNhits; }
+
+    // isOverflow...................................................................................
+    /**
+     * @return True if there were more hits than recorded, false if the list is complete
+     */
+    @Contract(pure = true)
+    boolean isOverflow() { return mOverflow; }
+
+    // getX.........................................................................................
+    /**
+     * @param i Hit index (0 to getNhits() - 1)
+     * @return Pixel column
+     */
+    @Contract(pure = true)
+    int getX(int i) { return mX[i]; }
+
+    // getY.........................................................................................
+    /**
+     * @param i Hit index (0 to getNhits() - 1)
+     * @return Pixel row
+     */
+    @Contract(pure = true)
+    int getY(int i) { return mY[i]; }
+
+    // getValue.....................................................................................
+    /**
+     * @param i Hit index (0 to getNhits() - 1)
+     * @return Raw pixel value
+     */
+    @Contract(pure = true)
+    int getValue(int i) { return mValue[i]; }
+
+    // getSignificance..............................................................................
+    /**
+     * @param i Hit index (0 to getNhits() - 1)
+     * @return Pixel significance
+     */
+    @Contract(pure = true)
+    float getSignificance(int i) { return mSignificance[i]; }
+
+}
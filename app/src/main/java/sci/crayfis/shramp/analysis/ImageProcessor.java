@@ -20,6 +20,7 @@ import android.annotation.TargetApi;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.renderscript.Allocation;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -27,23 +28,29 @@ import android.util.Log;
 
 import org.jetbrains.annotations.Contract;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import sci.crayfis.shramp.GlobalSettings;
-import sci.crayfis.shramp.ScriptC_PostProcessing;
-import sci.crayfis.shramp.ScriptC_LiveProcessing;
 import sci.crayfis.shramp.battery.BatteryController;
 import sci.crayfis.shramp.util.Datestamp;
 import sci.crayfis.shramp.util.HandlerManager;
 import sci.crayfis.shramp.util.NumToString;
+import sci.crayfis.shramp.util.Quiesce;
+import sci.crayfis.shramp.util.RunManifest;
 import sci.crayfis.shramp.util.StopWatch;
 import sci.crayfis.shramp.util.StorageMedia;
 
 
 /**
- * Oversees both live and post image processing with RenderScript
+ * Oversees both live and post image processing, the math itself is done by a ComputeBackend
+ * (RenderScript or CPU)
  */
 @TargetApi(21)
 abstract class ImageProcessor {
@@ -60,6 +67,29 @@ abstract class ImageProcessor {
     private static final Handler mHandler = HandlerManager.newHandler(THREAD_NAME,
                                                     GlobalSettings.IMAGE_PROCESSOR_THREAD_PRIORITY);
 
+    // STATISTICS_THREAD_NAME.......................................................................
+    // Statistics from a snapshot of the running totals are computed on their own thread, alongside
+    // live processing
+    private static final String STATISTICS_THREAD_NAME = "StatisticsThread";
+
+    // mStatisticsHandler...........................................................................
+    // Reference to the StatisticsThread's Handler
+    private static final Handler mStatisticsHandler = HandlerManager.newHandler(STATISTICS_THREAD_NAME,
+                                                    GlobalSettings.STATISTICS_THREAD_PRIORITY);
+
+    // mSnapshotInProgress..........................................................................
+    // Held from the moment running totals are frozen until statistics have been computed from them
+    private static final Semaphore mSnapshotInProgress = new Semaphore(1);
+
+    // mSnapshotResult..............................................................................
+    // Statistics computed from the last snapshot, waiting to be installed on the ImageProcessorThread
+    private static final AtomicReference<Snapshot> mSnapshotResult = new AtomicReference<>();
+
+    // mSnapshot....................................................................................
+    // Reused for every snapshot: TakeSnapshot installs the last one before the next is computed,
+    // so nothing still needs these arrays when ComputeSnapshot writes them again
+    private static final Snapshot mSnapshot = new Snapshot();
+
     // mIsFirstFrame................................................................................
     // Thread-safe flag denoting the first frame to be processed
     private static final AtomicBoolean mIsFirstFrame = new AtomicBoolean();
@@ -72,46 +102,38 @@ abstract class ImageProcessor {
     // Thread-safe count of frames with at least one pixel found to be above threshold
     private static final AtomicInteger mFramesAboveThreshold = new AtomicInteger();
 
-    // mCountAboveThresholdArray....................................................................
-    // Number of pixels in a frame that were found to be above threshold.
-    // Corresponds to mCountAboveThreshold (RenderScript Allocation) below
-    private static final long[] mCountAboveThresholdArray = new long[1];
+    // mClusterCount / mFramesWithClusters..........................................................
+    // Thread-safe count of reconstructed clusters (cosmic-ray candidates), and of frames with at
+    // least one, since the last resetTotals() (for rate monitoring)
+    private static final AtomicLong mClusterCount       = new AtomicLong();
+    private static final AtomicLong mFramesWithClusters = new AtomicLong();
 
-    // mAnomalousStdDevArray........................................................................
-    // In the process of determining the mean and standard deviation, an unlikely overflow in
-    // the summing variables might occur under extreme conditions, if this happens the number of
-    // pixels with this problem are recorded in this variable.
-    // Corresponds to mAnomalousStdDev (RenderScript Allocation) below
-    private static final long[] mAnomalousStdDevArray = new long[1];
+    // mThresholdsStale.............................................................................
+    // Thread-safe flag denoting the backend's trigger threshold map is out of date, i.e. statistics
+    // or the significance threshold have changed since it was last computed
+    private static final AtomicBoolean mThresholdsStale = new AtomicBoolean(true);
 
     // ENABLED / DISABLED...........................................................................
     // Constants denoting whether significance testing is enabled or disabled
     private static final int ENABLED  = 1;
     private static final int DISABLED = 0;
 
+    // MAX_8BIT_VALUE / MAX_16BIT_VALUE.............................................................
+    // Largest pixel values, same as gMax8bitValue / gMax16bitValue in LiveProcessing.rs
+    private static final long MAX_8BIT_VALUE  = 255L;
+    private static final long MAX_16BIT_VALUE = 1023L;
+
     // Private Class Fields
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-    // mLiveScript..................................................................................
-    // Reference to the LiveProcessing.rs RenderScript
-    private static ScriptC_LiveProcessing mLiveScript;
-
-    // mPostScript..................................................................................
-    // Reference to the PostProcessing.rs RenderScript
-    private static ScriptC_PostProcessing mPostScript;
-
-    // mImage.......................................................................................
-    // Image data (received from an ImageWrapper) converted into a RenderScript Allocation
-    private static Allocation mImage;
+    // mBackend.....................................................................................
+    // Does the live and post processing math (see ComputeBackend)
+    private static ComputeBackend mBackend;
 
     // mEnableSignificance..........................................................................
     // Denotes whether significance testing is enabled or disabled
     private static int mEnableSignificance = DISABLED;
 
-    // mSignificance................................................................................
-    // Significance of each pixel in an image as a RenderScript Allocation
-    private static Allocation mSignificance;
-
     // mSignifPosHist...............................................................................
     // Significance of each mask=1 pixel in histogram form as a RenderScript Allocation
     private static Allocation mSignifPosHist;
@@ -120,36 +142,87 @@ abstract class ImageProcessor {
     // Significance of each mask=0 pixel in histogram form as a RenderScript Allocation
     private static Allocation mSignifNegHist;
 
-    // mCountAboveThreshold.........................................................................
-    // Number of pixels in a frame that were found to above threshold.
-    // Corresponds to mCountAboveThresholdArray above
-    private static Allocation mCountAboveThreshold;
+    // mRowCountsArray..............................................................................
+    // Java-side copy of a FrameBuffer's per-row partial counts of pixels above threshold, each
+    // written by exactly one row kernel instance so no count is lost under parallel execution
+    private static int[] mRowCountsArray;
+
+    // Hit list arrays..............................................................................
+    // Java-side copies of a FrameBuffer's hit list slots
+    private static int[]   mHitColumnArray;
+    private static int[]   mHitValueArray;
+    private static float[] mHitSignificanceArray;
+
+    // mSignificanceArray...........................................................................
+    // Java-side copy of the backend's significance, only allocated once it is saved
+    private static float[] mSignificanceArray;
+
+    // mFrameBuffers................................................................................
+    // Rotating per-frame state, one for each of the backend's frame slots
+    private static final List<FrameBuffer> mFrameBuffers = new ArrayList<>();
 
-    // mAnomalousStdDev.............................................................................
-    // In the process of determining the mean and standard deviation, an unlikely overflow in
-    // the summing variables might occur under extreme conditions, if this happens the number of
-    // pixels with this problem are recorded in this variable.
-    // Corresponds to mAnomalousStdDevArray above
-    private static Allocation mAnomalousStdDev;
+    // mNextFrameBuffer.............................................................................
+    // Index of the FrameBuffer the next frame is uploaded into
+    private static int mNextFrameBuffer;
+
+    // mPendingFrameBuffer..........................................................................
+    // FrameBuffer whose kernel has been launched but whose results have not been read back yet,
+    // null if there is none
+    private static FrameBuffer mPendingFrameBuffer;
 
     // Inner Classes
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
     // RunningTotal.................................................................................
     // Collection of quantities that increase with each image processed
+    // The backend keeps 32-bit running sums that are cheap to update every frame, every
+    // FlushInterval frames they are added into 64-bit running totals and zeroed before they can overflow
+    // Nsummed counts the frames in the running sums (trigger-only frames are not summed)
     private abstract static class RunningTotal {
         static long       Nframes;
-        static Allocation ValueSum;
-        static Allocation Value2Sum;
+        static long       Nsummed;
+        static int        FramesSinceFlush;
+        static int        FlushInterval;
+    }
+
+    // FrameBuffer..................................................................................
+    // One of the backend's frame slots, these rotate so that one frame's pixels can be uploaded
+    // while the previous frame is still being processed (backend launches are asynchronous,
+    // results are only waited on when read back).
+    //      Slot: the backend frame slot holding the image data, row counts and hit list slots
+    // The rest describe the frame in flight, valid while Pending is true.
+    private static final class FrameBuffer {
+        int     Slot;
+        boolean Pending;
+        boolean SignificanceEnabled;
+        boolean SaveSignificance;
+        boolean TriggerOnly;
+        long    FrameNumber;
+        long    Timestamp;
+        long    LaunchNanos;
+        Long    Exposure;
+        Float   Temperature;
+        Double  Power;
+    }
+
+    // Snapshot.....................................................................................
+    // Statistics computed from a snapshot of the running totals [width x height pixels]
+    private static final class Snapshot {
+        float[] Mean;
+        float[] StdDev;
+        float[] StdErr;
     }
 
     // PostProcessing...................................................................................
     // Collection of quantities of a statistical nature
+    // Mean, StdDev, StdErr and Mask belong to this class (made once per image size), statistics are
+    // copied into them, MaskArray is a Java-side copy of Mask for handing to the backend
     private abstract static class Statistics {
         static Allocation Mean;
         static Allocation StdDev;
         static Allocation StdErr;
         static Allocation Mask;
+        static byte[]     MaskArray;
         static float      SignificanceThreshold;
     }
 
@@ -157,6 +230,14 @@ abstract class ImageProcessor {
     private abstract static class StopWatches {
         final static StopWatch LiveProcessing = new StopWatch("ImageProcessor.process()");
         final static StopWatch PostProcessing = new StopWatch("ImageProcessor.runStatistics()");
+        final static StopWatch Snapshot       = new StopWatch("ImageProcessor snapshot running totals");
+        final static StopWatch FlushRunningSums = new StopWatch("ImageProcessor.flushRunningSums()");
+        final static StopWatch BuildClusters   = new StopWatch("ClusterBuilder.build()");
+        final static StopWatch ComputeThresholds = new StopWatch("ComputeBackend.computeThresholds()");
+        final static StopWatch Upload          = new StopWatch("ImageProcessor upload");
+        final static StopWatch Launch          = new StopWatch("ImageProcessor kernel launch");
+        final static StopWatch Wait            = new StopWatch("ImageProcessor kernel wait");
+        final static StopWatch Overlap         = new StopWatch("ImageProcessor upload overlapping previous kernel");
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -168,10 +249,11 @@ abstract class ImageProcessor {
 
     // isBusy.......................................................................................
     /**
-     * @return True if there are image processing jobs still in queue, false if idling
+     * @return True if there are image processing jobs still in queue or statistics are being
+     *         computed, false if idling
      */
     static boolean isBusy() {
-        return mBacklog.get() != 0;
+        return mBacklog.get() != 0 || mSnapshotInProgress.availablePermits() == 0;
     }
 
     // getBacklog...................................................................................
@@ -182,6 +264,22 @@ abstract class ImageProcessor {
         return mBacklog.get();
     }
 
+    // getClusterCount..............................................................................
+    /**
+     * @return The number of clusters (cosmic-ray candidates) found since totals were last reset
+     */
+    static long getClusterCount() {
+        return mClusterCount.get();
+    }
+
+    // getFramesWithClusters........................................................................
+    /**
+     * @return The number of frames with at least one cluster since totals were last reset
+     */
+    static long getFramesWithClusters() {
+        return mFramesWithClusters.get();
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
     // enableSignificance...........................................................................
@@ -190,7 +288,7 @@ abstract class ImageProcessor {
      */
     static void enableSignificance() {
         mEnableSignificance = ENABLED;
-        mLiveScript.set_gEnableSignificance(mEnableSignificance);
+        mBackend.setSignificanceEnabled(true);
     }
 
     // disableSignificance..........................................................................
@@ -199,7 +297,7 @@ abstract class ImageProcessor {
      */
     static void disableSignificance() {
         mEnableSignificance = DISABLED;
-        mLiveScript.set_gEnableSignificance(mEnableSignificance);
+        mBackend.setSignificanceEnabled(false);
     }
 
     // isSignificanceEnabled........................................................................
@@ -213,12 +311,11 @@ abstract class ImageProcessor {
 
     // getSignificance..............................................................................
     /**
-     * @return RenderScript Allocation of pixel statistical significance for last image processed
+     * @param significance Output, pixel statistical significance for last image processed with
+     *                     significance saving [width x height pixels]
      */
-    @Contract(pure = true)
-    @NonNull
-    static Allocation getSignificance() {
-        return mSignificance;
+    static void getSignificance(@NonNull float[] significance) {
+        mBackend.getSignificance(significance);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -265,85 +362,81 @@ abstract class ImageProcessor {
 
     // getValueSum..................................................................................
     /**
-     * @return RenderScript Allocation of the pixel-wise sum of processed pixel values
+     * @param valueSum Output, pixel-wise sum (64-bit) of processed pixel values, up to the last
+     *                 flush (runStatistics() always flushes) [width x height pixels]
      */
-    @Contract(pure = true)
-    @NonNull
-    static Allocation getValueSum() {
-        return RunningTotal.ValueSum;
+    static void getValueSum(@NonNull long[] valueSum) {
+        mBackend.getValueTotal(valueSum);
     }
 
     // getValue2Sum.................................................................................
     /**
-     * @return RenderScript Allocation of the pixel-wise sum of processed pixel values**2
+     * @param value2Sum Output, pixel-wise sum (64-bit) of processed pixel values**2, up to the
+     *                  last flush (runStatistics() always flushes) [width x height pixels]
      */
-    @Contract(pure = true)
-    @NonNull
-    static Allocation getValue2Sum() {
-        return RunningTotal.Value2Sum;
+    static void getValue2Sum(@NonNull long[] value2Sum) {
+        mBackend.getValue2Total(value2Sum);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
-    // setLiveProcessor.............................................................................
-    /**
-     * @param script Reference to RenderScript LiveProcessing.rs
-     */
-    static void setLiveProcessor(@NonNull ScriptC_LiveProcessing script) {
-        mLiveScript = script;
-    }
-
-    // setPostProcessor.............................................................................
-    /**
-     * @param script Reference to RenderScript PostProcessing.rs
-     */
-    static void setPostProcessor(@NonNull ScriptC_PostProcessing script) { mPostScript = script; }
-
-    // setImageAllocation...........................................................................
-    /**
-     * @param image Initialized RenderScript Allocation to contain image data
-     */
-    static void setImageAllocation(@NonNull Allocation image) {
-        mImage = image;
-    }
-
-    // setSignificanceAllocation....................................................................
-    /**
-     * @param significance Initialized RenderScript Allocation to contain pixel significance
-     */
-    static void setSignificanceAllocation(@NonNull Allocation significance) { mSignificance = significance; }
-
-    // setCountAboveThresholdAllocation.............................................................
+    // setBackend...................................................................................
     /**
-     * @param countAboveThreshold Initialized RenderScript Allocation to count pixels above threshold
+     * Use this backend from now on, with one FrameBuffer for each of its frame slots
+     * (e.g. when initializing, or re-initializing with a new image size)
+     * @param backend RenderScriptBackend or CpuBackend, already set up for the current image size
      */
-    static void setCountAboveThresholdAllocation(@NonNull Allocation countAboveThreshold) {
-        mCountAboveThreshold = countAboveThreshold;
-    }
+    static void setBackend(@NonNull ComputeBackend backend) {
+        mBackend = backend;
+
+        mFrameBuffers.clear();
+        for (int slot = 0; slot < backend.getFrameSlots(); slot++) {
+            FrameBuffer buffer = new FrameBuffer();
+            buffer.Slot = slot;
+            mFrameBuffers.add(buffer);
+        }
+        mNextFrameBuffer    = 0;
+        mPendingFrameBuffer = null;
+
+        mRowCountsArray = new int[ImageWrapper.getNrows()];
+        int nSlots = GlobalSettings.MAX_HITS_PER_ROW * ImageWrapper.getNrows();
+        mHitColumnArray       = new int[nSlots];
+        mHitValueArray        = new int[nSlots];
+        mHitSignificanceArray = new float[nSlots];
+
+        // Statistics for an old image size are no use to the new backend
+        if (Statistics.MaskArray != null && Statistics.MaskArray.length == ImageWrapper.getNpixels()) {
+            loadBackendStatistics();
+        }
+        mBackend.setSignificanceThreshold(Statistics.SignificanceThreshold);
+        mBackend.setSignificanceEnabled(mEnableSignificance == ENABLED);
+        mThresholdsStale.set(true);
 
-    // setAnomalousStdDevAllocation.................................................................
-    /**
-     * @param anomalousStdDev Initialized RenderScript Allocation to count overflows in summing
-     */
-    static void setAnomalousStdDevAllocation(@NonNull Allocation anomalousStdDev) {
-        mAnomalousStdDev = anomalousStdDev;
+        Log.e(Thread.currentThread().getName(), "Compute backend: " + backend.getName());
     }
 
     // setStatistics................................................................................
     /**
-     * @param mean Initialized RenderScript Allocation to contain pixel means
-     * @param stdDev Initialized RenderScript Allocation to contain pixel standard deviations
-     * @param stdErr Initialized RenderScript Allocation to contain pixel standard errors
-     * @param mask Initialized RenderScript Allocation to contain pixel mask
+     * Copy statistics in, the caller keeps its Allocations
+     * @param mean Initialized RenderScript Allocation containing pixel means
+     * @param stdDev Initialized RenderScript Allocation containing pixel standard deviations
+     * @param stdErr Initialized RenderScript Allocation containing pixel standard errors
+     * @param mask Initialized RenderScript Allocation containing pixel mask
      */
     static void setStatistics(@NonNull Allocation mean,
                               @NonNull Allocation stdDev,
                               @NonNull Allocation stdErr,
                               @NonNull Allocation  mask) {
-        Statistics.Mean   = mean;
-        Statistics.StdDev = stdDev;
-        Statistics.StdErr = stdErr;
-        Statistics.Mask   = mask;
+        makeStatisticsAllocations();
+        Statistics.Mean.copyFrom(mean);
+        Statistics.StdDev.copyFrom(stdDev);
+        Statistics.StdErr.copyFrom(stdErr);
+        Statistics.Mask.copyFrom(mask);
+        mask.copyTo(Statistics.MaskArray);
+        if (mBackend != null) {
+            loadBackendStatistics();
+        }
+        mThresholdsStale.set(true);
     }
 
     // setSignificanceThreshold.....................................................................
@@ -351,42 +444,52 @@ abstract class ImageProcessor {
      * @param threshold Threshold to determine if a pixel's value is statistically significant
      */
     static void setSignificanceThreshold(float threshold) {
-        mLiveScript.set_gSignificanceThreshold(threshold);
+        mBackend.setSignificanceThreshold(threshold);
         Statistics.SignificanceThreshold = threshold;
+        mThresholdsStale.set(true);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
     // resetTotals..................................................................................
     /**
-     * Reset all running / summing variables for a fresh start, reset live-processing RenderScript globals
+     * Reset all running / summing variables for a fresh start, reset the backend's running sums.
+     * The running sums are reset on the ImageProcessorThread, after anything already queued there
+     * (e.g. a statistics snapshot).
      */
     static void resetTotals() {
-        mBacklog.set(0);
+        PixelBufferPool.logStatistics();
+
         mFramesAboveThreshold.set(0);
+        mClusterCount.set(0L);
+        mFramesWithClusters.set(0L);
         mIsFirstFrame.set(true);
 
-        RunningTotal.Nframes = 0L;
-        if (RunningTotal.ValueSum == null || RunningTotal.Value2Sum == null) {
-            RunningTotal.ValueSum  = AnalysisController.newUIntAllocation();
-            RunningTotal.Value2Sum = AnalysisController.newUIntAllocation();
-        }
-
-        mLiveScript.forEach_zeroUIntAllocation(RunningTotal.ValueSum);
-        mLiveScript.forEach_zeroUIntAllocation(RunningTotal.Value2Sum);
+        class ResetTotals implements Runnable {
+            @Override
+            public void run() {
+                // Anything still in flight belongs to the old totals
+                for (FrameBuffer buffer : mFrameBuffers) {
+                    buffer.Pending = false;
+                }
+                mPendingFrameBuffer = null;
 
-        mLiveScript.set_gValueSum(RunningTotal.ValueSum);
-        mLiveScript.set_gValue2Sum(RunningTotal.Value2Sum);
+                RunningTotal.Nframes = 0L;
+                RunningTotal.Nsummed = 0L;
+                mBackend.resetTotals();
 
-        mLiveScript.set_gMean(Statistics.Mean);
-        mLiveScript.set_gStdDev(Statistics.StdDev);
-        mLiveScript.set_gMask(Statistics.Mask);
+                // Largest number of frames the 32-bit value**2 sum can hold without overflowing,
+                // (2^32 - 1) / (max pixel value)**2, i.e. ~66,000 frames for 8-bit and ~4,100 for 16-bit
+                long maxValue = ImageWrapper.is8bitData() ? MAX_8BIT_VALUE : MAX_16BIT_VALUE;
+                RunningTotal.FlushInterval    = (int) (0xFFFFFFFFL / (maxValue * maxValue));
+                RunningTotal.FramesSinceFlush = 0;
 
-        // Values are set in RenderScript LiveProcessing.rs
-        mLiveScript.set_gSignificance(mSignificance);
+                decrementBacklog();
+            }
+        }
 
-        // Zeroed in process()
-        mLiveScript.set_gCountAboveThreshold(mCountAboveThreshold);
+        mBacklog.incrementAndGet();
+        mHandler.post(new ResetTotals());
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -405,6 +508,7 @@ abstract class ImageProcessor {
         // big, I don't know why exactly, but it seems to be
         if (mIsFirstFrame.get()) {
             mIsFirstFrame.set(false);
+            wrapper.release();
             return;
         }
 
@@ -426,6 +530,10 @@ abstract class ImageProcessor {
             public void run() {
                 StopWatches.LiveProcessing.start();
 
+                // Pick up statistics from a finished snapshot, while one is still being computed
+                // keep testing significance against the statistics already in use
+                installSnapshot();
+
                 RunningTotal.Nframes += 1;
 
                 // Save every DEBUG_IMAGE_SAVING_INTERVAL image
@@ -444,67 +552,80 @@ abstract class ImageProcessor {
                     StorageMedia.writeInternalStorage(new OutputWrapper(filename, Wrapper, exposure, temperature.floatValue()), null);
                 }
 
-                // Zero count of number of pixels above threshold
-                mCountAboveThresholdArray[0] = 0L;
-                mCountAboveThreshold.copyFrom(mCountAboveThresholdArray);
-                mLiveScript.set_gCountAboveThreshold(mCountAboveThreshold);
-
-                // RenderScript image processing
-                if (ImageWrapper.is8bitData()) {
-                    mImage.copyFrom(Wrapper.get8bitData());
-                    mLiveScript.forEach_process8bitData(mImage);
+                // Rotate to the next FrameBuffer, it has to be done with its last frame first
+                FrameBuffer buffer = mFrameBuffers.get(mNextFrameBuffer);
+                mNextFrameBuffer = (mNextFrameBuffer + 1) % mFrameBuffers.size();
+                if (buffer.Pending) {
+                    completeFrame(buffer);
                 }
-                else { // ImageWrapper.is16bitData()
-                    mImage.copyFrom(Wrapper.get16bitData());
-                    mLiveScript.forEach_process16bitData(mImage);
+
+                // Move pixels into the backend, while the previous frame (if any) is processed
+                StopWatches.Upload.start();
+                mBackend.upload(buffer.Slot, Wrapper);
+                long uploadNanos = StopWatches.Upload.stop();
+                StopWatches.Upload.addTime(uploadNanos);
+
+                // Pixels are in the backend now, the array (or Image) can go to the next frame
+                Wrapper.release();
+
+                // Read back the previous frame before this one's kernel overwrites shared globals
+                if (mPendingFrameBuffer != null) {
+                    long sinceLaunch = SystemClock.elapsedRealtimeNanos() - mPendingFrameBuffer.LaunchNanos;
+                    StopWatches.Overlap.addTime(Math.min(uploadNanos, sinceLaunch));
+                    completeFrame(mPendingFrameBuffer);
                 }
 
-                if (mEnableSignificance == ENABLED) {
-
-                    mLiveScript.forEach_getCountAboveThreshold(mCountAboveThreshold);
-                    mCountAboveThreshold.copyTo(mCountAboveThresholdArray);
-                    Log.e(Thread.currentThread().getName(), "Pixel count above threshold: "
-                            + NumToString.number(mCountAboveThresholdArray[0]));
-
-                    // TODO: in the future when i'm happy with the rates over threshold, save it
-                    if (mCountAboveThresholdArray[0] > 0L) {
-                        //mLiveScript.forEach_getSignificance(mSignificance);
-                        // filename = [frame number]_[nanoseconds since start].signif
-                        //String filename = String.format(Locale.US, "%05d", RunningTotal.Nframes);
-                        //filename += "_" + String.format(Locale.US, "%015d", Datestamp.getElapsedTimestampNanos(Wrapper.getTimestamp()));
-                        //filename += GlobalSettings.SIGNIF_FILE;
-                        //DataQueue.add(new OutputWrapper(filename, mSignificance, 1));
-                    }
+                // Only write a full frame of significance if it is going to be saved
+                buffer.SignificanceEnabled = mEnableSignificance == ENABLED;
+                buffer.SaveSignificance    = buffer.SignificanceEnabled
+                        && GlobalSettings.DEBUG_SAVE_SIGNIFICANCE
+                        && RunningTotal.Nframes % GlobalSettings.DEBUG_SIGNIFICANCE_SAVING_INTERVAL == 0;
+                buffer.FrameNumber = RunningTotal.Nframes;
+                buffer.Timestamp   = Wrapper.getTimestamp();
+
+                // Conditions for the run manifest
+                buffer.Exposure    = Result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+                Double temperature = BatteryController.getCurrentTemperature();
+                buffer.Temperature = (temperature == null) ? null : temperature.floatValue();
+                buffer.Power       = BatteryController.getInstantaneousPower();
+
+                // If only the trigger decision is needed, compare against the threshold map
+                buffer.TriggerOnly = GlobalSettings.ENABLE_TRIGGER_ONLY
+                        && buffer.SignificanceEnabled && !buffer.SaveSignificance;
+                if (buffer.TriggerOnly && mThresholdsStale.getAndSet(false)) {
+                    StopWatches.ComputeThresholds.start();
+                    mBackend.computeThresholds();
+                    StopWatches.ComputeThresholds.addTime();
+                }
 
-                    // TODO: for now:
-                    // Save every DEBUG_SIGNIFICANCE_SAVING_INTERVAL significance
-                    // WARNING: each image will be ~40-50 MB or so and will slow down processing
-                    if (GlobalSettings.DEBUG_SAVE_SIGNIFICANCE
-                            && RunningTotal.Nframes % GlobalSettings.DEBUG_SIGNIFICANCE_SAVING_INTERVAL == 0) {
-                        mLiveScript.forEach_getSignificance(mSignificance);
-                        // filename = [frame number]_[nanoseconds since start].signif
-                        String filename = String.format(Locale.US, "%05d", RunningTotal.Nframes);
-                        filename += "_" + String.format(Locale.US, "%015d", Datestamp.getElapsedTimestampNanos(Wrapper.getTimestamp()));
-                        filename += GlobalSettings.SIGNIF_FILE;
-                        Double temperature = BatteryController.getCurrentTemperature();
-                        if (temperature == null) {
-                            temperature = Double.NaN;
-                        }
-                        StorageMedia.writeInternalStorage(new OutputWrapper(filename, mSignificance, 1, temperature.floatValue()), null);
+                // Image processing, one row at a time (asynchronous)
+                StopWatches.Launch.start();
+                if (buffer.TriggerOnly) {
+                    mBackend.launchTrigger(buffer.Slot);
+                }
+                else {
+                    mBackend.launch(buffer.Slot, buffer.SaveSignificance);
+                }
+                buffer.LaunchNanos  = SystemClock.elapsedRealtimeNanos();
+                buffer.Pending      = true;
+                mPendingFrameBuffer = buffer;
+                StopWatches.Launch.addTime();
+
+                // Move 32-bit sums into 64-bit totals before they can overflow
+                if (!buffer.TriggerOnly) {
+                    RunningTotal.Nsummed          += 1;
+                    RunningTotal.FramesSinceFlush += 1;
+                    if (RunningTotal.FramesSinceFlush >= RunningTotal.FlushInterval) {
+                        flushRunningSums();
                     }
+                }
 
-                    // TODO: remove in the future / figuring out threshold details
-                    //if (GlobalSettings.DEBUG_ENABLE_THRESHOLD_INCREASE && mCountAboveThresholdArray[0] > 0L) {
-                        //int nFrames = mFramesAboveThreshold.incrementAndGet();
-                        //if (nFrames >= GlobalSettings.MAX_FRAMES_ABOVE_THRESHOLD) {
-                        //    Log.e(Thread.currentThread().getName(), ":::::: REQUESTING THRESHOLD INCREASE :::::::");
-                        //    AnalysisController.increaseSignificanceThreshold();
-                        //    mFramesAboveThreshold.set(0);
-                        //}
-                    //}
+                // If no other frame is waiting, there is nothing to overlap with, finish this one now
+                if (mBacklog.get() <= 1) {
+                    completeFrame(buffer);
                 }
 
-                Log.e(Thread.currentThread().getName(), "Image processor backlog: " + NumToString.number(mBacklog.decrementAndGet()));
+                Log.e(Thread.currentThread().getName(), "Image processor backlog: " + NumToString.number(decrementBacklog()));
                 StopWatches.LiveProcessing.addTime( StopWatches.LiveProcessing.stop() );
             }
         }
@@ -515,92 +636,371 @@ abstract class ImageProcessor {
 
     // runStatistics................................................................................
     /**
-     * This method doesn't directly process statistics, rather it builds a Runnable that does
-     * and posts it to the ImageProcessorThread to avoid slowing down the calling thread and avoid
-     * running statistics in the middle of live image processing
+     * This method doesn't directly process statistics, rather it builds a Runnable that snapshots
+     * the running totals and posts it to the ImageProcessorThread, so it lands right after the
+     * frames already queued (no need to drain the pipeline first).  Live processing carries on
+     * into fresh running totals while statistics are computed from the snapshot on the
+     * StatisticsThread, they are used for significance testing as soon as they are done.
      * @param filename Optional filename to save statistics (file extension is provided by this
      *                 method)
+     * @param exposure Optional sensor exposure [ns] of the run, recorded in the calibration catalog
      */
-    static void runStatistics(@Nullable String filename) {
+    static void runStatistics(@Nullable String filename, @Nullable final Long exposure) {
 
-        class RunStatistics implements Runnable {
+        // Computes (and saves) statistics from frozen running totals on the StatisticsThread, then
+        // has them installed on the ImageProcessorThread
+        class ComputeSnapshot implements Runnable {
             // Payload
-            private String mFilename;
+            private final String mFilename;
+            private final long   mNframes;
 
             // Constructor
-            private RunStatistics(String filename) {
+            private ComputeSnapshot(@Nullable String filename, long nFrames) {
                 mFilename = filename;
+                mNframes  = nFrames;
             }
 
             // Action
             @Override
             public void run() {
                 StopWatches.PostProcessing.start();
+                try {
+                    int nPixels = ImageWrapper.getNpixels();
+                    Snapshot snapshot = mSnapshot;
+                    if (snapshot.Mean == null || snapshot.Mean.length != nPixels) {
+                        snapshot.Mean   = new float[nPixels];
+                        snapshot.StdDev = new float[nPixels];
+                        snapshot.StdErr = new float[nPixels];
+                    }
+
+                    // Compute statistics, one row at a time, and check for overflows
+                    long anomalousStdDev = mBackend.computeStatistics(mNframes, snapshot.Mean,
+                                                                      snapshot.StdDev, snapshot.StdErr);
+                    // TODO: make more of a big deal about this
+                    Log.e(Thread.currentThread().getName(), "Anomalous Std Dev Count: "
+                                                        + NumToString.number(anomalousStdDev));
+
+                    Double temperature = BatteryController.getCurrentTemperature();
+                    if (temperature == null) {
+                        temperature = Double.NaN;
+                    }
+
+                    if (GlobalSettings.DEBUG_SAVE_MEAN) {
+                        StorageMedia.writeCalibration(new OutputWrapper(mFilename + GlobalSettings.MEAN_FILE, snapshot.Mean, mNframes, temperature.floatValue()), exposure);
+                    }
+                    if (GlobalSettings.DEBUG_SAVE_STDDEV) {
+                        StorageMedia.writeCalibration(new OutputWrapper(mFilename + GlobalSettings.STDDEV_FILE, snapshot.StdDev, mNframes, temperature.floatValue()), exposure);
+                    }
 
-                if (ImageWrapper.is8bitData()) {
-                    mPostScript.set_gIs8bit(1); // true
+                    mSnapshotResult.set(snapshot);
                 }
-                else { // ImageWrapper.is16bitData()
-                    mPostScript.set_gIs8bit(0); // false
+                finally {
+                    mSnapshotInProgress.release();
+                    if (mBacklog.get() == 0) {
+                        Quiesce.signal();
+                    }
                 }
+                StopWatches.PostProcessing.addTime();
 
-                // Move value sum from LiveProcessing.rs to PostProcessing.rs
-                mLiveScript.forEach_getValueSum(RunningTotal.ValueSum);
-                mPostScript.set_gValueSum(RunningTotal.ValueSum);
-
-                // Move value**2 sum from LiveProcessing.rs to PostProcessing.rs
-                mLiveScript.forEach_getValue2Sum(RunningTotal.Value2Sum);
-                mPostScript.set_gValue2Sum(RunningTotal.Value2Sum);
-
-                // Zero overflow detection
-                mAnomalousStdDevArray[0] = 0L;
-                mAnomalousStdDev.copyFrom(mAnomalousStdDevArray);
-                mPostScript.set_gAnomalousStdDev(mAnomalousStdDev);
-
-                // Finish setting remaining globals
-                mPostScript.set_gNframes(RunningTotal.Nframes);
-                mPostScript.set_gMean(Statistics.Mean);
-                mPostScript.set_gStdDev(Statistics.StdDev);
-                mPostScript.set_gStdErr(Statistics.StdErr);
-
-                // Compute statistics and fetch from RenderScript
-                mPostScript.forEach_getMean(Statistics.Mean);
-                mPostScript.forEach_getStdDev(Statistics.StdDev);
-                mPostScript.forEach_getStdErr(Statistics.StdErr);
-
-                // Move new statistics over to LiveProcessing.rs
-                mLiveScript.set_gMean(Statistics.Mean);
-                mLiveScript.set_gStdDev(Statistics.StdDev);
-
-                // Check for overflows
-                mPostScript.forEach_getAnomalousStdDev(mAnomalousStdDev);
-                mAnomalousStdDev.copyTo(mAnomalousStdDevArray);
-                // TODO: make more of a big deal about this
-                Log.e(Thread.currentThread().getName(), "Anomalous Std Dev Count: "
-                                                    + NumToString.number(mAnomalousStdDevArray[0]));
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        installSnapshot();
 
-                Double temperature = BatteryController.getCurrentTemperature();
-                if (temperature == null) {
-                    temperature = Double.NaN;
+                        // TODO: remove in future
+                        PrintAllocations.printMaxMin();
+                    }
+                });
+            }
+        }
+
+        class TakeSnapshot implements Runnable {
+            // Payload
+            private String mFilename;
+
+            // Constructor
+            private TakeSnapshot(String filename) {
+                mFilename = filename;
+            }
+
+            // Action
+            @Override
+            public void run() {
+                StopWatches.Snapshot.start();
+
+                // Finish any frame still in flight so it counts toward these statistics
+                if (mPendingFrameBuffer != null) {
+                    completeFrame(mPendingFrameBuffer);
                 }
 
-                if (GlobalSettings.DEBUG_SAVE_MEAN) {
-                    StorageMedia.writeCalibration(new OutputWrapper(mFilename + GlobalSettings.MEAN_FILE, Statistics.Mean, RunningTotal.Nframes, temperature.floatValue()));
+                // Bring 64-bit totals up to date
+                flushRunningSums();
+
+                // The frozen totals are only kept for one snapshot at a time, wait for (and use)
+                // the last one if it is somehow still being computed
+                mSnapshotInProgress.acquireUninterruptibly();
+                installSnapshot();
+
+                // Freeze the totals and carry on into fresh ones
+                mBackend.snapshotTotals();
+                long nFrames = RunningTotal.Nsummed;
+                RunningTotal.Nsummed = 0L;
+
+                mStatisticsHandler.post(new ComputeSnapshot(mFilename, nFrames));
+
+                decrementBacklog();
+                StopWatches.Snapshot.addTime();
+            }
+        }
+
+        mBacklog.incrementAndGet();
+        mHandler.post(new TakeSnapshot(filename));
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // decrementBacklog.............................................................................
+    /**
+     * A processing job is done, let Quiesce know if the processor has gone idle
+     * @return The number of jobs still in backlog
+     */
+    private static int decrementBacklog() {
+        int backlog = mBacklog.decrementAndGet();
+        if (backlog == 0 && mSnapshotInProgress.availablePermits() != 0) {
+            Quiesce.signal();
+        }
+        return backlog;
+    }
+
+    // installSnapshot..............................................................................
+    /**
+     * Use the statistics from the last snapshot (if they haven't been already) from now on, they
+     * are copied into the statistics Allocations in place
+     * Note: must run on the ImageProcessor thread
+     */
+    private static void installSnapshot() {
+        Snapshot snapshot = mSnapshotResult.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
+        makeStatisticsAllocations();
+        Statistics.Mean.copyFrom(snapshot.Mean);
+        Statistics.StdDev.copyFrom(snapshot.StdDev);
+        Statistics.StdErr.copyFrom(snapshot.StdErr);
+
+        mBackend.setStatistics(snapshot.Mean, snapshot.StdDev, snapshot.StdErr, Statistics.MaskArray);
+        mThresholdsStale.set(true);
+    }
+
+    // makeStatisticsAllocations....................................................................
+    /**
+     * Make the statistics Allocations (and mask copy) if there are none yet for the current image
+     * size, ones for an old image size are destroyed
+     */
+    private static void makeStatisticsAllocations() {
+        int nPixels = ImageWrapper.getNpixels();
+        if (Statistics.MaskArray != null && Statistics.MaskArray.length == nPixels) {
+            return;
+        }
+        AnalysisController.destroyAllocation(Statistics.Mean);
+        AnalysisController.destroyAllocation(Statistics.StdDev);
+        AnalysisController.destroyAllocation(Statistics.StdErr);
+        AnalysisController.destroyAllocation(Statistics.Mask);
+
+        Statistics.Mean      = AnalysisController.newFloatAllocation();
+        Statistics.StdDev    = AnalysisController.newFloatAllocation();
+        Statistics.StdErr    = AnalysisController.newFloatAllocation();
+        Statistics.Mask      = AnalysisController.newUCharAllocation();
+        Statistics.MaskArray = new byte[nPixels];
+    }
+
+    // loadBackendStatistics........................................................................
+    /**
+     * Copy the statistics in use out of their Allocations and into the backend
+     */
+    private static void loadBackendStatistics() {
+        int nPixels = ImageWrapper.getNpixels();
+        float[] mean   = new float[nPixels];
+        float[] stdDev = new float[nPixels];
+        float[] stdErr = new float[nPixels];
+        Statistics.Mean.copyTo(mean);
+        Statistics.StdDev.copyTo(stdDev);
+        Statistics.StdErr.copyTo(stdErr);
+        mBackend.setStatistics(mean, stdDev, stdErr, Statistics.MaskArray);
+    }
+
+    // completeFrame................................................................................
+    /**
+     * Wait for a FrameBuffer's kernel to finish, read back its results, and build / save its hit
+     * list, clusters and significance (as enabled), and add the frame to the run manifest
+     * Note: must run on the ImageProcessor thread
+     * @param buffer FrameBuffer with a launched kernel
+     */
+    private static void completeFrame(@NonNull FrameBuffer buffer) {
+        if (!buffer.Pending) {
+            return;
+        }
+        buffer.Pending = false;
+        if (mPendingFrameBuffer == buffer) {
+            mPendingFrameBuffer = null;
+        }
+
+        long elapsedNanos = Datestamp.getElapsedTimestampNanos(buffer.Timestamp);
+
+        if (!buffer.SignificanceEnabled) {
+            StorageMedia.writeManifest(new RunManifest.Row(buffer.FrameNumber, buffer.Timestamp,
+                    elapsedNanos, buffer.Exposure, buffer.Temperature, buffer.Power, null, null), null);
+            return;
+        }
+
+        // Blocks until the kernel is done
+        StopWatches.Wait.start();
+        mBackend.finish(buffer.Slot, mRowCountsArray);
+        long countAboveThreshold = sumRowCounts();
+        StopWatches.Wait.addTime();
+
+        Log.e(Thread.currentThread().getName(), "Pixel count above threshold: "
+                + NumToString.number(countAboveThreshold));
+
+        // filename = [frame number]_[nanoseconds since start]
+        String filename = String.format(Locale.US, "%05d", buffer.FrameNumber);
+        filename += "_" + String.format(Locale.US, "%015d", elapsedNanos);
+
+        if (countAboveThreshold == 0L) {
+            StorageMedia.writeManifest(new RunManifest.Row(buffer.FrameNumber, buffer.Timestamp,
+                    elapsedNanos, buffer.Exposure, buffer.Temperature, buffer.Power, 0, 0), null);
+        }
+        else {
+            HitList hits = collectHits(buffer);
+            Log.e(Thread.currentThread().getName(), "Hit list: " + NumToString.number(hits.getNhits())
+                    + " hits" + (hits.isOverflow() ? " (OVERFLOW)" : ""));
+
+            // Group hits into cosmic-ray candidates
+            StopWatches.BuildClusters.start();
+            List<ClusterBuilder.Cluster> clusters = ClusterBuilder.build(hits);
+            StopWatches.BuildClusters.addTime();
+
+            long nFrames = mFramesWithClusters.incrementAndGet();
+            long nClusters = mClusterCount.addAndGet(clusters.size());
+            Log.e(Thread.currentThread().getName(), "Clusters: " + NumToString.number(clusters.size())
+                    + ", total: " + NumToString.number(nClusters) + " in " + NumToString.number(nFrames)
+                    + " of " + NumToString.number(buffer.FrameNumber) + " frames");
+
+            // Save the hit list and clusters, only a few kilobytes, the manifest row goes with the
+            // hit list (or clusters if it isn't saved) so it records where the frame's record is
+            RunManifest.Row row = new RunManifest.Row(buffer.FrameNumber, buffer.Timestamp,
+                    elapsedNanos, buffer.Exposure, buffer.Temperature, buffer.Power,
+                    hits.getNhits(), clusters.size());
+            if (GlobalSettings.DEBUG_SAVE_HITS) {
+                StorageMedia.writeManifest(row, new OutputWrapper(filename + GlobalSettings.HITS_FILE, hits));
+                row = null;
+            }
+            if (GlobalSettings.DEBUG_SAVE_CLUSTERS) {
+                OutputWrapper wrapper = new OutputWrapper(filename + GlobalSettings.CLUSTERS_FILE,
+                        hits.getTimestamp(), clusters);
+                if (row == null) {
+                    StorageMedia.writeInternalStorage(wrapper, null);
                 }
-                if (GlobalSettings.DEBUG_SAVE_STDDEV) {
-                    StorageMedia.writeCalibration(new OutputWrapper(mFilename + GlobalSettings.STDDEV_FILE, Statistics.StdDev, RunningTotal.Nframes, temperature.floatValue()));
+                else {
+                    StorageMedia.writeManifest(row, wrapper);
+                    row = null;
                 }
+            }
+            if (row != null) {
+                StorageMedia.writeManifest(row, null);
+            }
+        }
 
-                mBacklog.decrementAndGet();
-                StopWatches.PostProcessing.addTime();
+        // TODO: for now:
+        // Save every DEBUG_SIGNIFICANCE_SAVING_INTERVAL significance
+        // WARNING: each image will be ~40-50 MB or so and will slow down processing
+        if (buffer.SaveSignificance) {
+            if (mSignificanceArray == null || mSignificanceArray.length != ImageWrapper.getNpixels()) {
+                mSignificanceArray = new float[ImageWrapper.getNpixels()];
+            }
+            mBackend.getSignificance(mSignificanceArray);
+            Double temperature = BatteryController.getCurrentTemperature();
+            if (temperature == null) {
+                temperature = Double.NaN;
+            }
+            StorageMedia.writeInternalStorage(new OutputWrapper(filename + GlobalSettings.SIGNIF_FILE, mSignificanceArray, 1, temperature.floatValue()), null);
+        }
+
+        // TODO: remove in the future / figuring out threshold details
+        //if (GlobalSettings.DEBUG_ENABLE_THRESHOLD_INCREASE && countAboveThreshold > 0L) {
+            //int nFrames = mFramesAboveThreshold.incrementAndGet();
+            //if (nFrames >= GlobalSettings.MAX_FRAMES_ABOVE_THRESHOLD) {
+            //    Log.e(Thread.currentThread().getName(), ":::::: REQUESTING THRESHOLD INCREASE :::::::");
+            //    AnalysisController.increaseSignificanceThreshold();
+            //    mFramesAboveThreshold.set(0);
+            //}
+        //}
+    }
+
+    // sumRowCounts.................................................................................
+    /**
+     * Merge the per-row partial counts read back into mRowCountsArray
+     * Note: must run on the ImageProcessor thread
+     * @return Total count over all rows
+     */
+    private static long sumRowCounts() {
+        long sum = 0L;
+        for (int count : mRowCountsArray) {
+            // counts are unsigned
+            sum += count & 0xFFFFFFFFL;
+        }
+        return sum;
+    }
+
+    // collectHits..................................................................................
+    /**
+     * Gather the hit list slots filled by a FrameBuffer's row kernel into a HitList, using the
+     * per-row counts already read back by the backend's finish()
+     * Note: must run on the ImageProcessor thread
+     * @param buffer FrameBuffer whose kernel has completed
+     * @return Hit list of the frame, bounded by GlobalSettings.MAX_HITS_PER_FRAME
+     */
+    @NonNull
+    private static HitList collectHits(@NonNull FrameBuffer buffer) {
+        HitList hits = new HitList(buffer.Timestamp, Statistics.SignificanceThreshold, GlobalSettings.MAX_HITS_PER_FRAME);
+
+        mBackend.readHits(buffer.Slot, mHitColumnArray, mHitValueArray, mHitSignificanceArray);
 
-                // TODO: remove in future
-                PrintAllocations.printMaxMin();
+        int hitsPerRow = GlobalSettings.MAX_HITS_PER_ROW;
+        for (int row = 0; row < mRowCountsArray.length; row++) {
+            int count = mRowCountsArray[row];
+            if (count == 0) {
+                continue;
+            }
+            if (count > hitsPerRow || count < 0) {
+                // Row had more hits than slots (count is unsigned)
+                hits.setOverflow();
+                count = hitsPerRow;
+            }
+            for (int slot = row * hitsPerRow; slot < row * hitsPerRow + count; slot++) {
+                if (!hits.add(mHitColumnArray[slot], row, mHitValueArray[slot], mHitSignificanceArray[slot])) {
+                    return hits;
+                }
             }
         }
+        return hits;
+    }
 
-        mBacklog.incrementAndGet();
-        mHandler.post(new RunStatistics(filename));
+    // flushRunningSums.............................................................................
+    /**
+     * Add the 32-bit running sums into the 64-bit running totals and zero the 32-bit sums.
+     * Costs two passes over the totals, but only once every RunningTotal.FlushInterval frames.
+     * Note: must run on the ImageProcessor thread
+     */
+    private static void flushRunningSums() {
+        if (RunningTotal.FramesSinceFlush == 0) {
+            return;
+        }
+        StopWatches.FlushRunningSums.start();
+        mBackend.flushRunningSums();
+        RunningTotal.FramesSinceFlush = 0;
+        StopWatches.FlushRunningSums.addTime();
     }
 
 }
\ No newline at end of file
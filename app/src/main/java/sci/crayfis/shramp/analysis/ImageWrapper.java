@@ -19,6 +19,8 @@ package sci.crayfis.shramp.analysis;
 import android.annotation.TargetApi;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -26,7 +28,9 @@ import android.util.Log;
 import org.jetbrains.annotations.Contract;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import sci.crayfis.shramp.GlobalSettings;
 import sci.crayfis.shramp.MasterController;
 import sci.crayfis.shramp.camera2.util.TimeCode;
 import sci.crayfis.shramp.util.StopWatch;
@@ -34,6 +38,10 @@ import sci.crayfis.shramp.util.StopWatch;
 /**
  * Encapsulate image data received by an ImageReader.onImageAvailable() method,
  * e.g. in ImageReaderListener
+ * If zero-copy is in effect (see isZeroCopy()), pixel data is not copied out of the Image, instead
+ * the Image is held open and its plane buffer is handed to consumers directly.  Consumers that
+ * hold on to the data past their own call must retain() it, and everyone (including the creator)
+ * calls release() when done.  The Image is closed on the last release().
  */
 @TargetApi(21)
 public final class ImageWrapper {
@@ -41,6 +49,14 @@ public final class ImageWrapper {
     // Private Class Fields
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
+    // mOpenImages..................................................................................
+    // Thread-safe count of Images currently held open (zero-copy mode only)
+    private static final AtomicInteger mOpenImages = new AtomicInteger();
+
+    // RELEASED.....................................................................................
+    // Notified every time a held Image is closed, see awaitOpenImagesBelow()
+    private static final Object RELEASED = new Object();
+
     // ImageMetadata................................................................................
     // Image format properties common to all images being produced
     private static abstract class ImageMetadata {
@@ -74,9 +90,35 @@ public final class ImageWrapper {
     // ImageData....................................................................................
     // Sensor timestamp of the image and its data
     private class ImageData {
-        long    Timestamp;
-        byte[]  Data_8bit;
-        short[] Data_16bit;
+        long       Timestamp;
+        byte[]     Data_8bit;
+        short[]    Data_16bit;
+        Image      HeldImage;
+        ByteBuffer Plane;
+
+        // Set the timestamp and hold on to the Image and its plane buffer (zero-copy)
+        // Returns false if the plane does not have the expected size
+        boolean setPlane(Image image) {
+            Timestamp = image.getTimestamp();
+
+            StopWatches.ByteBuffer.start();
+            ByteBuffer byteBuffer = image.getPlanes()[0].getBuffer();
+            int capacity          = byteBuffer.capacity();
+            StopWatches.ByteBuffer.addTime();
+
+            if ((ImageMetadata.is8bitData  && ImageMetadata.nPixels == capacity)
+             || (ImageMetadata.is16bitData && ImageMetadata.nPixels == capacity / 2)) {
+                HeldImage = image;
+                Plane     = byteBuffer;
+                mOpenImages.incrementAndGet();
+                return true;
+            }
+
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Image data cannot be unknown format");
+            MasterController.quitSafely();
+            return false;
+        }
 
         // Set the data and timestamp from an Image
         void setData(Image image) {
@@ -89,7 +131,7 @@ public final class ImageWrapper {
 
             if (ImageMetadata.is8bitData && ImageMetadata.nPixels == capacity) {
                 StopWatches.NewArray.start();
-                Data_8bit = new byte[capacity];
+                Data_8bit = PixelBufferPool.lease8bit(capacity);
                 StopWatches.NewArray.addTime();
                 StopWatches.LoadBuffer.start();
                 byteBuffer.get(Data_8bit);
@@ -98,7 +140,7 @@ public final class ImageWrapper {
             }
             else if (ImageMetadata.is16bitData && ImageMetadata.nPixels == capacity / 2){
                 StopWatches.NewArray.start();
-                Data_16bit = new short[capacity / 2];
+                Data_16bit = PixelBufferPool.lease16bit(capacity / 2);
                 StopWatches.NewArray.addTime();
                 StopWatches.LoadBuffer.start();
                 byteBuffer.asShortBuffer().get(Data_16bit);
@@ -114,13 +156,17 @@ public final class ImageWrapper {
     }
     private final ImageData mImageData = new ImageData();
 
+    // mReferences..................................................................................
+    // Number of consumers still using the pixel data, starts with the creator's reference
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
     // For now, monitor performance (TODO: remove in the future)
     abstract private static class StopWatches {
         private final static StopWatch NewImageWrapper  = new StopWatch("new ImageWrapper()");
         private final static StopWatch AcquireNextImage = new StopWatch("new ImageWrapper()->reader.acquireNextImage()");
         private final static StopWatch SetData          = new StopWatch("new ImageWrapper()->setData()");
         private final static StopWatch ByteBuffer       = new StopWatch("ImageWrapper->image.getPlanes()[0].getBuffer()");
-        private final static StopWatch NewArray         = new StopWatch("ImageWrapper->new byte[]");
+        private final static StopWatch NewArray         = new StopWatch("ImageWrapper->PixelBufferPool.lease()");
         private final static StopWatch LoadBuffer       = new StopWatch("ImageWrapper->byteBuffer.get()");
     }
 
@@ -154,22 +200,47 @@ public final class ImageWrapper {
                 return;
             }
             StopWatches.SetData.start();
-            mImageData.setData(image);
+            if (isZeroCopy()) {
+                if (!mImageData.setPlane(image)) {
+                    image.close();
+                }
+            }
+            else {
+                mImageData.setData(image);
+                image.close();
+            }
             StopWatches.SetData.addTime();
-            image.close();
         }
         catch (IllegalStateException e) {
             if (image != null) {
                 image.close();
             }
-            // TODO: error
-            Log.e(Thread.currentThread().getName(), "ImageReader Illegal State Exception");
-            MasterController.quitSafely();
+            if (isZeroCopy() && image == null) {
+                // All ImageReader buffers are held open by consumers, treat as a dropped frame
+                Log.e(Thread.currentThread().getName(), "ImageReader buffers exhausted, dropping image");
+            }
+            else {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "ImageReader Illegal State Exception");
+                MasterController.quitSafely();
+            }
         }
 
         StopWatches.NewImageWrapper.addTime();
     }
 
+    // ImageWrapper.................................................................................
+    /**
+     * Wrap 16-bit pixel data that is already in memory, it is returned to the PixelBufferPool on
+     * the last release()
+     * @param timestamp Sensor timestamp of the image
+     * @param data Pixel data from PixelBufferPool.lease16bit()
+     */
+    ImageWrapper(long timestamp, @NonNull short[] data) {
+        mImageData.Timestamp  = timestamp;
+        mImageData.Data_16bit = data;
+    }
+
     // Package-private Class Methods
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
@@ -193,6 +264,52 @@ public final class ImageWrapper {
      */
     static void setRowsCols(int rows, int cols) { ImageMetadata.setRowsCols(rows, cols); }
 
+    // Package-private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // retain.......................................................................................
+    /**
+     * Keep pixel data available for one more consumer, must be balanced by a release()
+     */
+    void retain() {
+        mReferences.incrementAndGet();
+    }
+
+    // release......................................................................................
+    /**
+     * Drop a reference to the pixel data.  On the last release, the pixel data array is returned to
+     * the PixelBufferPool or the held Image is closed, pixel data is no longer available after this
+     * (the timestamp is)
+     */
+    void release() {
+        int references = mReferences.decrementAndGet();
+        if (references > 0) {
+            return;
+        }
+        if (references < 0) {
+            Log.e(Thread.currentThread().getName(), "ImageWrapper released more times than retained");
+            return;
+        }
+
+        if (mImageData.HeldImage != null) {
+            mImageData.HeldImage.close();
+            mImageData.HeldImage = null;
+            mImageData.Plane     = null;
+            synchronized (RELEASED) {
+                mOpenImages.decrementAndGet();
+                RELEASED.notifyAll();
+            }
+        }
+        if (mImageData.Data_8bit != null) {
+            PixelBufferPool.release(mImageData.Data_8bit);
+            mImageData.Data_8bit = null;
+        }
+        if (mImageData.Data_16bit != null) {
+            PixelBufferPool.release(mImageData.Data_16bit);
+            mImageData.Data_16bit = null;
+        }
+    }
+
     // Public Instance Methods
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
@@ -212,6 +329,31 @@ public final class ImageWrapper {
     @Contract(pure = true)
     short[] get16bitData() {return mImageData.Data_16bit;}
 
+    // hasPlaneBuffer...............................................................................
+    /**
+     * @return True if pixel data is held in the Image plane buffer (zero-copy), false if it was
+     *         copied into an array (or has been released)
+     */
+    @Contract(pure = true)
+    boolean hasPlaneBuffer() { return mImageData.Plane != null; }
+
+    // getPlaneBuffer...............................................................................
+    /**
+     * @return A view of the Image plane buffer in native byte order with its own position
+     *         (zero-copy), null if the data was copied into an array (or has been released)
+     */
+    @Nullable
+    ByteBuffer getPlaneBuffer() {
+        ByteBuffer plane = mImageData.Plane;
+        if (plane == null) {
+            return null;
+        }
+        // duplicate() always comes back big-endian
+        ByteBuffer view = plane.duplicate().order(plane.order());
+        view.clear();
+        return view;
+    }
+
     // getTimestamp.................................................................................
     /**
      * @return Sensor timestamp for the image
@@ -227,6 +369,49 @@ public final class ImageWrapper {
     @NonNull
     String getTimeCode() { return TimeCode.toString(mImageData.Timestamp); }
 
+    // isZeroCopy...................................................................................
+    /**
+     * Zero-copy needs Allocation.getByteBuffer() (Android Q) for RenderScript to load the plane
+     * buffer without an array in between, on older devices pixels are copied out as usual
+     * @return True if GlobalSettings.ENABLE_ZERO_COPY is set and the device supports it
+     */
+    @Contract(pure = true)
+    public static boolean isZeroCopy() {
+        return GlobalSettings.ENABLE_ZERO_COPY && Build.VERSION.SDK_INT >= 29;
+    }
+
+    // getOpenImageCount............................................................................
+    /**
+     * @return The number of Images currently held open by consumers (zero-copy mode)
+     */
+    public static int getOpenImageCount() { return mOpenImages.get(); }
+
+    // awaitOpenImagesBelow.........................................................................
+    /**
+     * Block until fewer than limit Images are held open (woken by release(), no polling)
+     * @param limit Open Image count to get below
+     * @param timeoutMs Longest to wait [ms]
+     * @return True if below limit, false if timed out
+     */
+    public static boolean awaitOpenImagesBelow(int limit, long timeoutMs) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        synchronized (RELEASED) {
+            while (mOpenImages.get() >= limit) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0L) {
+                    return false;
+                }
+                try {
+                    RELEASED.wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    // TODO: error?
+                }
+            }
+        }
+        return true;
+    }
+
     // getNpixels...................................................................................
     /**
      * @return The number of pixels in an image
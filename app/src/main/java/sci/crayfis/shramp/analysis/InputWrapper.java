@@ -29,17 +29,25 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 
 import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.util.Compression;
 import sci.crayfis.shramp.util.NumToString;
 
 /**
  * Encapsulates metadata and statistical, image or mask data that is read in from disk.
+ * Files are described by their FileHeader (legacy files without one are still read, their type is
+ * inferred from the extension).
+ * The file is memory-mapped read-only and the data is exposed as typed views straight over the
+ * mapping (e.g. getStatisticsBuffer()), nothing is copied onto the heap and pages are loaded by
+ * the OS as they are touched.  The array getters (e.g. getStatisticsData()) make a heap copy
+ * for callers that need one (e.g. Allocation.copyFrom()).
  * TODO: option for ascii text?  ..or should that just go to logger?
  * TODO: read in data overwrites OutputWrapper static members, this is possibly a bug if global
  * TODO: settings are changed between runs, but therefore not a problem in the final release..
- * TODO: (PRIORITY) read in a few bytes as needed instead of the whole file
  */
 @TargetApi(21)
 public final class InputWrapper extends OutputWrapper {
@@ -59,21 +67,21 @@ public final class InputWrapper extends OutputWrapper {
     // The temperature the data (image or statistical) was taken at [Celsius]
     private Float mTemperature;
 
-    // mStatisticsData..............................................................................
-    // The statistics data (if that's what it is)
-    private float[] mStatisticsData;
+    // mStatisticsBuffer............................................................................
+    // The statistics data (if that's what it is), a view over the mapped file
+    private FloatBuffer mStatisticsBuffer;
 
-    // mImage8bit...................................................................................
-    // The image data (if that's what it is)
-    private byte[] mImage8bit;
+    // mImage8bitBuffer.............................................................................
+    // The image data (if that's what it is), a view over the mapped file
+    private ByteBuffer mImage8bitBuffer;
 
-    // mImage16bit..................................................................................
-    // The image data (if that's what it is)
-    private short[] mImage16bit;
+    // mImage16bitBuffer............................................................................
+    // The image data (if that's what it is), a view over the mapped file
+    private ShortBuffer mImage16bitBuffer;
 
-    // mMaskData....................................................................................
-    // The mask data (if that's what it is)
-    private byte[] mMaskData;
+    // mMaskBuffer..................................................................................
+    // The mask data (if that's what it is), a view over the mapped file
+    private ByteBuffer mMaskBuffer;
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -86,7 +94,7 @@ public final class InputWrapper extends OutputWrapper {
     /**
      * Create an input wrapper for image, statistical, or mask data
      * Note: reading is done on the calling thread
-     * @param filepath Absolute file path for data, data type is inferred from the extension
+     * @param filepath Absolute file path for data, data type is read from its header
      */
     InputWrapper(@NonNull String filepath) {
         Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> Reading " + filepath + " <<\n ");
@@ -102,39 +110,24 @@ public final class InputWrapper extends OutputWrapper {
         super.mFilename = infile.getName();
         int length      = (int) infile.length();
 
-        // Check file size is correct
+        // Datatype implied by the extension, only needed for legacy files (see FileHeader)
+        Datatype legacyDatatype;
         if (super.mFilename.endsWith(GlobalSettings.IMAGE_FILE)) {
-            super.mDatatype = Datatype.IMAGE;
-            if (length != OutputWrapper.mSensorBytes) {
-                // TODO: error
-                Log.e(Thread.currentThread().getName(), "File has wrong size, cannot read");
-                return;
-            }
+            legacyDatatype = Datatype.IMAGE;
         }
         else if (super.mFilename.endsWith(GlobalSettings.MASK_FILE)) {
-            super.mDatatype = Datatype.MASK;
-            if (length != OutputWrapper.mMaskBytes) {
-                // TODO: error
-                Log.e(Thread.currentThread().getName(), "File has wrong size, cannot read");
-                return;
-            }
+            legacyDatatype = Datatype.MASK;
         }
         else { // .mean, .stddev, .stderr or .signif
-            super.mDatatype = Datatype.STATISTICS;
-            if (length != OutputWrapper.mStatisticsBytes) {
-                // TODO: error
-                Log.e(Thread.currentThread().getName(), "File has wrong size, cannot read");
-                return;
-            }
+            legacyDatatype = Datatype.STATISTICS;
         }
 
-        // Read into ByteBuffer
-        int bytesRead;
+        // Map the file (the mapping stays valid after the channel is closed)
+        MappedByteBuffer mapped;
         FileInputStream inputStream = null;
         try {
-            super.mByteBuffer = ByteBuffer.allocate(length);
             inputStream = new FileInputStream(filepath);
-            bytesRead = inputStream.getChannel().read(super.mByteBuffer);
+            mapped = inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
         }
         catch (FileNotFoundException e) {
             // TODO: error
@@ -158,7 +151,7 @@ public final class InputWrapper extends OutputWrapper {
                 return;
             }
         }
-        if (bytesRead != length) {
+        if (mapped.remaining() != length) {
             // TODO: error
             Log.e(Thread.currentThread().getName(), "Reading unsuccessful, cannot continue");
             return;
@@ -167,48 +160,62 @@ public final class InputWrapper extends OutputWrapper {
         // Decode binary data
         //------------------------------------------------------------------------------------------
 
-        // Reset buffer position to 0 and set limit to length
-        super.mByteBuffer.flip();
-
-        OutputWrapper.mBitsPerPixel = super.mByteBuffer.get();
-
-        OutputWrapper.mRows    = super.mByteBuffer.getInt();
-        OutputWrapper.mColumns = super.mByteBuffer.getInt();
-
-        if (super.mDatatype == Datatype.IMAGE) {
-            mExposure = super.mByteBuffer.getLong();
-        }
-        else if (super.mDatatype == Datatype.STATISTICS) {
-            mNframes = super.mByteBuffer.getLong();
+        FileHeader header = FileHeader.read(mapped, legacyDatatype);
+        if (header == null) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Unrecognized file header, cannot read");
+            return;
         }
 
-        if (super.mDatatype != Datatype.MASK) {
-            mTemperature = super.mByteBuffer.getFloat();
+        // The header says how big the file should be, no need to know the sensor beforehand
+        if (header.getHeaderBytes() + header.getDataBytes() != length) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "File has wrong size, cannot read");
+            return;
         }
-        else {
-            mMaskData = new byte[super.mByteBuffer.remaining()];
-            super.mByteBuffer.get(mMaskData, 0, super.mByteBuffer.remaining());
+        if (header.getCodec() != Compression.Codec.NONE) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "File is compressed, cannot read");
+            return;
         }
 
-        if (super.mDatatype == Datatype.IMAGE) {
-            if (OutputWrapper.mBitsPerPixel == 8) {
-                mImage8bit = new byte[super.mByteBuffer.remaining()];
-                super.mByteBuffer.get(mImage8bit, 0, super.mByteBuffer.remaining());
-            }
-            else { // OutputWrapper.mBitsPerPixel == 16
-                ShortBuffer shortBuffer = super.mByteBuffer.asShortBuffer();
-                mImage16bit = new short[shortBuffer.remaining()];
-                shortBuffer.get(mImage16bit, 0, shortBuffer.remaining());
-            }
-        }
-        else if (super.mDatatype == Datatype.STATISTICS) {
-            FloatBuffer floatBuffer = super.mByteBuffer.asFloatBuffer();
-            mStatisticsData = new float[floatBuffer.remaining()];
-            floatBuffer.get(mStatisticsData, 0, floatBuffer.remaining());
-        }
+        super.mDatatype = header.getDatatype();
+
+        OutputWrapper.mBitsPerPixel = header.getBitsPerPixel();
+
+        OutputWrapper.mRows    = header.getRows();
+        OutputWrapper.mColumns = header.getColumns();
+
+        mExposure    = header.getExposure();
+        mNframes     = header.getNframes();
+        mTemperature = header.getTemperature();
+
+        // Views over the rest of the file, in the byte order it was written in (native for
+        // version 2 files, so no swapping, big endian for legacy files)
+        mapped.position(header.getHeaderBytes());
+        ByteBuffer data = mapped.slice().order(header.getByteOrder());
+        switch (header.getDtype()) {
+            case UINT8:
+                if (super.mDatatype == Datatype.MASK) {
+                    mMaskBuffer = data;
+                }
+                else {
+                    mImage8bitBuffer = data;
+                }
+                break;
+
+            case UINT16:
+                mImage16bitBuffer = data.asShortBuffer();
+                break;
 
-        // Free memory
-        super.mByteBuffer = null;
+            case FLOAT32:
+                mStatisticsBuffer = data.asFloatBuffer();
+                break;
+
+            default:
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "Cannot read " + super.mDatatype.toString() + " data");
+        }
     }
 
     // Public Instance Methods
@@ -219,60 +226,113 @@ public final class InputWrapper extends OutputWrapper {
      * @return True if this is statistical data, false if it isn't
      */
     @Contract(pure = true)
-    public boolean isStatisticsData() { return mStatisticsData != null; }
+    public boolean isStatisticsData() { return mStatisticsBuffer != null; }
 
     // is8bitData...................................................................................
     /**
      * @return True if this is 8-bit image data, false if it isn't
      */
     @Contract(pure = true)
-    public boolean is8bitData() { return mImage8bit != null; }
+    public boolean is8bitData() { return mImage8bitBuffer != null; }
 
     // is16bitData..................................................................................
     /**
      * @return True if this is 16-bit image data, false if it isn't
      */
     @Contract(pure = true)
-    public boolean is16bitData() { return mImage16bit != null; }
+    public boolean is16bitData() { return mImage16bitBuffer != null; }
 
     // isMaskData...................................................................................
     /**
      * @return True if this is mask data, false if it isn't
      */
     @Contract(pure = true)
-    public boolean isMaskData() { return mMaskData != null; }
+    public boolean isMaskData() { return mMaskBuffer != null; }
+
+    // getStatisticsBuffer..........................................................................
+    /**
+     * Note: absolute get(index) is safe from several threads at once
+     * @return Read-only view of the statistics data, no copy (null if this wasn't statistical data)
+     */
+    @Nullable
+    public FloatBuffer getStatisticsBuffer() {
+        return (mStatisticsBuffer == null) ? null : mStatisticsBuffer.duplicate();
+    }
+
+    // get8bitBuffer................................................................................
+    /**
+     * @return Read-only view of 8-bit image data, no copy (null if this wasn't that)
+     */
+    @Nullable
+    public ByteBuffer get8bitBuffer() {
+        return (mImage8bitBuffer == null) ? null : mImage8bitBuffer.duplicate();
+    }
+
+    // get16bitBuffer...............................................................................
+    /**
+     * @return Read-only view of 16-bit image data, no copy (null if this wasn't that)
+     */
+    @Nullable
+    public ShortBuffer get16bitBuffer() {
+        return (mImage16bitBuffer == null) ? null : mImage16bitBuffer.duplicate();
+    }
+
+    // getMaskBuffer................................................................................
+    /**
+     * @return Read-only view of mask data, no copy (null if this wasn't that)
+     */
+    @Nullable
+    public ByteBuffer getMaskBuffer() {
+        return (mMaskBuffer == null) ? null : mMaskBuffer.duplicate();
+    }
 
     // getStatisticsData............................................................................
     /**
-     * @return Statistics data (null if this wasn't statistical data)
+     * @return A heap copy of statistics data (null if this wasn't statistical data)
      */
     @Nullable
-    @Contract(pure = true)
-    public float[] getStatisticsData() { return mStatisticsData; }
+    public float[] getStatisticsData() {
+        if (mStatisticsBuffer == null) {
+            return null;
+        }
+        FloatBuffer view = mStatisticsBuffer.duplicate();
+        float[] data = new float[view.remaining()];
+        view.get(data);
+        return data;
+    }
 
     // get8bitData..................................................................................
     /**
-     * @return 8-bit image data (null if this wasn't that)
+     * @return A heap copy of 8-bit image data (null if this wasn't that)
      */
     @Nullable
-    @Contract(pure = true)
-    public byte[] get8bitData() { return mImage8bit; }
+    public byte[] get8bitData() {
+        return copyBytes(mImage8bitBuffer);
+    }
 
     // get16bitData.................................................................................
     /**
-     * @return 16-bit image data (null if this wasn't that)
+     * @return A heap copy of 16-bit image data (null if this wasn't that)
      */
     @Nullable
-    @Contract(pure = true)
-    public short[] get16bitData() { return mImage16bit; }
+    public short[] get16bitData() {
+        if (mImage16bitBuffer == null) {
+            return null;
+        }
+        ShortBuffer view = mImage16bitBuffer.duplicate();
+        short[] data = new short[view.remaining()];
+        view.get(data);
+        return data;
+    }
 
     // getMaskData..................................................................................
     /**
-     * @return Mask data (null if this wasn't that)
+     * @return A heap copy of mask data (null if this wasn't that)
      */
     @Nullable
-    @Contract(pure = true)
-    public byte[] getMaskData() { return mMaskData; }
+    public byte[] getMaskData() {
+        return copyBytes(mMaskBuffer);
+    }
 
     // getTemperature...............................................................................
     /**
@@ -298,4 +358,23 @@ public final class InputWrapper extends OutputWrapper {
     @Contract(pure = true)
     public Long getNframes() { return mNframes; }
 
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // copyBytes....................................................................................
+    /**
+     * @param buffer View over the mapped file (or null)
+     * @return A heap copy of its bytes (null if buffer is null)
+     */
+    @Nullable
+    private static byte[] copyBytes(@Nullable ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        ByteBuffer view = buffer.duplicate();
+        byte[] data = new byte[view.remaining()];
+        view.get(data);
+        return data;
+    }
+
 }
\ No newline at end of file
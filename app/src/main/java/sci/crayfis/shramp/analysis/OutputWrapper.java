@@ -26,12 +26,18 @@ import android.util.Range;
 import org.jetbrains.annotations.Contract;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.List;
 
+import sci.crayfis.shramp.GlobalSettings;
 import sci.crayfis.shramp.MasterController;
 
 /**
  * Encapsulates statistical, image data, mask data or histograms and packages it, along with
  * metadata, into a ByteBuffer ready to write to disk.
+ * Every output starts with a FileHeader and is in native byte order (so it can be mapped and
+ * used as-is when read back, see InputWrapper).
  * TODO: option for ascii text?  ..or should that just go to logger?
  */
 @TargetApi(21)
@@ -41,19 +47,19 @@ public class OutputWrapper {
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
     // What this OutputWrapper can contain
-    public enum Datatype { IMAGE, STATISTICS, MASK, HISTOGRAM }
+    public enum Datatype { IMAGE, STATISTICS, MASK, HISTOGRAM, HITS, CLUSTERS }
 
     // String shortcuts
     private static final String ByteSize   = Integer.toString(Byte.SIZE    / 8);
     private static final String ShortSize  = Integer.toString(Short.SIZE   / 8);
     private static final String IntSize    = Integer.toString(Integer.SIZE / 8);
-    private static final String LongSize   = Integer.toString(Integer.SIZE / 8);
+    private static final String LongSize   = Integer.toString(Long.SIZE    / 8);
     private static final String FloatSize  = Integer.toString(Float.SIZE   / 8);
     private static final String DoubleSize = Integer.toString(Double.SIZE  / 8);
 
-    // CACHE_LOCK...................................................................................
-    // Prevent two OutputWrappers from simultaneously using the cache (float[] array)
-    private static final Object CACHE_LOCK = new Object();
+    // FLOAT_CACHES.................................................................................
+    // float[] arrays waiting for reuse (see leaseFloatCache())
+    private static final ArrayDeque<float[]> FLOAT_CACHES = new ArrayDeque<>();
 
     // Class Fields
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -98,10 +104,21 @@ public class OutputWrapper {
     // Description of byte-ordering for histogram data
     private static String mHistogramHeader;
 
-    // mFloatCache..................................................................................
-    // Used in an intermediate step in converting a statistical RenderScript Allocation into bytes,
-    // rather than create/destroy a new array every time since it's around 30-50 MB
-    private static float[] mFloatCache;
+    // mHitsHeader..................................................................................
+    // Description of byte-ordering for hit list data
+    private static String mHitsHeader;
+
+    // mClustersHeader..............................................................................
+    // Description of byte-ordering for cluster data
+    private static String mClustersHeader;
+
+    // mSensorPool..................................................................................
+    // Direct buffers for image data (see BufferPool)
+    private static BufferPool mSensorPool;
+
+    // mStatisticsPool..............................................................................
+    // Direct buffers for statistical data (see BufferPool)
+    private static BufferPool mStatisticsPool;
 
     // Instance Fields
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
@@ -118,6 +135,19 @@ public class OutputWrapper {
     // Packaged bytes ready to write
     protected ByteBuffer mByteBuffer;
 
+    // mPayload.....................................................................................
+    // (Optional) Bytes written after mByteBuffer without being copied into it, i.e. an Image plane
+    // buffer in zero-copy mode, null otherwise
+    protected ByteBuffer mPayload;
+
+    // mRetainedImage...............................................................................
+    // (Optional) ImageWrapper kept open for mPayload until release(), null otherwise
+    private ImageWrapper mRetainedImage;
+
+    // mLeasedFrom..................................................................................
+    // (Optional) Pool mByteBuffer is leased from and given back to on release(), null otherwise
+    private BufferPool mLeasedFrom;
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -142,16 +172,40 @@ public class OutputWrapper {
      */
     OutputWrapper(@NonNull String filename, @NonNull Allocation statistics, long Nframes, float temperature) {
         mFilename = filename;
-        mByteBuffer = ByteBuffer.allocate(mStatisticsBytes);
-        mByteBuffer.put(mBitsPerPixel);
-        mByteBuffer.putInt(mRows);
-        mByteBuffer.putInt(mColumns);
-        mByteBuffer.putLong(Nframes);
-        mByteBuffer.putFloat(temperature);
-        synchronized (CACHE_LOCK) {
-            statistics.copyTo(mFloatCache);
-            mByteBuffer.asFloatBuffer().put(mFloatCache);
-        }
+        mLeasedFrom = mStatisticsPool;
+        mByteBuffer = mLeasedFrom.lease();
+        FileHeader.write(mByteBuffer, Datatype.STATISTICS, FileHeader.Dtype.FLOAT32, mBitsPerPixel,
+                         mRows, mColumns, 0L, Nframes, temperature, mStatisticsBytes - FileHeader.BYTES);
+
+        // RenderScript can only copy out to an array, so it takes a stop there on the way
+        float[] cache = leaseFloatCache();
+        statistics.copyTo(cache);
+        mByteBuffer.asFloatBuffer().put(cache);
+        giveBackFloatCache(cache);
+
+        mByteBuffer.position(0);
+        mByteBuffer.limit(mByteBuffer.capacity());
+        mDatatype = Datatype.STATISTICS;
+    }
+
+    // OutputWrapper................................................................................
+    /**
+     * Create an output wrapper for float-type array data, e.g. statistics
+     * @param filename Filename for data (no path, just filename)
+     * @param statistics Float-type data [width x height pixels], e.g. mean, stddev, significance, etc
+     * @param Nframes The number of frames that went into making this data,
+     *                e.g. significance would be 1, mean and stddev would be 1000 for example
+     * @param temperature The approximate temperature when the data was taken in Celsius
+     */
+    OutputWrapper(@NonNull String filename, @NonNull float[] statistics, long Nframes, float temperature) {
+        mFilename = filename;
+        mLeasedFrom = mStatisticsPool;
+        mByteBuffer = mLeasedFrom.lease();
+        FileHeader.write(mByteBuffer, Datatype.STATISTICS, FileHeader.Dtype.FLOAT32, mBitsPerPixel,
+                         mRows, mColumns, 0L, Nframes, temperature, mStatisticsBytes - FileHeader.BYTES);
+
+        mByteBuffer.asFloatBuffer().put(statistics);
+
         mByteBuffer.position(0);
         mByteBuffer.limit(mByteBuffer.capacity());
         mDatatype = Datatype.STATISTICS;
@@ -167,19 +221,31 @@ public class OutputWrapper {
      */
     OutputWrapper(@NonNull String filename, @NonNull ImageWrapper wrapper, @Nullable Long exposure, float temperature) {
         mFilename = filename;
-        mByteBuffer = ByteBuffer.allocate(mSensorBytes);
-        mByteBuffer.put(mBitsPerPixel);
-        mByteBuffer.putInt(mRows);
-        mByteBuffer.putInt(mColumns);
+
+        // Zero-copy data needs no conversion (8-bit, or 16-bit with the plane and file both in
+        // native byte order), so the plane buffer itself is written out after the metadata, and
+        // the Image is held open until then
+        ByteBuffer plane = wrapper.getPlaneBuffer();
+        if (plane != null) {
+            wrapper.retain();
+            mRetainedImage = wrapper;
+            mPayload = plane;
+            mByteBuffer = ByteBuffer.allocate(mSensorBytes - plane.remaining()).order(ByteOrder.nativeOrder());
+        }
+        else {
+            mLeasedFrom = mSensorPool;
+            mByteBuffer = mLeasedFrom.lease();
+        }
         if (exposure == null) {
             exposure = 0L;
         }
-        mByteBuffer.putLong(exposure);
-        mByteBuffer.putFloat(temperature);
-        if (ImageWrapper.is8bitData()) {
+        FileHeader.Dtype dtype = ImageWrapper.is8bitData() ? FileHeader.Dtype.UINT8 : FileHeader.Dtype.UINT16;
+        FileHeader.write(mByteBuffer, Datatype.IMAGE, dtype, mBitsPerPixel, mRows, mColumns,
+                         exposure, 0L, temperature, mSensorBytes - FileHeader.BYTES);
+        if (plane == null && ImageWrapper.is8bitData()) {
             mByteBuffer.put(wrapper.get8bitData());
         }
-        else {
+        else if (plane == null) {
             mByteBuffer.asShortBuffer().put(wrapper.get16bitData());
         }
         mByteBuffer.position(0);
@@ -195,10 +261,9 @@ public class OutputWrapper {
      */
     OutputWrapper(@NonNull String filename, @NonNull byte[] mask) {
         mFilename = filename;
-        mByteBuffer = ByteBuffer.allocate(mMaskBytes);
-        mByteBuffer.put(mBitsPerPixel);
-        mByteBuffer.putInt(mRows);
-        mByteBuffer.putInt(mColumns);
+        mByteBuffer = ByteBuffer.allocate(mMaskBytes).order(ByteOrder.nativeOrder());
+        FileHeader.write(mByteBuffer, Datatype.MASK, FileHeader.Dtype.UINT8, mBitsPerPixel, mRows,
+                         mColumns, 0L, 0L, Float.NaN, mMaskBytes - FileHeader.BYTES);
         mByteBuffer.put(mask);
         mByteBuffer.position(0);
         mByteBuffer.limit(mByteBuffer.capacity());
@@ -224,7 +289,9 @@ public class OutputWrapper {
         histogramBytes += histogram.mNbins * Float.SIZE / 8;   // bin centers
         histogramBytes += histogram.mNbins * Integer.SIZE / 8; // bin values
 
-        mByteBuffer = ByteBuffer.allocate(histogramBytes);
+        mByteBuffer = ByteBuffer.allocate(FileHeader.BYTES + histogramBytes).order(ByteOrder.nativeOrder());
+        FileHeader.write(mByteBuffer, Datatype.HISTOGRAM, FileHeader.Dtype.RECORDS, mBitsPerPixel,
+                         mRows, mColumns, 0L, 0L, Float.NaN, histogramBytes);
         mByteBuffer.putInt(histogram.getNbins());
         mByteBuffer.putInt(histogram.getUnderflow());
         mByteBuffer.putInt(histogram.getOverflow());
@@ -248,6 +315,89 @@ public class OutputWrapper {
         mDatatype = Datatype.HISTOGRAM;
     }
 
+    // OutputWrapper................................................................................
+    /**
+     * Create an output wrapper for a frame's hit list (pixels above threshold)
+     * @param filename Filename for data (no path, just filename)
+     * @param hits HitList object
+     */
+    OutputWrapper(@NonNull String filename, @NonNull HitList hits) {
+        mFilename = filename;
+
+        int nHits = hits.getNhits();
+        int hitsBytes = 0;
+        hitsBytes += Long.SIZE    / 8; // timestamp
+        hitsBytes += Float.SIZE   / 8; // significance threshold
+        hitsBytes += Byte.SIZE    / 8; // overflow flag
+        hitsBytes += Integer.SIZE / 8; // N hits
+        hitsBytes += nHits * (3 * Integer.SIZE + Float.SIZE) / 8; // x, y, value, significance
+
+        mByteBuffer = ByteBuffer.allocate(FileHeader.BYTES + hitsBytes).order(ByteOrder.nativeOrder());
+        FileHeader.write(mByteBuffer, Datatype.HITS, FileHeader.Dtype.RECORDS, mBitsPerPixel,
+                         mRows, mColumns, 0L, 0L, Float.NaN, hitsBytes);
+        mByteBuffer.putLong(hits.getTimestamp());
+        mByteBuffer.putFloat(hits.getThreshold());
+        mByteBuffer.put((byte) (hits.isOverflow() ? 1 : 0));
+        mByteBuffer.putInt(nHits);
+        for (int i = 0; i < nHits; i++) {
+            mByteBuffer.putInt(hits.getX(i));
+            mByteBuffer.putInt(hits.getY(i));
+            mByteBuffer.putInt(hits.getValue(i));
+            mByteBuffer.putFloat(hits.getSignificance(i));
+        }
+        mByteBuffer.position(0);
+        mByteBuffer.limit(mByteBuffer.capacity());
+        mDatatype = Datatype.HITS;
+    }
+
+    // OutputWrapper................................................................................
+    /**
+     * Create an output wrapper for a frame's reconstructed clusters (cosmic-ray candidates)
+     * @param filename Filename for data (no path, just filename)
+     * @param timestamp Sensor timestamp of the frame
+     * @param clusters Clusters from ClusterBuilder
+     */
+    OutputWrapper(@NonNull String filename, long timestamp, @NonNull List<ClusterBuilder.Cluster> clusters) {
+        mFilename = filename;
+
+        int nClusters = clusters.size();
+        int clusterBytes = 0;
+        clusterBytes += Integer.SIZE / 8; // size
+        clusterBytes += Long.SIZE    / 8; // charge
+        clusterBytes += Float.SIZE   / 8; // centroid x
+        clusterBytes += Float.SIZE   / 8; // centroid y
+        clusterBytes += Integer.SIZE / 8; // min x
+        clusterBytes += Integer.SIZE / 8; // min y
+        clusterBytes += Integer.SIZE / 8; // max x
+        clusterBytes += Integer.SIZE / 8; // max y
+        clusterBytes += Float.SIZE   / 8; // peak significance
+
+        int clustersBytes = 0;
+        clustersBytes += Long.SIZE    / 8; // timestamp
+        clustersBytes += Integer.SIZE / 8; // N clusters
+        clustersBytes += nClusters * clusterBytes;
+
+        mByteBuffer = ByteBuffer.allocate(FileHeader.BYTES + clustersBytes).order(ByteOrder.nativeOrder());
+        FileHeader.write(mByteBuffer, Datatype.CLUSTERS, FileHeader.Dtype.RECORDS, mBitsPerPixel,
+                         mRows, mColumns, 0L, 0L, Float.NaN, clustersBytes);
+        mByteBuffer.putLong(timestamp);
+        mByteBuffer.putInt(nClusters);
+        for (ClusterBuilder.Cluster cluster : clusters) {
+            mByteBuffer.putInt(cluster.getSize());
+            mByteBuffer.putLong(cluster.getCharge());
+            mByteBuffer.putFloat(cluster.getCentroidX());
+            mByteBuffer.putFloat(cluster.getCentroidY());
+            mByteBuffer.putInt(cluster.getMinX());
+            mByteBuffer.putInt(cluster.getMinY());
+            mByteBuffer.putInt(cluster.getMaxX());
+            mByteBuffer.putInt(cluster.getMaxY());
+            mByteBuffer.putFloat(cluster.getPeakSignificance());
+        }
+        mByteBuffer.position(0);
+        mByteBuffer.limit(mByteBuffer.capacity());
+        mDatatype = Datatype.CLUSTERS;
+    }
+
     // Package-private Class Methods
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
@@ -262,7 +412,9 @@ public class OutputWrapper {
         mMaskBytes       = 0;
 
         int Npixels = ImageWrapper.getNpixels();
-        mFloatCache = new float[Npixels];
+        synchronized (FLOAT_CACHES) {
+            FLOAT_CACHES.clear();
+        }
 
         // Image data bytes
         if (ImageWrapper.is8bitData()) {
@@ -282,44 +434,39 @@ public class OutputWrapper {
         mStatisticsBytes += Npixels * Float.SIZE / 8;
         mMaskBytes       += Npixels * Byte.SIZE / 8;
 
-        // Bits per pixel
-        mSensorBytes     += 1;
-        mStatisticsBytes += 1;
-        mMaskBytes       += 1;
-
-        mRows = ImageWrapper.getNrows();
-        mSensorBytes     += Integer.SIZE / 8;
-        mStatisticsBytes += Integer.SIZE / 8;
-        mMaskBytes       += Integer.SIZE / 8;
+        // Bits per pixel, rows, columns, exposure, frames count and temperature (see FileHeader)
+        mSensorBytes     += FileHeader.BYTES;
+        mStatisticsBytes += FileHeader.BYTES;
+        mMaskBytes       += FileHeader.BYTES;
 
+        mRows    = ImageWrapper.getNrows();
         mColumns = ImageWrapper.getNcols();
-        mSensorBytes     += Integer.SIZE / 8;
-        mStatisticsBytes += Integer.SIZE / 8;
-        mMaskBytes       += Integer.SIZE / 8;
 
-        // Sensor exposure
-        mSensorBytes += Long.SIZE / 8;
+        mSensorPool     = new BufferPool(mSensorBytes,     GlobalSettings.OUTPUT_BUFFER_POOL_SIZE);
+        mStatisticsPool = new BufferPool(mStatisticsBytes, GlobalSettings.OUTPUT_BUFFER_POOL_SIZE);
+
+        String order      = "Byte order (" + ByteOrder.nativeOrder() + "): \t File Header (see FileHeader) \t ";
+        String headerSize = "Number of bytes: \t " + Integer.toString(FileHeader.BYTES) + " \t ";
 
-        // Frames count
-        mStatisticsBytes += Long.SIZE / 8;
+        mSensorHeader  = order + "Pixel data\n";
+        mSensorHeader += headerSize + Byte.toString(mBitsPerPixel) + "x" + Integer.toString(Npixels) + "\n";
 
-        // Temperature
-        mSensorBytes     += Float.SIZE / 8;
-        mStatisticsBytes += Float.SIZE / 8;
+        mStatisticsHeader  = order + "PostProcessing\n";
+        mStatisticsHeader += headerSize + FloatSize + "x" + Integer.toString(Npixels) + "\n";
 
-        mSensorHeader  = "Byte order (big endian): \t Bits-per-pixel \t Number of Rows \t Number of Columns \t Sensor Exposure [ns] \t Temperature [C] \t Pixel data\n";
-        mSensorHeader += "Number of bytes: \t " + ByteSize + " \t " + IntSize + " \t " + IntSize + " \t " + LongSize + " \t " + FloatSize + "\t"
-                + Byte.toString(mBitsPerPixel) + "x" + Integer.toString(Npixels) + "\n";
+        mMaskHeader  = order + "Mask data\n";
+        mMaskHeader += headerSize + ByteSize + "x" + Integer.toString(Npixels) + "\n";
 
-        mStatisticsHeader  = "Byte order (big endian): \t Bits-per-pixel \t Number of Rows \t Number of Columns \t Number of Stacked Images \t Temperature [C] \t PostProcessing\n";
-        mStatisticsHeader += "Number of bytes: \t " + ByteSize + "\t" + IntSize + " \t " + IntSize + " \t " + LongSize + " \t " + FloatSize + "\t"
-                + FloatSize + "x" + Integer.toString(Npixels) + "\n";
+        mHistogramHeader  = order + "Number of Bins \t Underflow Bin Value \t Overflow Bin Value \t Cut low bound (NaN if no cuts) \t Cut high bound (NaN if no cuts) \t Bin Centers \t Bin Values\n";
+        mHistogramHeader += headerSize + IntSize + "\t" + IntSize + "\t" + IntSize + "\t" + FloatSize + "\t" + FloatSize + "\t" + FloatSize + "x{N bins}" + "\t" + IntSize + "x {N bins}\n";
 
-        mMaskHeader  = "Byte order (big endian): \t Bits-per-pixel \t Number of Rows \t Number of Columns \t Mask data\n";
-        mMaskHeader += "Number of bytes: \t " + ByteSize + "\t" + IntSize + " \t " + IntSize + " \t " + ByteSize + "x" + Integer.toString(Npixels) + "\n";
+        mHitsHeader  = order + "Sensor Timestamp [ns] \t Significance Threshold \t Overflow (1 or 0) \t Number of Hits \t Hits (x, y, value, significance)\n";
+        mHitsHeader += headerSize + LongSize + " \t " + FloatSize + " \t " + ByteSize + " \t " + IntSize + " \t "
+                + "(" + IntSize + "+" + IntSize + "+" + IntSize + "+" + FloatSize + ")x{N hits}\n";
 
-        mHistogramHeader  = "Byte order (big endian): \t Number of Bins \t Underflow Bin Value \t Overflow Bin Value \t Cut low bound (NaN if no cuts) \t Cut high bound (NaN if no cuts) \t Bin Centers \t Bin Values\n";
-        mHistogramHeader += "Number of bytes: \t" + IntSize + "\t" + IntSize + "\t" + IntSize + "\t" + FloatSize + "\t" + FloatSize + "\t" + FloatSize + "x{N bins}" + "\t" + IntSize + "x {N bins}\n";
+        mClustersHeader  = order + "Sensor Timestamp [ns] \t Number of Clusters \t Clusters (size, charge, centroid x, centroid y, min x, min y, max x, max y, peak significance)\n";
+        mClustersHeader += headerSize + LongSize + " \t " + IntSize + " \t "
+                + "(" + IntSize + "+" + LongSize + "+" + FloatSize + "+" + FloatSize + "+" + IntSize + "+" + IntSize + "+" + IntSize + "+" + IntSize + "+" + FloatSize + ")x{N clusters}\n";
     }
 
     // Public Instance Methods
@@ -346,6 +493,20 @@ public class OutputWrapper {
     @Contract(pure = true)
     public String getStatisticsHeader() { return mStatisticsHeader; }
 
+    /**
+     * @return A String describing the byte-order of hit list data
+     */
+    @NonNull
+    @Contract(pure = true)
+    public String getHitsHeader() { return mHitsHeader; }
+
+    /**
+     * @return A String describing the byte-order of cluster data
+     */
+    @NonNull
+    @Contract(pure = true)
+    public String getClustersHeader() { return mClustersHeader; }
+
     /**
      * @return The filename for writing this data
      */
@@ -360,4 +521,71 @@ public class OutputWrapper {
     @Contract(pure = true)
     public ByteBuffer getByteBuffer() { return mByteBuffer; }
 
+    /**
+     * @return All ByteBuffers to write, in order (usually just getByteBuffer(), but zero-copy image
+     *         data is kept in a separate buffer), empty if there is no data
+     */
+    @NonNull
+    public ByteBuffer[] getByteBuffers() {
+        if (mByteBuffer == null) {
+            return new ByteBuffer[0];
+        }
+        if (mPayload == null) {
+            return new ByteBuffer[] {mByteBuffer};
+        }
+        return new ByteBuffer[] {mByteBuffer, mPayload};
+    }
+
+    /**
+     * Call once this data has been written (or discarded), lets go of any Image held open for it
+     * and gives pooled buffers back (getByteBuffer() is null afterwards if it was pooled)
+     */
+    public void release() {
+        mPayload = null;
+        if (mRetainedImage != null) {
+            mRetainedImage.release();
+            mRetainedImage = null;
+        }
+        if (mLeasedFrom != null) {
+            mLeasedFrom.giveBack(mByteBuffer);
+            mLeasedFrom = null;
+            mByteBuffer = null;
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // leaseFloatCache..............................................................................
+    /**
+     * Used in an intermediate step in converting a statistical RenderScript Allocation into bytes,
+     * rather than create/destroy a new array every time since it's around 30-50 MB.
+     * Each caller gets its own array (usually a reused one), so producers don't wait on each other.
+     * @return A float array of length Npixels, give it back when done
+     */
+    @NonNull
+    private static float[] leaseFloatCache() {
+        float[] cache;
+        synchronized (FLOAT_CACHES) {
+            cache = FLOAT_CACHES.pollFirst();
+        }
+        if (cache == null) {
+            cache = new float[ImageWrapper.getNpixels()];
+        }
+        return cache;
+    }
+
+    // giveBackFloatCache...........................................................................
+    /**
+     * @param cache Array from leaseFloatCache() that is no longer in use
+     */
+    private static void giveBackFloatCache(@NonNull float[] cache) {
+        synchronized (FLOAT_CACHES) {
+            if (cache.length == ImageWrapper.getNpixels()
+                    && FLOAT_CACHES.size() < GlobalSettings.OUTPUT_BUFFER_POOL_SIZE) {
+                FLOAT_CACHES.addLast(cache);
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.util.NumToString;
+
+/**
+ * Bounded pool of pixel arrays (byte[] for 8-bit data, short[] for 16-bit data) keyed by length.
+ * ImageWrappers lease an array for every frame and ImageProcessor returns it once the pixels are
+ * in RenderScript, so in steady state no new 12-24 MB arrays are made per frame.
+ * At most GlobalSettings.PIXEL_BUFFER_POOL_SIZE idle arrays are kept for each length.
+ */
+@TargetApi(21)
+abstract class PixelBufferPool {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // LOCK.........................................................................................
+    // Arrays are leased on the ImageReaderThread and returned on the ImageProcessorThread
+    private static final Object LOCK = new Object();
+
+    // Bucket.......................................................................................
+    // Idle arrays of a single length, and how many of that length are currently leased out
+    private static final class Bucket {
+        final ArrayDeque<Object> mIdle = new ArrayDeque<>();
+        int mLeased;
+    }
+
+    // m8bitBuckets / m16bitBuckets.................................................................
+    // Buckets keyed by array length
+    private static final Map<Integer, Bucket> m8bitBuckets  = new HashMap<>();
+    private static final Map<Integer, Bucket> m16bitBuckets = new HashMap<>();
+
+    // Private Class Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Counters.....................................................................................
+    // mHits:        lease served by an idle array
+    // mMisses:      lease needed a new array while the pool was still filling up
+    // mExhaustions: lease needed a new array because every pooled array was already leased out
+    // mDiscards:    returned array dropped because the pool was already full
+    private static long mHits;
+    private static long mMisses;
+    private static long mExhaustions;
+    private static long mDiscards;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Package-private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // lease8bit....................................................................................
+    /**
+     * @param length Number of pixels
+     * @return An 8-bit pixel array of this length, contents are undefined
+     */
+    @NonNull
+    static byte[] lease8bit(int length) {
+        synchronized (LOCK) {
+            Object array = lease(m8bitBuckets, length);
+            if (array != null) {
+                return (byte[]) array;
+            }
+        }
+        return new byte[length];
+    }
+
+    // lease16bit...................................................................................
+    /**
+     * @param length Number of pixels
+     * @return A 16-bit pixel array of this length, contents are undefined
+     */
+    @NonNull
+    static short[] lease16bit(int length) {
+        synchronized (LOCK) {
+            Object array = lease(m16bitBuckets, length);
+            if (array != null) {
+                return (short[]) array;
+            }
+        }
+        return new short[length];
+    }
+
+    // release......................................................................................
+    /**
+     * Return an 8-bit pixel array to the pool, it must not be used by the caller afterwards
+     * @param array Array from lease8bit()
+     */
+    static void release(@NonNull byte[] array) {
+        synchronized (LOCK) {
+            release(m8bitBuckets, array.length, array);
+        }
+    }
+
+    // release......................................................................................
+    /**
+     * Return a 16-bit pixel array to the pool, it must not be used by the caller afterwards
+     * @param array Array from lease16bit()
+     */
+    static void release(@NonNull short[] array) {
+        synchronized (LOCK) {
+            release(m16bitBuckets, array.length, array);
+        }
+    }
+
+    // clear........................................................................................
+    /**
+     * Drop all idle arrays (e.g. if the image size changes), counters are kept
+     */
+    static void clear() {
+        synchronized (LOCK) {
+            m8bitBuckets.clear();
+            m16bitBuckets.clear();
+        }
+    }
+
+    // logStatistics................................................................................
+    /**
+     * Display hit/miss/exhaustion/discard counters
+     */
+    static void logStatistics() {
+        synchronized (LOCK) {
+            Log.e(Thread.currentThread().getName(), "Pixel buffer pool: hits = " + NumToString.number(mHits)
+                    + ", misses = "      + NumToString.number(mMisses)
+                    + ", exhaustions = " + NumToString.number(mExhaustions)
+                    + ", discards = "    + NumToString.number(mDiscards));
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // lease........................................................................................
+    /**
+     * Note: must be called under LOCK
+     * @param buckets 8-bit or 16-bit buckets
+     * @param length Array length
+     * @return An idle array, or null if the caller must allocate a new one
+     */
+    private static Object lease(@NonNull Map<Integer, Bucket> buckets, int length) {
+        Bucket bucket = buckets.get(length);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(length, bucket);
+        }
+        bucket.mLeased++;
+
+        Object array = bucket.mIdle.pollFirst();
+        if (array != null) {
+            mHits++;
+        }
+        else if (bucket.mLeased > GlobalSettings.PIXEL_BUFFER_POOL_SIZE) {
+            mExhaustions++;
+        }
+        else {
+            mMisses++;
+        }
+        return array;
+    }
+
+    // release......................................................................................
+    /**
+     * Note: must be called under LOCK
+     * @param buckets 8-bit or 16-bit buckets
+     * @param length Array length
+     * @param array Array being returned
+     */
+    private static void release(@NonNull Map<Integer, Bucket> buckets, int length, @NonNull Object array) {
+        Bucket bucket = buckets.get(length);
+        if (bucket == null) {
+            // Pool was cleared while this array was leased out
+            mDiscards++;
+            return;
+        }
+        if (bucket.mLeased > 0) {
+            bucket.mLeased--;
+        }
+        if (bucket.mIdle.size() < GlobalSettings.PIXEL_BUFFER_POOL_SIZE) {
+            bucket.mIdle.addFirst(array);
+        }
+        else {
+            mDiscards++;
+        }
+    }
+
+}
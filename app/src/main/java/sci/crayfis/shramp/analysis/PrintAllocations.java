@@ -186,7 +186,7 @@ abstract public class PrintAllocations {
      * Print PEEK_SIZE worth of significance Allocation
      */
     public static void printSignificance() {
-        ImageProcessor.getSignificance().copyTo(mFloatData);
+        ImageProcessor.getSignificance(mFloatData);
         String[] values = new String[PEEK_SIZE];
         for (int i = 0; i < PEEK_SIZE; i++) {
             values[i] = NumToString.sci(mFloatData[i]);
@@ -0,0 +1,497 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.annotation.TargetApi;
+import android.renderscript.Allocation;
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.ScriptC_LiveProcessing;
+import sci.crayfis.shramp.ScriptC_PostProcessing;
+
+/**
+ * ComputeBackend running LiveProcessing.rs and PostProcessing.rs.
+ * RenderScript kernel launches are asynchronous and run in the order they were launched, results
+ * are only waited on when read back with copyTo.
+ */
+@TargetApi(21)
+final class RenderScriptBackend implements ComputeBackend {
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mLiveScript..................................................................................
+    // Reference to the LiveProcessing.rs RenderScript
+    private final ScriptC_LiveProcessing mLiveScript;
+
+    // mPostScript..................................................................................
+    // Reference to the PostProcessing.rs RenderScript
+    private final ScriptC_PostProcessing mPostScript;
+
+    // mSlots.......................................................................................
+    // Per-frame RenderScript Allocations
+    private final Slot[] mSlots;
+
+    // mSignificance................................................................................
+    // Significance of each pixel in an image as a RenderScript Allocation
+    private final Allocation mSignificance;
+
+    // mRowCounts...................................................................................
+    // Per-row counts of pixels with anomalous running sums from PostProcessing.rs [height]
+    private final Allocation mRowCounts;
+
+    // mRowCountsArray..............................................................................
+    // Java-side copy of mRowCounts for merging the partial counts
+    private final int[] mRowCountsArray;
+
+    // mThreshold...................................................................................
+    // Trigger threshold map (see LiveProcessing.rs), made on first use
+    private Allocation mThreshold;
+
+    // Running sums / totals........................................................................
+    // 32-bit running sums (updated every frame) and 64-bit running totals (updated every flush)
+    private final Allocation mValueSum;
+    private final Allocation mValue2Sum;
+    private Allocation mValueTotal;
+    private Allocation mValue2Total;
+
+    // Frozen totals................................................................................
+    // 64-bit running totals of the last snapshot, made on first use
+    private Allocation mFrozenValueTotal;
+    private Allocation mFrozenValue2Total;
+
+    // Statistics...................................................................................
+    // Mean, standard deviation and mask currently in use, copied in by setStatistics()
+    private final Allocation mMean;
+    private final Allocation mStdDev;
+    private final Allocation mMask;
+
+    // Statistics outputs...........................................................................
+    // PostProcessing.rs writes computeStatistics() results here (StatisticsThread only), made on
+    // first use
+    private Allocation mOutMean;
+    private Allocation mOutStdDev;
+    private Allocation mOutStdErr;
+
+    // Slot.........................................................................................
+    // One set of per-frame RenderScript Allocations
+    //      Image:     image data (received from an ImageWrapper) as a RenderScript Allocation
+    //      RowCounts: per-row count of pixels above threshold [height]
+    //      Hit*:      hit list slots [MAX_HITS_PER_ROW x height] (see LiveProcessing.rs)
+    //      Launched:  a kernel was launched on the slot and hasn't been finished yet
+    private static final class Slot {
+        boolean    Launched;
+        Allocation Image;
+        Allocation RowCounts;
+        Allocation HitColumn;
+        Allocation HitValue;
+        Allocation HitSignificance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // RenderScriptBackend..........................................................................
+    /**
+     * Create the RenderScript backend and its Allocations
+     * Note: AnalysisController and ImageWrapper must already be set up
+     * @param liveScript Reference to RenderScript LiveProcessing.rs
+     * @param postScript Reference to RenderScript PostProcessing.rs
+     * @param nSlots Number of per-frame Allocation sets to rotate through
+     */
+    RenderScriptBackend(@NonNull ScriptC_LiveProcessing liveScript,
+                        @NonNull ScriptC_PostProcessing postScript, int nSlots) {
+        mLiveScript = liveScript;
+        mPostScript = postScript;
+
+        mSlots = new Slot[Math.max(1, nSlots)];
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = new Slot();
+            if (ImageWrapper.is8bitData()) {
+                slot.Image = AnalysisController.newUCharAllocation();
+            }
+            else { // ImageWrapper.is16bitData()
+                slot.Image = AnalysisController.newUShortAllocation();
+            }
+            slot.RowCounts       = AnalysisController.newRowCountAllocation();
+            slot.HitColumn       = AnalysisController.newHitUIntAllocation();
+            slot.HitValue        = AnalysisController.newHitUIntAllocation();
+            slot.HitSignificance = AnalysisController.newHitFloatAllocation();
+            mSlots[i] = slot;
+        }
+
+        mSignificance   = AnalysisController.newFloatAllocation();
+        mRowCounts      = AnalysisController.newRowCountAllocation();
+        mRowCountsArray = new int[ImageWrapper.getNrows()];
+
+        mValueSum    = AnalysisController.newUIntAllocation();
+        mValue2Sum   = AnalysisController.newUIntAllocation();
+        mValueTotal  = AnalysisController.newULongAllocation();
+        mValue2Total = AnalysisController.newULongAllocation();
+
+        mMean   = AnalysisController.newFloatAllocation();
+        mStdDev = AnalysisController.newFloatAllocation();
+        mMask   = AnalysisController.newUCharAllocation();
+
+        mLiveScript.set_gHitsPerRow(GlobalSettings.MAX_HITS_PER_ROW);
+        mLiveScript.set_gSignificance(mSignificance);
+        mLiveScript.set_gValueSum(mValueSum);
+        mLiveScript.set_gValue2Sum(mValue2Sum);
+        mLiveScript.set_gValueTotal(mValueTotal);
+        mLiveScript.set_gValue2Total(mValue2Total);
+    }
+
+    // Public Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // getName......................................................................................
+    /**
+     * @return "RenderScript"
+     */
+    @NonNull
+    @Override
+    public String getName() { return "RenderScript"; }
+
+    // getFrameSlots................................................................................
+    /**
+     * @return Number of per-frame Allocation sets
+     */
+    @Override
+    public int getFrameSlots() { return mSlots.length; }
+
+    // setStatistics................................................................................
+    /**
+     * Copy statistics into this backend's Allocations (stdErr isn't needed for significance)
+     * @param mean Pixel means (normalized to the max pixel value)
+     * @param stdDev Pixel standard deviations (normalized to the max pixel value)
+     * @param stdErr Pixel standard errors (normalized to the max pixel value)
+     * @param mask Pixel mask, 1 to test the pixel, 0 to ignore it
+     */
+    @Override
+    public void setStatistics(@NonNull float[] mean, @NonNull float[] stdDev,
+                              @NonNull float[] stdErr, @NonNull byte[] mask) {
+        mMean.copyFrom(mean);
+        mStdDev.copyFrom(stdDev);
+        mMask.copyFrom(mask);
+        mLiveScript.set_gMean(mMean);
+        mLiveScript.set_gStdDev(mStdDev);
+        mLiveScript.set_gMask(mMask);
+    }
+
+    // setSignificanceEnabled.......................................................................
+    /**
+     * @param enabled True to test pixel significance, false not to
+     */
+    @Override
+    public void setSignificanceEnabled(boolean enabled) {
+        mLiveScript.set_gEnableSignificance(enabled ? 1 : 0);
+    }
+
+    // setSignificanceThreshold.....................................................................
+    /**
+     * @param threshold Pixels with significance at or above this are "above threshold"
+     */
+    @Override
+    public void setSignificanceThreshold(float threshold) {
+        mLiveScript.set_gSignificanceThreshold(threshold);
+    }
+
+    // resetTotals..................................................................................
+    /**
+     * Zero the running sums and totals
+     */
+    @Override
+    public void resetTotals() {
+        mLiveScript.forEach_zeroUIntAllocation(mValueSum);
+        mLiveScript.forEach_zeroUIntAllocation(mValue2Sum);
+        mLiveScript.forEach_zeroULongAllocation(mValueTotal);
+        mLiveScript.forEach_zeroULongAllocation(mValue2Total);
+    }
+
+    // upload.......................................................................................
+    /**
+     * Move pixels into a slot's image Allocation (copyFrom, or straight from the Image plane buffer
+     * in zero-copy mode)
+     * @param slot Frame slot
+     * @param wrapper Image data
+     */
+    @Override
+    public void upload(int slot, @NonNull ImageWrapper wrapper) {
+        Allocation image = mSlots[slot].Image;
+        if (wrapper.hasPlaneBuffer()) {
+            ByteBuffer plane = wrapper.getPlaneBuffer();
+            if (plane != null) {
+                loadPlaneBuffer(plane, mSlots[slot]);
+            }
+        }
+        else if (ImageWrapper.is8bitData()) {
+            image.copyFrom(wrapper.get8bitData());
+        }
+        else { // ImageWrapper.is16bitData()
+            image.copyFrom(wrapper.get16bitData());
+        }
+    }
+
+    // launch.......................................................................................
+    /**
+     * Launch the row kernel on a slot, one kernel instance per row (asynchronous)
+     * @param slot Frame slot with an uploaded frame
+     * @param writeSignificance True to keep every pixel's significance
+     */
+    @Override
+    public void launch(int slot, boolean writeSignificance) {
+        Slot buffer = mSlots[slot];
+        buffer.Launched = true;
+        mLiveScript.set_gWriteSignificance(writeSignificance ? 1 : 0);
+        mLiveScript.set_gImage(buffer.Image);
+        mLiveScript.set_gHitColumn(buffer.HitColumn);
+        mLiveScript.set_gHitValue(buffer.HitValue);
+        mLiveScript.set_gHitSignificance(buffer.HitSignificance);
+        if (ImageWrapper.is8bitData()) {
+            mLiveScript.forEach_process8bitRow(buffer.RowCounts);
+        }
+        else { // ImageWrapper.is16bitData()
+            mLiveScript.forEach_process16bitRow(buffer.RowCounts);
+        }
+    }
+
+    // computeThresholds............................................................................
+    /**
+     * Fill the threshold map, one kernel instance per pixel
+     */
+    @Override
+    public void computeThresholds() {
+        if (mThreshold == null) {
+            mThreshold = AnalysisController.newUShortAllocation();
+            mLiveScript.set_gThreshold(mThreshold);
+        }
+        if (ImageWrapper.is8bitData()) {
+            mLiveScript.forEach_computeThreshold8bit(mThreshold);
+        }
+        else { // ImageWrapper.is16bitData()
+            mLiveScript.forEach_computeThreshold16bit(mThreshold);
+        }
+    }
+
+    // launchTrigger................................................................................
+    /**
+     * Launch the trigger-only row kernel on a slot, one kernel instance per row (asynchronous)
+     * @param slot Frame slot with an uploaded frame
+     */
+    @Override
+    public void launchTrigger(int slot) {
+        Slot buffer = mSlots[slot];
+        buffer.Launched = true;
+        mLiveScript.set_gImage(buffer.Image);
+        mLiveScript.set_gHitColumn(buffer.HitColumn);
+        mLiveScript.set_gHitValue(buffer.HitValue);
+        mLiveScript.set_gHitSignificance(buffer.HitSignificance);
+        if (ImageWrapper.is8bitData()) {
+            mLiveScript.forEach_trigger8bitRow(buffer.RowCounts);
+        }
+        else { // ImageWrapper.is16bitData()
+            mLiveScript.forEach_trigger16bitRow(buffer.RowCounts);
+        }
+    }
+
+    // finish.......................................................................................
+    /**
+     * Blocks until the slot's kernel is done
+     * @param slot Frame slot that was launched
+     * @param rowCounts Output, one element per row of pixels
+     */
+    @Override
+    public void finish(int slot, @NonNull int[] rowCounts) {
+        mSlots[slot].RowCounts.copyTo(rowCounts);
+        mSlots[slot].Launched = false;
+    }
+
+    // readHits.....................................................................................
+    /**
+     * @param slot Frame slot that was finished
+     * @param column Output, pixel column [MAX_HITS_PER_ROW x height]
+     * @param value Output, raw pixel value [MAX_HITS_PER_ROW x height]
+     * @param significance Output, pixel significance [MAX_HITS_PER_ROW x height]
+     */
+    @Override
+    public void readHits(int slot, @NonNull int[] column, @NonNull int[] value, @NonNull float[] significance) {
+        Slot buffer = mSlots[slot];
+        buffer.HitColumn.copyTo(column);
+        buffer.HitValue.copyTo(value);
+        buffer.HitSignificance.copyTo(significance);
+    }
+
+    // getSignificance..............................................................................
+    /**
+     * @param significance Output, pixel significance (copied out of its Allocation)
+     */
+    @Override
+    public void getSignificance(@NonNull float[] significance) {
+        mLiveScript.forEach_getSignificance(mSignificance);
+        mSignificance.copyTo(significance);
+    }
+
+    // flushRunningSums.............................................................................
+    /**
+     * Costs two passes over the totals, ImageProcessor only calls this every so many frames
+     */
+    @Override
+    public void flushRunningSums() {
+        mLiveScript.forEach_flushValueSum(mValueSum, mValueTotal);
+        mLiveScript.forEach_flushValue2Sum(mValue2Sum, mValue2Total);
+        mLiveScript.forEach_zeroUIntAllocation(mValueSum);
+        mLiveScript.forEach_zeroUIntAllocation(mValue2Sum);
+    }
+
+    // snapshotTotals...............................................................................
+    /**
+     * Swap the running total Allocations, LiveProcessing.rs carries on into the zeroed spare set
+     */
+    @Override
+    public void snapshotTotals() {
+        if (mFrozenValueTotal == null || mFrozenValue2Total == null) {
+            mFrozenValueTotal  = AnalysisController.newULongAllocation();
+            mFrozenValue2Total = AnalysisController.newULongAllocation();
+        }
+
+        Allocation spare = mFrozenValueTotal;
+        mFrozenValueTotal = mValueTotal;
+        mValueTotal       = spare;
+
+        spare = mFrozenValue2Total;
+        mFrozenValue2Total = mValue2Total;
+        mValue2Total       = spare;
+
+        mLiveScript.forEach_zeroULongAllocation(mValueTotal);
+        mLiveScript.forEach_zeroULongAllocation(mValue2Total);
+        mLiveScript.set_gValueTotal(mValueTotal);
+        mLiveScript.set_gValue2Total(mValue2Total);
+    }
+
+    // computeStatistics............................................................................
+    /**
+     * Move the frozen 64-bit totals over to PostProcessing.rs and compute statistics one kernel
+     * instance per row, only PostProcessing.rs is used so LiveProcessing.rs carries on meanwhile,
+     * then copy the results out of their Allocations
+     * @param nFrames Number of frames in the frozen running totals
+     * @param mean Output, pixel means
+     * @param stdDev Output, pixel standard deviations
+     * @param stdErr Output, pixel standard errors
+     * @return Number of pixels with anomalous running sums
+     */
+    @Override
+    public long computeStatistics(long nFrames, @NonNull float[] mean, @NonNull float[] stdDev,
+                                  @NonNull float[] stdErr) {
+        if (mOutMean == null) {
+            mOutMean   = AnalysisController.newFloatAllocation();
+            mOutStdDev = AnalysisController.newFloatAllocation();
+            mOutStdErr = AnalysisController.newFloatAllocation();
+        }
+
+        if (ImageWrapper.is8bitData()) {
+            mPostScript.set_gIs8bit(1); // true
+        }
+        else { // ImageWrapper.is16bitData()
+            mPostScript.set_gIs8bit(0); // false
+        }
+
+        mPostScript.set_gValueSum(mFrozenValueTotal);
+        mPostScript.set_gValue2Sum(mFrozenValue2Total);
+        mPostScript.set_gNframes(nFrames);
+        mPostScript.set_gMean(mOutMean);
+        mPostScript.set_gStdDev(mOutStdDev);
+        mPostScript.set_gStdErr(mOutStdErr);
+
+        mPostScript.forEach_computeStatisticsRow(mRowCounts);
+
+        mOutMean.copyTo(mean);
+        mOutStdDev.copyTo(stdDev);
+        mOutStdErr.copyTo(stdErr);
+
+        mRowCounts.copyTo(mRowCountsArray);
+        long sum = 0L;
+        for (int count : mRowCountsArray) {
+            // counts are unsigned
+            sum += count & 0xFFFFFFFFL;
+        }
+        return sum;
+    }
+
+    // getValueTotal................................................................................
+    /**
+     * @param valueTotal Output, pixel-wise sum of pixel values (copied out of its Allocation)
+     */
+    @Override
+    public void getValueTotal(@NonNull long[] valueTotal) { mValueTotal.copyTo(valueTotal); }
+
+    // getValue2Total...............................................................................
+    /**
+     * @param value2Total Output, pixel-wise sum of pixel values**2 (copied out of its Allocation)
+     */
+    @Override
+    public void getValue2Total(@NonNull long[] value2Total) { mValue2Total.copyTo(value2Total); }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // loadPlaneBuffer..............................................................................
+    /**
+     * Write pixels from an Image plane buffer (zero-copy mode) straight into the slot's image
+     * Allocation through Allocation.getByteBuffer(), no array in between.
+     * Unlike copyFrom(), writing into that buffer isn't ordered with kernels, so if the slot's last
+     * kernel was never finished it is waited on first.  syncAll() then hands the pixels to the
+     * script before the slot's next kernel is launched.
+     * @param plane Image plane buffer in native byte order (rows packed), positioned at the first pixel
+     * @param slot Frame slot to load into
+     */
+    @TargetApi(29)
+    private void loadPlaneBuffer(@NonNull ByteBuffer plane, @NonNull Slot slot) {
+        if (slot.Launched) {
+            slot.RowCounts.copyTo(mRowCountsArray);
+            slot.Launched = false;
+        }
+
+        Allocation image = slot.Image;
+        ByteBuffer data  = image.getByteBuffer();
+        int rowBytes = ImageWrapper.getNcols() * (ImageWrapper.is8bitData() ? 1 : 2);
+        int stride   = (int) image.getStride();
+
+        // Rows may be padded in the Allocation
+        data.clear();
+        if (stride == rowBytes) {
+            data.put(plane);
+        }
+        else {
+            int start = plane.position();
+            for (int row = 0; row < ImageWrapper.getNrows(); row++) {
+                plane.limit(start + (row + 1) * rowBytes);
+                plane.position(start + row * rowBytes);
+                data.position(row * stride);
+                data.put(plane);
+            }
+        }
+        image.syncAll(Allocation.USAGE_SCRIPT);
+    }
+
+}
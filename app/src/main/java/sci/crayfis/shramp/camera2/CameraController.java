@@ -296,6 +296,19 @@ abstract public class CameraController {
         return mOpenCamera.getCharacteristicsMap();
     }
 
+    // getOpenedCameraId............................................................................
+    /**
+     * @return System-assigned ID of the open camera, or null if no camera is open
+     */
+    @Nullable
+    @Contract(pure = true)
+    public static String getOpenedCameraId() {
+        if (mOpenCamera == null) {
+            return null;
+        }
+        return mOpenCamera.getCameraId();
+    }
+
     // getOpenedCamera..............................................................................
     /**
      * @return Reference to camera device if open, null if not open
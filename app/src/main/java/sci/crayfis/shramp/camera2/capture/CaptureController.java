@@ -44,10 +44,12 @@ import sci.crayfis.shramp.camera2.CameraController;
 import sci.crayfis.shramp.camera2.requests.RequestMaker;
 import sci.crayfis.shramp.camera2.util.Parameter;
 import sci.crayfis.shramp.surfaces.SurfaceController;
+import sci.crayfis.shramp.util.BackgroundScheduler;
 import sci.crayfis.shramp.util.Datestamp;
 import sci.crayfis.shramp.util.HandlerManager;
 import sci.crayfis.shramp.util.HeapMemory;
 import sci.crayfis.shramp.util.NumToString;
+import sci.crayfis.shramp.util.Quiesce;
 import sci.crayfis.shramp.util.StopWatch;
 import sci.crayfis.shramp.util.StorageMedia;
 
@@ -210,7 +212,13 @@ final public class CaptureController extends CameraCaptureSession.StateCallback
                 });
             }
             else if (configuration.Mode == Mode.TASK) {
-                mHandler.post(configuration.Task);
+                final Runnable task = configuration.Task;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        runTask(task);
+                    }
+                });
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -270,20 +278,34 @@ final public class CaptureController extends CameraCaptureSession.StateCallback
             });
         }
 
+        // runTask..................................................................................
+        /**
+         * Run a TASK session's task once analysis and writing are idle, tasks read calibrations
+         * that the last session's statistics (computed and written in the background) produce
+         * @param task Task to run
+         */
+        static void runTask(@NonNull Runnable task) {
+            String waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS,
+                                             Quiesce.Stage.ANALYSIS, Quiesce.Stage.STORAGE_MEDIA);
+            while (waitingOn != null) {
+                Log.e(Thread.currentThread().getName(), "Waiting to start task on: " + waitingOn);
+                waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS,
+                                          Quiesce.Stage.ANALYSIS, Quiesce.Stage.STORAGE_MEDIA);
+            }
+            task.run();
+        }
+
         // startCapture.............................................................................
         /**
          * Repeatedly tries to kick-off a capture session until it finally goes through
+         * (it can only be held back by a busy pipeline, so retries as soon as that goes idle)
          */
         static void startCapture() {
-            synchronized (mInstance) {
-                while (!hasStarted()) {
-                    try {
-                        Log.e(Thread.currentThread().getName(), "Waiting to start capture session");
-                        mInstance.wait(GlobalSettings.DEFAULT_WAIT_MS);
-                    }
-                    catch (InterruptedException e) {
-                        // TODO: error
-                    }
+            while (!hasStarted()) {
+                String waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS,
+                                                 Quiesce.Stage.ANALYSIS, Quiesce.Stage.STORAGE_MEDIA);
+                if (waitingOn != null) {
+                    Log.e(Thread.currentThread().getName(), "Waiting to start capture session on: " + waitingOn);
                 }
             }
             Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> STARTING CAPTURE <<\n ");
@@ -432,39 +454,46 @@ final public class CaptureController extends CameraCaptureSession.StateCallback
      */
     static void coolDown(double coolTemperature, int attemptLimit) {
         synchronized (mInstance) {
-            Double temperature = BatteryController.getCurrentTemperature();
-            if (temperature == null) {
-                Log.e(Thread.currentThread().getName(), "Temperature is unknown, shutting down for safety");
-                MasterController.quitSafely();
-                return;
-            }
+            // Capture is idle, deferred background work can use the time
+            BackgroundScheduler.setCooling(true);
+            try {
+                Double temperature = BatteryController.getCurrentTemperature();
+                if (temperature == null) {
+                    Log.e(Thread.currentThread().getName(), "Temperature is unknown, shutting down for safety");
+                    MasterController.quitSafely();
+                    return;
+                }
 
-            int attemptCount = 0;
-            while (temperature > coolTemperature) {
-                try {
-                    Log.e(Thread.currentThread().getName(), "Cooling down: " + NumToString.number(temperature)
-                            + " > " + NumToString.number(coolTemperature) + " [Celsius], update in 1 minute..");
-                    mInstance.wait(GlobalSettings.DEFAULT_LONG_WAIT);
-
-                    temperature = BatteryController.getCurrentTemperature();
-                    if (temperature == null) {
-                        Log.e(Thread.currentThread().getName(), "Temperature is unknown, shutting down for safety");
-                        MasterController.quitSafely();
-                        return;
+                int attemptCount = 0;
+                while (temperature > coolTemperature) {
+                    try {
+                        Log.e(Thread.currentThread().getName(), "Cooling down: " + NumToString.number(temperature)
+                                + " > " + NumToString.number(coolTemperature) + " [Celsius], update in 1 minute..");
+                        mInstance.wait(GlobalSettings.DEFAULT_LONG_WAIT);
+
+                        temperature = BatteryController.getCurrentTemperature();
+                        if (temperature == null) {
+                            Log.e(Thread.currentThread().getName(), "Temperature is unknown, shutting down for safety");
+                            MasterController.quitSafely();
+                            return;
+                        }
+
+                        attemptCount += 1;
+                        if (attemptCount >= mSession.configuration.AttemptLimit) {
+                            Log.e(Thread.currentThread().getName(), "Cool down cycle exceeding attempt limit: "
+                                    + NumToString.number(attemptCount) + ", breaking from cool down");
+                            Log.e(Thread.currentThread().getName(), "Ending temperature: " + NumToString.number(temperature)
+                                    + " [Celsius]");
+                            break;
+                        }
                     }
-
-                    attemptCount += 1;
-                    if (attemptCount >= mSession.configuration.AttemptLimit) {
-                        Log.e(Thread.currentThread().getName(), "Cool down cycle exceeding attempt limit: "
-                                + NumToString.number(attemptCount) + ", breaking from cool down");
-                        Log.e(Thread.currentThread().getName(), "Ending temperature: " + NumToString.number(temperature)
-                                + " [Celsius]");
-                        break;
+                    catch (InterruptedException e) {
+                        // TODO: error
                     }
                 }
-                catch (InterruptedException e) {
-                    // TODO: error
-                }
+            }
+            finally {
+                BackgroundScheduler.setCooling(false);
             }
         }
     }
@@ -512,6 +541,7 @@ final public class CaptureController extends CameraCaptureSession.StateCallback
         string += "\t Attempt count:        " + NumToString.number(mSession.attemptCount)
                 + " out of " + NumToString.number(mSession.configuration.AttemptLimit) + "\n";
         Log.e(Thread.currentThread().getName(), string);
+        Log.e(Thread.currentThread().getName(), StorageMedia.getStatistics());
 
         if (mSession.configuration.Mode == Mode.OPTIMIZE_DUTY_CYCLE) {
             mOptimalExposure = (long) (Math.floor(1e9 / averageFps));
@@ -588,19 +618,23 @@ final public class CaptureController extends CameraCaptureSession.StateCallback
         }
 
         if (mSession.configuration.Mode == Mode.CALIBRATION_HOT_SLOW) {
-            AnalysisController.runStatistics("hot_slow_" + Datestamp.getDate());
+            AnalysisController.runStatistics("hot_slow_" + Datestamp.getDate(),
+                                             mSession.configuration.TargetExposure);
             // PrintAllocations.printMeanAndErr();
         }
         if (mSession.configuration.Mode == Mode.CALIBRATION_HOT_FAST) {
-            AnalysisController.runStatistics("hot_fast_" + Datestamp.getDate());
+            AnalysisController.runStatistics("hot_fast_" + Datestamp.getDate(),
+                                             mSession.configuration.TargetExposure);
             // PrintAllocations.printMeanAndErr();
         }
         if (mSession.configuration.Mode == Mode.CALIBRATION_COLD_SLOW) {
-            AnalysisController.runStatistics("cold_slow_" + Datestamp.getDate());
+            AnalysisController.runStatistics("cold_slow_" + Datestamp.getDate(),
+                                             mSession.configuration.TargetExposure);
             // PrintAllocations.printMeanAndErr();
         }
         if (mSession.configuration.Mode == Mode.CALIBRATION_COLD_FAST) {
-            AnalysisController.runStatistics("cold_fast_" + Datestamp.getDate());
+            AnalysisController.runStatistics("cold_fast_" + Datestamp.getDate(),
+                                             mSession.configuration.TargetExposure);
             // PrintAllocations.printMeanAndErr();
         }
 
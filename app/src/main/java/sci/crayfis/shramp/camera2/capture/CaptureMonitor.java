@@ -29,12 +29,12 @@ import android.view.Surface;
 
 import sci.crayfis.shramp.GlobalSettings;
 import sci.crayfis.shramp.MasterController;
-import sci.crayfis.shramp.analysis.AnalysisController;
 import sci.crayfis.shramp.analysis.DataQueue;
 import sci.crayfis.shramp.battery.BatteryController;
 import sci.crayfis.shramp.camera2.util.TimeCode;
 import sci.crayfis.shramp.util.HeapMemory;
 import sci.crayfis.shramp.util.NumToString;
+import sci.crayfis.shramp.util.Quiesce;
 import sci.crayfis.shramp.util.StopWatch;
 import sci.crayfis.shramp.util.StorageMedia;
 import sci.crayfis.shramp.util.Datestamp;
@@ -530,38 +530,23 @@ final class CaptureMonitor extends CameraCaptureSession.CaptureCallback {
                 }
             }
 
+            // Wait for the pipeline to drain, reporting whatever is holding it up along the way
             DataQueue.purge();
-            synchronized (this) {
-                while (!DataQueue.isEmpty() || AnalysisController.isBusy() || StorageMedia.isBusy()) {
-                    try {
-                        String waitingOn = "";
-                        if (!DataQueue.isEmpty()) {
-                            waitingOn += " Data Queue is not empty";
-                        }
-                        if (AnalysisController.isBusy()) {
-                            waitingOn += " Analysis Controller is busy";
-                        }
-                        if (StorageMedia.isBusy()) {
-                            waitingOn += " Storage Media is busy";
-                        }
-                        if (!waitingOn.equals("")) {
-                            Log.e(Thread.currentThread().getName(), "Waiting on: " + waitingOn);
-                        }
-
-                        if (!DataQueue.isEmpty() && !AnalysisController.isBusy() && !StorageMedia.isBusy()) {
-                            Log.e(Thread.currentThread().getName(), ">> Anomalous Situation! Clearing Queues! <<");
-                            Log.e(Thread.currentThread().getName(), "*******************************************");
-                            DataQueue.logQueueSizes();
-                            DataQueue.logQueueContents();
-                            DataQueue.clear();
-                        }
-
-                        this.wait(GlobalSettings.DEFAULT_WAIT_MS);
-                    }
-                    catch (InterruptedException e) {
-                        // TODO: error
-                    }
+            String waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS, Quiesce.ALL_STAGES);
+            while (waitingOn != null) {
+                Log.e(Thread.currentThread().getName(), "Waiting on: " + waitingOn);
+
+                // Only the queue is stuck, nothing downstream will ever drain it
+                if (Quiesce.getBusyStages(Quiesce.Stage.ANALYSIS, Quiesce.Stage.STORAGE_MEDIA) == null
+                        && !DataQueue.isEmpty()) {
+                    Log.e(Thread.currentThread().getName(), ">> Anomalous Situation! Clearing Queues! <<");
+                    Log.e(Thread.currentThread().getName(), "*******************************************");
+                    DataQueue.logQueueSizes();
+                    DataQueue.logQueueContents();
+                    DataQueue.clear();
                 }
+
+                waitingOn = Quiesce.await(GlobalSettings.QUIESCE_TIMEOUT_MS, Quiesce.ALL_STAGES);
             }
 
             if (mState == State.FINISHED) {
@@ -0,0 +1,858 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.ssh;
+
+import android.annotation.TargetApi;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.util.BackgroundScheduler;
+import sci.crayfis.shramp.util.HandlerManager;
+import sci.crayfis.shramp.util.NumToString;
+import sci.crayfis.shramp.util.StorageMedia;
+
+/**
+ * Uploads everything in the Transmittable directory to GlobalSettings.UPLOAD_HOST over SSH/SCP.
+ * One SSH session is kept open across files and passes, files are sent in batches (one SCP
+ * channel per batch) through UPLOAD_BUFFER_BYTES buffered streams, and each is verified against
+ * an MD5 computed on the remote host before it is recorded as done in the upload journal.
+ * The remote host is reached through a Remote (the SSH session, or an in-process stand-in).
+ * The journal (UPLOAD_JOURNAL in Transmittable) survives restarts, so uploading resumes with the
+ * first file that wasn't verified, files that change after upload are sent again.
+ * Passes repeat every UPLOAD_RETRY_MS until stop(), each runs through BackgroundScheduler so
+ * uploading only happens with thermal and power headroom (or during a cool-down).
+ */
+@TargetApi(21)
+abstract public class UploadQueue {
+
+    // Public Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // UPLOAD_JOURNAL...............................................................................
+    // Journal filename in the Transmittable directory
+    public static final String UPLOAD_JOURNAL = "upload.journal";
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // THREAD_NAME..................................................................................
+    // Passes are timed on this thread (they run on the BackgroundScheduler thread)
+    private static final String THREAD_NAME = "UploadQueueThread";
+
+    // UTF_8........................................................................................
+    // Journal and SCP protocol text encoding
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // MD5_HEX......................................................................................
+    // An md5sum output line starts with the checksum (32 lowercase hexadecimal digits)
+    private static final Pattern MD5_HEX = Pattern.compile("[0-9a-f]{32}");
+
+    // NO_CHECKSUM..................................................................................
+    // Printed in place of an md5sum line for a file that cannot be read remotely
+    private static final String NO_CHECKSUM = "-";
+
+    // LOCK.........................................................................................
+    // Guards mRunning and mSession (stop() can come from any thread)
+    private static final Object LOCK = new Object();
+
+    // mHandler.....................................................................................
+    // Reference to the upload thread Handler
+    private static final Handler mHandler = HandlerManager.newHandler(THREAD_NAME,
+                                                        GlobalSettings.UPLOAD_THREAD_PRIORITY);
+
+    // Pending......................................................................................
+    // A file waiting to be uploaded
+    private static class Pending {
+        final File   mFile;
+        final String mRelativePath;
+        final long   mBytes;
+        final long   mLastModified;
+        String       mChecksum;
+
+        Pending(@NonNull File file, @NonNull String relativePath) {
+            mFile         = file;
+            mRelativePath = relativePath;
+            mBytes        = file.length();
+            mLastModified = file.lastModified();
+        }
+    }
+
+    // Remote.......................................................................................
+    // Where uploads go, SSH_REMOTE in use
+    interface Remote {
+        /**
+         * @return True if uploading may carry on, false to leave the rest for a later pass
+         */
+        boolean mayContinue();
+
+        /**
+         * @param command Shell command to run on the remote host
+         * @return The running command, null if the remote host cannot be reached
+         * @throws IOException If the command cannot be started
+         */
+        @Nullable
+        Exec exec(@NonNull String command) throws IOException;
+
+        /**
+         * The remote end failed, start over with a new connection next time
+         */
+        void reset();
+    }
+
+    // Exec.........................................................................................
+    // A command running on the remote host
+    interface Exec {
+        /**
+         * @return The command's standard input
+         */
+        @NonNull
+        OutputStream getOutputStream();
+
+        /**
+         * @return The command's standard output
+         */
+        @NonNull
+        InputStream getInputStream();
+
+        /**
+         * Done with the command
+         */
+        void close();
+    }
+
+    // Counters.....................................................................................
+    // Upload totals since start(), guarded by LOCK
+    private abstract static class Counters {
+        static long Files;
+        static long Bytes;
+        static long Failed;
+        static long TransferNanos;
+    }
+
+    // Private Class Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mRunning.....................................................................................
+    // True between start() and stop()
+    private static boolean mRunning;
+
+    // mSession.....................................................................................
+    // Open SSH session, reused until it fails or stop() (null if none)
+    private static Session mSession;
+
+    // mJournal.....................................................................................
+    // Relative path to the journal line of its last verified upload, loaded once (by a pass)
+    private static Map<String, String> mJournal;
+
+    // SSH_REMOTE...................................................................................
+    // Commands run over the shared SSH session (connected when first needed), uploading carries
+    // on while BackgroundScheduler allows it
+    private static final Remote SSH_REMOTE = new Remote() {
+        @Override
+        public boolean mayContinue() {
+            if (!BackgroundScheduler.mayRun()) {
+                Log.e(Thread.currentThread().getName(), "Uploads paused, no thermal / power headroom");
+                return false;
+            }
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Exec exec(@NonNull String command) throws IOException {
+            Session session = getSession();
+            if (session == null) {
+                return null;
+            }
+            try {
+                final ChannelExec channel = (ChannelExec) session.openChannel("exec");
+                channel.setCommand(command);
+                final OutputStream out = channel.getOutputStream();
+                final InputStream in = channel.getInputStream();
+                channel.connect();
+                return new Exec() {
+                    @NonNull
+                    @Override
+                    public OutputStream getOutputStream() {
+                        return out;
+                    }
+
+                    @NonNull
+                    @Override
+                    public InputStream getInputStream() {
+                        return in;
+                    }
+
+                    @Override
+                    public void close() {
+                        channel.disconnect();
+                    }
+                };
+            }
+            catch (JSchException e) {
+                throw new IOException(e.getLocalizedMessage(), e);
+            }
+        }
+
+        @Override
+        public void reset() {
+            synchronized (LOCK) {
+                if (mSession != null) {
+                    mSession.disconnect();
+                    mSession = null;
+                }
+            }
+        }
+    };
+
+    // mPass........................................................................................
+    // One upload pass over Transmittable, schedules the next UPLOAD_RETRY_MS later until stop()
+    private static final Runnable mPass = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LOCK) {
+                if (!mRunning) {
+                    return;
+                }
+            }
+            uploadAll();
+            synchronized (LOCK) {
+                if (mRunning) {
+                    mHandler.postDelayed(mSchedulePass, GlobalSettings.UPLOAD_RETRY_MS);
+                }
+            }
+        }
+    };
+
+    // mSchedulePass................................................................................
+    // Uploads are deferrable, passes wait for thermal and power headroom
+    private static final Runnable mSchedulePass = new Runnable() {
+        @Override
+        public void run() {
+            BackgroundScheduler.submit("Upload pass", mPass);
+        }
+    };
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // start........................................................................................
+    /**
+     * Start uploading Transmittable in the background (does nothing if already started)
+     */
+    public static void start() {
+        synchronized (LOCK) {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            Counters.Files         = 0L;
+            Counters.Bytes         = 0L;
+            Counters.Failed        = 0L;
+            Counters.TransferNanos = 0L;
+        }
+        Log.e(Thread.currentThread().getName(), "Upload queue started");
+        mHandler.post(mSchedulePass);
+    }
+
+    // stop.........................................................................................
+    /**
+     * Stop uploading, a batch in progress is cut off (it is sent again next time)
+     */
+    public static void stop() {
+        synchronized (LOCK) {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            mHandler.removeCallbacks(mSchedulePass);
+            if (mSession != null) {
+                mSession.disconnect();
+                mSession = null;
+            }
+        }
+        Log.e(Thread.currentThread().getName(), " \n\n" + getStatistics() + " \n ");
+    }
+
+    // getStatistics................................................................................
+    /**
+     * @return Files and bytes uploaded (and verified) since start(), and the transfer rate
+     */
+    @NonNull
+    public static String getStatistics() {
+        synchronized (LOCK) {
+            double seconds = Counters.TransferNanos / 1e9;
+            double rate = (seconds > 0.) ? Counters.Bytes / seconds : 0.;
+            return "Uploads: " + NumToString.number(Counters.Files) + " files, "
+                    + NumToString.number(Counters.Bytes) + " bytes, "
+                    + NumToString.number(Counters.Failed) + " failed, "
+                    + String.format(Locale.US, "%.1f", rate / 1024.) + " KiB/s";
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // uploadAll....................................................................................
+    /**
+     * Upload every file in Transmittable the journal doesn't have (as is), oldest first
+     */
+    private static void uploadAll() {
+        String directory = StorageMedia.getTransmittableDirectory();
+        if (directory == null) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "No Transmittable directory, cannot upload");
+            return;
+        }
+
+        if (mJournal == null) {
+            mJournal = readJournal(directory);
+        }
+        uploadAll(directory, mJournal, SSH_REMOTE);
+    }
+
+    // uploadAll....................................................................................
+    /**
+     * Upload every file in a directory the journal doesn't have (as is), oldest first
+     * @param directory Directory to upload (absolute path), its journal is kept in it
+     * @param journal Journal read from directory (see readJournal()), verified uploads are added
+     * @param remote Where the files go
+     */
+    static void uploadAll(@NonNull String directory, @NonNull Map<String, String> journal,
+                          @NonNull Remote remote) {
+        List<Pending> pending = new ArrayList<>();
+        findPending(new File(directory), "", journal, pending);
+        if (pending.isEmpty()) {
+            return;
+        }
+        Log.e(Thread.currentThread().getName(), "Files to upload: " + NumToString.number(pending.size()));
+
+        // Files in a batch share a remote directory
+        Map<String, List<Pending>> remoteDirectories = new LinkedHashMap<>();
+        for (Pending file : pending) {
+            String parent = new File(file.mRelativePath).getParent();
+            String remoteDirectory = GlobalSettings.UPLOAD_REMOTE_DIRECTORY;
+            if (parent != null) {
+                remoteDirectory += "/" + parent;
+            }
+            List<Pending> files = remoteDirectories.get(remoteDirectory);
+            if (files == null) {
+                files = new ArrayList<>();
+                remoteDirectories.put(remoteDirectory, files);
+            }
+            files.add(file);
+        }
+
+        for (Map.Entry<String, List<Pending>> entry : remoteDirectories.entrySet()) {
+            List<Pending> files = entry.getValue();
+            for (int i = 0; i < files.size(); i += GlobalSettings.UPLOAD_BATCH_FILES) {
+                // Leave the rest for a later pass if capture needs the headroom back
+                if (!remote.mayContinue()) {
+                    return;
+                }
+                List<Pending> batch = files.subList(i, Math.min(files.size(), i + GlobalSettings.UPLOAD_BATCH_FILES));
+                if (!uploadBatch(remote, directory, journal, entry.getKey(), batch)) {
+                    // Start over with a new connection next pass
+                    remote.reset();
+                    return;
+                }
+            }
+        }
+        Log.e(Thread.currentThread().getName(), getStatistics());
+    }
+
+    // findPending..................................................................................
+    /**
+     * @param directory Directory to look in (recursively)
+     * @param relativePath Path of directory relative to Transmittable ("" for Transmittable)
+     * @param journal Uploads already verified
+     * @param pending Files not in the journal (or changed since) are added to this, oldest first
+     *                within each directory
+     */
+    private static void findPending(@NonNull File directory, @NonNull String relativePath,
+                                    @NonNull Map<String, String> journal, @NonNull List<Pending> pending) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long difference = o1.lastModified() - o2.lastModified();
+                return (difference < 0L) ? -1 : ((difference > 0L) ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            String path = relativePath.isEmpty() ? file.getName() : relativePath + "/" + file.getName();
+            if (file.isDirectory()) {
+                findPending(file, path, journal, pending);
+                continue;
+            }
+            if (path.equals(UPLOAD_JOURNAL)) {
+                continue;
+            }
+            Pending candidate = new Pending(file, path);
+            String line = journal.get(path);
+            if (line != null && line.startsWith(journalKey(candidate))) {
+                continue;
+            }
+            pending.add(candidate);
+        }
+    }
+
+    // getSession...................................................................................
+    /**
+     * @return The open SSH session (connecting a new one if needed), null if it cannot connect
+     */
+    @Nullable
+    private static Session getSession() {
+        synchronized (LOCK) {
+            if (!mRunning) {
+                return null;
+            }
+            if (mSession != null && mSession.isConnected()) {
+                return mSession;
+            }
+        }
+
+        String identity = Environment.getExternalStorageDirectory() + File.separator
+                + GlobalSettings.UPLOAD_IDENTITY_FILE;
+        Session session;
+        try {
+            JSch jsch = new JSch();
+            jsch.addIdentity(identity);
+
+            session = jsch.getSession(GlobalSettings.UPLOAD_USER, GlobalSettings.UPLOAD_HOST,
+                                      GlobalSettings.UPLOAD_PORT);
+            session.setConfig("StrictHostKeyChecking", "no");
+            session.setTimeout(GlobalSettings.UPLOAD_TIMEOUT_MS);
+            session.connect();
+        }
+        catch (JSchException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot connect to " + GlobalSettings.UPLOAD_HOST
+                    + ": " + e.getLocalizedMessage());
+            return null;
+        }
+
+        synchronized (LOCK) {
+            if (!mRunning) {
+                session.disconnect();
+                return null;
+            }
+            mSession = session;
+        }
+        return session;
+    }
+
+    // uploadBatch..................................................................................
+    /**
+     * Send files over one SCP channel, verify them and record the ones that match in the journal
+     * @param remote Where the files go
+     * @param directory Transmittable directory (absolute path)
+     * @param journal Verified uploads are added to this
+     * @param remoteDirectory Remote directory the files go in
+     * @param batch Files to send
+     * @return True if the connection is still good, false if it failed
+     */
+    private static boolean uploadBatch(@NonNull Remote remote, @NonNull String directory,
+                                       @NonNull Map<String, String> journal,
+                                       @NonNull String remoteDirectory, @NonNull List<Pending> batch) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        Exec channel = null;
+        int nSent = 0;
+        try {
+            channel = remote.exec("mkdir -p " + quote(remoteDirectory)
+                    + " && scp -d -t " + quote(remoteDirectory));
+            if (channel == null) {
+                return false;
+            }
+            OutputStream out = new BufferedOutputStream(channel.getOutputStream(),
+                                                        GlobalSettings.UPLOAD_BUFFER_BYTES);
+            InputStream in = channel.getInputStream();
+
+            if (!readAck(in)) {
+                return false;
+            }
+
+            byte[] buffer = new byte[GlobalSettings.UPLOAD_BUFFER_BYTES];
+            for (Pending file : batch) {
+                if (!send(file, buffer, out, in)) {
+                    break;
+                }
+                nSent += 1;
+            }
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Upload to " + remoteDirectory + " failed: "
+                    + e.getLocalizedMessage());
+            return false;
+        }
+        finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        long transferNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+
+        List<Pending> sent = batch.subList(0, nSent);
+        String[] remoteChecksums = getRemoteChecksums(remote, remoteDirectory, sent);
+        if (remoteChecksums == null) {
+            return false;
+        }
+
+        long nBytes = 0L;
+        int nVerified = 0;
+        for (int i = 0; i < sent.size(); i++) {
+            Pending file = sent.get(i);
+            if (!file.mChecksum.equals(remoteChecksums[i])) {
+                Log.e(Thread.currentThread().getName(), "Upload checksum mismatch, will resend: " + file.mRelativePath);
+                continue;
+            }
+            appendJournal(directory, journal, file);
+            nBytes += file.mBytes;
+            nVerified += 1;
+        }
+
+        synchronized (LOCK) {
+            Counters.Files         += nVerified;
+            Counters.Bytes         += nBytes;
+            Counters.Failed        += batch.size() - nVerified;
+            Counters.TransferNanos += transferNanos;
+        }
+        double rate = nBytes / (transferNanos / 1e9);
+        Log.e(Thread.currentThread().getName(), "Uploaded " + NumToString.number(nVerified) + " of "
+                + NumToString.number(batch.size()) + " files to " + remoteDirectory + ", "
+                + NumToString.number(nBytes) + " bytes at " + String.format(Locale.US, "%.1f", rate / 1024.) + " KiB/s");
+
+        return nSent == batch.size();
+    }
+
+    // send.........................................................................................
+    /**
+     * Send one file down an open SCP channel (computing its checksum on the way)
+     * @param file File to send
+     * @param buffer Read buffer
+     * @param out SCP channel output
+     * @param in SCP channel input
+     * @return True if the remote end accepted it, false if not (the channel is no longer usable)
+     * @throws IOException If the channel fails
+     */
+    private static boolean send(@NonNull Pending file, @NonNull byte[] buffer,
+                                @NonNull OutputStream out, @NonNull InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "MD5 is not available, cannot verify uploads");
+            return false;
+        }
+
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(file.mFile);
+        }
+        catch (FileNotFoundException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot open for upload: " + file.mFile.getAbsolutePath());
+            return false;
+        }
+
+        try {
+            String command = "C0644 " + file.mBytes + " " + file.mFile.getName() + "\n";
+            out.write(command.getBytes(UTF_8));
+            out.flush();
+            if (!readAck(in)) {
+                return false;
+            }
+
+            // Exactly the size announced, even if the file is still growing
+            long remaining = file.mBytes;
+            while (remaining > 0L) {
+                int length = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (length < 0) {
+                    // TODO: error
+                    Log.e(Thread.currentThread().getName(), "File shrank during upload: " + file.mFile.getAbsolutePath());
+                    return false;
+                }
+                out.write(buffer, 0, length);
+                digest.update(buffer, 0, length);
+                remaining -= length;
+            }
+
+            out.write(0);
+            out.flush();
+            if (!readAck(in)) {
+                return false;
+            }
+        }
+        finally {
+            try {
+                stream.close();
+            }
+            catch (IOException e) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "Cannot close: " + file.mFile.getAbsolutePath());
+            }
+        }
+
+        file.mChecksum = toHex(digest.digest());
+        return true;
+    }
+
+    // readAck......................................................................................
+    /**
+     * @param in SCP channel input
+     * @return True if the remote end acknowledged, false if it reported an error
+     * @throws IOException If the channel fails
+     */
+    private static boolean readAck(@NonNull InputStream in) throws IOException {
+        int status = in.read();
+        if (status == 0) {
+            return true;
+        }
+        if (status < 0) {
+            Log.e(Thread.currentThread().getName(), "SCP channel closed");
+            return false;
+        }
+
+        // 1 (warning) or 2 (error), followed by a message line
+        StringBuilder message = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            message.append((char) c);
+        }
+        Log.e(Thread.currentThread().getName(), "SCP error: " + message);
+        return false;
+    }
+
+    // getRemoteChecksums...........................................................................
+    /**
+     * One md5sum per file, reading it from standard input so the output never has the (possibly
+     * escaped) path in it, and exactly one line per file in order (NO_CHECKSUM if it can't be read)
+     * @param remote Where the files are
+     * @param remoteDirectory Remote directory the files are in
+     * @param files Files to check
+     * @return MD5 (hex) of each file in order, null entries for files that could not be checked,
+     *         null if the connection failed
+     */
+    @Nullable
+    private static String[] getRemoteChecksums(@NonNull Remote remote, @NonNull String remoteDirectory,
+                                               @NonNull List<Pending> files) {
+        String[] checksums = new String[files.size()];
+        if (files.isEmpty()) {
+            return checksums;
+        }
+
+        StringBuilder command = new StringBuilder();
+        for (Pending file : files) {
+            if (command.length() > 0) {
+                command.append("; ");
+            }
+            command.append("md5sum < ").append(quote(remoteDirectory + "/" + file.mFile.getName()))
+                   .append(" || echo ").append(NO_CHECKSUM);
+        }
+
+        Exec channel = null;
+        try {
+            channel = remote.exec(command.toString());
+            if (channel == null) {
+                return null;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(channel.getInputStream(), UTF_8));
+
+            // "[md5]  -" per file, the checksum is the first 32 characters
+            String line;
+            int i = 0;
+            while (i < checksums.length && (line = reader.readLine()) != null) {
+                if (line.length() >= 32 && MD5_HEX.matcher(line.substring(0, 32)).matches()) {
+                    checksums[i] = line.substring(0, 32);
+                }
+                i += 1;
+            }
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot verify uploads: " + e.getLocalizedMessage());
+            return null;
+        }
+        finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return checksums;
+    }
+
+    // journalKey...................................................................................
+    /**
+     * @param file File
+     * @return Start of its journal line, a file whose line starts with this is already uploaded
+     */
+    @NonNull
+    private static String journalKey(@NonNull Pending file) {
+        return file.mRelativePath + "\t" + file.mBytes + "\t" + file.mLastModified + "\t";
+    }
+
+    // readJournal..................................................................................
+    /**
+     * @param directory Transmittable directory (absolute path)
+     * @return Relative path to journal line (last line wins), empty if there is no journal
+     */
+    @NonNull
+    static Map<String, String> readJournal(@NonNull String directory) {
+        Map<String, String> journal = new HashMap<>();
+        File file = new File(directory, UPLOAD_JOURNAL);
+        if (!file.exists()) {
+            return journal;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // A line cut short by a crash has fewer fields, and the file is sent again
+                String[] fields = line.split("\t");
+                if (fields.length == 5) {
+                    journal.put(fields[0], line);
+                }
+            }
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot read upload journal: " + file.getAbsolutePath());
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException e) {
+                    // TODO: error
+                    Log.e(Thread.currentThread().getName(), "Cannot close upload journal: " + file.getAbsolutePath());
+                }
+            }
+        }
+        Log.e(Thread.currentThread().getName(), "Upload journal: " + NumToString.number(journal.size())
+                + " files already uploaded");
+        return journal;
+    }
+
+    // appendJournal................................................................................
+    /**
+     * Record a verified upload, line format (tab-separated):
+     *      relative path, size [bytes], last modified [ms], MD5 (hex), uploaded at [ms]
+     * @param directory Transmittable directory (absolute path)
+     * @param journal The line is added to this too
+     * @param file Verified file
+     */
+    private static void appendJournal(@NonNull String directory, @NonNull Map<String, String> journal,
+                                      @NonNull Pending file) {
+        String line = journalKey(file) + file.mChecksum + "\t" + System.currentTimeMillis();
+        File journalFile = new File(directory, UPLOAD_JOURNAL);
+        FileOutputStream stream = null;
+        try {
+            // One write per line, so a crash loses at most the line being written
+            stream = new FileOutputStream(journalFile, true);
+            stream.write((line + "\n").getBytes(UTF_8));
+            journal.put(file.mRelativePath, line);
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot write upload journal: " + journalFile.getAbsolutePath());
+        }
+        finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                }
+                catch (IOException e) {
+                    // TODO: error
+                    Log.e(Thread.currentThread().getName(), "Cannot close upload journal: " + journalFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    // quote........................................................................................
+    /**
+     * @param path Remote path
+     * @return Path quoted for the remote shell
+     */
+    @NonNull
+    private static String quote(@NonNull String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+
+    // toHex........................................................................................
+    /**
+     * @param bytes Digest
+     * @return Lowercase hexadecimal, as md5sum prints it
+     */
+    @NonNull
+    private static String toHex(@NonNull byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+}
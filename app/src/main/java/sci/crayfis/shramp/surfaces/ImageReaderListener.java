@@ -165,6 +165,17 @@ public final class ImageReaderListener implements ImageReader.OnImageAvailableLi
                 }
             }
 
+            // Zero-copy: wait until a consumer releases an Image (ImageWrapper.release() wakes this up),
+            // otherwise there is no buffer left to acquire this one (if processing has stalled, the
+            // image is dropped instead)
+            while (ImageWrapper.isZeroCopy()
+                    && !ImageWrapper.awaitOpenImagesBelow(GlobalSettings.MAX_SIMULTANEOUS_IMAGES,
+                                                          GlobalSettings.QUIESCE_TIMEOUT_MS)) {
+                if (!AnalysisController.isBusy()) {
+                    break;
+                }
+            }
+
             StopWatches.AddImageWrapper.start();
             DataQueue.add(new ImageWrapper(reader));
             StopWatches.AddImageWrapper.addTime();
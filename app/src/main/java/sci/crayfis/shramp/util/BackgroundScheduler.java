@@ -0,0 +1,248 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.battery.BatteryController;
+
+/**
+ * Runs deferrable background work (e.g. uploads) one job at a time, and only when it won't cost
+ * exposure time: either the device has thermal and power headroom (see hasHeadroom()), or capture
+ * is idle in a cool-down anyway (see setCooling()).
+ * Jobs wait (first-in first-out) while there is no headroom, conditions are checked again every
+ * BACKGROUND_CHECK_MS.  A job that has started is not interrupted, long jobs should check
+ * mayRun() between steps and resubmit what is left.
+ */
+@TargetApi(21)
+abstract public class BackgroundScheduler {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // THREAD_NAME..................................................................................
+    // Background jobs run on this thread
+    private static final String THREAD_NAME = "BackgroundThread";
+
+    // BATTERY_ONLY.................................................................................
+    // BatteryController.getCurrentPowerSource() when unplugged
+    private static final String BATTERY_ONLY = "USING BATTERY POWER ONLY";
+
+    // PLUGGED_IN...................................................................................
+    // BatteryController.getCurrentPowerSource() starts with this for known power sources
+    private static final String PLUGGED_IN = "USING";
+
+    // LOCK.........................................................................................
+    // Guards the queue and state below
+    private static final Object LOCK = new Object();
+
+    // mHandler.....................................................................................
+    // Reference to the background thread Handler
+    private static final Handler mHandler = HandlerManager.newHandler(THREAD_NAME,
+                                                        GlobalSettings.BACKGROUND_THREAD_PRIORITY);
+
+    // mJobs........................................................................................
+    // Jobs waiting to run, guarded by LOCK
+    private static final ArrayDeque<Job> mJobs = new ArrayDeque<>();
+
+    // Job..........................................................................................
+    // A deferrable job and what it is (for logging)
+    private static class Job {
+        final String   mName;
+        final Runnable mAction;
+
+        Job(@NonNull String name, @NonNull Runnable action) {
+            mName   = name;
+            mAction = action;
+        }
+    }
+
+    // Private Class Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mIsCooling...................................................................................
+    // True while capture is idle cooling down, guarded by LOCK
+    private static boolean mIsCooling;
+
+    // mIsDeferring.................................................................................
+    // True while jobs are held back for lack of headroom (logged on change), guarded by LOCK
+    private static boolean mIsDeferring;
+
+    // mIsScheduled.................................................................................
+    // True from posting mNextJob until it finds no jobs left (it re-posts itself until then),
+    // so there is only ever one check on its way, guarded by LOCK
+    private static boolean mIsScheduled;
+
+    // mNextJob.....................................................................................
+    // Runs the next job if it may, otherwise checks again in BACKGROUND_CHECK_MS, re-posting
+    // replaces any other post of it (e.g. from setCooling() while this was running)
+    private static final Runnable mNextJob = new Runnable() {
+        @Override
+        public void run() {
+            boolean mayRun = mayRun();
+
+            Job job;
+            synchronized (LOCK) {
+                if (mJobs.isEmpty()) {
+                    mIsScheduled = false;
+                    return;
+                }
+                if (!mayRun) {
+                    if (!mIsDeferring) {
+                        Log.e(Thread.currentThread().getName(), "No thermal / power headroom, deferring "
+                                + NumToString.number(mJobs.size()) + " background jobs");
+                        mIsDeferring = true;
+                    }
+                    mHandler.removeCallbacks(mNextJob);
+                    mHandler.postDelayed(mNextJob, GlobalSettings.BACKGROUND_CHECK_MS);
+                    return;
+                }
+                mIsDeferring = false;
+                job = mJobs.poll();
+            }
+
+            Log.e(Thread.currentThread().getName(), "Running background job: " + job.mName);
+            try {
+                job.mAction.run();
+            }
+            catch (RuntimeException e) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "Background job failed: " + job.mName + ", " + e);
+            }
+            finally {
+                // Keep going with the rest, mIsScheduled is still true
+                synchronized (LOCK) {
+                    mHandler.removeCallbacks(mNextJob);
+                    mHandler.post(mNextJob);
+                }
+            }
+        }
+    };
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // submit.......................................................................................
+    /**
+     * Queue a deferrable job, it runs on the background thread once there is headroom
+     * @param name What the job is (for logging)
+     * @param job Work to do
+     */
+    public static void submit(@NonNull String name, @NonNull Runnable job) {
+        synchronized (LOCK) {
+            mJobs.add(new Job(name, job));
+            if (!mIsScheduled) {
+                mIsScheduled = true;
+                mHandler.post(mNextJob);
+            }
+        }
+    }
+
+    // setCooling...................................................................................
+    /**
+     * Called by CaptureController around a cool-down, while cooling background jobs don't wait for
+     * thermal headroom (capture is idle anyway), but still need power headroom
+     * @param isCooling True when a cool-down starts, false when it ends
+     */
+    public static void setCooling(boolean isCooling) {
+        synchronized (LOCK) {
+            mIsCooling = isCooling;
+
+            // Check deferred jobs now instead of at the end of the wait (the check replaces the
+            // one waiting, it isn't added alongside it)
+            if (isCooling && mIsDeferring) {
+                mHandler.removeCallbacks(mNextJob);
+                mHandler.post(mNextJob);
+            }
+        }
+    }
+
+    // mayRun.......................................................................................
+    /**
+     * @return True if background work may run right now (cooling down with power headroom, or
+     *         has headroom), false if it should wait
+     */
+    public static boolean mayRun() {
+        boolean isCooling;
+        synchronized (LOCK) {
+            isCooling = mIsCooling;
+        }
+        if (isCooling) {
+            return hasPowerHeadroom();
+        }
+        return hasHeadroom();
+    }
+
+    // hasHeadroom..................................................................................
+    /**
+     * @return True if the device is below BACKGROUND_TEMPERATURE_LIMIT and has power headroom
+     *         (see hasPowerHeadroom()), false if not or the temperature is unknown
+     */
+    public static boolean hasHeadroom() {
+        Double temperature = BatteryController.getCurrentTemperature();
+        if (temperature == null || temperature >= GlobalSettings.BACKGROUND_TEMPERATURE_LIMIT) {
+            return false;
+        }
+        return hasPowerHeadroom();
+    }
+
+    // getBacklog...................................................................................
+    /**
+     * @return Number of background jobs waiting to run
+     */
+    public static int getBacklog() {
+        synchronized (LOCK) {
+            return mJobs.size();
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // hasPowerHeadroom.............................................................................
+    /**
+     * @return True if plugged in, or on battery above BACKGROUND_MIN_BATTERY_PERCENT and drawing
+     *         less than BACKGROUND_POWER_LIMIT (if known), false if not
+     */
+    private static boolean hasPowerHeadroom() {
+        String source = BatteryController.getCurrentPowerSource();
+        boolean isPluggedIn = source != null && source.startsWith(PLUGGED_IN) && !source.equals(BATTERY_ONLY);
+        if (isPluggedIn) {
+            // Power reading is mostly charging current then, not what the device draws
+            return true;
+        }
+        Double percent = BatteryController.getCurrentPercent();
+        if (percent == null || percent < GlobalSettings.BACKGROUND_MIN_BATTERY_PERCENT) {
+            return false;
+        }
+
+        // Sign depends on the device (see BatteryController.getInstantaneousPower())
+        Double power = BatteryController.getInstantaneousPower();
+        return power == null || Math.abs(power) < GlobalSettings.BACKGROUND_POWER_LIMIT;
+    }
+
+}
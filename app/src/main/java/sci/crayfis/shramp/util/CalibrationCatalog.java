@@ -0,0 +1,689 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.analysis.FileHeader;
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+/**
+ * Persistent index of the calibration files in ShRAMP/Calibrations, so the latest calibration (or
+ * the one nearest a temperature or exposure) can be found in O(log n) without reading file headers.
+ * Every calibration written by StorageMedia.writeCalibration() is added (and appended to the catalog
+ * file on disk) once it has been written.  On load() the catalog is checked against the directory
+ * listing: calibrations it doesn't have (e.g. from before it existed, or copied in) are read from
+ * their file headers, ones no longer there are dropped, and the catalog file is rewritten if
+ * anything changed.  Lookups also drop calibrations whose file has gone since.
+ * Catalog file format: one calibration per line, tab-separated, "-" for unknown values:
+ *      type, extension, camera id, bits per pixel, rows, columns, temperature [Celsius],
+ *      exposure [ns], number of frames, date [ms since epoch], filename
+ */
+@TargetApi(21)
+abstract public class CalibrationCatalog {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // CATALOG_FILE.................................................................................
+    // Catalog filename in the calibrations directory
+    private static final String CATALOG_FILE = "calibrations.catalog";
+
+    // TYPES........................................................................................
+    // Calibration types (filename heads), matched with the "_" that follows so none is mistaken
+    // for another
+    private static final String[] TYPES = {"cold_fast", "cold_slow", "hot_fast", "hot_slow",
+                                           "stddev", "stderr", "mean", "mask"};
+
+    // EXTENSIONS...................................................................................
+    // Calibration file extensions
+    private static final String[] EXTENSIONS = {GlobalSettings.MEAN_FILE, GlobalSettings.STDDEV_FILE,
+                                                GlobalSettings.STDERR_FILE, GlobalSettings.MASK_FILE};
+
+    // UNKNOWN......................................................................................
+    // Catalog file placeholder for unknown values
+    private static final String UNKNOWN = "-";
+
+    // mShelves.....................................................................................
+    // Calibrations indexed by type + extension
+    private static final Map<String, Shelf> mShelves = new HashMap<>();
+
+    // Private Class Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mDirectory...................................................................................
+    // Calibrations directory (absolute path), null until load()
+    private static String mDirectory;
+
+    // Entry........................................................................................
+    /**
+     * Everything known about one calibration file
+     */
+    public static final class Entry {
+        private String mType;
+        private String mExtension;
+        private String mCameraId;
+        private int    mBitsPerPixel;
+        private int    mRows;
+        private int    mColumns;
+        private Float  mTemperature;
+        private Long   mExposure;
+        private Long   mNframes;
+        private long   mDate;
+        private String mFilename;
+
+        /** @return Calibration type, e.g. "cold_fast" or "mean" */
+        @NonNull
+        @Contract(pure = true)
+        public String getType() { return mType; }
+
+        /** @return File extension, e.g. GlobalSettings.MEAN_FILE */
+        @NonNull
+        @Contract(pure = true)
+        public String getExtension() { return mExtension; }
+
+        /** @return System camera ID the calibration was taken with (null if unknown) */
+        @Nullable
+        @Contract(pure = true)
+        public String getCameraId() { return mCameraId; }
+
+        /** @return Bits per pixel of the output format (8 for YUV, 16 for RAW) */
+        @Contract(pure = true)
+        public int getBitsPerPixel() { return mBitsPerPixel; }
+
+        /** @return Number of pixel rows */
+        @Contract(pure = true)
+        public int getRows() { return mRows; }
+
+        /** @return Number of pixel columns */
+        @Contract(pure = true)
+        public int getColumns() { return mColumns; }
+
+        /** @return Temperature [Celsius] (null if unknown, e.g. masks) */
+        @Nullable
+        @Contract(pure = true)
+        public Float getTemperature() { return mTemperature; }
+
+        /** @return Sensor exposure [ns] (null if unknown) */
+        @Nullable
+        @Contract(pure = true)
+        public Long getExposure() { return mExposure; }
+
+        /** @return Number of frames that went into the calibration (null if unknown, e.g. masks) */
+        @Nullable
+        @Contract(pure = true)
+        public Long getNframes() { return mNframes; }
+
+        /** @return Date the calibration was written [ms since epoch] */
+        @Contract(pure = true)
+        public long getDate() { return mDate; }
+
+        /** @return Absolute path of the calibration file */
+        @NonNull
+        public String getPath() { return mDirectory + File.separator + mFilename; }
+    }
+
+    // Shelf........................................................................................
+    // All calibrations of one type and extension, sorted three ways (for equal temperatures or
+    // exposures, the latest calibration is kept)
+    private static final class Shelf {
+        final TreeMap<Long,  Entry> mByDate        = new TreeMap<>();
+        final TreeMap<Float, Entry> mByTemperature = new TreeMap<>();
+        final TreeMap<Long,  Entry> mByExposure    = new TreeMap<>();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // load.........................................................................................
+    /**
+     * Read in the catalog for a calibrations directory, and bring it up to date with what is in
+     * the directory (building it if there isn't one)
+     * @param directory Calibrations directory (absolute path)
+     */
+    public static synchronized void load(@NonNull String directory) {
+        mDirectory = directory;
+        mShelves.clear();
+
+        // Filename to catalog entry
+        Map<String, Entry> catalogued = new HashMap<>();
+        File catalog = new File(directory, CATALOG_FILE);
+        if (catalog.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(catalog));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Entry entry = decode(line);
+                    if (entry == null) {
+                        Log.e(Thread.currentThread().getName(), "Skipping bad calibration catalog line: " + line);
+                        continue;
+                    }
+                    shelve(entry);
+                    catalogued.put(entry.mFilename, entry);
+                }
+            }
+            catch (IOException e) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "Cannot read calibration catalog, rebuilding it");
+                mShelves.clear();
+                catalogued.clear();
+            }
+            finally {
+                close(reader);
+            }
+        }
+
+        if (reconcile(catalogued) || !catalog.exists()) {
+            writeCatalog();
+        }
+    }
+
+    // describe.....................................................................................
+    /**
+     * Make a catalog entry for a calibration about to be written
+     * @param filename Filename (no path)
+     * @param header Data to be written, at least the header, it is not modified
+     * @param cameraId (Optional) System camera ID the calibration was taken with
+     * @param exposure (Optional) Sensor exposure [ns] the calibration was taken at
+     * @return A new entry, or null if this isn't a catalogued calibration (e.g. a histogram)
+     */
+    @Nullable
+    public static Entry describe(@NonNull String filename, @NonNull ByteBuffer header,
+                                 @Nullable String cameraId, @Nullable Long exposure) {
+        Entry entry = parseFilename(filename);
+        if (entry == null) {
+            return null;
+        }
+        entry.mCameraId = cameraId;
+        entry.mExposure = exposure;
+        readHeader(entry, header.duplicate());
+        return entry;
+    }
+
+    // add..........................................................................................
+    /**
+     * Add a calibration that has been written to the catalog (and the catalog file)
+     * @param entry From describe()
+     */
+    public static synchronized void add(@NonNull Entry entry) {
+        if (mDirectory == null) {
+            return;
+        }
+        shelve(entry);
+
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(new File(mDirectory, CATALOG_FILE), true);
+            writer.write(encode(entry));
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot append to calibration catalog");
+        }
+        finally {
+            close(writer);
+        }
+    }
+
+    // findLatest...................................................................................
+    /**
+     * @param type Calibration type, e.g. "cold_fast" or "mean"
+     * @param extension File extension, e.g. GlobalSettings.MEAN_FILE
+     * @return The most recent calibration of this type, null if there isn't one
+     */
+    @Nullable
+    public static synchronized Entry findLatest(@NonNull String type, @NonNull String extension) {
+        Shelf shelf = mShelves.get(type + extension);
+        while (shelf != null && !shelf.mByDate.isEmpty()) {
+            Entry latest = shelf.mByDate.lastEntry().getValue();
+            if (!isMissing(latest)) {
+                return latest;
+            }
+        }
+        return null;
+    }
+
+    // findNearestTemperature.......................................................................
+    /**
+     * @param type Calibration type, e.g. "cold_fast" or "mean"
+     * @param extension File extension, e.g. GlobalSettings.MEAN_FILE
+     * @param temperature Temperature [Celsius]
+     * @return The calibration of this type taken nearest this temperature, null if there isn't one
+     */
+    @Nullable
+    public static synchronized Entry findNearestTemperature(@NonNull String type, @NonNull String extension,
+                                                           float temperature) {
+        Shelf shelf = mShelves.get(type + extension);
+        while (shelf != null && !shelf.mByTemperature.isEmpty()) {
+            Map.Entry<Float, Entry> below = shelf.mByTemperature.floorEntry(temperature);
+            Map.Entry<Float, Entry> above = shelf.mByTemperature.ceilingEntry(temperature);
+            Entry nearest;
+            if (below == null || above == null) {
+                nearest = (below == null) ? above.getValue() : below.getValue();
+            }
+            else {
+                nearest = (temperature - below.getKey() <= above.getKey() - temperature) ? below.getValue() : above.getValue();
+            }
+            if (!isMissing(nearest)) {
+                return nearest;
+            }
+        }
+        return null;
+    }
+
+    // findNearestExposure..........................................................................
+    /**
+     * @param type Calibration type, e.g. "cold_fast" or "mean"
+     * @param extension File extension, e.g. GlobalSettings.MEAN_FILE
+     * @param exposure Sensor exposure [ns]
+     * @return The calibration of this type taken nearest this exposure, null if there isn't one
+     *         (calibrations of unknown exposure are never returned)
+     */
+    @Nullable
+    public static synchronized Entry findNearestExposure(@NonNull String type, @NonNull String extension,
+                                                        long exposure) {
+        Shelf shelf = mShelves.get(type + extension);
+        while (shelf != null && !shelf.mByExposure.isEmpty()) {
+            Map.Entry<Long, Entry> below = shelf.mByExposure.floorEntry(exposure);
+            Map.Entry<Long, Entry> above = shelf.mByExposure.ceilingEntry(exposure);
+            Entry nearest;
+            if (below == null || above == null) {
+                nearest = (below == null) ? above.getValue() : below.getValue();
+            }
+            else {
+                nearest = (exposure - below.getKey() <= above.getKey() - exposure) ? below.getValue() : above.getValue();
+            }
+            if (!isMissing(nearest)) {
+                return nearest;
+            }
+        }
+        return null;
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // shelve.......................................................................................
+    /**
+     * Add an entry to the in-memory indices
+     * @param entry Calibration
+     */
+    private static void shelve(@NonNull Entry entry) {
+        String key = entry.mType + entry.mExtension;
+        Shelf shelf = mShelves.get(key);
+        if (shelf == null) {
+            shelf = new Shelf();
+            mShelves.put(key, shelf);
+        }
+        shelf.mByDate.put(entry.mDate, entry);
+        index(shelf, entry);
+    }
+
+    // index........................................................................................
+    /**
+     * Add an entry to its shelf's temperature and exposure indices (if known)
+     * @param shelf Shelf for the entry's type and extension
+     * @param entry Calibration
+     */
+    private static void index(@NonNull Shelf shelf, @NonNull Entry entry) {
+        if (entry.mTemperature != null) {
+            Entry existing = shelf.mByTemperature.get(entry.mTemperature);
+            if (existing == null || existing.mDate <= entry.mDate) {
+                shelf.mByTemperature.put(entry.mTemperature, entry);
+            }
+        }
+        if (entry.mExposure != null) {
+            Entry existing = shelf.mByExposure.get(entry.mExposure);
+            if (existing == null || existing.mDate <= entry.mDate) {
+                shelf.mByExposure.put(entry.mExposure, entry);
+            }
+        }
+    }
+
+    // unshelve.....................................................................................
+    /**
+     * Remove an entry from each in-memory index it is in (compared by identity, another entry with
+     * the same date can hold its place in the date index while it is still in the others)
+     * @param entry Calibration
+     */
+    private static void unshelve(@NonNull Entry entry) {
+        Shelf shelf = mShelves.get(entry.mType + entry.mExtension);
+        if (shelf == null) {
+            return;
+        }
+        if (shelf.mByDate.get(entry.mDate) == entry) {
+            shelf.mByDate.remove(entry.mDate);
+        }
+        boolean byTemperature = entry.mTemperature != null && shelf.mByTemperature.get(entry.mTemperature) == entry;
+        if (byTemperature) {
+            shelf.mByTemperature.remove(entry.mTemperature);
+        }
+        boolean byExposure = entry.mExposure != null && shelf.mByExposure.get(entry.mExposure) == entry;
+        if (byExposure) {
+            shelf.mByExposure.remove(entry.mExposure);
+        }
+
+        // An older calibration at the same temperature / exposure may take its place
+        for (Entry remaining : shelf.mByDate.values()) {
+            if ((byTemperature && entry.mTemperature.equals(remaining.mTemperature))
+                    || (byExposure && entry.mExposure.equals(remaining.mExposure))) {
+                index(shelf, remaining);
+            }
+        }
+    }
+
+    // isMissing....................................................................................
+    /**
+     * @param entry Calibration about to be returned by a lookup
+     * @return False if its file exists, true if not (it is dropped from the catalog in memory,
+     *         the catalog file catches up on the next load())
+     */
+    private static boolean isMissing(@NonNull Entry entry) {
+        if (new File(entry.getPath()).exists()) {
+            return false;
+        }
+        Log.e(Thread.currentThread().getName(), "Calibration no longer exists, dropping it: " + entry.mFilename);
+        unshelve(entry);
+        return true;
+    }
+
+    // reconcile....................................................................................
+    /**
+     * Bring the catalog in memory up to date with the directory listing: calibrations not in the
+     * catalog are read from their filename and header, catalogued ones no longer there are dropped
+     * @param catalogued Filename to entry of everything read from the catalog file (emptied)
+     * @return True if anything was added or dropped, false if the catalog already matched
+     */
+    private static boolean reconcile(@NonNull Map<String, Entry> catalogued) {
+        File directory = new File(mDirectory);
+        String[] filenames = directory.list();
+        if (filenames == null) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot list calibrations directory");
+            return false;
+        }
+
+        int nAdded = 0;
+        for (String filename : filenames) {
+            if (catalogued.remove(filename) != null) {
+                continue;
+            }
+            Entry entry = readFile(directory, filename);
+            if (entry != null) {
+                shelve(entry);
+                nAdded++;
+            }
+        }
+
+        // Whatever is left is gone from the directory
+        for (Entry entry : catalogued.values()) {
+            unshelve(entry);
+        }
+        int nDropped = catalogued.size();
+        catalogued.clear();
+
+        Log.e(Thread.currentThread().getName(), "Calibration catalog: " + NumToString.number(nAdded) + " added, "
+                + NumToString.number(nDropped) + " dropped");
+        return nAdded > 0 || nDropped > 0;
+    }
+
+    // readFile.....................................................................................
+    /**
+     * @param directory Calibrations directory
+     * @param filename Filename in it
+     * @return A new entry from the filename and file header, null if it isn't a catalogued
+     *         calibration or its header cannot be read
+     */
+    @Nullable
+    private static Entry readFile(@NonNull File directory, @NonNull String filename) {
+        Entry entry = parseFilename(filename);
+        if (entry == null) {
+            return null;
+        }
+
+        // Legacy headers are shorter, read() only looks at what it needs
+        ByteBuffer header = ByteBuffer.allocate(FileHeader.BYTES);
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(new File(directory, filename));
+            inputStream.getChannel().read(header);
+        }
+        catch (IOException e) {
+            Log.e(Thread.currentThread().getName(), "Cannot read calibration header: " + filename);
+            return null;
+        }
+        finally {
+            close(inputStream);
+        }
+        header.flip();
+        if (!readHeader(entry, header)) {
+            Log.e(Thread.currentThread().getName(), "Unrecognized calibration header: " + filename);
+            return null;
+        }
+        return entry;
+    }
+
+    // writeCatalog.................................................................................
+    /**
+     * Write the catalog file from scratch with everything in memory
+     */
+    private static void writeCatalog() {
+        StringBuilder catalog = new StringBuilder();
+        int nEntries = 0;
+        for (Shelf shelf : mShelves.values()) {
+            for (Entry entry : shelf.mByDate.values()) {
+                catalog.append(encode(entry));
+                nEntries++;
+            }
+        }
+
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(new File(mDirectory, CATALOG_FILE), false);
+            writer.write(catalog.toString());
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot write calibration catalog");
+        }
+        finally {
+            close(writer);
+        }
+        Log.e(Thread.currentThread().getName(), "Wrote calibration catalog: " + NumToString.number(nEntries) + " entries");
+    }
+
+    // parseFilename................................................................................
+    /**
+     * @param filename Calibration filename, [type]_[date][extension]
+     * @return A new entry with its type, extension, date and filename filled in, null if this
+     *         isn't a catalogued calibration
+     */
+    @Nullable
+    private static Entry parseFilename(@NonNull String filename) {
+        String extension = null;
+        for (String ext : EXTENSIONS) {
+            if (filename.endsWith(ext)) {
+                extension = ext;
+                break;
+            }
+        }
+        if (extension == null) {
+            return null;
+        }
+
+        String type = null;
+        for (String head : TYPES) {
+            if (filename.startsWith(head + "_")) {
+                type = head;
+                break;
+            }
+        }
+        if (type == null) {
+            return null;
+        }
+
+        // Date format matches Datestamp.getDate() (parsed once here, never while searching)
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS", Locale.US);
+        long date;
+        try {
+            date = format.parse(filename.substring(type.length() + 1, filename.length() - extension.length())).getTime();
+        }
+        catch (ParseException e) {
+            Log.e(Thread.currentThread().getName(), "Cannot parse calibration date: " + filename);
+            return null;
+        }
+
+        Entry entry = new Entry();
+        entry.mType      = type;
+        entry.mExtension = extension;
+        entry.mDate      = date;
+        entry.mFilename  = filename;
+        return entry;
+    }
+
+    // readHeader...................................................................................
+    /**
+     * Fill in an entry from a calibration file header (see FileHeader)
+     * @param entry Entry from parseFilename()
+     * @param header Buffer positioned at the start of the header
+     * @return True if the header was complete, false if not
+     */
+    private static boolean readHeader(@NonNull Entry entry, @NonNull ByteBuffer header) {
+        boolean isMask = entry.mExtension.equals(GlobalSettings.MASK_FILE);
+        FileHeader fileHeader = FileHeader.read(header, isMask ? OutputWrapper.Datatype.MASK
+                                                               : OutputWrapper.Datatype.STATISTICS);
+        if (fileHeader == null) {
+            return false;
+        }
+        entry.mBitsPerPixel = fileHeader.getBitsPerPixel();
+        entry.mRows         = fileHeader.getRows();
+        entry.mColumns      = fileHeader.getColumns();
+        if (!isMask) {
+            entry.mNframes     = fileHeader.getNframes();
+            entry.mTemperature = fileHeader.getTemperature();
+        }
+        return true;
+    }
+
+    // encode.......................................................................................
+    /**
+     * @param entry Calibration
+     * @return Catalog file line
+     */
+    @NonNull
+    private static String encode(@NonNull Entry entry) {
+        return entry.mType
+                + "\t" + entry.mExtension
+                + "\t" + orUnknown(entry.mCameraId)
+                + "\t" + entry.mBitsPerPixel
+                + "\t" + entry.mRows
+                + "\t" + entry.mColumns
+                + "\t" + orUnknown(entry.mTemperature)
+                + "\t" + orUnknown(entry.mExposure)
+                + "\t" + orUnknown(entry.mNframes)
+                + "\t" + entry.mDate
+                + "\t" + entry.mFilename
+                + "\n";
+    }
+
+    // decode.......................................................................................
+    /**
+     * @param line Catalog file line
+     * @return Calibration, null if the line is malformed
+     */
+    @Nullable
+    private static Entry decode(@NonNull String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 11) {
+            return null;
+        }
+        try {
+            Entry entry = new Entry();
+            entry.mType         = fields[0];
+            entry.mExtension    = fields[1];
+            entry.mCameraId     = fields[2].equals(UNKNOWN) ? null : fields[2];
+            entry.mBitsPerPixel = Integer.parseInt(fields[3]);
+            entry.mRows         = Integer.parseInt(fields[4]);
+            entry.mColumns      = Integer.parseInt(fields[5]);
+            entry.mTemperature  = fields[6].equals(UNKNOWN) ? null : Float.valueOf(fields[6]);
+            entry.mExposure     = fields[7].equals(UNKNOWN) ? null : Long.valueOf(fields[7]);
+            entry.mNframes      = fields[8].equals(UNKNOWN) ? null : Long.valueOf(fields[8]);
+            entry.mDate         = Long.parseLong(fields[9]);
+            entry.mFilename     = fields[10];
+            return entry;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // orUnknown....................................................................................
+    /**
+     * @param value Value or null
+     * @return The value as a String, UNKNOWN if null
+     */
+    @NonNull
+    @Contract(pure = true)
+    private static String orUnknown(@Nullable Object value) {
+        return (value == null) ? UNKNOWN : value.toString();
+    }
+
+    // close........................................................................................
+    /**
+     * Close a reader / writer / stream, logging (but otherwise ignoring) failure
+     * @param closeable Thing to close (or null)
+     */
+    private static void close(@Nullable Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "IO Exception on close");
+        }
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,420 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.jetbrains.annotations.Contract;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fast lossless compression for pixel data (pure Java, single pass, no tables).
+ * Pixels (8, 16 or 32-bit integers, or 32-bit floats) are replaced by the difference from the
+ * previous pixel, zig-zag mapped so small differences of either sign become small unsigned values,
+ * and Rice coded with a parameter k chosen per block of BLOCK_SIZE values.  Dark frames are nearly
+ * flat, so most values cost a few bits instead of 16.  Float words (statistics) are first mapped to
+ * integers that sort the same way as the floats, so neighboring pixels with similar values (even
+ * either side of a power of two) differ by a small integer, mantissa bits below the noise are
+ * still paid for in full.
+ * Compressed layout (big endian):
+ *      word size in bytes (byte, high bit set if the words are little endian, next bit set if
+ *      they are floats),
+ *      header size in bytes (int), header (copied as-is), bit stream
+ *      bit stream: per block, k (K_BITS bits), then per value: quotient in unary (ones ended by a
+ *                  zero) and k remainder bits, or ESCAPE ones followed by the raw zig-zag value
+ */
+@TargetApi(21)
+abstract public class Compression {
+
+    // Public Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Codec........................................................................................
+    // How data is stored, the ordinal is what is recorded in file headers (append only)
+    public enum Codec {NONE, DELTA_RICE}
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // BLOCK_SIZE...................................................................................
+    // Number of values sharing one Rice parameter
+    private static final int BLOCK_SIZE = 64;
+
+    // K_BITS.......................................................................................
+    // Bits used to store each block's Rice parameter (0 to 32)
+    private static final int K_BITS = 6;
+
+    // ESCAPE.......................................................................................
+    // Quotients this large (or larger) are stored raw instead
+    private static final int ESCAPE = 24;
+
+    // STREAM_HEADER_BYTES..........................................................................
+    // Word size (byte) + header size (int)
+    private static final int STREAM_HEADER_BYTES = 1 + 4;
+
+    // LITTLE_ENDIAN_FLAG...........................................................................
+    // Set in the word size byte when words are little endian
+    private static final int LITTLE_ENDIAN_FLAG = 0x80;
+
+    // FLOAT_FLAG...................................................................................
+    // Set in the word size byte when words are 32-bit floats
+    private static final int FLOAT_FLAG = 0x40;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // encode.......................................................................................
+    /**
+     * Compress a header followed by pixel words, spread over one or more buffers (e.g. the
+     * OutputWrapper metadata buffer then a zero-copy pixel buffer), buffers are not modified
+     * @param sources Data to compress, each from position 0 to its capacity
+     * @param headerBytes Leading bytes of sources[0] to store as-is
+     * @param wordBytes Bytes per pixel word: 1, 2 or 4
+     * @param order Byte order of the pixel words
+     * @param isFloat True if the words are 32-bit floats (wordBytes must be 4), false for integers
+     * @return Compressed data (positioned at 0), or null if it would not be any smaller or the
+     *         data is not a whole number of words
+     */
+    @Nullable
+    public static ByteBuffer encode(@NonNull ByteBuffer[] sources, int headerBytes, int wordBytes,
+                                    @NonNull ByteOrder order, boolean isFloat) {
+        if ((wordBytes != 1 && wordBytes != 2 && wordBytes != 4) || (isFloat && wordBytes != 4)) {
+            Log.e(Thread.currentThread().getName(), "Cannot compress words of " + wordBytes + " bytes");
+            return null;
+        }
+
+        long rawBytes = 0L;
+        for (ByteBuffer source : sources) {
+            rawBytes += source.capacity();
+        }
+        if (sources.length == 0 || sources[0].capacity() < headerBytes || rawBytes > Integer.MAX_VALUE
+                || rawBytes <= STREAM_HEADER_BYTES + headerBytes) {
+            return null;
+        }
+        for (int i = 0; i < sources.length; i++) {
+            int dataBytes = sources[i].capacity() - ((i == 0) ? headerBytes : 0);
+            if (dataBytes % wordBytes != 0) {
+                return null;
+            }
+        }
+
+        // Output must come out smaller than the input, if it wouldn't, it isn't worth it
+        BitWriter writer = new BitWriter((int) rawBytes - 1);
+        writer.putByte((byte) (wordBytes | ((order == ByteOrder.LITTLE_ENDIAN) ? LITTLE_ENDIAN_FLAG : 0)
+                                         | (isFloat ? FLOAT_FLAG : 0)));
+        writer.putInt(headerBytes);
+        for (int i = 0; i < headerBytes; i++) {
+            writer.putByte(sources[0].get(i));
+        }
+
+        int  wordBits = 8 * wordBytes;
+        int  shift    = 32 - wordBits;
+        long mask     = (wordBits == 32) ? 0xFFFFFFFFL : (1L << wordBits) - 1L;
+
+        long[] block = new long[BLOCK_SIZE];
+        int nBlock = 0;
+        int previous = 0;
+        for (int i = 0; i < sources.length; i++) {
+            ByteBuffer source = sources[i].duplicate().order(order);
+            int end = source.capacity();
+            for (int position = (i == 0) ? headerBytes : 0; position < end; position += wordBytes) {
+                int current;
+                if (wordBytes == 2) {
+                    current = source.getShort(position);
+                }
+                else if (wordBytes == 1) {
+                    current = source.get(position);
+                }
+                else if (isFloat) {
+                    current = toSortable(source.getInt(position));
+                }
+                else {
+                    current = source.getInt(position);
+                }
+
+                // Difference wrapped to the word size, then zig-zag: 0, -1, 1, -2, 2 -> 0, 1, 2, 3, 4
+                int delta = ((current - previous) << shift) >> shift;
+                previous = current;
+                block[nBlock++] = ((delta << 1) ^ (delta >> 31)) & mask;
+
+                if (nBlock == BLOCK_SIZE) {
+                    if (!writeBlock(writer, block, nBlock, wordBits)) {
+                        return null;
+                    }
+                    nBlock = 0;
+                }
+            }
+        }
+        if (nBlock > 0 && !writeBlock(writer, block, nBlock, wordBits)) {
+            return null;
+        }
+        return writer.finish();
+    }
+
+    // decode.......................................................................................
+    /**
+     * @param compressed Output of encode(), read from position 0 to its limit (not modified)
+     * @param rawBytes Size of the original data in bytes
+     * @return The original data (header then words in their original byte order, positioned at 0),
+     *         or null if the compressed data is corrupt
+     */
+    @Nullable
+    public static ByteBuffer decode(@NonNull ByteBuffer compressed, int rawBytes) {
+        if (compressed.limit() < STREAM_HEADER_BYTES) {
+            return null;
+        }
+        int wordBytes   = compressed.get(0) & ~(LITTLE_ENDIAN_FLAG | FLOAT_FLAG) & 0xFF;
+        boolean isFloat = (compressed.get(0) & FLOAT_FLAG) != 0;
+        int headerBytes = compressed.getInt(1);
+        ByteOrder order = ((compressed.get(0) & LITTLE_ENDIAN_FLAG) != 0) ? ByteOrder.LITTLE_ENDIAN
+                                                                          : ByteOrder.BIG_ENDIAN;
+        if ((wordBytes != 1 && wordBytes != 2 && wordBytes != 4) || (isFloat && wordBytes != 4) || headerBytes < 0
+                || headerBytes > rawBytes || compressed.limit() < STREAM_HEADER_BYTES + headerBytes
+                || (rawBytes - headerBytes) % wordBytes != 0) {
+            Log.e(Thread.currentThread().getName(), "Corrupt compressed data header");
+            return null;
+        }
+
+        ByteBuffer raw = ByteBuffer.allocate(rawBytes).order(order);
+        for (int i = 0; i < headerBytes; i++) {
+            raw.put(compressed.get(STREAM_HEADER_BYTES + i));
+        }
+
+        int wordBits = 8 * wordBytes;
+        BitReader reader = new BitReader(compressed, STREAM_HEADER_BYTES + headerBytes);
+        int nWords = (rawBytes - headerBytes) / wordBytes;
+        int previous = 0;
+        int k = 0;
+        for (int n = 0; n < nWords; n++) {
+            if (n % BLOCK_SIZE == 0) {
+                k = (int) reader.read(K_BITS);
+                if (k > wordBits) {
+                    Log.e(Thread.currentThread().getName(), "Corrupt compressed data block");
+                    return null;
+                }
+            }
+
+            int quotient = reader.readUnary(ESCAPE);
+            long value;
+            if (quotient == ESCAPE) {
+                value = reader.read(wordBits);
+            }
+            else {
+                value = ((long) quotient << k) | reader.read(k);
+            }
+            if (reader.isOverrun()) {
+                Log.e(Thread.currentThread().getName(), "Compressed data is truncated");
+                return null;
+            }
+
+            int zigzag = (int) value;
+            int delta = (zigzag >>> 1) ^ -(zigzag & 1);
+            previous += delta;
+            if (wordBytes == 2) {
+                raw.putShort((short) previous);
+            }
+            else if (wordBytes == 1) {
+                raw.put((byte) previous);
+            }
+            else if (isFloat) {
+                raw.putInt(toSortable(previous));
+            }
+            else {
+                raw.putInt(previous);
+            }
+        }
+        raw.flip();
+        return raw;
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // toSortable...................................................................................
+    /**
+     * Flip the magnitude bits of negative floats so the bits compare (as signed integers) in the
+     * same order as the floats, applying it twice gives back the original bits
+     * @param bits Float bits (Float.floatToRawIntBits())
+     * @return Sortable integer
+     */
+    @Contract(pure = true)
+    private static int toSortable(int bits) {
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    // writeBlock...................................................................................
+    /**
+     * Rice code a block of zig-zag values
+     * @param writer Where to write
+     * @param block Values
+     * @param nValues Number of values in block
+     * @param wordBits Bits per word (size of an escaped value)
+     * @return False if the output has grown as large as the input
+     */
+    private static boolean writeBlock(@NonNull BitWriter writer, @NonNull long[] block, int nValues,
+                                      int wordBits) {
+        // Best k is about log2 of the mean value
+        long sum = 0L;
+        for (int i = 0; i < nValues; i++) {
+            sum += block[i];
+        }
+        long mean = sum / nValues;
+        int k = (mean == 0L) ? 0 : 63 - Long.numberOfLeadingZeros(mean);
+        k = Math.min(k, wordBits);
+
+        writer.write(k, K_BITS);
+        for (int i = 0; i < nValues; i++) {
+            long value = block[i];
+            long quotient = value >>> k;
+            if (quotient >= ESCAPE) {
+                writer.write((1L << ESCAPE) - 1L, ESCAPE);
+                writer.write(value, wordBits);
+            }
+            else {
+                // quotient ones, a zero, then the k low bits
+                writer.write(((1L << quotient) - 1L) << 1, (int) quotient + 1);
+                writer.write(value & ((1L << k) - 1L), k);
+            }
+        }
+        return !writer.isFull();
+    }
+
+    // BitWriter....................................................................................
+    // Packs bits most-significant first into a fixed size array
+    private static final class BitWriter {
+        private final byte[] mBytes;
+        private int  mPosition;
+        private long mAccumulator;
+        private int  mBits;
+        private boolean mFull;
+
+        private BitWriter(int capacity) {
+            mBytes = new byte[capacity];
+        }
+
+        // Write the low mBits of value (up to 32)
+        private void write(long value, int bits) {
+            mAccumulator = (mAccumulator << bits) | value;
+            mBits += bits;
+            while (mBits >= 8) {
+                mBits -= 8;
+                putByte((byte) (mAccumulator >>> mBits));
+            }
+        }
+
+        private void putByte(byte value) {
+            if (mPosition == mBytes.length) {
+                mFull = true;
+                return;
+            }
+            mBytes[mPosition++] = value;
+        }
+
+        private void putInt(int value) {
+            putByte((byte) (value >>> 24));
+            putByte((byte) (value >>> 16));
+            putByte((byte) (value >>> 8));
+            putByte((byte) value);
+        }
+
+        @Contract(pure = true)
+        private boolean isFull() {
+            return mFull;
+        }
+
+        // Flush the last partial byte (zero padded)
+        @Nullable
+        private ByteBuffer finish() {
+            if (mBits > 0) {
+                putByte((byte) (mAccumulator << (8 - mBits)));
+                mBits = 0;
+            }
+            if (mFull) {
+                return null;
+            }
+            return ByteBuffer.wrap(mBytes, 0, mPosition).slice();
+        }
+    }
+
+    // BitReader....................................................................................
+    // Unpacks bits most-significant first, reading past the end gives zeros and sets overrun
+    private static final class BitReader {
+        private final ByteBuffer mBuffer;
+        private int  mPosition;
+        private long mAccumulator;
+        private int  mBits;
+        private boolean mOverrun;
+
+        private BitReader(@NonNull ByteBuffer buffer, int position) {
+            mBuffer   = buffer;
+            mPosition = position;
+        }
+
+        // Make sure at least `bits` bits (up to 56) are in the accumulator
+        private void fill(int bits) {
+            while (mBits < bits) {
+                int next = 0;
+                if (mPosition < mBuffer.limit()) {
+                    next = mBuffer.get(mPosition) & 0xFF;
+                }
+                else {
+                    mOverrun = true;
+                }
+                mPosition++;
+                mAccumulator = (mAccumulator << 8) | next;
+                mBits += 8;
+            }
+        }
+
+        // Read `bits` bits (up to 32)
+        private long read(int bits) {
+            if (bits == 0) {
+                return 0L;
+            }
+            fill(bits);
+            mBits -= bits;
+            return (mAccumulator >>> mBits) & ((1L << bits) - 1L);
+        }
+
+        // Count ones up to a zero (which is consumed), or up to limit ones
+        private int readUnary(int limit) {
+            int count = 0;
+            while (count < limit) {
+                if (read(1) == 0L) {
+                    return count;
+                }
+                count++;
+            }
+            return count;
+        }
+
+        @Contract(pure = true)
+        private boolean isOverrun() {
+            return mOverrun;
+        }
+    }
+
+}
\ No newline at end of file
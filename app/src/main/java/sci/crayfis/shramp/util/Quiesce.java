@@ -0,0 +1,137 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import sci.crayfis.shramp.analysis.AnalysisController;
+import sci.crayfis.shramp.analysis.DataQueue;
+
+/**
+ * Waits for the data pipeline (DataQueue -> ImageProcessor -> StorageMedia) to go idle.
+ * Each stage calls signal() whenever its backlog drops to zero, so a waiting thread wakes up the
+ * moment the pipeline is quiet instead of re-checking every few milliseconds.  Waiting is bounded,
+ * and on timeout the stages still busy are reported so a stuck stage can be named.
+ */
+@TargetApi(21)
+abstract public class Quiesce {
+
+    // Public Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Stage........................................................................................
+    // Pipeline stages that can be waited on
+    public enum Stage {DATA_QUEUE, ANALYSIS, STORAGE_MEDIA}
+
+    // ALL_STAGES...................................................................................
+    // The whole pipeline
+    public static final Stage[] ALL_STAGES = Stage.values();
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // LOCK.........................................................................................
+    // Waiting threads are woken up through this when any stage goes idle
+    private static final Object LOCK = new Object();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // signal.......................................................................................
+    /**
+     * Called by a stage after its backlog has dropped to zero (from any thread)
+     */
+    public static void signal() {
+        synchronized (LOCK) {
+            LOCK.notifyAll();
+        }
+    }
+
+    // await........................................................................................
+    /**
+     * Block until every stage given is idle, or until the timeout runs out
+     * @param timeoutMs Longest time to wait [milliseconds]
+     * @param stages Stages to wait on (e.g. ALL_STAGES)
+     * @return Null if all stages are idle, otherwise a description of the stages still busy
+     */
+    @Nullable
+    public static String await(long timeoutMs, @NonNull Stage... stages) {
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        synchronized (LOCK) {
+            String busy = getBusyStages(stages);
+            while (busy != null) {
+                long remainingMs = (deadline - System.nanoTime()) / 1000000L;
+                if (remainingMs <= 0L) {
+                    return busy;
+                }
+                try {
+                    LOCK.wait(remainingMs);
+                }
+                catch (InterruptedException e) {
+                    // TODO: error
+                    return busy;
+                }
+                busy = getBusyStages(stages);
+            }
+        }
+        return null;
+    }
+
+    // getBusyStages................................................................................
+    /**
+     * @param stages Stages to check
+     * @return Null if all stages given are idle, otherwise a description of the stages still busy
+     */
+    @Nullable
+    public static String getBusyStages(@NonNull Stage... stages) {
+        String busy = "";
+        for (Stage stage : stages) {
+            switch (stage) {
+                case DATA_QUEUE:
+                    if (!DataQueue.isEmpty()) {
+                        busy += " Data Queue is not empty";
+                    }
+                    break;
+
+                case ANALYSIS:
+                    if (AnalysisController.isBusy()) {
+                        busy += " Analysis Controller is busy";
+                    }
+                    break;
+
+                case STORAGE_MEDIA:
+                    if (StorageMedia.isBusy()) {
+                        busy += " Storage Media is busy ("
+                                + NumToString.number(StorageMedia.getBacklog()) + " files)";
+                    }
+                    break;
+            }
+        }
+
+        if (busy.equals("")) {
+            return null;
+        }
+        return busy;
+    }
+
+}
\ No newline at end of file
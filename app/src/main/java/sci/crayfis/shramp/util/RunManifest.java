@@ -0,0 +1,501 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import sci.crayfis.shramp.GlobalSettings;
+
+/**
+ * Per-run index of every processed frame and the conditions it was taken in, so frames can be
+ * selected (e.g. hot frames at some exposure) and uploads decided without opening any outputs.
+ * StorageMedia appends a row as each frame is processed, with where its hit list (or clusters)
+ * went in the run segments, if it had any.
+ * Instances are not thread-safe, StorageMedia serializes access to the open manifest.
+ * Manifest file format (RUN_MANIFEST in the run directory): a column line, then one frame per
+ * line, tab-separated, "-" for unknown values:
+ *      frame number, sensor timestamp [ns], elapsed from start [ns] (see Datestamp),
+ *      exposure [ns], temperature [Celsius], power [mW], number of hits, number of clusters,
+ *      segment filename, record offset in segment [bytes]
+ */
+@TargetApi(21)
+final public class RunManifest {
+
+    // Public Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // RUN_MANIFEST.................................................................................
+    // Manifest filename in a run directory
+    public static final String RUN_MANIFEST = "run" + GlobalSettings.MANIFEST_FILE;
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // COLUMNS......................................................................................
+    // First line of a manifest file
+    private static final String COLUMNS = "frame\ttimestamp\telapsed\texposure\ttemperature\tpower\thits\tclusters\tsegment\toffset\n";
+
+    // UNKNOWN......................................................................................
+    // Manifest file placeholder for unknown values
+    private static final String UNKNOWN = "-";
+
+    // RELOCATING...................................................................................
+    // Suffix of a manifest being rewritten, renamed over the original when done
+    private static final String RELOCATING = ".relocating";
+
+    // Row..........................................................................................
+    /**
+     * Everything known about one processed frame
+     */
+    public static final class Row {
+        private long    mFrameNumber;
+        private long    mTimestamp;
+        private long    mElapsedNanos;
+        private Long    mExposure;
+        private Float   mTemperature;
+        private Double  mPower;
+        private Integer mNhits;
+        private Integer mNclusters;
+        private String  mSegment;
+        private Long    mOffset;
+
+        /**
+         * @param frameNumber Frame number in this run
+         * @param timestamp Sensor timestamp [ns]
+         * @param elapsedNanos Nanoseconds from start (see Datestamp.getElapsedTimestampNanos())
+         * @param exposure (Optional) Sensor exposure [ns]
+         * @param temperature (Optional) Temperature [Celsius]
+         * @param power (Optional) Instantaneous power [mW]
+         * @param nHits (Optional) Number of pixels above threshold, null if not looked for
+         * @param nClusters (Optional) Number of clusters, null if not looked for
+         */
+        public Row(long frameNumber, long timestamp, long elapsedNanos, @Nullable Long exposure,
+                   @Nullable Float temperature, @Nullable Double power, @Nullable Integer nHits,
+                   @Nullable Integer nClusters) {
+            mFrameNumber  = frameNumber;
+            mTimestamp    = timestamp;
+            mElapsedNanos = elapsedNanos;
+            mExposure     = exposure;
+            mTemperature  = temperature;
+            mPower        = power;
+            mNhits        = nHits;
+            mNclusters    = nClusters;
+        }
+
+        private Row() {}
+
+        /** @return Frame number in this run */
+        @Contract(pure = true)
+        public long getFrameNumber() { return mFrameNumber; }
+
+        /** @return Sensor timestamp [ns] */
+        @Contract(pure = true)
+        public long getTimestamp() { return mTimestamp; }
+
+        /** @return Nanoseconds from start */
+        @Contract(pure = true)
+        public long getElapsedNanos() { return mElapsedNanos; }
+
+        /** @return Sensor exposure [ns] (null if unknown) */
+        @Nullable
+        @Contract(pure = true)
+        public Long getExposure() { return mExposure; }
+
+        /** @return Temperature [Celsius] (null if unknown) */
+        @Nullable
+        @Contract(pure = true)
+        public Float getTemperature() { return mTemperature; }
+
+        /** @return Instantaneous power [mW] (null if unknown) */
+        @Nullable
+        @Contract(pure = true)
+        public Double getPower() { return mPower; }
+
+        /** @return Number of pixels above threshold (null if not looked for) */
+        @Nullable
+        @Contract(pure = true)
+        public Integer getNhits() { return mNhits; }
+
+        /** @return Number of clusters (null if not looked for) */
+        @Nullable
+        @Contract(pure = true)
+        public Integer getNclusters() { return mNclusters; }
+
+        /** @return Segment filename the frame's record is in (null if it has none) */
+        @Nullable
+        @Contract(pure = true)
+        public String getSegment() { return mSegment; }
+
+        /** @return Offset of the frame's record in its segment [bytes] (null if it has none) */
+        @Nullable
+        @Contract(pure = true)
+        public Long getOffset() { return mOffset; }
+
+        /**
+         * @param segment Segment filename (no path) the frame's record was appended to
+         * @param offset Offset of the record in the segment [bytes]
+         */
+        void setLocation(@NonNull String segment, long offset) {
+            mSegment = segment;
+            mOffset  = offset;
+        }
+    }
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mDirectory...................................................................................
+    // Run directory (absolute path)
+    private final String mDirectory;
+
+    // mStream......................................................................................
+    // Open manifest file (appending)
+    private final FileOutputStream mStream;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // RunManifest..................................................................................
+    /**
+     * Use open()
+     */
+    private RunManifest(@NonNull String directory, @NonNull FileOutputStream stream) {
+        mDirectory = directory;
+        mStream    = stream;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // read.........................................................................................
+    /**
+     * @param directory Run directory (absolute path)
+     * @return Every frame in the run's manifest, in the order written (malformed lines, e.g. a
+     *         last line cut short, are skipped), or null if there is no manifest
+     */
+    @Nullable
+    public static List<Row> read(@NonNull String directory) {
+        File file = new File(directory, RUN_MANIFEST);
+        if (!file.exists()) {
+            return null;
+        }
+
+        List<Row> rows = new ArrayList<>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(COLUMNS.trim())) {
+                    continue;
+                }
+                Row row = decode(line);
+                if (row == null) {
+                    Log.e(Thread.currentThread().getName(), "Skipping bad manifest line: " + line);
+                    continue;
+                }
+                rows.add(row);
+            }
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot read manifest: " + file.getAbsolutePath());
+            return null;
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException e) {
+                    // TODO: error
+                    Log.e(Thread.currentThread().getName(), "Cannot close manifest: " + file.getAbsolutePath());
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Package-private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // open.........................................................................................
+    /**
+     * Open a run's manifest for appending (creating it if there isn't one), a last line cut short
+     * is ended first so the next row doesn't run on from it
+     * @param directory Run directory (absolute path)
+     * @return The open manifest, or null if it could not be opened
+     */
+    @Nullable
+    static RunManifest open(@NonNull String directory) {
+        File file = new File(directory, RUN_MANIFEST);
+        boolean isNew = !file.exists() || file.length() == 0L;
+
+        FileOutputStream stream;
+        try {
+            stream = new FileOutputStream(file, true);
+        }
+        catch (FileNotFoundException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot open manifest: " + file.getAbsolutePath());
+            return null;
+        }
+
+        RunManifest manifest = new RunManifest(directory, stream);
+        if ((isNew && !manifest.write(COLUMNS)) || (!isNew && !endsLine(file) && !manifest.write("\n"))) {
+            manifest.close();
+            return null;
+        }
+        return manifest;
+    }
+
+    // relocate.....................................................................................
+    /**
+     * Rewrite a (closed) run's manifest after one of its segments was compacted, rows pointing at
+     * records that were dropped lose their location
+     * @param directory Run directory (absolute path)
+     * @param segment Segment filename (no path) that was compacted
+     * @param offsets Old record offset to new record offset, for every record kept
+     * @return True if the manifest is up to date (or there is none), false if not
+     */
+    static boolean relocate(@NonNull String directory, @NonNull String segment,
+                            @NonNull Map<Long, Long> offsets) {
+        List<Row> rows = read(directory);
+        if (rows == null) {
+            return true;
+        }
+
+        StringBuilder text = new StringBuilder(COLUMNS);
+        for (Row row : rows) {
+            if (segment.equals(row.mSegment)) {
+                Long offset = offsets.get(row.mOffset);
+                row.mSegment = (offset == null) ? null : segment;
+                row.mOffset  = offset;
+            }
+            text.append(encode(row));
+        }
+
+        File file = new File(directory, RUN_MANIFEST);
+        File replacement = new File(directory, RUN_MANIFEST + RELOCATING);
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(replacement);
+            stream.write(text.toString().getBytes(RunSegment.UTF_8));
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot rewrite manifest: " + file.getAbsolutePath());
+            return false;
+        }
+        finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                }
+                catch (IOException e) {
+                    // TODO: error
+                    Log.e(Thread.currentThread().getName(), "Cannot close manifest: " + replacement.getAbsolutePath());
+                }
+            }
+        }
+
+        if (!replacement.renameTo(file)) {
+            Log.e(Thread.currentThread().getName(), "Cannot replace manifest: " + file.getAbsolutePath());
+            if (!replacement.delete()) {
+                Log.e(Thread.currentThread().getName(), "Cannot delete: " + replacement.getAbsolutePath());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Package-private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // append.......................................................................................
+    /**
+     * Write a frame's line to the end of the manifest (one write, so a crash loses at most the
+     * line being written)
+     * @param row Frame to add
+     */
+    void append(@NonNull Row row) {
+        write(encode(row));
+    }
+
+    // close........................................................................................
+    /**
+     * Close the manifest file
+     */
+    void close() {
+        try {
+            mStream.close();
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot close manifest in: " + mDirectory);
+        }
+    }
+
+    // getDirectory.................................................................................
+    /**
+     * @return Run directory (absolute path)
+     */
+    @NonNull
+    @Contract(pure = true)
+    String getDirectory() {
+        return mDirectory;
+    }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // write........................................................................................
+    /**
+     * @param text Text to append
+     * @return True if written, false if not
+     */
+    private boolean write(@NonNull String text) {
+        try {
+            mStream.write(text.getBytes(RunSegment.UTF_8));
+            return true;
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot write manifest in: " + mDirectory);
+            return false;
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // encode.......................................................................................
+    /**
+     * @param row Frame
+     * @return Manifest file line
+     */
+    @NonNull
+    private static String encode(@NonNull Row row) {
+        return row.mFrameNumber
+                + "\t" + row.mTimestamp
+                + "\t" + row.mElapsedNanos
+                + "\t" + orUnknown(row.mExposure)
+                + "\t" + orUnknown(row.mTemperature)
+                + "\t" + orUnknown(row.mPower)
+                + "\t" + orUnknown(row.mNhits)
+                + "\t" + orUnknown(row.mNclusters)
+                + "\t" + orUnknown(row.mSegment)
+                + "\t" + orUnknown(row.mOffset)
+                + "\n";
+    }
+
+    // decode.......................................................................................
+    /**
+     * @param line Manifest file line
+     * @return Frame, null if the line is malformed
+     */
+    @Nullable
+    private static Row decode(@NonNull String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 10) {
+            return null;
+        }
+        try {
+            Row row = new Row();
+            row.mFrameNumber  = Long.parseLong(fields[0]);
+            row.mTimestamp    = Long.parseLong(fields[1]);
+            row.mElapsedNanos = Long.parseLong(fields[2]);
+            row.mExposure     = fields[3].equals(UNKNOWN) ? null : Long.valueOf(fields[3]);
+            row.mTemperature  = fields[4].equals(UNKNOWN) ? null : Float.valueOf(fields[4]);
+            row.mPower        = fields[5].equals(UNKNOWN) ? null : Double.valueOf(fields[5]);
+            row.mNhits        = fields[6].equals(UNKNOWN) ? null : Integer.valueOf(fields[6]);
+            row.mNclusters    = fields[7].equals(UNKNOWN) ? null : Integer.valueOf(fields[7]);
+            row.mSegment      = fields[8].equals(UNKNOWN) ? null : fields[8];
+            row.mOffset       = fields[9].equals(UNKNOWN) ? null : Long.valueOf(fields[9]);
+            return row;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // endsLine.....................................................................................
+    /**
+     * @param file Manifest file (not empty)
+     * @return True if the last line is complete, false if it was cut short (or can't be checked)
+     */
+    private static boolean endsLine(@NonNull File file) {
+        RandomAccessFile last = null;
+        try {
+            last = new RandomAccessFile(file, "r");
+            last.seek(last.length() - 1L);
+            return last.read() == '\n';
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot read manifest: " + file.getAbsolutePath());
+            return false;
+        }
+        finally {
+            if (last != null) {
+                try {
+                    last.close();
+                }
+                catch (IOException e) {
+                    // TODO: error
+                    Log.e(Thread.currentThread().getName(), "Cannot close manifest: " + file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    // orUnknown....................................................................................
+    /**
+     * @param value Value or null
+     * @return The value as a String, UNKNOWN if null
+     */
+    @NonNull
+    @Contract(pure = true)
+    private static String orUnknown(@Nullable Object value) {
+        return (value == null) ? UNKNOWN : value.toString();
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,356 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import sci.crayfis.shramp.analysis.FileHeader;
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+/**
+ * Append-only container for the outputs of a run, so each frame / significance map / hit list
+ * is a record in one open file instead of a new file of its own.
+ * Instances are not thread-safe, StorageMedia serializes access to the open segment
+ * (see RunSegmentReader for reading).
+ * Byte order (big endian):
+ *      Segment header: SEGMENT_MAGIC (int), VERSION (byte)
+ *      Record header:  RECORD_MAGIC (int), Datatype ordinal (byte), Compression.Codec ordinal (byte),
+ *                      name length (short), name (UTF-8 bytes), payload length (long),
+ *                      uncompressed length (long)
+ *      Record payload: OutputWrapper bytes, exactly as they would have been written to their own file,
+ *                      compressed by the record's codec
+ *      (version 1 record headers have no codec or uncompressed length, payloads are uncompressed)
+ *      Index (written on close): INDEX_MAGIC (int), number of records (int),
+ *                                record header offsets (long x number of records)
+ *      Footer (written on close): index offset (long), END_MAGIC (int)
+ * A segment that was never closed (e.g. the app died) has no index, but its records can still be
+ * found by walking the record headers from the start.
+ */
+@TargetApi(21)
+final class RunSegment {
+
+    // Package-private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // SEGMENT_MAGIC................................................................................
+    // "SHRS"
+    static final int SEGMENT_MAGIC = 0x53485253;
+
+    // VERSION......................................................................................
+    // Segment format version
+    static final byte VERSION = 2;
+
+    // RECORD_MAGIC.................................................................................
+    // "RECD"
+    static final int RECORD_MAGIC = 0x52454344;
+
+    // INDEX_MAGIC..................................................................................
+    // "INDX"
+    static final int INDEX_MAGIC = 0x494E4458;
+
+    // END_MAGIC....................................................................................
+    // "SEND"
+    static final int END_MAGIC = 0x53454E44;
+
+    // SEGMENT_HEADER_BYTES.........................................................................
+    // Size of the segment header
+    static final int SEGMENT_HEADER_BYTES = 4 + 1;
+
+    // FOOTER_BYTES.................................................................................
+    // Size of the footer
+    static final int FOOTER_BYTES = 8 + 4;
+
+    // UTF_8........................................................................................
+    // Record names are stored as UTF-8
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mPath........................................................................................
+    // Absolute path of this segment
+    private final String mPath;
+
+    // mFile........................................................................................
+    // Open segment file
+    private final RandomAccessFile mFile;
+
+    // mChannel.....................................................................................
+    // Channel of mFile, always positioned at the end
+    private final FileChannel mChannel;
+
+    // mOffsets.....................................................................................
+    // Offset of each record header, in order, written out as the index on close
+    private final List<Long> mOffsets = new ArrayList<>();
+
+    // mSize........................................................................................
+    // Bytes written so far
+    private long mSize;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // RunSegment...................................................................................
+    /**
+     * Use open()
+     */
+    private RunSegment(@NonNull String path, @NonNull RandomAccessFile file) {
+        mPath    = path;
+        mFile    = file;
+        mChannel = file.getChannel();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Package-private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // open.........................................................................................
+    /**
+     * Create a new, empty segment (an existing file at this path is overwritten)
+     * @param path Absolute path of the segment file
+     * @return The open segment, or null if it could not be created
+     */
+    @Nullable
+    static RunSegment open(@NonNull String path) {
+        RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(path, "rw");
+        }
+        catch (FileNotFoundException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot create segment: " + path);
+            return null;
+        }
+
+        RunSegment segment = new RunSegment(path, file);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(SEGMENT_MAGIC);
+        header.put(VERSION);
+        header.flip();
+        try {
+            file.setLength(0L);
+            segment.write(header);
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot write segment header: " + path);
+            segment.abandon();
+            return null;
+        }
+        return segment;
+    }
+
+    // encode.......................................................................................
+    /**
+     * Build a record (compressing it if asked), this is the slow part of appending and needs no
+     * segment, so it can be done on any thread ahead of append()
+     * @param wrapper Data to write (its buffers are rewound, then consumed by append())
+     * @param codec Compression to use for image and statistics data (other data, or data that
+     *              doesn't get any smaller, is stored uncompressed)
+     * @return Record header followed by the payload buffers
+     */
+    @NonNull
+    static ByteBuffer[] encode(@NonNull OutputWrapper wrapper, @NonNull Compression.Codec codec) {
+        ByteBuffer[] buffers = wrapper.getByteBuffers();
+        long rawBytes = 0L;
+        for (ByteBuffer buffer : buffers) {
+            buffer.position(0);
+            buffer.limit(buffer.capacity());
+            rawBytes += buffer.remaining();
+        }
+
+        Compression.Codec used = Compression.Codec.NONE;
+        if (codec == Compression.Codec.DELTA_RICE && buffers.length > 0
+                && (wrapper.getType() == OutputWrapper.Datatype.IMAGE
+                    || wrapper.getType() == OutputWrapper.Datatype.STATISTICS)) {
+            // The file header says where the pixels start and how they are stored
+            ByteBuffer compressed = null;
+            FileHeader fileHeader = FileHeader.read(buffers[0], wrapper.getType());
+            if (fileHeader != null && fileHeader.getDtype() != FileHeader.Dtype.RECORDS
+                    && buffers[0].capacity() >= fileHeader.getHeaderBytes()) {
+                compressed = Compression.encode(buffers, fileHeader.getHeaderBytes(),
+                                                FileHeader.getWordBytes(fileHeader.getDtype()),
+                                                fileHeader.getByteOrder(),
+                                                fileHeader.getDtype() == FileHeader.Dtype.FLOAT32);
+            }
+            if (compressed != null) {
+                buffers = new ByteBuffer[] {compressed};
+                used = codec;
+            }
+        }
+
+        long payloadBytes = 0L;
+        for (ByteBuffer buffer : buffers) {
+            payloadBytes += buffer.remaining();
+        }
+
+        byte[] name = wrapper.getFilename().getBytes(UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(getRecordHeaderBytes(VERSION, name.length));
+        header.putInt(RECORD_MAGIC);
+        header.put((byte) wrapper.getType().ordinal());
+        header.put((byte) used.ordinal());
+        header.putShort((short) name.length);
+        header.put(name);
+        header.putLong(payloadBytes);
+        header.putLong(rawBytes);
+        header.flip();
+
+        ByteBuffer[] record = new ByteBuffer[buffers.length + 1];
+        record[0] = header;
+        System.arraycopy(buffers, 0, record, 1, buffers.length);
+        return record;
+    }
+
+    // Package-private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // append.......................................................................................
+    /**
+     * Write a record to the end of this segment
+     * @param record From encode()
+     * @throws IOException If the write fails, the record may be partially written
+     */
+    void append(@NonNull ByteBuffer[] record) throws IOException {
+        mOffsets.add(mSize);
+        for (ByteBuffer buffer : record) {
+            write(buffer);
+        }
+    }
+
+    // close........................................................................................
+    /**
+     * Write the index and footer, then close the file
+     */
+    void close() {
+        ByteBuffer index = ByteBuffer.allocate(4 + 4 + 8 * mOffsets.size() + FOOTER_BYTES);
+        long indexOffset = mSize;
+        index.putInt(INDEX_MAGIC);
+        index.putInt(mOffsets.size());
+        for (Long offset : mOffsets) {
+            index.putLong(offset);
+        }
+        index.putLong(indexOffset);
+        index.putInt(END_MAGIC);
+        index.flip();
+
+        try {
+            write(index);
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot write segment index: " + mPath);
+        }
+        abandon();
+        Log.e(Thread.currentThread().getName(), "Closed segment: " + mPath + " ("
+                + NumToString.number(mOffsets.size()) + " records, "
+                + NumToString.number(mSize) + " bytes)");
+    }
+
+    // abandon......................................................................................
+    /**
+     * Close the file without writing an index (it can still be read by walking the records)
+     */
+    void abandon() {
+        try {
+            mFile.close();
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot close segment: " + mPath);
+        }
+    }
+
+    // getSize......................................................................................
+    /**
+     * @return Bytes written so far
+     */
+    @Contract(pure = true)
+    long getSize() {
+        return mSize;
+    }
+
+    // getFilename..................................................................................
+    /**
+     * @return Segment filename (no path)
+     */
+    @NonNull
+    @Contract(pure = true)
+    String getFilename() {
+        return new File(mPath).getName();
+    }
+
+    // getRecordCount...............................................................................
+    /**
+     * @return Number of records written so far
+     */
+    @Contract(pure = true)
+    int getRecordCount() {
+        return mOffsets.size();
+    }
+
+    // getRecordHeaderBytes.........................................................................
+    /**
+     * @param version Segment format version
+     * @param nameBytes Length of the record name in bytes
+     * @return Size of a record header
+     */
+    @Contract(pure = true)
+    static int getRecordHeaderBytes(byte version, int nameBytes) {
+        if (version == 1) {
+            return 4 + 1 + 2 + nameBytes + 8;
+        }
+        return 4 + 1 + 1 + 2 + nameBytes + 8 + 8;
+    }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // write........................................................................................
+    /**
+     * Write all of a buffer to the end of the file
+     * @param buffer Bytes to write
+     * @throws IOException If the write fails
+     */
+    private void write(@NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mSize += mChannel.write(buffer);
+        }
+    }
+
+}
\ No newline at end of file
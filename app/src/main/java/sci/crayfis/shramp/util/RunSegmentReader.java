@@ -0,0 +1,421 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.jetbrains.annotations.Contract;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+/**
+ * Random access to the records of a run segment (see RunSegment for the format).
+ * Record offsets come from the trailing index if the segment was closed, otherwise (e.g. the
+ * app died mid-run) they are recovered by walking the record headers from the start.
+ */
+@TargetApi(21)
+final public class RunSegmentReader {
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // RecordHeader.................................................................................
+    // Parsed record header
+    private static class RecordHeader {
+        OutputWrapper.Datatype Type;
+        Compression.Codec Codec;
+        String Name;
+        long PayloadOffset;
+        long PayloadBytes;
+        long RawBytes;
+    }
+
+    // mPath........................................................................................
+    // Absolute path of this segment
+    private final String mPath;
+
+    // mStream......................................................................................
+    // Open segment file
+    private final FileInputStream mStream;
+
+    // mChannel.....................................................................................
+    // Channel of mStream, only read with absolute positions
+    private final FileChannel mChannel;
+
+    // mVersion.....................................................................................
+    // Segment format version
+    private byte mVersion;
+
+    // mOffsets.....................................................................................
+    // Offset of each record header, in order
+    private long[] mOffsets;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Constructors
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // RunSegmentReader.............................................................................
+    /**
+     * Use open()
+     */
+    private RunSegmentReader(@NonNull String path, @NonNull FileInputStream stream) {
+        mPath    = path;
+        mStream  = stream;
+        mChannel = stream.getChannel();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Public Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // open.........................................................................................
+    /**
+     * @param path Absolute path of a segment file
+     * @return A reader for the segment, or null if it cannot be read or isn't a segment
+     */
+    @Nullable
+    public static RunSegmentReader open(@NonNull String path) {
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(path);
+        }
+        catch (FileNotFoundException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot find segment: " + path);
+            return null;
+        }
+
+        RunSegmentReader reader = new RunSegmentReader(path, stream);
+        try {
+            ByteBuffer header = reader.read(0L, RunSegment.SEGMENT_HEADER_BYTES);
+            if (header == null || header.getInt() != RunSegment.SEGMENT_MAGIC) {
+                Log.e(Thread.currentThread().getName(), "Not a segment: " + path);
+                reader.close();
+                return null;
+            }
+            reader.mVersion = header.get();
+            if (reader.mVersion < 1 || reader.mVersion > RunSegment.VERSION) {
+                Log.e(Thread.currentThread().getName(), "Unknown segment version: " + path);
+                reader.close();
+                return null;
+            }
+            if (!reader.readIndex()) {
+                Log.e(Thread.currentThread().getName(), "Segment has no index, recovering records: " + path);
+                reader.recoverIndex();
+            }
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot read segment: " + path);
+            reader.close();
+            return null;
+        }
+        return reader;
+    }
+
+    // Public Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // getRecordCount...............................................................................
+    /**
+     * @return Number of records in this segment
+     */
+    @Contract(pure = true)
+    public int getRecordCount() {
+        return mOffsets.length;
+    }
+
+    // getName......................................................................................
+    /**
+     * @param index Record index, 0 to getRecordCount() - 1
+     * @return The record's name (what its filename would have been), null if it cannot be read
+     */
+    @Nullable
+    public String getName(int index) {
+        RecordHeader header = readRecordHeader(index);
+        if (header == null) {
+            return null;
+        }
+        return header.Name;
+    }
+
+    // getType......................................................................................
+    /**
+     * @param index Record index, 0 to getRecordCount() - 1
+     * @return The record's datatype, null if it cannot be read
+     */
+    @Nullable
+    public OutputWrapper.Datatype getType(int index) {
+        RecordHeader header = readRecordHeader(index);
+        if (header == null) {
+            return null;
+        }
+        return header.Type;
+    }
+
+    // getRecord....................................................................................
+    /**
+     * @param index Record index, 0 to getRecordCount() - 1
+     * @return The record's payload (bytes as they would have been in their own file, decompressed
+     *         if need be, positioned at 0), or null if it cannot be read
+     */
+    @Nullable
+    public ByteBuffer getRecord(int index) {
+        RecordHeader header = readRecordHeader(index);
+        if (header == null) {
+            return null;
+        }
+        try {
+            ByteBuffer payload = mChannel.map(FileChannel.MapMode.READ_ONLY, header.PayloadOffset, header.PayloadBytes);
+            if (header.Codec == Compression.Codec.NONE) {
+                return payload;
+            }
+            ByteBuffer raw = Compression.decode(payload, (int) header.RawBytes);
+            if (raw == null) {
+                Log.e(Thread.currentThread().getName(), "Cannot decompress segment record " + index + ": " + mPath);
+            }
+            return raw;
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot read segment record " + index + ": " + mPath);
+            return null;
+        }
+    }
+
+    // close........................................................................................
+    /**
+     * Close the segment file
+     */
+    public void close() {
+        try {
+            mStream.close();
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot close segment: " + mPath);
+        }
+    }
+
+    // Package-private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // getVersion...................................................................................
+    /**
+     * @return Segment format version
+     */
+    @Contract(pure = true)
+    byte getVersion() {
+        return mVersion;
+    }
+
+    // getOffset....................................................................................
+    /**
+     * @param index Record index, 0 to getRecordCount() - 1
+     * @return Offset of the record in the segment [bytes]
+     */
+    @Contract(pure = true)
+    long getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    // getStoredRecord..............................................................................
+    /**
+     * @param index Record index, 0 to getRecordCount() - 1
+     * @return The record exactly as stored (header and payload, still compressed), ready for
+     *         RunSegment.append() to a segment of the same version, or null if it cannot be read
+     */
+    @Nullable
+    ByteBuffer getStoredRecord(int index) {
+        RecordHeader header = readRecordHeader(index);
+        if (header == null) {
+            return null;
+        }
+        long offset = mOffsets[index];
+        try {
+            return mChannel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                header.PayloadOffset + header.PayloadBytes - offset);
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot read segment record " + index + ": " + mPath);
+            return null;
+        }
+    }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // readRecordHeader.............................................................................
+    /**
+     * @param index Record index, 0 to getRecordCount() - 1
+     * @return The record's header, or null if it cannot be read
+     */
+    @Nullable
+    private RecordHeader readRecordHeader(int index) {
+        if (index < 0 || index >= mOffsets.length) {
+            Log.e(Thread.currentThread().getName(), "Segment record index out of range: " + index);
+            return null;
+        }
+        try {
+            return readRecordHeader(mOffsets[index]);
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot read segment record " + index + ": " + mPath);
+            return null;
+        }
+    }
+
+    /**
+     * @param offset Offset of a record header
+     * @return The record's header, or null if there isn't a complete record at this offset
+     * @throws IOException If the file cannot be read
+     */
+    @Nullable
+    private RecordHeader readRecordHeader(long offset) throws IOException {
+        // Everything but the name
+        int fixedBytes = RunSegment.getRecordHeaderBytes(mVersion, 0);
+        int lengthBytes = (mVersion == 1) ? 8 : 8 + 8;
+        ByteBuffer fixed = read(offset, fixedBytes - lengthBytes);
+        if (fixed == null || fixed.getInt() != RunSegment.RECORD_MAGIC) {
+            return null;
+        }
+        int type = fixed.get();
+        int codec = (mVersion == 1) ? Compression.Codec.NONE.ordinal() : fixed.get();
+        int nameBytes = fixed.getShort() & 0xFFFF;
+        if (type < 0 || type >= OutputWrapper.Datatype.values().length
+                || codec < 0 || codec >= Compression.Codec.values().length) {
+            return null;
+        }
+
+        ByteBuffer rest = read(offset + fixed.capacity(), nameBytes + lengthBytes);
+        if (rest == null) {
+            return null;
+        }
+        byte[] name = new byte[nameBytes];
+        rest.get(name);
+
+        RecordHeader header = new RecordHeader();
+        header.Type          = OutputWrapper.Datatype.values()[type];
+        header.Codec         = Compression.Codec.values()[codec];
+        header.Name          = new String(name, RunSegment.UTF_8);
+        header.PayloadBytes  = rest.getLong();
+        header.RawBytes      = (mVersion == 1) ? header.PayloadBytes : rest.getLong();
+        header.PayloadOffset = offset + RunSegment.getRecordHeaderBytes(mVersion, nameBytes);
+        if (header.PayloadBytes < 0L || header.PayloadOffset + header.PayloadBytes > mChannel.size()
+                || header.RawBytes < 0L || header.RawBytes > Integer.MAX_VALUE) {
+            return null;
+        }
+        return header;
+    }
+
+    // readIndex....................................................................................
+    /**
+     * Load record offsets from the trailing index
+     * @return True if the segment was closed with a valid index, false if not
+     * @throws IOException If the file cannot be read
+     */
+    private boolean readIndex() throws IOException {
+        long size = mChannel.size();
+        ByteBuffer footer = read(size - RunSegment.FOOTER_BYTES, RunSegment.FOOTER_BYTES);
+        if (footer == null) {
+            return false;
+        }
+        long indexOffset = footer.getLong();
+        if (footer.getInt() != RunSegment.END_MAGIC || indexOffset < RunSegment.SEGMENT_HEADER_BYTES
+                || indexOffset > size - RunSegment.FOOTER_BYTES - 8) {
+            return false;
+        }
+
+        ByteBuffer index = read(indexOffset, (int) (size - RunSegment.FOOTER_BYTES - indexOffset));
+        if (index == null || index.getInt() != RunSegment.INDEX_MAGIC) {
+            return false;
+        }
+        int nRecords = index.getInt();
+        if (nRecords < 0 || index.remaining() != 8L * nRecords) {
+            return false;
+        }
+        mOffsets = new long[nRecords];
+        for (int i = 0; i < nRecords; i++) {
+            mOffsets[i] = index.getLong();
+        }
+        return true;
+    }
+
+    // recoverIndex.................................................................................
+    /**
+     * Find record offsets by walking the record headers, stops at the first incomplete record
+     * @throws IOException If the file cannot be read
+     */
+    private void recoverIndex() throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        long offset = RunSegment.SEGMENT_HEADER_BYTES;
+        RecordHeader header = readRecordHeader(offset);
+        while (header != null) {
+            offsets.add(offset);
+            offset = header.PayloadOffset + header.PayloadBytes;
+            header = readRecordHeader(offset);
+        }
+
+        mOffsets = new long[offsets.size()];
+        for (int i = 0; i < mOffsets.length; i++) {
+            mOffsets[i] = offsets.get(i);
+        }
+    }
+
+    // read.........................................................................................
+    /**
+     * @param position Absolute file position
+     * @param nBytes Number of bytes to read
+     * @return The bytes read (positioned at 0), or null if the file ends first
+     * @throws IOException If the file cannot be read
+     */
+    @Nullable
+    private ByteBuffer read(long position, int nBytes) throws IOException {
+        if (position < 0L || nBytes < 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(nBytes);
+        while (buffer.hasRemaining()) {
+            int nRead = mChannel.read(buffer, position + buffer.position());
+            if (nRead < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,430 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+/**
+ * Keeps StorageMedia writing within GlobalSettings.STORAGE_USAGE_LIMIT of the disk.
+ * Free space is estimated from the bytes written since it was last measured, and only measured
+ * again every STORAGE_REFRESH_BYTES or STORAGE_REFRESH_MS.  When a write would go over the limit,
+ * the oldest runs in WorkInProgress are trimmed first: debug frames and significance maps are
+ * compacted out of their run segments (hits and clusters are kept) and loose debug files deleted.
+ * Trimming runs on its own thread: a write that needs room waits for it, writes that fit carry on
+ * meanwhile (the budget is only locked to check and reserve).
+ * Calibrations and events are never removed, if there still isn't room the write is refused
+ * (and the run carries on) rather than shutting down.
+ */
+@TargetApi(21)
+abstract class StorageBudget {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // COMPACTING...................................................................................
+    // Suffix of a segment being rewritten, renamed over the original when done
+    private static final String COMPACTING = ".compacting";
+
+    // THREAD_NAME..................................................................................
+    // Trimming and compaction run on this thread
+    private static final String THREAD_NAME = "StorageTrimThread";
+
+    // LOCK.........................................................................................
+    // Guards the fields below, writes waiting for a trim pass wait on it
+    private static final Object LOCK = new Object();
+
+    // mHandler.....................................................................................
+    // Reference to the trim thread Handler
+    private static final Handler mHandler = HandlerManager.newHandler(THREAD_NAME,
+                                                    GlobalSettings.STORAGE_MEDIA_THREAD_PRIORITY);
+
+    // mTrimmed.....................................................................................
+    // Run directories (absolute paths) that have no debug outputs left
+    private static final Set<String> mTrimmed = new HashSet<>();
+
+    // mActiveRuns..................................................................................
+    // Run directories (absolute paths) being written to by writes waiting for the next trim pass
+    private static final Set<String> mActiveRuns = new HashSet<>();
+
+    // Private Class Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mHome........................................................................................
+    // ShRAMP directory (absolute path), free space is measured here
+    private static String mHome;
+
+    // mRuns........................................................................................
+    // WorkInProgress directory (absolute path), each run is a directory in here
+    private static String mRuns;
+
+    // mTotalBytes..................................................................................
+    // Size of the disk
+    private static long mTotalBytes;
+
+    // mFreeBytes...................................................................................
+    // Free space when last measured
+    private static long mFreeBytes;
+
+    // mWrittenBytes................................................................................
+    // Bytes written since free space was last measured
+    private static long mWrittenBytes;
+
+    // mRefreshedAt.................................................................................
+    // When free space was last measured [ms, System.currentTimeMillis()]
+    private static long mRefreshedAt;
+
+    // mTrimBytes...................................................................................
+    // Largest write waiting for the next trim pass
+    private static long mTrimBytes;
+
+    // mTrimRequested / mTrimDone...................................................................
+    // Trim passes asked for, and the last one a finished pass covered (a write waits until the
+    // pass it asked for is done)
+    private static long mTrimRequested;
+    private static long mTrimDone;
+
+    // mIsTrimming..................................................................................
+    // True while a trim pass is posted or running
+    private static boolean mIsTrimming;
+
+    // mTrim........................................................................................
+    // One trim pass, posts another if more were asked for while it ran
+    private static final Runnable mTrim = new Runnable() {
+        @Override
+        public void run() {
+            long pass;
+            long nBytes;
+            Set<String> skip;
+            synchronized (LOCK) {
+                pass   = mTrimRequested;
+                nBytes = mTrimBytes;
+                skip   = new HashSet<>(mActiveRuns);
+                skip.addAll(mTrimmed);
+                mActiveRuns.clear();
+                mTrimBytes = 0L;
+            }
+
+            try {
+                trim(nBytes, skip);
+            }
+            finally {
+                synchronized (LOCK) {
+                    mTrimDone = pass;
+                    if (mTrimDone < mTrimRequested) {
+                        mHandler.post(mTrim);
+                    }
+                    else {
+                        mIsTrimming = false;
+                    }
+                    LOCK.notifyAll();
+                }
+            }
+        }
+    };
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Package-private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // configure....................................................................................
+    /**
+     * @param home ShRAMP directory (absolute path)
+     * @param runs WorkInProgress directory (absolute path)
+     */
+    static void configure(@NonNull String home, @NonNull String runs) {
+        synchronized (LOCK) {
+            mHome = home;
+            mRuns = runs;
+            mTrimmed.clear();
+            refresh();
+        }
+    }
+
+    // reserve......................................................................................
+    /**
+     * Account for a write about to happen, making room for it if need be (waits for a trim pass
+     * on the trim thread, other writes carry on meanwhile)
+     * @param nBytes Size of the write
+     * @param activeRuns Run directories being written to (absolute paths, null entries ignored),
+     *                   never trimmed
+     * @return True if there is room for the write, false if it should be dropped
+     */
+    static boolean reserve(long nBytes, @NonNull String... activeRuns) {
+        synchronized (LOCK) {
+            if (mHome == null) {
+                return true;
+            }
+
+            if (mWrittenBytes >= GlobalSettings.STORAGE_REFRESH_BYTES
+                    || System.currentTimeMillis() - mRefreshedAt >= GlobalSettings.STORAGE_REFRESH_MS) {
+                refresh();
+            }
+
+            if (!hasRoom(nBytes)) {
+                // The estimate could be stale (e.g. other apps freed space)
+                refresh();
+                if (!hasRoom(nBytes)) {
+                    awaitTrim(nBytes, activeRuns);
+                }
+                if (!hasRoom(nBytes)) {
+                    Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> STORAGE FULL, DROPPING WRITE OF "
+                            + NumToString.number(nBytes) + " BYTES <<\n ");
+                    return false;
+                }
+            }
+
+            mWrittenBytes += nBytes;
+            return true;
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // awaitTrim....................................................................................
+    /**
+     * Ask for a trim pass and wait for it, call while holding LOCK (it is let go while waiting)
+     * @param nBytes Size of the write that needs room
+     * @param activeRuns Run directories being written to (null entries ignored), left alone
+     */
+    private static void awaitTrim(long nBytes, @NonNull String... activeRuns) {
+        for (String activeRun : activeRuns) {
+            if (activeRun != null) {
+                mActiveRuns.add(new File(activeRun).getAbsolutePath());
+            }
+        }
+        mTrimBytes = Math.max(mTrimBytes, nBytes);
+
+        long pass = ++mTrimRequested;
+        if (!mIsTrimming) {
+            mIsTrimming = true;
+            mHandler.post(mTrim);
+        }
+        while (mTrimDone < pass) {
+            try {
+                LOCK.wait();
+            }
+            catch (InterruptedException e) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "Interrupted waiting for storage trim");
+                return;
+            }
+        }
+    }
+
+    // refresh......................................................................................
+    /**
+     * Measure free space for real, call while holding LOCK
+     */
+    private static void refresh() {
+        File home = new File(mHome);
+        mTotalBytes   = home.getTotalSpace();
+        mFreeBytes    = home.getFreeSpace();
+        mWrittenBytes = 0L;
+        mRefreshedAt  = System.currentTimeMillis();
+    }
+
+    // hasRoom......................................................................................
+    /**
+     * Call while holding LOCK
+     * @param nBytes Size of a write
+     * @return True if the write keeps disk usage within STORAGE_USAGE_LIMIT (by the estimate)
+     */
+    private static boolean hasRoom(long nBytes) {
+        long freeAfter = mFreeBytes - mWrittenBytes - nBytes;
+        return freeAfter >= (1. - GlobalSettings.STORAGE_USAGE_LIMIT) * mTotalBytes;
+    }
+
+    // trim.........................................................................................
+    /**
+     * Remove debug outputs from the oldest runs until there is room, runs on the trim thread
+     * without holding LOCK (except to measure)
+     * @param nBytes Size of the write that needs room
+     * @param skip Run directories (absolute paths) to leave alone
+     */
+    private static void trim(long nBytes, @NonNull Set<String> skip) {
+        String runsPath;
+        synchronized (LOCK) {
+            runsPath = mRuns;
+        }
+        if (runsPath == null) {
+            return;
+        }
+
+        File[] runs = new File(runsPath).listFiles();
+        if (runs == null) {
+            return;
+        }
+
+        // Oldest first
+        Arrays.sort(runs, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long difference = o1.lastModified() - o2.lastModified();
+                return (difference < 0L) ? -1 : ((difference > 0L) ? 1 : 0);
+            }
+        });
+
+        for (File run : runs) {
+            String path = run.getAbsolutePath();
+            if (!run.isDirectory() || skip.contains(path)) {
+                continue;
+            }
+
+            Log.e(Thread.currentThread().getName(), "Storage over budget, trimming debug outputs from: " + path);
+            File[] files = run.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(GlobalSettings.SEGMENT_FILE)) {
+                        compact(file);
+                    }
+                    else if (name.endsWith(GlobalSettings.IMAGE_FILE) || name.endsWith(GlobalSettings.SIGNIF_FILE)
+                            || name.endsWith(COMPACTING)) {
+                        if (!file.delete()) {
+                            Log.e(Thread.currentThread().getName(), "Cannot delete: " + file.getAbsolutePath());
+                        }
+                    }
+                }
+            }
+            synchronized (LOCK) {
+                mTrimmed.add(path);
+                refresh();
+                if (hasRoom(nBytes)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // compact......................................................................................
+    /**
+     * Rewrite a run segment without its debug records (frames and significance maps)
+     * @param segmentFile Segment to compact
+     */
+    private static void compact(@NonNull File segmentFile) {
+        String path = segmentFile.getAbsolutePath();
+        RunSegmentReader reader = RunSegmentReader.open(path);
+        if (reader == null) {
+            return;
+        }
+
+        RunSegment compacted = null;
+        Map<Long, Long> offsets = new HashMap<>();
+        try {
+            int nRecords = reader.getRecordCount();
+            boolean[] keep = new boolean[nRecords];
+            int nKept = 0;
+            for (int i = 0; i < nRecords; i++) {
+                OutputWrapper.Datatype type = reader.getType(i);
+                keep[i] = (type != null && type != OutputWrapper.Datatype.IMAGE
+                                        && type != OutputWrapper.Datatype.STATISTICS);
+                if (keep[i]) {
+                    nKept++;
+                }
+            }
+            if (nKept == nRecords) {
+                return;
+            }
+            if (reader.getVersion() != RunSegment.VERSION) {
+                Log.e(Thread.currentThread().getName(), "Cannot compact older segment: " + path);
+                return;
+            }
+
+            if (nKept > 0) {
+                compacted = RunSegment.open(path + COMPACTING);
+                if (compacted == null) {
+                    return;
+                }
+                for (int i = 0; i < nRecords; i++) {
+                    if (keep[i]) {
+                        ByteBuffer record = reader.getStoredRecord(i);
+                        if (record == null) {
+                            // Keep the original rather than lose events
+                            compacted.abandon();
+                            deleteFile(new File(path + COMPACTING));
+                            compacted = null;
+                            return;
+                        }
+                        offsets.put(reader.getOffset(i), compacted.getSize());
+                        compacted.append(new ByteBuffer[] {record});
+                    }
+                }
+                compacted.close();
+                compacted = null;
+            }
+        }
+        catch (IOException e) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "Cannot compact segment: " + path);
+            if (compacted != null) {
+                compacted.abandon();
+                deleteFile(new File(path + COMPACTING));
+            }
+            return;
+        }
+        finally {
+            reader.close();
+        }
+
+        File replacement = new File(path + COMPACTING);
+        if (replacement.exists()) {
+            if (!replacement.renameTo(segmentFile)) {
+                Log.e(Thread.currentThread().getName(), "Cannot replace compacted segment: " + path);
+                deleteFile(replacement);
+                return;
+            }
+        }
+        else {
+            // Nothing but debug records
+            deleteFile(segmentFile);
+        }
+
+        // Keep the run's manifest pointing at the right records
+        RunManifest.relocate(segmentFile.getParent(), segmentFile.getName(), offsets);
+    }
+
+    // deleteFile...................................................................................
+    /**
+     * @param file File to delete, failure is logged
+     */
+    private static void deleteFile(@NonNull File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(Thread.currentThread().getName(), "Cannot delete: " + file.getAbsolutePath());
+        }
+    }
+
+}
\ No newline at end of file
@@ -18,29 +18,21 @@ package sci.crayfis.shramp.util;
 
 import android.annotation.TargetApi;
 import android.os.Environment;
-import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import org.jetbrains.annotations.Contract;
-
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import sci.crayfis.shramp.GlobalSettings;
 import sci.crayfis.shramp.MasterController;
+import sci.crayfis.shramp.camera2.CameraController;
 import sci.crayfis.shramp.analysis.OutputWrapper;
 
 
@@ -59,75 +51,92 @@ abstract public class StorageMedia {
     // Private Class Constants
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-    // THREAD_NAME..................................................................................
-    // Thread for handling output writing and storage management
-    private static final String THREAD_NAME = "StorageMediaThread";
-
-    // mHandler.....................................................................................
-    // Reference to storage media thread Handler
-    private static final Handler mHandler = HandlerManager.newHandler(THREAD_NAME,
-                                                    GlobalSettings.STORAGE_MEDIA_THREAD_PRIORITY);
-
-    // mBacklog.....................................................................................
-    // Thread-safe count of files to be written
-    private static final AtomicInteger mBacklog = new AtomicInteger();
+    // SEGMENT_LOCK.................................................................................
+    // Writer threads take turns with the open segment
+    private static final Object SEGMENT_LOCK = new Object();
 
     /**
-     * Runnable for saving files on the Storage Media Thread
+     * Runnable for saving files on a Storage Media Thread (see StorageScheduler)
      */
     private static class DataSaver implements Runnable {
 
         // Payload
         private String mPath;
         private OutputWrapper mOutputWrapper;
+        private CalibrationCatalog.Entry mCatalogEntry;
 
         // Constructor
         private DataSaver(@NonNull String path, @NonNull OutputWrapper wrapper) {
+            this(path, wrapper, null);
+        }
+
+        // Constructor (catalogEntry is added to the CalibrationCatalog once written, if not null)
+        private DataSaver(@NonNull String path, @NonNull OutputWrapper wrapper,
+                          @Nullable CalibrationCatalog.Entry catalogEntry) {
             mPath = path;
             mOutputWrapper = wrapper;
+            mCatalogEntry = catalogEntry;
         }
 
         // Action
         public void run() {
+            try {
+                save();
+            }
+            finally {
+                // Data is on disk (or never will be), let go of anything it was holding on to
+                mOutputWrapper.release();
+            }
+        }
+
+        // Write
+        private void save() {
 
             if (mOutputWrapper.getByteBuffer() == null) {
                 Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> BYTE BUFFER IS NULL FOR: " + mPath
                         + File.separator + mOutputWrapper.getFilename() + " <<\n ");
-                mBacklog.decrementAndGet();
                 return;
             }
 
             if (GlobalSettings.DEBUG_DISABLE_ALL_SAVING) {
                 Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> WRITING DISABLED FOR: " + mPath
                         + File.separator + mOutputWrapper.getFilename() + " <<\n ");
-                mBacklog.decrementAndGet();
                 return;
             }
 
             Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> WRITING: " + mPath
                     + File.separator + mOutputWrapper.getFilename() + " <<\n ");
 
-            // Check for enough disk space
-            File file = new File(mPath);
-            long freeSpace  = file.getFreeSpace();
-            long totalSpace = file.getTotalSpace();
-            float usage = 1.f - (freeSpace / (float) totalSpace);
+            // Make sure the full buffers are getting written
+            ByteBuffer[] buffers = mOutputWrapper.getByteBuffers();
+            long nBytes = 0L;
+            for (ByteBuffer buffer : buffers) {
+                buffer.position(0);
+                buffer.limit(buffer.capacity());
+                nBytes += buffer.remaining();
+            }
 
-            if (usage > 0.9) {
+            // Check for enough disk space, neither the current run nor an open segment is trimmed
+            String segmentDirectory;
+            synchronized (SEGMENT_LOCK) {
+                segmentDirectory = (mSegment == null) ? null : mSegmentDirectory;
+            }
+            if (!StorageBudget.reserve(nBytes, Path.WorkingDirectory, segmentDirectory)) {
                 // TODO: error
-                Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> ERROR: OUT OF MEMORY, CANNOT SAVE DATA <<\n ");
-                MasterController.quitSafely();
+                Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> ERROR: OUT OF SPACE, CANNOT SAVE: " + mPath
+                        + File.separator + mOutputWrapper.getFilename() + " <<\n ");
                 return;
             }
 
-            // Make sure the full buffer is getting written
-            mOutputWrapper.getByteBuffer().position(0);
-            mOutputWrapper.getByteBuffer().limit(mOutputWrapper.getByteBuffer().capacity());
-
             FileOutputStream outputStream = null;
             try {
                 outputStream = new FileOutputStream(mPath + File.separator + mOutputWrapper.getFilename());
-                outputStream.getChannel().write(mOutputWrapper.getByteBuffer());
+                FileChannel channel = outputStream.getChannel();
+                for (ByteBuffer buffer : buffers) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
             }
             catch (FileNotFoundException e) {
                 // TODO: error
@@ -153,10 +162,158 @@ abstract public class StorageMedia {
                     }
                 }
             }
-            mBacklog.decrementAndGet();
+            if (mCatalogEntry != null) {
+                CalibrationCatalog.add(mCatalogEntry);
+            }
         }
     }
 
+    /**
+     * Runnable for appending run outputs to the open segment on a Storage Media Thread
+     */
+    private static class SegmentAppender implements Runnable {
+
+        // Payload
+        private String mDirectory;
+        private OutputWrapper mOutputWrapper;
+        private RunManifest.Row mManifestRow;
+
+        // Constructor
+        private SegmentAppender(@NonNull String directory, @NonNull OutputWrapper wrapper) {
+            this(directory, wrapper, null);
+        }
+
+        // Constructor (manifestRow is added to the run manifest with where the output went, if not null)
+        private SegmentAppender(@NonNull String directory, @NonNull OutputWrapper wrapper,
+                                @Nullable RunManifest.Row manifestRow) {
+            mDirectory = directory;
+            mOutputWrapper = wrapper;
+            mManifestRow = manifestRow;
+        }
+
+        // Action
+        public void run() {
+            try {
+                append();
+            }
+            finally {
+                // Data is on disk (or never will be), let go of anything it was holding on to
+                mOutputWrapper.release();
+            }
+        }
+
+        // Write
+        private void append() {
+
+            if (GlobalSettings.DEBUG_DISABLE_ALL_SAVING) {
+                Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> WRITING DISABLED FOR: " + mDirectory
+                        + File.separator + mOutputWrapper.getFilename() + " <<\n ");
+                return;
+            }
+
+            if (mOutputWrapper.getByteBuffer() == null) {
+                Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> BYTE BUFFER IS NULL FOR: " + mDirectory
+                        + File.separator + mOutputWrapper.getFilename() + " <<\n ");
+                synchronized (SEGMENT_LOCK) {
+                    appendManifest(mDirectory, mManifestRow);
+                }
+                return;
+            }
+
+            // Compression keeps up at normal saving rates, but if the disk is falling behind, store
+            // raw rather than spend more time per output
+            Compression.Codec codec = Compression.Codec.NONE;
+            if (GlobalSettings.ENABLE_COMPRESSION
+                    && StorageScheduler.getBacklog() <= GlobalSettings.COMPRESSION_BACKLOG_LIMIT) {
+                codec = Compression.Codec.DELTA_RICE;
+            }
+            ByteBuffer[] record = RunSegment.encode(mOutputWrapper, codec);
+
+            // Check for enough disk space before taking the lock (making room can take a whole trim
+            // pass), neither this run nor an open segment is trimmed
+            long nBytes = 0L;
+            for (ByteBuffer buffer : record) {
+                nBytes += buffer.remaining();
+            }
+            String segmentDirectory;
+            synchronized (SEGMENT_LOCK) {
+                segmentDirectory = (mSegment == null) ? null : mSegmentDirectory;
+            }
+            boolean hasSpace = StorageBudget.reserve(nBytes, mDirectory, segmentDirectory);
+            if (!hasSpace) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> ERROR: OUT OF SPACE, CANNOT SAVE: " + mDirectory
+                        + File.separator + mOutputWrapper.getFilename() + " <<\n ");
+            }
+
+            synchronized (SEGMENT_LOCK) {
+                if (hasSpace) {
+                    append(record);
+                }
+                appendManifest(mDirectory, mManifestRow);
+            }
+        }
+
+        // Write to the open segment, call while holding SEGMENT_LOCK
+        private void append(@NonNull ByteBuffer[] record) {
+
+            // Roll over to a new segment on a new run or once this one is full
+            if (mSegment != null && (!mDirectory.equals(mSegmentDirectory)
+                                     || mSegment.getSize() >= GlobalSettings.SEGMENT_SIZE_LIMIT)) {
+                mSegment.close();
+                mSegment = null;
+            }
+
+            if (mSegment == null) {
+                if (!mDirectory.equals(mSegmentDirectory)) {
+                    mSegmentDirectory = mDirectory;
+                    mSegmentNumber = 0;
+                }
+
+                String filename = String.format(Locale.US, "run_%04d", mSegmentNumber) + GlobalSettings.SEGMENT_FILE;
+                mSegment = RunSegment.open(mDirectory + File.separator + filename);
+                mSegmentNumber++;
+                if (mSegment == null) {
+                    // TODO: error
+                    Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> ERROR: INVALID PATH, CANNOT SAVE DATA <<\n ");
+                    MasterController.quitSafely();
+                    return;
+                }
+            }
+
+            try {
+                long offset = mSegment.getSize();
+                mSegment.append(record);
+                if (mManifestRow != null) {
+                    mManifestRow.setLocation(mSegment.getFilename(), offset);
+                }
+            }
+            catch (IOException e) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), " \n\n\t\t\t>> ERROR: IO EXCEPTION, CANNOT SAVE DATA <<\n ");
+                mSegment.abandon();
+                mSegment = null;
+                MasterController.quitSafely();
+            }
+        }
+    }
+
+    // mSegment.....................................................................................
+    // Segment run outputs are currently appended to (guarded by SEGMENT_LOCK), null if none is open
+    private static RunSegment mSegment;
+
+    // mSegmentDirectory............................................................................
+    // Directory of the current (or last) segment (guarded by SEGMENT_LOCK)
+    private static String mSegmentDirectory;
+
+    // mSegmentNumber...............................................................................
+    // Number of the next segment in mSegmentDirectory (guarded by SEGMENT_LOCK)
+    private static int mSegmentNumber;
+
+    // mManifest....................................................................................
+    // Manifest of the current (or last) run (guarded by SEGMENT_LOCK), null if none is open
+    private static RunManifest mManifest;
+
     // Path.........................................................................................
     // Handy absolute path links
     abstract private static class Path {
@@ -195,7 +352,10 @@ abstract public class StorageMedia {
             // TODO: error
             Log.e(Thread.currentThread().getName(), "Unable to create directory hierarchy");
             MasterController.quitSafely();
+            return;
         }
+        CalibrationCatalog.load(Path.Calibrations);
+        StorageBudget.configure(Home, Path.InProgress);
     }
 
     // cleanSlate...................................................................................
@@ -389,15 +549,48 @@ abstract public class StorageMedia {
         Path.WorkingDirectory = createDirectory(path);
     }
 
+    // closeSegment.................................................................................
+    /**
+     * Finish the open run segment and manifest (after anything already queued has been written to
+     * them, and before anything queued afterwards), the next run output starts a new segment
+     */
+    public static void closeSegment() {
+        StorageScheduler.submit(StorageScheduler.Priority.BOOKKEEPING, null, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SEGMENT_LOCK) {
+                    if (mSegment != null) {
+                        mSegment.close();
+                        mSegment = null;
+                    }
+                    if (mManifest != null) {
+                        mManifest.close();
+                        mManifest = null;
+                    }
+                }
+            }
+        });
+    }
+
     // TODO: method for moving/tarballing directory or files to Transmittable
     //public static void makeTransmittable(...)
 
+    // getTransmittableDirectory....................................................................
+    /**
+     * @return Transmittable directory (absolute path), everything in it is meant for upload (see
+     *         ssh/UploadQueue), null if it hasn't been set up
+     */
+    @Nullable
+    public static String getTransmittableDirectory() {
+        return Path.Transmittable;
+    }
+
     // isBusy.......................................................................................
     /**
      * @return True if files are currently being written, false if in idle
      */
     public static boolean isBusy() {
-        return mBacklog.get() > 0;
+        return StorageScheduler.getBacklog() > 0;
     }
 
     // getBacklog...................................................................................
@@ -405,7 +598,16 @@ abstract public class StorageMedia {
      * @return The number of files in backlog to be / are being written
      */
     public static int getBacklog() {
-        return mBacklog.get();
+        return StorageScheduler.getBacklog();
+    }
+
+    // getStatistics................................................................................
+    /**
+     * @return Per priority class write counts, throughput and latency so far
+     */
+    @NonNull
+    public static String getStatistics() {
+        return StorageScheduler.getStatistics();
     }
 
     // writeCalibration.............................................................................
@@ -414,26 +616,51 @@ abstract public class StorageMedia {
      * @param wrapper Calibration data (e.g. mean, stddev, etc)
      */
     public static void writeCalibration(@NonNull OutputWrapper wrapper) {
-        mBacklog.incrementAndGet();
-        mHandler.post(new DataSaver(Path.Calibrations, wrapper));
+        writeCalibration(wrapper, null);
+    }
+
+    /**
+     * Writes a new calibration file to the Calibrations directory and adds it to the CalibrationCatalog
+     * @param wrapper Calibration data (e.g. mean, stddev, etc)
+     * @param exposure (Optional) Sensor exposure [ns] the calibration was taken at, null if unknown
+     */
+    public static void writeCalibration(@NonNull OutputWrapper wrapper, @Nullable Long exposure) {
+        CalibrationCatalog.Entry entry = null;
+        ByteBuffer header = wrapper.getByteBuffer();
+        if (header != null) {
+            entry = CalibrationCatalog.describe(wrapper.getFilename(), header,
+                                                CameraController.getOpenedCameraId(), exposure);
+        }
+        StorageScheduler.submit(getPriority(wrapper, StorageScheduler.Priority.CALIBRATION), wrapper,
+                                new DataSaver(Path.Calibrations, wrapper, entry));
     }
 
     /**
-     * Writes OutputWrapper in the current working directory (if path is null), or to the specified path.
+     * Appends OutputWrapper to the current working directory's run segment (if path is null, see
+     * RunSegment / RunSegmentReader), or writes it as its own file to the specified path.
      * Path can be relative to /ShRAMP (i.e. "mydir" translates to /ShRAMP/mydir).
      * Caution: existing files with the same name will be overwritten.
-     * Note: writing occurs on the storage media thread, so the calling thread will not be burdened.
+     * Note: writing occurs on a storage media thread, so the calling thread will not be burdened,
+     * unless the storage queue is full (debug frames and significance maps are dropped instead).
      * @param wrapper OutputWrapper to be written
-     * @param path (Optional) If null, writes to working directory, if specified, writes to that
+     * @param path (Optional) If null, appends to working directory segment, if specified, writes to that
      */
     public static void writeInternalStorage(@NonNull OutputWrapper wrapper, @Nullable String path) {
-        mBacklog.incrementAndGet();
+        StorageScheduler.Priority priority = getPriority(wrapper, StorageScheduler.Priority.EVENTS);
 
-        String outpath;
         if (path == null) {
-            outpath = Path.WorkingDirectory;
+            if (Path.WorkingDirectory == null) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "No working directory, cannot save: " + wrapper.getFilename());
+                wrapper.release();
+                return;
+            }
+            StorageScheduler.submit(priority, wrapper, new SegmentAppender(Path.WorkingDirectory, wrapper));
+            return;
         }
-        else if (!path.contains(Path.Home)) {
+
+        String outpath;
+        if (!path.contains(Path.Home)) {
             outpath = Path.Home + File.separator + path;
         }
         else {
@@ -445,7 +672,46 @@ abstract public class StorageMedia {
             Log.e(Thread.currentThread().getName(), "WARNING: " + outfile.getAbsolutePath() + " already exists and will be OVERWRITTEN");
         }
 
-        mHandler.post(new DataSaver(path, wrapper));
+        StorageScheduler.submit(priority, wrapper, new DataSaver(outpath, wrapper));
+    }
+
+    // writeManifest................................................................................
+    /**
+     * Adds a processed frame to the current working directory's run manifest (see RunManifest),
+     * appending its output (if any) to the run segment first so the row records where it went
+     * @param row Frame number, timestamps and conditions of the frame
+     * @param wrapper (Optional) The frame's hit list or clusters, null if it has none to save
+     */
+    public static void writeManifest(@NonNull final RunManifest.Row row, @Nullable OutputWrapper wrapper) {
+        final String directory = Path.WorkingDirectory;
+        if (directory == null) {
+            // TODO: error
+            Log.e(Thread.currentThread().getName(), "No working directory, cannot add frame to manifest: "
+                    + row.getFrameNumber());
+            if (wrapper != null) {
+                wrapper.release();
+            }
+            return;
+        }
+
+        if (wrapper != null) {
+            StorageScheduler.submit(getPriority(wrapper, StorageScheduler.Priority.EVENTS), wrapper,
+                                    new SegmentAppender(directory, wrapper, row));
+            return;
+        }
+
+        if (GlobalSettings.DEBUG_DISABLE_ALL_SAVING) {
+            return;
+        }
+
+        StorageScheduler.submit(StorageScheduler.Priority.EVENTS, null, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SEGMENT_LOCK) {
+                    appendManifest(directory, row);
+                }
+            }
+        });
     }
 
     /**
@@ -455,9 +721,7 @@ abstract public class StorageMedia {
      * @return Returns the absolute path of the most recent calibration file matching the parameters,
      *         or null if one cannot be found
      */
-    // TODO: (PRIORITY) double check it's sorting correctly
     @Nullable
-    @Contract(pure = true)
     public static String findRecentCalibration(@NonNull String head, @NonNull String extension) {
         if (!head.equals("cold_fast") && !head.equals("cold_slow") && !head.equals("hot_fast")
                 && !head.equals("hot_slow") && !head.equals("mean") && !head.equals("stddev")
@@ -472,60 +736,98 @@ abstract public class StorageMedia {
             return null;
         }
 
-        File calibrations = new File(Path.Calibrations);
-
-        // Filename filter
-        class CalibrationFilter implements FilenameFilter {
-            private String Head;
-            private String Extension;
-
-            private CalibrationFilter(@NonNull String head, @NonNull String extension) {
-                Head = head;
-                Extension = extension;
-            }
+        CalibrationCatalog.Entry entry = CalibrationCatalog.findLatest(head, extension);
+        if (entry == null) {
+            return null;
+        }
+        return entry.getPath();
+    }
 
-            @Override
-            public boolean accept(File dir, String name) {
-                return name.startsWith(Head) && name.endsWith(Extension);
-            }
+    /**
+     * @param head options include "cold_fast", "cold_slow", "hot_fast", "hot_slow",
+     *             "mean", "stddev", "stderr", and "mask"
+     * @param extension options include "mean", "stddev", "stderr", and "mask"
+     * @param temperature (Optional) Match the calibration taken nearest this temperature [Celsius]
+     * @param exposure (Optional) Match the calibration taken nearest this exposure [ns],
+     *                 ignored if temperature is given
+     * @return Returns the absolute path of the nearest calibration file matching the parameters,
+     *         the most recent if neither temperature nor exposure is given,
+     *         or null if one cannot be found
+     */
+    @Nullable
+    public static String findNearestCalibration(@NonNull String head, @NonNull String extension,
+                                                @Nullable Float temperature, @Nullable Long exposure) {
+        CalibrationCatalog.Entry entry;
+        if (temperature != null) {
+            entry = CalibrationCatalog.findNearestTemperature(head, extension, temperature);
+        }
+        else if (exposure != null) {
+            entry = CalibrationCatalog.findNearestExposure(head, extension, exposure);
+        }
+        else {
+            entry = CalibrationCatalog.findLatest(head, extension);
+        }
+        if (entry == null) {
+            return null;
         }
+        return entry.getPath();
+    }
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-        // Order files by datestamp
-        class LatestDateFirst implements Comparator<String> {
-            private int HeadLen;
-            private int ExtLen;
-            private SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS", Locale.US);
+    // getPriority..................................................................................
+    /**
+     * @param wrapper Data to be written
+     * @param otherwise Priority class for data that isn't a histogram, frame or significance map
+     * @return Storage priority class for this data
+     */
+    @NonNull
+    private static StorageScheduler.Priority getPriority(@NonNull OutputWrapper wrapper,
+                                                         @NonNull StorageScheduler.Priority otherwise) {
+        switch (wrapper.getType()) {
+            case HISTOGRAM:
+                return StorageScheduler.Priority.HISTOGRAMS;
+
+            case IMAGE:
+            case STATISTICS:
+                if (otherwise != StorageScheduler.Priority.CALIBRATION) {
+                    // Frames and significance maps saved while running are for debugging
+                    return StorageScheduler.Priority.DEBUG_FRAMES;
+                }
+                return otherwise;
 
-            private LatestDateFirst(@NonNull String head, @NonNull String extension) {
-                HeadLen = head.length() + 1;
-                ExtLen  = extension.length();
-            }
+            default:
+                return otherwise;
+        }
+    }
 
-            @Override
-            public int compare(String o1, String o2) {
-                try {
-                    Date date1 = format.parse(o1.substring(HeadLen, o1.length() - ExtLen));
-                    Date date2 = format.parse(o2.substring(HeadLen, o2.length() - ExtLen));
-                    return date1.compareTo(date2);
-                }
-                catch (ParseException e) {
-                    // TODO: error
-                    Log.e(Thread.currentThread().getName(), "Parse exception, cannot sort files");
-                    return 0;
-                }
-            }
+    // appendManifest...............................................................................
+    /**
+     * Add a row to a run's manifest, opening it if it isn't the open one, call while holding
+     * SEGMENT_LOCK
+     * @param directory Run directory (absolute path)
+     * @param row (Optional) Frame to add, if null nothing happens
+     */
+    private static void appendManifest(@NonNull String directory, @Nullable RunManifest.Row row) {
+        if (row == null) {
+            return;
         }
 
-        // Sort found files
-        List<String> sortedFiles = ArrayToList.convert(calibrations.list(new CalibrationFilter(head, extension)));
-        Collections.sort( sortedFiles, new LatestDateFirst(head, extension) );
+        if (mManifest != null && !mManifest.getDirectory().equals(directory)) {
+            mManifest.close();
+            mManifest = null;
+        }
 
-        if (sortedFiles.size() == 0) {
-            return null;
+        if (mManifest == null) {
+            mManifest = RunManifest.open(directory);
+            if (mManifest == null) {
+                // TODO: error
+                Log.e(Thread.currentThread().getName(), "Cannot add frame to manifest: " + row.getFrameNumber());
+                return;
+            }
         }
 
-        File foundFile = new File(Path.Calibrations + File.separator + sortedFiles.get(0));
-        return foundFile.getAbsolutePath();
+        mManifest.append(row);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,401 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.annotation.TargetApi;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+/**
+ * Schedules StorageMedia writes over a few writer threads from a bounded queue.
+ * Every write belongs to a priority class, the highest class waiting is always written next
+ * (first-in first-out within a class), so a burst of debug frames can't hold up calibrations.
+ * Debug frames are shed (dropped) once STORAGE_SHED_BACKLOG writes are waiting, and evicted
+ * (oldest first) to make room for anything more important when the queue is full, other classes
+ * wait for room instead, so queued data can't exhaust the heap.
+ * BOOKKEEPING jobs (e.g. closing a run segment) are ordered barriers: one runs after everything
+ * submitted before it has been written, on its own, and nothing submitted after it starts until
+ * it is done.  They are never shed and never wait for room.
+ */
+@TargetApi(21)
+abstract class StorageScheduler {
+
+    // Package-private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Priority.....................................................................................
+    // Write classes, most important first (BOOKKEEPING jobs are barriers, see above)
+    enum Priority {BOOKKEEPING, CALIBRATION, EVENTS, HISTOGRAMS, DEBUG_FRAMES}
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // THREAD_NAME..................................................................................
+    // Writer threads are named THREAD_NAME + number
+    private static final String THREAD_NAME = "StorageMediaThread";
+
+    // N_CLASSES....................................................................................
+    // Number of priority classes
+    private static final int N_CLASSES = Priority.values().length;
+
+    // LOCK.........................................................................................
+    // Guards the queues and counters, producers waiting for room wait on it
+    private static final Object LOCK = new Object();
+
+    // mHandlers....................................................................................
+    // Writer thread Handlers, each post writes whichever job is most important at the time
+    private static final Handler[] mHandlers = new Handler[GlobalSettings.STORAGE_WRITER_THREADS];
+    static {
+        for (int i = 0; i < mHandlers.length; i++) {
+            mHandlers[i] = HandlerManager.newHandler(THREAD_NAME + i,
+                                                     GlobalSettings.STORAGE_MEDIA_THREAD_PRIORITY);
+        }
+    }
+
+    // mQueues......................................................................................
+    // Jobs waiting to be written, one queue per priority class
+    private static final ArrayDeque<Job>[] mQueues = newQueues();
+
+    // Job..........................................................................................
+    // A write waiting in (or taken from) a queue, mSequence orders it against barriers
+    private static class Job {
+        final Priority mPriority;
+        final OutputWrapper mWrapper;
+        final Runnable mAction;
+        final long mBytes;
+        final long mSequence;
+        final long mSubmitted = System.nanoTime();
+
+        Job(@NonNull Priority priority, @Nullable OutputWrapper wrapper, @NonNull Runnable action,
+            long sequence) {
+            mPriority = priority;
+            mWrapper  = wrapper;
+            mAction   = action;
+            mSequence = sequence;
+
+            long bytes = 0L;
+            if (wrapper != null) {
+                for (ByteBuffer buffer : wrapper.getByteBuffers()) {
+                    bytes += buffer.capacity();
+                }
+            }
+            mBytes = bytes;
+        }
+    }
+
+    // Counters.....................................................................................
+    // Per-class throughput and latency (submit to written) counters, guarded by LOCK
+    private abstract static class Counters {
+        static final long[] Submitted    = new long[N_CLASSES];
+        static final long[] Written      = new long[N_CLASSES];
+        static final long[] Shed         = new long[N_CLASSES];
+        static final long[] Bytes        = new long[N_CLASSES];
+        static final long[] WriteNanos   = new long[N_CLASSES];
+        static final long[] LatencyNanos = new long[N_CLASSES];
+        static final long[] MaxLatency   = new long[N_CLASSES];
+    }
+
+    // Private Class Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mQueued......................................................................................
+    // Number of jobs in all queues, guarded by LOCK
+    private static int mQueued;
+
+    // mBacklog.....................................................................................
+    // Number of jobs queued or being written, guarded by LOCK
+    private static int mBacklog;
+
+    // mNextHandler.................................................................................
+    // Round-robin over mHandlers, guarded by LOCK
+    private static int mNextHandler;
+
+    // mSequence....................................................................................
+    // Sequence number of the next job submitted, guarded by LOCK
+    private static long mSequence;
+
+    // mWriting.....................................................................................
+    // Number of jobs being written right now, guarded by LOCK
+    private static int mWriting;
+
+    // mBarrierWriting..............................................................................
+    // True while a BOOKKEEPING job is running, guarded by LOCK
+    private static boolean mBarrierWriting;
+
+    // mIdlePosts...................................................................................
+    // WriteNext posts that found their job held back by a barrier (it is still queued), they are
+    // posted again once the barrier is out of the way, guarded by LOCK
+    private static int mIdlePosts;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Package-private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // submit.......................................................................................
+    /**
+     * Queue a write, may block until there is room (unless it is shed)
+     * @param priority Priority class
+     * @param wrapper (Optional) Data being written, released here if the write is shed, null for
+     *                jobs without data (which are never shed and never wait for room)
+     * @param action Does the write on a writer thread (must release wrapper itself)
+     * @return True if queued, false if shed
+     */
+    static boolean submit(@NonNull Priority priority, @Nullable OutputWrapper wrapper,
+                          @NonNull Runnable action) {
+        Job job;
+        Job evicted = null;
+        synchronized (LOCK) {
+            job = new Job(priority, wrapper, action, mSequence++);
+            if (wrapper != null && priority != Priority.BOOKKEEPING) {
+                Counters.Submitted[priority.ordinal()]++;
+                if (priority == Priority.DEBUG_FRAMES && mQueued >= GlobalSettings.STORAGE_SHED_BACKLOG) {
+                    Counters.Shed[priority.ordinal()]++;
+                    evicted = job;
+                }
+                else {
+                    while (mQueued >= GlobalSettings.STORAGE_QUEUE_CAPACITY) {
+                        evicted = evictDebugFrame();
+                        if (evicted != null) {
+                            break;
+                        }
+                        try {
+                            LOCK.wait();
+                        }
+                        catch (InterruptedException e) {
+                            // TODO: error
+                            Log.e(Thread.currentThread().getName(), "Interrupted waiting for storage queue");
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (evicted != job) {
+                mQueues[priority.ordinal()].addLast(job);
+                mQueued++;
+                mBacklog++;
+                mHandlers[mNextHandler].post(new WriteNext());
+                mNextHandler = (mNextHandler + 1) % mHandlers.length;
+            }
+        }
+
+        if (evicted != null) {
+            Log.e(Thread.currentThread().getName(), "Storage backlog, dropped: " + evicted.mWrapper.getFilename());
+            evicted.mWrapper.release();
+        }
+        return evicted != job;
+    }
+
+    // writeNext....................................................................................
+    /**
+     * Write the most important job that may run now (see takeNext()), on the calling thread
+     * @return True if a job was written, false if none could run
+     */
+    static boolean writeNext() {
+        Job job;
+        synchronized (LOCK) {
+            job = takeNext();
+            if (job == null) {
+                // Either its job was evicted, or it is held back by a barrier
+                if (mQueued > 0) {
+                    mIdlePosts++;
+                }
+                return false;
+            }
+            mWriting++;
+            if (job.mPriority == Priority.BOOKKEEPING) {
+                mBarrierWriting = true;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            job.mAction.run();
+        }
+        finally {
+            long end = System.nanoTime();
+            int backlog;
+            synchronized (LOCK) {
+                int i = job.mPriority.ordinal();
+                if (job.mWrapper != null) {
+                    Counters.Written[i]++;
+                    Counters.Bytes[i]        += job.mBytes;
+                    Counters.WriteNanos[i]   += end - start;
+                    Counters.LatencyNanos[i] += end - job.mSubmitted;
+                    Counters.MaxLatency[i]    = Math.max(Counters.MaxLatency[i], end - job.mSubmitted);
+                }
+                mWriting--;
+                mBacklog--;
+                backlog = mBacklog;
+
+                // Once a barrier is done everything held back may run, once the last job before a
+                // waiting barrier is done the barrier may run
+                int release = 0;
+                if (job.mPriority == Priority.BOOKKEEPING) {
+                    mBarrierWriting = false;
+                    release = mIdlePosts;
+                }
+                else if (mWriting == 0 && !mQueues[Priority.BOOKKEEPING.ordinal()].isEmpty()) {
+                    release = Math.min(1, mIdlePosts);
+                }
+                mIdlePosts -= release;
+                for (int post = 0; post < release; post++) {
+                    mHandlers[mNextHandler].post(new WriteNext());
+                    mNextHandler = (mNextHandler + 1) % mHandlers.length;
+                }
+            }
+            if (backlog == 0) {
+                Quiesce.signal();
+            }
+        }
+        return true;
+    }
+
+    // getBacklog...................................................................................
+    /**
+     * @return Number of writes queued or being written
+     */
+    static int getBacklog() {
+        synchronized (LOCK) {
+            return mBacklog;
+        }
+    }
+
+    // getStatistics................................................................................
+    /**
+     * @return Per-class throughput and latency summary
+     */
+    @NonNull
+    static String getStatistics() {
+        StringBuilder builder = new StringBuilder(" \nStorage scheduler statistics:\n");
+        synchronized (LOCK) {
+            for (Priority priority : Priority.values()) {
+                int i = priority.ordinal();
+                long written = Counters.Written[i];
+                double seconds = Counters.WriteNanos[i] / 1e9;
+                builder.append("\t").append(priority.name()).append(": ")
+                       .append(NumToString.number(Counters.Submitted[i])).append(" submitted, ")
+                       .append(NumToString.number(written)).append(" written, ")
+                       .append(NumToString.number(Counters.Shed[i])).append(" shed, ")
+                       .append(NumToString.number(mQueues[i].size())).append(" waiting, ");
+                if (written > 0L) {
+                    builder.append(NumToString.decimal(Counters.Bytes[i] / 1e6 / Math.max(seconds, 1e-9))).append(" [MB/sec], ")
+                           .append("mean latency ").append(NumToString.decimal(Counters.LatencyNanos[i] / 1e6 / written)).append(" [ms], ")
+                           .append("max latency ").append(NumToString.decimal(Counters.MaxLatency[i] / 1e6)).append(" [ms]");
+                }
+                builder.append("\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // newQueues....................................................................................
+    /**
+     * @return An empty queue for each priority class
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Job>[] newQueues() {
+        ArrayDeque<Job>[] queues = new ArrayDeque[N_CLASSES];
+        for (int i = 0; i < N_CLASSES; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        return queues;
+    }
+
+    // takeNext.....................................................................................
+    /**
+     * Take the job to write next, call while holding LOCK: the most important job submitted before
+     * the oldest waiting barrier, or that barrier once nothing submitted before it is waiting or
+     * being written, nothing while a barrier is running
+     * @return The job taken out of its queue, or null if nothing may run right now
+     */
+    @Nullable
+    private static Job takeNext() {
+        if (mBarrierWriting) {
+            return null;
+        }
+
+        ArrayDeque<Job> barriers = mQueues[Priority.BOOKKEEPING.ordinal()];
+        Job barrier = barriers.peekFirst();
+        for (ArrayDeque<Job> queue : mQueues) {
+            if (queue == barriers) {
+                continue;
+            }
+            // Queues are in submission order, if the first can't go yet none can
+            Job job = queue.peekFirst();
+            if (job != null && (barrier == null || job.mSequence < barrier.mSequence)) {
+                queue.pollFirst();
+                mQueued--;
+                LOCK.notifyAll();
+                return job;
+            }
+        }
+
+        if (barrier != null && mWriting == 0) {
+            barriers.pollFirst();
+            mQueued--;
+            LOCK.notifyAll();
+            return barrier;
+        }
+        return null;
+    }
+
+    // evictDebugFrame..............................................................................
+    /**
+     * Remove the oldest sheddable debug frame, call while holding LOCK
+     * @return The job removed (its WriteNext will find nothing to do), or null if there isn't one
+     */
+    @Nullable
+    private static Job evictDebugFrame() {
+        ArrayDeque<Job> queue = mQueues[Priority.DEBUG_FRAMES.ordinal()];
+        for (Job job : queue) {
+            if (job.mWrapper != null) {
+                queue.remove(job);
+                mQueued--;
+                mBacklog--;
+                Counters.Shed[Priority.DEBUG_FRAMES.ordinal()]++;
+                return job;
+            }
+        }
+        return null;
+    }
+
+    // WriteNext....................................................................................
+    // Posted once per job submitted, writes the most important job that may run when it runs
+    private static class WriteNext implements Runnable {
+        @Override
+        public void run() {
+            writeNext();
+        }
+    }
+
+}
\ No newline at end of file
@@ -30,9 +30,16 @@
 // Running Sums.....................................................................................
 // Sum of pixel value (for mean computation)
 // Sum of pixel value**2 (for standard deviation computation)
+// These are 32-bit to keep per-frame memory traffic low, and are periodically flushed into the
+// 64-bit running totals below before they can overflow
 rs_allocation gValueSum;
 rs_allocation gValue2Sum;
 
+// Running Totals...................................................................................
+// 64-bit sum of pixel value and pixel value**2 over all flushed frames
+rs_allocation gValueTotal;
+rs_allocation gValue2Total;
+
 // Statistics.......................................................................................
 // Used for determining pixel significance = (value - mean) / stddev
 rs_allocation gMean;
@@ -53,43 +60,72 @@ int gEnableSignificance;
 // Pixels with significance above this theshold are considered "actually significant"
 float gSignificanceThreshold;
 
-// gCountAboveThreshold.............................................................................
-// Number of pixels with significance above threshold ("actually significant")
-rs_allocation gCountAboveThreshold;
-
-// RenderScript Kernels
+// gImage...........................................................................................
+// Image data, uchar (8-bit) or ushort (16-bit) [width x height pixels]
+rs_allocation gImage;
+
+// gWriteSignificance...............................................................................
+// "1" to store every pixel's significance in gSignificance (i.e. for saving a full frame),
+// "0" to skip the full-frame write, only pixels in the hit list have their significance kept
+int gWriteSignificance;
+
+// Hit List.........................................................................................
+// Pixels above threshold, up to gHitsPerRow per row [gHitsPerRow x height]:
+//      gHitColumn:       column of the pixel
+//      gHitValue:        raw pixel value
+//      gHitSignificance: pixel significance
+// Row y's hits are in slots (0..count-1, y), where count is what the row kernel returned for row y,
+// if count > gHitsPerRow the row overflowed and only the first gHitsPerRow were kept
+int gHitsPerRow;
+rs_allocation gHitColumn;
+rs_allocation gHitValue;
+rs_allocation gHitSignificance;
+
+// gThreshold.......................................................................................
+// Trigger threshold map, ushort [width x height pixels]: a pixel is above threshold exactly when
+// its raw value >= its threshold, i.e. the smallest raw value whose significance would reach
+// gSignificanceThreshold.  Masked pixels (and pixels with stddev = 0) get gUnreachableThreshold.
+// Computed by computeThreshold8bit / computeThreshold16bit whenever statistics or the
+// significance threshold change, used by the trigger-only kernels.
+rs_allocation gThreshold;
+
+// gUnreachableThreshold............................................................................
+// Threshold no pixel value can reach (8-bit and 10-bit pixel values never get near it)
+const uint gUnreachableThreshold = 0xFFFF;
+
+// Helper Functions
 //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-// TODO: figure out a way to write one processData kernel?
-
-// process8bitData..................................................................................
-// Updates running sums and computes significance if enabled (exact same as process16bitData)
-// @param val 8-bit depth pixel value
-// @param x row pixel coordinate
-// @param y column pixel coordinate
-void RS_KERNEL process8bitData(uchar val, uint32_t x, uint32_t y) {
+// processPixel.....................................................................................
+// Updates running sums and computes significance if enabled
+// @param val pixel value
+// @param maxValue gMax8bitValue or gMax16bitValue
+// @param x column pixel coordinate
+// @param y row pixel coordinate
+// @param hits number of hits found so far in this row, a hit is recorded if this pixel is one
+// @return 1 if the pixel is above threshold, 0 if not
+static uint processPixel(uint val, float maxValue, uint32_t x, uint32_t y, uint hits) {
     // Value Sum
     uint old_val_sum = rsGetElementAt_uint(gValueSum, x, y);
-    uint this_val    = (uint) val;
-    uint new_val_sum = old_val_sum + this_val;
+    uint new_val_sum = old_val_sum + val;
     rsSetElementAt_uint(gValueSum, new_val_sum, x, y);
 
     // Value**2 Sum
     uint old_val2_sum = rsGetElementAt_uint(gValue2Sum, x, y);
-    uint this_val2    = this_val * this_val;
+    uint this_val2    = val * val;
     uint new_val2_sum = old_val2_sum + this_val2;
     rsSetElementAt_uint(gValue2Sum, new_val2_sum, x, y);
 
     // Statistical Significance
+    uint  above = 0;
     float significance;
     if (gEnableSignificance == 0) {
         // Disabled
         significance = 0.f;
     }
     else { // Enabled
-        //                                                   this is the only difference
-        float mean   = rsGetElementAt_float(gMean,   x, y) * gMax8bitValue;
-        float stddev = rsGetElementAt_float(gStdDev, x, y) * gMax8bitValue;
+        float mean   = rsGetElementAt_float(gMean,   x, y) * maxValue;
+        float stddev = rsGetElementAt_float(gStdDev, x, y) * maxValue;
 
         if (stddev == 0.f) {
             // positive infinity, avoid 0./0.
@@ -100,58 +136,174 @@ void RS_KERNEL process8bitData(uchar val, uint32_t x, uint32_t y) {
 
             uchar mask = rsGetElementAt_uchar(gMask, x, y);
             if (mask == 1 && significance >= gSignificanceThreshold) {
-                long count = rsGetElementAt_long(gCountAboveThreshold, 0, 0);
-                rsSetElementAt_long(gCountAboveThreshold, count + 1, 0, 0);
+                above = 1;
+                if (hits < gHitsPerRow) {
+                    rsSetElementAt_uint( gHitColumn,       x,            hits, y);
+                    rsSetElementAt_uint( gHitValue,        val,          hits, y);
+                    rsSetElementAt_float(gHitSignificance, significance, hits, y);
+                }
             }
         }
     }
-    rsSetElementAt_float(gSignificance, significance, x, y);
+    if (gWriteSignificance != 0) {
+        rsSetElementAt_float(gSignificance, significance, x, y);
+    }
+    return above;
 }
 
-// process16bitData.................................................................................
-// Updates running sums and computes significance if enabled (exact same as process8bitData)
-// @param val 16-bit depth pixel value
-// @param x row pixel coordinate
-// @param y column pixel coordinate
-void RS_KERNEL process16bitData(ushort val, uint32_t x, uint32_t y) {
-    // Value Sum
-    uint old_val_sum = rsGetElementAt_uint(gValueSum, x, y);
-    uint this_val    = (uint) val;
-    uint new_val_sum = old_val_sum + this_val;
-    rsSetElementAt_uint(gValueSum, new_val_sum, x, y);
+// isAbove..........................................................................................
+// Same significance test as processPixel
+// @param val pixel value
+// @param mean pixel mean (not normalized)
+// @param stddev pixel standard deviation (not normalized, not 0)
+// @return true if the pixel value's significance reaches gSignificanceThreshold
+static bool isAbove(uint val, float mean, float stddev) {
+    return ( ((float) val) - mean ) / stddev >= gSignificanceThreshold;
+}
 
-    // Value**2 Sum
-    uint old_val2_sum = rsGetElementAt_uint(gValue2Sum, x, y);
-    uint this_val2    = this_val * this_val;
-    uint new_val2_sum = old_val2_sum + this_val2;
-    rsSetElementAt_uint(gValue2Sum, new_val2_sum, x, y);
+// computeThreshold.................................................................................
+// Smallest pixel value processPixel would find above threshold, the (float) significance is
+// monotonic in the pixel value, so start from mean + threshold * stddev and step to the exact edge
+// @param maxValue gMax8bitValue or gMax16bitValue
+// @param x column pixel coordinate
+// @param y row pixel coordinate
+// @return trigger threshold for this pixel
+static ushort computeThreshold(float maxValue, uint32_t x, uint32_t y) {
+    uchar mask = rsGetElementAt_uchar(gMask, x, y);
+    if (mask != 1) {
+        return gUnreachableThreshold;
+    }
 
-    // Statistical Significance
-    float significance;
-    if (gEnableSignificance == 0) {
-        // Disabled
-        significance = 0.f;
+    float mean   = rsGetElementAt_float(gMean,   x, y) * maxValue;
+    float stddev = rsGetElementAt_float(gStdDev, x, y) * maxValue;
+    if (stddev == 0.f) {
+        // processPixel never records these
+        return gUnreachableThreshold;
     }
-    else { // Enabled
-        //                                                   this is the only difference
-        float mean   = rsGetElementAt_float(gMean,   x, y) * gMax16bitValue;
-        float stddev = rsGetElementAt_float(gStdDev, x, y) * gMax16bitValue;
 
-        if (stddev == 0.f) {
-            // positive infinity, avoid 0./0.
-            significance = 1./0.;
-        }
-        else {
-            significance = ( ((float) val) - mean ) / stddev;
+    float guess = ceil(mean + gSignificanceThreshold * stddev);
+    if (!(guess < (float) gUnreachableThreshold)) {
+        // also catches NaN
+        return gUnreachableThreshold;
+    }
+    uint threshold = 0;
+    if (guess > 0.f) {
+        threshold = (uint) guess;
+    }
+    while (threshold > 0 && isAbove(threshold - 1, mean, stddev)) {
+        threshold--;
+    }
+    while (threshold < gUnreachableThreshold && !isAbove(threshold, mean, stddev)) {
+        threshold++;
+    }
+    return threshold;
+}
 
-            uchar mask = rsGetElementAt_uchar(gMask, x, y);
-            if (mask == 1 && significance >= gSignificanceThreshold) {
-                long count = rsGetElementAt_long(gCountAboveThreshold, 0, 0);
-                rsSetElementAt_long(gCountAboveThreshold, count + 1, 0, 0);
-            }
-        }
+// triggerPixel.....................................................................................
+// Trigger decision only, one load and one compare, significance is only computed for hits
+// @param val pixel value
+// @param maxValue gMax8bitValue or gMax16bitValue
+// @param x column pixel coordinate
+// @param y row pixel coordinate
+// @param hits number of hits found so far in this row, a hit is recorded if this pixel is one
+// @return 1 if the pixel is above threshold, 0 if not
+static uint triggerPixel(uint val, float maxValue, uint32_t x, uint32_t y, uint hits) {
+    if (val < rsGetElementAt_ushort(gThreshold, x, y)) {
+        return 0;
+    }
+    if (hits < gHitsPerRow) {
+        float mean   = rsGetElementAt_float(gMean,   x, y) * maxValue;
+        float stddev = rsGetElementAt_float(gStdDev, x, y) * maxValue;
+        rsSetElementAt_uint( gHitColumn,       x,   hits, y);
+        rsSetElementAt_uint( gHitValue,        val, hits, y);
+        rsSetElementAt_float(gHitSignificance, ( ((float) val) - mean ) / stddev, hits, y);
     }
-    rsSetElementAt_float(gSignificance, significance, x, y);
+    return 1;
+}
+
+// RenderScript Kernels
+//::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+// Each kernel instance processes one full row of gImage and returns how many of its pixels are
+// above threshold.  Every row count is written by exactly one instance, so no count is lost
+// under parallel execution, and Java merges the (height-sized) row counts at the end.
+// The same goes for the hit list, each row only writes to its own row of slots.
+
+// process8bitRow...................................................................................
+// Updates running sums and computes significance if enabled for a row of 8-bit data
+// @param x row index (output Allocation has one element per row)
+// @return number of pixels in this row above threshold
+uint RS_KERNEL process8bitRow(uint32_t x) {
+    uint32_t width = rsAllocationGetDimX(gImage);
+    uint count = 0;
+    for (uint32_t col = 0; col < width; col++) {
+        uint val = (uint) rsGetElementAt_uchar(gImage, col, x);
+        count += processPixel(val, gMax8bitValue, col, x, count);
+    }
+    return count;
+}
+
+// process16bitRow..................................................................................
+// Updates running sums and computes significance if enabled for a row of 16-bit data
+// @param x row index (output Allocation has one element per row)
+// @return number of pixels in this row above threshold
+uint RS_KERNEL process16bitRow(uint32_t x) {
+    uint32_t width = rsAllocationGetDimX(gImage);
+    uint count = 0;
+    for (uint32_t col = 0; col < width; col++) {
+        uint val = (uint) rsGetElementAt_ushort(gImage, col, x);
+        count += processPixel(val, gMax16bitValue, col, x, count);
+    }
+    return count;
+}
+
+// Trigger-only kernels: same row counts and hit list as the kernels above (with significance
+// enabled), but running sums and full-frame significance are not touched.
+
+// trigger8bitRow...................................................................................
+// Trigger decision for a row of 8-bit data against gThreshold
+// @param x row index (output Allocation has one element per row)
+// @return number of pixels in this row above threshold
+uint RS_KERNEL trigger8bitRow(uint32_t x) {
+    uint32_t width = rsAllocationGetDimX(gImage);
+    uint count = 0;
+    for (uint32_t col = 0; col < width; col++) {
+        uint val = (uint) rsGetElementAt_uchar(gImage, col, x);
+        count += triggerPixel(val, gMax8bitValue, col, x, count);
+    }
+    return count;
+}
+
+// trigger16bitRow..................................................................................
+// Trigger decision for a row of 16-bit data against gThreshold
+// @param x row index (output Allocation has one element per row)
+// @return number of pixels in this row above threshold
+uint RS_KERNEL trigger16bitRow(uint32_t x) {
+    uint32_t width = rsAllocationGetDimX(gImage);
+    uint count = 0;
+    for (uint32_t col = 0; col < width; col++) {
+        uint val = (uint) rsGetElementAt_ushort(gImage, col, x);
+        count += triggerPixel(val, gMax16bitValue, col, x, count);
+    }
+    return count;
+}
+
+// computeThreshold8bit.............................................................................
+// Fill the trigger threshold map for 8-bit data (output allocation is gThreshold)
+// @param x row pixel coordinate
+// @param y column pixel coordinate
+// @return pixel trigger threshold
+ushort RS_KERNEL computeThreshold8bit(uint32_t x, uint32_t y) {
+    return computeThreshold(gMax8bitValue, x, y);
+}
+
+// computeThreshold16bit............................................................................
+// Fill the trigger threshold map for 16-bit data (output allocation is gThreshold)
+// @param x row pixel coordinate
+// @param y column pixel coordinate
+// @return pixel trigger threshold
+ushort RS_KERNEL computeThreshold16bit(uint32_t x, uint32_t y) {
+    return computeThreshold(gMax16bitValue, x, y);
 }
 
 ////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -174,22 +326,33 @@ uint RS_KERNEL getValue2Sum(uint32_t x, uint32_t y) {
     return rsGetElementAt_uint(gValue2Sum, x, y);
 }
 
-// getSignificance..................................................................................
-// Transfer RenderScript Allocation back into Java
+// flushValueSum....................................................................................
+// Add the 32-bit value sum into the 64-bit value total (output allocation must be gValueTotal)
+// @param partial pixel value sum since the last flush
 // @param x row pixel coordinate
 // @param y column pixel coordinate
-// @return pixel significance
-float RS_KERNEL getSignificance(uint32_t x, uint32_t y) {
-    return rsGetElementAt_float(gSignificance, x, y);
+// @return new pixel value total
+ulong RS_KERNEL flushValueSum(uint partial, uint32_t x, uint32_t y) {
+    return rsGetElementAt_ulong(gValueTotal, x, y) + (ulong) partial;
+}
+
+// flushValue2Sum...................................................................................
+// Add the 32-bit value**2 sum into the 64-bit value**2 total (output allocation must be gValue2Total)
+// @param partial pixel value**2 sum since the last flush
+// @param x row pixel coordinate
+// @param y column pixel coordinate
+// @return new pixel value**2 total
+ulong RS_KERNEL flushValue2Sum(uint partial, uint32_t x, uint32_t y) {
+    return rsGetElementAt_ulong(gValue2Total, x, y) + (ulong) partial;
 }
 
-// getCountAboveThreshold...........................................................................
+// getSignificance..................................................................................
 // Transfer RenderScript Allocation back into Java
 // @param x row pixel coordinate
 // @param y column pixel coordinate
-// @return number of pixels above threshold
-long RS_KERNEL getCountAboveThreshold(uint32_t x, uint32_t y) {
-    return rsGetElementAt_long(gCountAboveThreshold, 0, 0);
+// @return pixel significance
+float RS_KERNEL getSignificance(uint32_t x, uint32_t y) {
+    return rsGetElementAt_float(gSignificance, x, y);
 }
 
 ////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -202,6 +365,14 @@ uint RS_KERNEL zeroUIntAllocation(uint32_t x, uint32_t y) {
     return 0;
 }
 
+// zeroULongAllocation..............................................................................
+// @param x row pixel coordinate
+// @param y column pixel coordinate
+// @return 0
+ulong RS_KERNEL zeroULongAllocation(uint32_t x, uint32_t y) {
+    return 0;
+}
+
 // zeroFloatAllocation..............................................................................
 // @param x row pixel coordinate
 // @param y column pixel coordinate
@@ -41,8 +41,8 @@ int gIs8bit;
 long gNframes;
 
 // Running Sums.....................................................................................
-// Sum of pixel value (for mean computation)
-// Sum of pixel value**2 (for standard deviation computation)
+// 64-bit sum of pixel value (for mean computation)
+// 64-bit sum of pixel value**2 (for standard deviation computation)
 rs_allocation gValueSum;
 rs_allocation gValue2Sum;
 
@@ -54,21 +54,17 @@ rs_allocation gMean;
 rs_allocation gStdDev;
 rs_allocation gStdErr;
 
-// gAnomalousStdDev.................................................................................
-// In the process of determining the mean and standard deviation, an unlikely overflow in
-// the summing variables might have occured under extreme conditions, if this happens the number of
-// pixels with this problem are recorded in this variable.
-rs_allocation gAnomalousStdDev;
-
-// RenderScript Kernels
+// Helper Functions
 //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-// getMean......................................................................................
-// Actually computes all the statistics at once, but returns only the mean back to Java
-// @param x row pixel coordinate
-// @param y column pixel coordinate
-// @return normalized pixel mean value (mean / gMax_bitValue)
-float RS_KERNEL getMean(uint32_t x, uint32_t y) {
+// computeStatistics................................................................................
+// Computes all the statistics for one pixel and stores them in gMean, gStdDev and gStdErr
+// In the process of determining the mean and standard deviation, an unlikely overflow in
+// the summing variables might have occured under extreme conditions, this is reported back.
+// @param x column pixel coordinate
+// @param y row pixel coordinate
+// @return 1 if the pixel's running sums were anomalous, 0 if not
+static uint computeStatistics(uint32_t x, uint32_t y) {
 
     // Max pixel value to normalize to
     float maxValue = gMax8bitValue;
@@ -79,7 +75,7 @@ float RS_KERNEL getMean(uint32_t x, uint32_t y) {
     // Mean Pixel 
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-    uint val_sum = rsGetElementAt_uint(gValueSum, x, y);
+    ulong val_sum = rsGetElementAt_ulong(gValueSum, x, y);
     double mean_pixel_val = val_sum / (double) gNframes;
 
     rsSetElementAt_float(gMean, (float) mean_pixel_val / maxValue, x, y);
@@ -87,14 +83,14 @@ float RS_KERNEL getMean(uint32_t x, uint32_t y) {
     // Standard Deviation 
     //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
 
-    uint val2_sum = rsGetElementAt_uint(gValue2Sum, x, y);
+    ulong val2_sum = rsGetElementAt_ulong(gValue2Sum, x, y);
     double var = ( val2_sum / (double) gNframes) - ( mean_pixel_val * mean_pixel_val );
 
+    uint  anomalous = 0;
     float stddev;
     if (var < 0.) {
         // An overflow has happened in one of the running sums
-        long count = rsGetElementAt_long(gAnomalousStdDev, 0, 0);
-        rsSetElementAt_long(gAnomalousStdDev, count + 1, 0, 0);
+        anomalous = 1;
         stddev = 0.;
     }
     else {
@@ -113,7 +109,24 @@ float RS_KERNEL getMean(uint32_t x, uint32_t y) {
 
     //----------------------------------------------------------------------------------------------
 
-    return (float) mean_pixel_val / maxValue;
+    return anomalous;
+}
+
+// RenderScript Kernels
+//::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+// computeStatisticsRow.............................................................................
+// Computes all the statistics for one full row of pixels.  Every row count is written by exactly
+// one kernel instance, so no count is lost under parallel execution, Java merges them at the end.
+// @param x row index (output Allocation has one element per row)
+// @return number of pixels in this row with anomalous running sums
+uint RS_KERNEL computeStatisticsRow(uint32_t x) {
+    uint32_t width = rsAllocationGetDimX(gMean);
+    uint count = 0;
+    for (uint32_t col = 0; col < width; col++) {
+        count += computeStatistics(col, x);
+    }
+    return count;
 }
 
 // getStdDev........................................................................................
@@ -132,13 +145,4 @@ float RS_KERNEL getStdDev(uint32_t x, uint32_t y) {
 // @return normalized pixel standard error (standard error / gMax_bitValue)
 float RS_KERNEL getStdErr(uint32_t x, uint32_t y) {
     return rsGetElementAt_float(gStdErr, x, y);
-}
-
-// getAnomalousStdDev...............................................................................
-// Transfer RenderScript Allocation back into Java
-// @param x row pixel coordinate
-// @param y column pixel coordinate
-// @return number of pixels that experianced an overflow in their running sums
-ulong RS_KERNEL getAnomalousStdDev(uint32_t x, uint32_t y) {
-    return rsGetElementAt_long(gAnomalousStdDev, 0, 0);
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks ClusterBuilder joins 8-neighbor hits (including shapes that only join further down),
+ * keeps rows with a gap apart, works out cluster properties, and agrees with a flood fill of
+ * random frames
+ */
+public class ClusterBuilderTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Random frame size............................................................................
+    // Small enough for plenty of touching hits
+    private static final int ROWS = 24;
+    private static final int COLS = 17;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // shapes.......................................................................................
+    /**
+     * A diagonal track is one cluster, a "U" whose arms only meet at the bottom is one cluster,
+     * hits with a row or column between them are not
+     */
+    @Test
+    public void shapes() {
+        String[] frame = {
+                "x.....x.x",
+                ".x....x.x",
+                "..x...xxx",
+                ".........",
+                "x.x......"};
+        List<ClusterBuilder.Cluster> clusters = ClusterBuilder.build(makeHits(frame));
+        assertEquals(4, clusters.size());
+
+        // In order of their first pixel
+        assertEquals(3, clusters.get(0).getSize());
+        assertEquals(0, clusters.get(0).getMinX());
+        assertEquals(2, clusters.get(0).getMaxY());
+        assertEquals(7, clusters.get(1).getSize());
+        assertEquals(6, clusters.get(1).getMinX());
+        assertEquals(8, clusters.get(1).getMaxX());
+        assertEquals(1, clusters.get(2).getSize());
+        assertEquals(0, clusters.get(2).getMinX());
+        assertEquals(4, clusters.get(2).getMinY());
+        assertEquals(1, clusters.get(3).getSize());
+        assertEquals(2, clusters.get(3).getMinX());
+
+        assertEquals(0, ClusterBuilder.build(new HitList(0L, 5.f, 1)).size());
+    }
+
+    // properties...................................................................................
+    /**
+     * Charge, charge-weighted centroid, bounding box and peak significance
+     */
+    @Test
+    public void properties() {
+        HitList hits = new HitList(0L, 5.f, 8);
+        hits.add(4, 7, 10, 6.f);
+        hits.add(5, 7, 30, 9.f);
+        hits.add(6, 8, 60, 8.f);
+        List<ClusterBuilder.Cluster> clusters = ClusterBuilder.build(hits);
+        assertEquals(1, clusters.size());
+
+        ClusterBuilder.Cluster cluster = clusters.get(0);
+        assertEquals(3, cluster.getSize());
+        assertEquals(100L, cluster.getCharge());
+        assertEquals((4 * 10 + 5 * 30 + 6 * 60) / 100.f, cluster.getCentroidX(), 1e-6f);
+        assertEquals((7 * 10 + 7 * 30 + 8 * 60) / 100.f, cluster.getCentroidY(), 1e-6f);
+        assertEquals(4, cluster.getMinX());
+        assertEquals(7, cluster.getMinY());
+        assertEquals(6, cluster.getMaxX());
+        assertEquals(8, cluster.getMaxY());
+        assertEquals(9.f, cluster.getPeakSignificance(), 0.f);
+        assertEquals(5, cluster.getPeakX());
+        assertEquals(7, cluster.getPeakY());
+
+        // No charge, centroid is the middle of the bounding box
+        hits = new HitList(0L, 5.f, 8);
+        hits.add(2, 3, 0, 6.f);
+        hits.add(3, 4, 0, 6.f);
+        cluster = ClusterBuilder.build(hits).get(0);
+        assertEquals(2.5f, cluster.getCentroidX(), 0.f);
+        assertEquals(3.5f, cluster.getCentroidY(), 0.f);
+    }
+
+    // randomFrames.................................................................................
+    /**
+     * Cluster count and sizes match a flood fill for frames of increasing hit density
+     */
+    @Test
+    public void randomFrames() {
+        Random random = new Random(6L);
+        for (int trial = 0; trial < 200; trial++) {
+            boolean[][] isHit = new boolean[ROWS][COLS];
+            double density = (trial % 10 + 1) / 20.;
+            for (int y = 0; y < ROWS; y++) {
+                for (int x = 0; x < COLS; x++) {
+                    isHit[y][x] = random.nextDouble() < density;
+                }
+            }
+
+            HitList hits = new HitList(0L, 5.f, ROWS * COLS);
+            for (int y = 0; y < ROWS; y++) {
+                for (int x = 0; x < COLS; x++) {
+                    if (isHit[y][x]) {
+                        hits.add(x, y, 1, 5.f);
+                    }
+                }
+            }
+            List<ClusterBuilder.Cluster> clusters = ClusterBuilder.build(hits);
+
+            // Flood fill from each cluster's first pixel in scan order (the order clusters come
+            // in) must give the same size
+            boolean[][] seen = new boolean[ROWS][COLS];
+            int nClusters = 0;
+            for (int y = 0; y < ROWS; y++) {
+                for (int x = 0; x < COLS; x++) {
+                    if (isHit[y][x] && !seen[y][x]) {
+                        int size = floodFill(isHit, seen, x, y);
+                        assertTrue(nClusters < clusters.size());
+                        assertEquals(size, clusters.get(nClusters).getSize());
+                        assertEquals(y, clusters.get(nClusters).getMinY());
+                        nClusters++;
+                    }
+                }
+            }
+            assertEquals(nClusters, clusters.size());
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // makeHits.....................................................................................
+    /**
+     * @param frame Rows of the frame, 'x' is a hit
+     * @return Hits in row then column order
+     */
+    @NonNull
+    private static HitList makeHits(@NonNull String[] frame) {
+        HitList hits = new HitList(0L, 5.f, 100);
+        for (int y = 0; y < frame.length; y++) {
+            for (int x = 0; x < frame[y].length(); x++) {
+                if (frame[y].charAt(x) == 'x') {
+                    hits.add(x, y, 1, 5.f);
+                }
+            }
+        }
+        return hits;
+    }
+
+    // floodFill....................................................................................
+    /**
+     * @param isHit Hit pixels
+     * @param seen Pixels already in a cluster, updated
+     * @param x Column to start from
+     * @param y Row to start from
+     * @return Number of 8-neighbor connected hits
+     */
+    private static int floodFill(@NonNull boolean[][] isHit, @NonNull boolean[][] seen, int x, int y) {
+        ArrayDeque<int[]> pending = new ArrayDeque<>();
+        pending.add(new int[] {x, y});
+        seen[y][x] = true;
+        int size = 0;
+        while (!pending.isEmpty()) {
+            int[] pixel = pending.poll();
+            size++;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nx = pixel[0] + dx;
+                    int ny = pixel[1] + dy;
+                    if (ny >= 0 && ny < ROWS && nx >= 0 && nx < COLS && isHit[ny][nx] && !seen[ny][nx]) {
+                        seen[ny][nx] = true;
+                        pending.add(new int[] {nx, ny});
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+}
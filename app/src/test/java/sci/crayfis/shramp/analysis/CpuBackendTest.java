@@ -0,0 +1,253 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import sci.crayfis.shramp.GlobalSettings;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks CpuBackend's running sums, statistics and significance against values worked out
+ * directly from the frames (double precision)
+ */
+public class CpuBackendTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Image size...................................................................................
+    // Odd sizes, so row stripes don't split evenly
+    private static final int ROWS = 37;
+    private static final int COLS = 23;
+    private static final int NPIXELS = ROWS * COLS;
+
+    // TOLERANCE....................................................................................
+    // Relative tolerance for float results
+    private static final double TOLERANCE = 1e-5;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // runningSums8bit..............................................................................
+    /**
+     * Sums of 8-bit frames, through 32-bit running sums flushed into 64-bit totals
+     */
+    @Test
+    public void runningSums8bit() {
+        CpuBackend backend = new CpuBackend(2, ROWS, COLS, true);
+        backend.resetTotals();
+
+        Random random = new Random(1L);
+        long[] valueTotal  = new long[NPIXELS];
+        long[] value2Total = new long[NPIXELS];
+        int[]  rowCounts   = new int[ROWS];
+        for (int frame = 0; frame < 10; frame++) {
+            byte[] pixels = new byte[NPIXELS];
+            random.nextBytes(pixels);
+            for (int i = 0; i < NPIXELS; i++) {
+                int val = pixels[i] & 0xFF;
+                valueTotal[i]  += val;
+                value2Total[i] += val * val;
+            }
+            int slot = frame % 2;
+            backend.upload(slot, pixels);
+            backend.launch(slot, false);
+            backend.finish(slot, rowCounts);
+            if (frame == 4) {
+                backend.flushRunningSums();
+            }
+        }
+        backend.flushRunningSums();
+
+        long[] sum  = new long[NPIXELS];
+        long[] sum2 = new long[NPIXELS];
+        backend.getValueTotal(sum);
+        backend.getValue2Total(sum2);
+        assertArrayEquals(valueTotal,  sum);
+        assertArrayEquals(value2Total, sum2);
+    }
+
+    // statistics16bit..............................................................................
+    /**
+     * Mean, standard deviation and standard error of 16-bit frames from a snapshot, live sums
+     * carry on from zero afterwards
+     */
+    @Test
+    public void statistics16bit() {
+        CpuBackend backend = new CpuBackend(1, ROWS, COLS, false);
+        backend.resetTotals();
+
+        int nFrames = 50;
+        Random random = new Random(2L);
+        double[] sum  = new double[NPIXELS];
+        double[] sum2 = new double[NPIXELS];
+        int[] rowCounts = new int[ROWS];
+        for (int frame = 0; frame < nFrames; frame++) {
+            short[] pixels = new short[NPIXELS];
+            for (int i = 0; i < NPIXELS; i++) {
+                // dark-ish frames with a per-pixel pedestal
+                int val = Math.min(1023, (i % 61) + (int) Math.abs(random.nextGaussian() * 8.));
+                pixels[i] = (short) val;
+                sum[i]  += val;
+                sum2[i] += (double) val * val;
+            }
+            backend.upload(0, pixels);
+            backend.launch(0, false);
+            backend.finish(0, rowCounts);
+        }
+        backend.flushRunningSums();
+        backend.snapshotTotals();
+
+        float[] mean   = new float[NPIXELS];
+        float[] stdDev = new float[NPIXELS];
+        float[] stdErr = new float[NPIXELS];
+        long anomalous = backend.computeStatistics(nFrames, mean, stdDev, stdErr);
+        assertEquals(0L, anomalous);
+
+        for (int i = 0; i < NPIXELS; i++) {
+            double expectedMean   = sum[i] / nFrames;
+            double expectedStdDev = Math.sqrt(sum2[i] / nFrames - expectedMean * expectedMean);
+            assertClose(expectedMean / 1023.,   mean[i]);
+            assertClose(expectedStdDev / 1023., stdDev[i]);
+            assertClose(expectedStdDev / 1023. / Math.sqrt(nFrames), stdErr[i]);
+        }
+
+        // The live totals start over after a snapshot
+        long[] live = new long[NPIXELS];
+        backend.getValueTotal(live);
+        assertArrayEquals(new long[NPIXELS], live);
+    }
+
+    // significance.................................................................................
+    /**
+     * Per-pixel significance, row counts and hit list against the statistics handed in, and the
+     * trigger-only path finds the same pixels
+     */
+    @Test
+    public void significance() {
+        CpuBackend backend = new CpuBackend(2, ROWS, COLS, true);
+        backend.resetTotals();
+
+        float[] mean   = new float[NPIXELS];
+        float[] stdDev = new float[NPIXELS];
+        float[] stdErr = new float[NPIXELS];
+        byte[]  mask   = new byte[NPIXELS];
+        for (int i = 0; i < NPIXELS; i++) {
+            mean[i]   = 10.f / 255.f;
+            stdDev[i] = 2.f  / 255.f;
+            mask[i]   = 1;
+        }
+        // Pixel 5 is masked out, pixel 6 has no spread
+        mask[5]   = 0;
+        stdDev[6] = 0.f;
+
+        byte[] pixels = new byte[NPIXELS];
+        for (int i = 0; i < NPIXELS; i++) {
+            pixels[i] = 10;
+        }
+        pixels[3]          = 30; // 10 sigma, row 0
+        pixels[5]          = 30; // masked
+        pixels[COLS + 7]   = 17; // 3.5 sigma, row 1
+        pixels[COLS + 8]   = 15; // 2.5 sigma, below threshold
+        pixels[NPIXELS - 1] = (byte) 200;
+
+        float threshold = 3.f;
+        backend.setStatistics(mean, stdDev, stdErr, mask);
+        backend.setSignificanceThreshold(threshold);
+        backend.setSignificanceEnabled(true);
+
+        int[] rowCounts = new int[ROWS];
+        backend.upload(0, pixels);
+        backend.launch(0, true);
+        backend.finish(0, rowCounts);
+
+        float[] significance = new float[NPIXELS];
+        backend.getSignificance(significance);
+        for (int i = 0; i < NPIXELS; i++) {
+            if (i == 6) {
+                assertEquals(Float.POSITIVE_INFINITY, significance[i], 0.f);
+                continue;
+            }
+            double expected = ((pixels[i] & 0xFF) - 10.) / 2.;
+            assertClose(expected, significance[i]);
+        }
+
+        int[] expectedCounts = new int[ROWS];
+        expectedCounts[0]        = 1;
+        expectedCounts[1]        = 1;
+        expectedCounts[ROWS - 1] = 1;
+        assertArrayEquals(expectedCounts, rowCounts);
+
+        int nHits = GlobalSettings.MAX_HITS_PER_ROW * ROWS;
+        int[]   column    = new int[nHits];
+        int[]   value     = new int[nHits];
+        float[] hitSignif = new float[nHits];
+        backend.readHits(0, column, value, hitSignif);
+        int hitsPerRow = GlobalSettings.MAX_HITS_PER_ROW;
+        assertEquals(3, column[0]);
+        assertEquals(30, value[0]);
+        assertClose(10., hitSignif[0]);
+        assertEquals(7, column[hitsPerRow]);
+        assertEquals(17, value[hitsPerRow]);
+        assertClose(3.5, hitSignif[hitsPerRow]);
+        assertEquals(COLS - 1, column[(ROWS - 1) * hitsPerRow]);
+        assertEquals(200, value[(ROWS - 1) * hitsPerRow]);
+
+        // Trigger-only finds the same pixels
+        int[]   triggerCounts = new int[ROWS];
+        int[]   triggerColumn = new int[nHits];
+        int[]   triggerValue  = new int[nHits];
+        float[] triggerSignif = new float[nHits];
+        backend.computeThresholds();
+        backend.upload(1, pixels);
+        backend.launchTrigger(1);
+        backend.finish(1, triggerCounts);
+        backend.readHits(1, triggerColumn, triggerValue, triggerSignif);
+        assertArrayEquals(rowCounts, triggerCounts);
+        for (int row = 0; row < ROWS; row++) {
+            for (int hit = row * hitsPerRow; hit < row * hitsPerRow + rowCounts[row]; hit++) {
+                assertEquals(column[hit], triggerColumn[hit]);
+                assertEquals(value[hit],  triggerValue[hit]);
+                assertEquals(hitSignif[hit], triggerSignif[hit], 0.f);
+            }
+        }
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // assertClose..................................................................................
+    /**
+     * @param expected Reference value
+     * @param actual Value from the backend (float)
+     */
+    private static void assertClose(double expected, float actual) {
+        double tolerance = Math.max(Math.abs(expected) * TOLERANCE, 1e-7);
+        assertTrue("expected " + expected + ", got " + actual, Math.abs(expected - actual) <= tolerance);
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import sci.crayfis.shramp.util.Compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks FileHeader reads back what it writes in either byte order, reads legacy metadata given
+ * the file's Datatype, and refuses headers that are cut short or not understood
+ */
+public class FileHeaderTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Sensor.......................................................................................
+    // Sensor size and depth written in the headers
+    private static final byte BITS = 10;
+    private static final int  ROWS = 3024;
+    private static final int  COLS = 4032;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // roundTrip....................................................................................
+    /**
+     * Every field comes back in both byte orders, exposure / frames only for the Datatype they
+     * belong to, a NaN temperature as none
+     */
+    @Test
+    public void roundTrip() {
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            FileHeader image = writeAndRead(order, OutputWrapper.Datatype.IMAGE, FileHeader.Dtype.UINT16, 21.5f);
+            assertEquals(FileHeader.VERSION, image.getVersion());
+            assertEquals(order, image.getByteOrder());
+            assertEquals(OutputWrapper.Datatype.IMAGE, image.getDatatype());
+            assertEquals(FileHeader.Dtype.UINT16, image.getDtype());
+            assertEquals(Compression.Codec.NONE, image.getCodec());
+            assertEquals(BITS, image.getBitsPerPixel());
+            assertEquals(FileHeader.BYTES, image.getHeaderBytes());
+            assertEquals(ROWS, image.getRows());
+            assertEquals(COLS, image.getColumns());
+            assertEquals(Long.valueOf(33333L), image.getExposure());
+            assertNull(image.getNframes());
+            assertEquals(Float.valueOf(21.5f), image.getTemperature());
+            assertEquals(2L * ROWS * COLS, image.getDataBytes());
+
+            FileHeader statistics = writeAndRead(order, OutputWrapper.Datatype.STATISTICS,
+                                                 FileHeader.Dtype.FLOAT32, Float.NaN);
+            assertNull(statistics.getExposure());
+            assertEquals(Long.valueOf(1000L), statistics.getNframes());
+            assertNull(statistics.getTemperature());
+
+            FileHeader hits = writeAndRead(order, OutputWrapper.Datatype.HITS, FileHeader.Dtype.RECORDS, Float.NaN);
+            assertNull(hits.getExposure());
+            assertNull(hits.getNframes());
+        }
+    }
+
+    // fromPosition.................................................................................
+    /**
+     * A header is read from the buffer's position, which isn't moved
+     */
+    @Test
+    public void fromPosition() {
+        ByteBuffer buffer = ByteBuffer.allocate(7 + FileHeader.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(7);
+        FileHeader.write(buffer, OutputWrapper.Datatype.MASK, FileHeader.Dtype.UINT8, BITS, ROWS, COLS,
+                         0L, 0L, Float.NaN, ROWS * COLS);
+        buffer.position(7);
+
+        assertTrue(FileHeader.isVersioned(buffer));
+        FileHeader header = FileHeader.read(buffer, null);
+        assertNotNull(header);
+        assertEquals(OutputWrapper.Datatype.MASK, header.getDatatype());
+        assertEquals(7, buffer.position());
+
+        buffer.position(0);
+        assertFalse(FileHeader.isVersioned(buffer));
+    }
+
+    // legacy.......................................................................................
+    /**
+     * Legacy image, statistics and mask metadata (big endian, no header of its own) is read only
+     * when the Datatype is known
+     */
+    @Test
+    public void legacy() {
+        ByteBuffer image = ByteBuffer.allocate(FileHeader.LEGACY_PIXEL_BYTES);
+        image.put((byte) 8).putInt(ROWS).putInt(COLS).putLong(33333L).putFloat(30.f);
+        image.flip();
+        FileHeader header = FileHeader.read(image, OutputWrapper.Datatype.IMAGE);
+        assertNotNull(header);
+        assertEquals(1, header.getVersion());
+        assertEquals(ByteOrder.BIG_ENDIAN, header.getByteOrder());
+        assertEquals(FileHeader.Dtype.UINT8, header.getDtype());
+        assertEquals(Long.valueOf(33333L), header.getExposure());
+        assertEquals(Float.valueOf(30.f), header.getTemperature());
+        assertEquals(FileHeader.LEGACY_PIXEL_BYTES, header.getHeaderBytes());
+        assertEquals((long) ROWS * COLS, header.getDataBytes());
+        assertNull(FileHeader.read(image, null));
+
+        ByteBuffer statistics = ByteBuffer.allocate(FileHeader.LEGACY_PIXEL_BYTES);
+        statistics.put(BITS).putInt(ROWS).putInt(COLS).putLong(1000L).putFloat(30.f);
+        statistics.flip();
+        header = FileHeader.read(statistics, OutputWrapper.Datatype.STATISTICS);
+        assertNotNull(header);
+        assertEquals(FileHeader.Dtype.FLOAT32, header.getDtype());
+        assertEquals(Long.valueOf(1000L), header.getNframes());
+        assertEquals(4L * ROWS * COLS, header.getDataBytes());
+
+        ByteBuffer mask = ByteBuffer.allocate(FileHeader.LEGACY_MASK_BYTES);
+        mask.put(BITS).putInt(ROWS).putInt(COLS);
+        mask.flip();
+        header = FileHeader.read(mask, OutputWrapper.Datatype.MASK);
+        assertNotNull(header);
+        assertEquals(FileHeader.Dtype.UINT8, header.getDtype());
+        assertNull(header.getTemperature());
+        assertEquals(FileHeader.LEGACY_MASK_BYTES, header.getHeaderBytes());
+
+        // Too short, or a Datatype that never had legacy metadata
+        assertNull(FileHeader.read(mask, OutputWrapper.Datatype.IMAGE));
+        assertNull(FileHeader.read(image, OutputWrapper.Datatype.HISTOGRAM));
+    }
+
+    // refused......................................................................................
+    /**
+     * Headers cut short, from a later version, or with fields out of range aren't read
+     */
+    @Test
+    public void refused() {
+        ByteBuffer buffer = makeHeader(ByteOrder.BIG_ENDIAN, OutputWrapper.Datatype.IMAGE, FileHeader.Dtype.UINT16, 0.f);
+        assertNotNull(FileHeader.read(buffer, null));
+
+        ByteBuffer shortened = buffer.duplicate();
+        shortened.limit(FileHeader.BYTES - 1);
+        assertNull(FileHeader.read(shortened, OutputWrapper.Datatype.IMAGE));
+
+        int[]  offsets = {4, 5, 6, 7, 8};
+        byte[] values  = {FileHeader.VERSION + 1, 'X', (byte) OutputWrapper.Datatype.values().length,
+                          (byte) FileHeader.Dtype.values().length, (byte) Compression.Codec.values().length};
+        for (int i = 0; i < offsets.length; i++) {
+            ByteBuffer bad = makeHeader(ByteOrder.BIG_ENDIAN, OutputWrapper.Datatype.IMAGE, FileHeader.Dtype.UINT16, 0.f);
+            bad.put(offsets[i], values[i]);
+            assertNull("byte " + offsets[i], FileHeader.read(bad, OutputWrapper.Datatype.IMAGE));
+        }
+
+        ByteBuffer badLength = makeHeader(ByteOrder.BIG_ENDIAN, OutputWrapper.Datatype.IMAGE, FileHeader.Dtype.UINT16, 0.f);
+        badLength.putInt(12, FileHeader.BYTES - 1);
+        assertNull(FileHeader.read(badLength, null));
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // makeHeader...................................................................................
+    /**
+     * @param order Byte order
+     * @param datatype What the data is
+     * @param dtype How the data is stored
+     * @param temperature Temperature [Celsius]
+     * @return A header for a full sensor of data (exposure 33333 ns, 1000 frames), positioned at 0
+     */
+    @NonNull
+    private static ByteBuffer makeHeader(@NonNull ByteOrder order, @NonNull OutputWrapper.Datatype datatype,
+                                         @NonNull FileHeader.Dtype dtype, float temperature) {
+        ByteBuffer buffer = ByteBuffer.allocate(FileHeader.BYTES).order(order);
+        FileHeader.write(buffer, datatype, dtype, BITS, ROWS, COLS, 33333L, 1000L, temperature,
+                         (long) ROWS * COLS * FileHeader.getWordBytes(dtype));
+        assertEquals(FileHeader.BYTES, buffer.position());
+        buffer.position(0);
+        return buffer;
+    }
+
+    // writeAndRead.................................................................................
+    /**
+     * @param order Byte order
+     * @param datatype What the data is
+     * @param dtype How the data is stored
+     * @param temperature Temperature [Celsius]
+     * @return The header read back
+     */
+    @NonNull
+    private static FileHeader writeAndRead(@NonNull ByteOrder order, @NonNull OutputWrapper.Datatype datatype,
+                                           @NonNull FileHeader.Dtype dtype, float temperature) {
+        // Reading doesn't depend on the buffer's own byte order
+        ByteBuffer buffer = makeHeader(order, datatype, dtype, temperature).order(ByteOrder.BIG_ENDIAN);
+        FileHeader header = FileHeader.read(buffer, null);
+        assertNotNull(header);
+        return header;
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks FrameMatcher pairs metadata with image data by timestamp, evicts and counts orphans, and
+ * returns evicted pixel data to the PixelBufferPool.  TotalCaptureResults can't be made in local
+ * unit tests, metadata is added as null and pairs are told apart by the image timestamp.
+ */
+public class FrameMatcherTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // NPIXELS......................................................................................
+    // Pixels per (tiny) image
+    private static final int NPIXELS = 12;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // reset........................................................................................
+    /**
+     * Start with an empty pool (its state is static)
+     */
+    @Before
+    public void reset() {
+        PixelBufferPool.clear();
+    }
+
+    // pairInOrder..................................................................................
+    /**
+     * Matching timestamps pair up oldest first, whichever stream arrives first
+     */
+    @Test
+    public void pairInOrder() {
+        FrameMatcher matcher = new FrameMatcher(4);
+        matcher.addResult(100L, null);
+        matcher.addResult(200L, null);
+        assertFalse(matcher.pair());
+        assertNull(matcher.getPairedImage());
+
+        ImageWrapper first = makeImage(100L);
+        matcher.addImage(first);
+        matcher.addImage(makeImage(200L));
+        matcher.addImage(makeImage(300L));
+        assertTrue(matcher.pair());
+        assertTrue(matcher.getPairedImage() == first);
+        assertTrue(matcher.pair());
+        assertEquals(200L, matcher.getPairedImage().getTimestamp());
+        assertFalse(matcher.pair());
+        assertEquals(0, matcher.getResultCount());
+        assertEquals(1, matcher.getImageCount());
+
+        matcher.addResult(300L, null);
+        assertTrue(matcher.pair());
+        assertEquals(300L, matcher.getPairedImage().getTimestamp());
+        assertTrue(matcher.isEmpty());
+        assertEquals(0L, matcher.getOrphanedMetadata());
+        assertEquals(0L, matcher.getOrphanedImages());
+    }
+
+    // skipOrphans..................................................................................
+    /**
+     * Metadata older than the oldest image (and vice versa) lost its partner and is evicted on the
+     * way to the next pair, evicted image data goes back to the pool
+     */
+    @Test
+    public void skipOrphans() {
+        FrameMatcher matcher = new FrameMatcher(4);
+        matcher.addResult(100L, null);
+        matcher.addResult(200L, null);
+        matcher.addResult(400L, null);
+        ImageWrapper orphan = makeImage(300L);
+        matcher.addImage(makeImage(200L));
+        matcher.addImage(orphan);
+        matcher.addImage(makeImage(400L));
+
+        assertTrue(matcher.pair());
+        assertEquals(200L, matcher.getPairedImage().getTimestamp());
+        assertEquals(1L, matcher.getOrphanedMetadata());
+        assertEquals(0L, matcher.getOrphanedImages());
+
+        short[] pixels = orphan.get16bitData();
+        assertTrue(matcher.pair());
+        assertEquals(400L, matcher.getPairedImage().getTimestamp());
+        assertEquals(1L, matcher.getOrphanedImages());
+        assertNull(orphan.get16bitData());
+        assertTrue(PixelBufferPool.lease16bit(NPIXELS) == pixels);
+        assertTrue(matcher.isEmpty());
+    }
+
+    // evictWhenFull................................................................................
+    /**
+     * Adding to a full ring buffer evicts its oldest element as an orphan
+     */
+    @Test
+    public void evictWhenFull() {
+        FrameMatcher matcher = new FrameMatcher(2);
+        assertFalse(matcher.addResult(100L, null));
+        assertFalse(matcher.addResult(200L, null));
+        assertTrue(matcher.addResult(300L, null));
+        assertEquals(1L, matcher.getOrphanedMetadata());
+
+        ImageWrapper oldest = makeImage(50L);
+        assertFalse(matcher.addImage(oldest));
+        assertFalse(matcher.addImage(makeImage(200L)));
+        assertTrue(matcher.addImage(makeImage(300L)));
+        assertEquals(1L, matcher.getOrphanedImages());
+        assertNull(oldest.get16bitData());
+        assertEquals(matcher.getResultTimeCodes(), matcher.getImageTimeCodes());
+
+        assertTrue(matcher.pair());
+        assertEquals(200L, matcher.getPairedImage().getTimestamp());
+        assertTrue(matcher.pair());
+        assertEquals(300L, matcher.getPairedImage().getTimestamp());
+        assertEquals(1L, matcher.getOrphanedMetadata());
+        assertEquals(1L, matcher.getOrphanedImages());
+    }
+
+    // purgeAndClear................................................................................
+    /**
+     * purge() counts what's left as orphans, clear() doesn't, both return image data to the pool
+     * and leave the matcher ready for more
+     */
+    @Test
+    public void purgeAndClear() {
+        FrameMatcher matcher = new FrameMatcher(3);
+        matcher.addResult(100L, null);
+        matcher.addResult(200L, null);
+        ImageWrapper leftover = makeImage(300L);
+        matcher.addImage(leftover);
+        matcher.purge();
+        assertTrue(matcher.isEmpty());
+        assertEquals(2L, matcher.getOrphanedMetadata());
+        assertEquals(1L, matcher.getOrphanedImages());
+        assertNull(leftover.get16bitData());
+
+        matcher.addResult(400L, null);
+        matcher.addImage(makeImage(500L));
+        matcher.clear();
+        assertTrue(matcher.isEmpty());
+        assertEquals(2L, matcher.getOrphanedMetadata());
+        assertEquals(1L, matcher.getOrphanedImages());
+
+        // Ring buffers still work after wrapping around and being emptied
+        matcher.addResult(600L, null);
+        matcher.addImage(makeImage(600L));
+        assertTrue(matcher.pair());
+        assertEquals(600L, matcher.getPairedImage().getTimestamp());
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // makeImage....................................................................................
+    /**
+     * @param timestamp Sensor timestamp
+     * @return 16-bit image data with pixels from the pool
+     */
+    @NonNull
+    private static ImageWrapper makeImage(long timestamp) {
+        return new ImageWrapper(timestamp, PixelBufferPool.lease16bit(NPIXELS));
+    }
+
+}
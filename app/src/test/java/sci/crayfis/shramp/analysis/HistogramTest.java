@@ -0,0 +1,168 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks Histogram's direct bin arithmetic (uniform and variable-width) against a search of the
+ * bin edges, and that merged and parallel fills come out the same as a single fill
+ */
+public class HistogramTest {
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // uniformBins..................................................................................
+    /**
+     * Integer pixel steps and float widths, including values on (and just below) bin edges
+     */
+    @Test
+    public void uniformBins() {
+        Histogram pixels = new Histogram(0, 1024);
+        assertEquals(1024, pixels.getNbins());
+        assertEquals(0, pixels.getBinNumber(0.));
+        assertEquals(63, pixels.getBinNumber(63.));
+        assertEquals(63, pixels.getBinNumber(63.999));
+        assertEquals(1023, pixels.getBinNumber(1023.5));
+        assertEquals(-1, pixels.getBinNumber(-0.001));
+        assertEquals(1024, pixels.getBinNumber(1024.));
+        assertEquals(1024, pixels.getBinNumber(Double.NaN));
+        assertEquals(63.5, pixels.getBinCenter(63), 0.);
+        assertTrue(Double.isNaN(pixels.getBinCenter(1024)));
+
+        // Edges that aren't exact in binary
+        Histogram tenths = new Histogram(0.f, 1.f, 10);
+        assertBinsMatchEdges(tenths, new Random(7L), -0.5, 1.5);
+        for (int bin = 0; bin <= 10; bin++) {
+            double edge = tenths.getBinLowEdge(bin);
+            assertEquals(bin, tenths.getBinNumber(edge));
+            assertEquals(bin - 1, tenths.getBinNumber(Math.nextDown(edge)));
+        }
+    }
+
+    // variableBins.................................................................................
+    /**
+     * Variable-width bins from very narrow to very wide (lookup cells spanning several bins)
+     */
+    @Test
+    public void variableBins() {
+        float[] edges = {-3.f, -2.99f, -2.5f, 0.f, 0.001f, 0.002f, 1.f, 100.f, 1000.f};
+        Histogram histogram = new Histogram(edges);
+        assertEquals(edges.length - 1, histogram.getNbins());
+        assertBinsMatchEdges(histogram, new Random(8L), -5., 1200.);
+        assertBinsMatchEdges(histogram, new Random(9L), -3.1, 0.1);
+        for (int bin = 0; bin < edges.length; bin++) {
+            assertEquals(bin, histogram.getBinNumber(edges[bin]));
+        }
+    }
+
+    // merge........................................................................................
+    /**
+     * Histograms with the same bins (copies, or built the same way) merge exactly, including
+     * underflow and overflow, different bins are refused
+     */
+    @Test
+    public void merge() {
+        Histogram whole = new Histogram(0.f, 10.f, 20);
+        Histogram first = whole.newEmptyCopy();
+        Histogram second = new Histogram(0.f, 10.f, 20);
+        Random random = new Random(10L);
+        for (int i = 0; i < 5000; i++) {
+            double value = random.nextGaussian() * 4. + 5.;
+            whole.add(value);
+            if (i % 3 == 0) {
+                first.add(value);
+            }
+            else {
+                second.add(value);
+            }
+        }
+        assertTrue(first.merge(second));
+        assertSameValues(whole, first);
+        assertTrue(first.getUnderflow() > 0);
+        assertTrue(first.getOverflow() > 0);
+
+        Histogram different = new Histogram(0.f, 10.f, 21);
+        different.add(1.);
+        assertFalse(first.merge(different));
+        assertSameValues(whole, first);
+    }
+
+    // addAllParallel...............................................................................
+    /**
+     * Filling across cores gives the same histogram as filling in one go
+     */
+    @Test
+    public void addAllParallel() {
+        float[] values = new float[1000000];
+        Random random = new Random(11L);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) (random.nextGaussian() * 30. + 100.);
+        }
+        values[17] = Float.NaN;
+
+        Histogram serial   = new Histogram(new float[] {0.f, 50.f, 90.f, 95.f, 100.f, 105.f, 110.f, 150.f, 200.f});
+        Histogram parallel = serial.newEmptyCopy();
+        serial.addAll(values, 5, values.length - 5);
+        parallel.addAllParallel(values, 5, values.length - 5);
+        assertSameValues(serial, parallel);
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // assertBinsMatchEdges.........................................................................
+    /**
+     * @param histogram Histogram to check
+     * @param random Source of values
+     * @param low Lowest value to try
+     * @param high Highest value to try
+     */
+    private static void assertBinsMatchEdges(@NonNull Histogram histogram, @NonNull Random random,
+                                             double low, double high) {
+        int nBins = histogram.getNbins();
+        for (int i = 0; i < 100000; i++) {
+            double value = low + (high - low) * random.nextDouble();
+            int expected = -1;
+            while (expected < nBins && value >= histogram.getBinLowEdge(expected + 1)) {
+                expected++;
+            }
+            assertEquals("value " + value, expected, histogram.getBinNumber(value));
+        }
+    }
+
+    // assertSameValues.............................................................................
+    /**
+     * @param expected Reference histogram
+     * @param actual Histogram with the same bins
+     */
+    private static void assertSameValues(@NonNull Histogram expected, @NonNull Histogram actual) {
+        for (int bin = -1; bin <= expected.getNbins(); bin++) {
+            assertEquals("bin " + bin, expected.getValue(bin), actual.getValue(bin));
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks HitList keeps the first hits up to its capacity and flags the rest as overflow, and the
+ * ".hits" record OutputWrapper makes from it
+ */
+public class HitListTest {
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // bounded......................................................................................
+    /**
+     * Hits are kept in order until the list is full, after that they are counted as overflow
+     */
+    @Test
+    public void bounded() {
+        HitList hits = new HitList(123L, 5.f, 2);
+        assertEquals(123L, hits.getTimestamp());
+        assertEquals(5.f, hits.getThreshold(), 0.f);
+        assertEquals(0, hits.getNhits());
+        assertFalse(hits.isOverflow());
+
+        assertTrue(hits.add(1, 2, 30, 6.5f));
+        assertTrue(hits.add(3, 4, 50, 9.f));
+        assertFalse(hits.isOverflow());
+        assertFalse(hits.add(5, 6, 70, 12.f));
+        assertTrue(hits.isOverflow());
+
+        assertEquals(2, hits.getNhits());
+        assertEquals(1, hits.getX(0));
+        assertEquals(2, hits.getY(0));
+        assertEquals(30, hits.getValue(0));
+        assertEquals(6.5f, hits.getSignificance(0), 0.f);
+        assertEquals(3, hits.getX(1));
+        assertEquals(4, hits.getY(1));
+        assertEquals(50, hits.getValue(1));
+        assertEquals(9.f, hits.getSignificance(1), 0.f);
+    }
+
+    // overflowFlag.................................................................................
+    /**
+     * A list can be flagged as overflowed without being full (a row had more hits than the live
+     * kernel could record), and always has room for at least one hit
+     */
+    @Test
+    public void overflowFlag() {
+        HitList hits = new HitList(0L, 5.f, 0);
+        assertTrue(hits.add(0, 0, 1, 5.f));
+        assertFalse(hits.isOverflow());
+        hits.setOverflow();
+        assertTrue(hits.isOverflow());
+        assertEquals(1, hits.getNhits());
+    }
+
+    // record.......................................................................................
+    /**
+     * The ".hits" record is a HITS header followed by timestamp, threshold, overflow flag, number
+     * of hits and (x, y, value, significance) for each
+     */
+    @Test
+    public void record() {
+        HitList hits = new HitList(987654321L, 4.5f, 3);
+        hits.add(10, 20, 300, 7.25f);
+        hits.add(11, 21, 301, 8.5f);
+        hits.setOverflow();
+
+        ByteBuffer buffer = new OutputWrapper("test.hits", hits).getByteBuffer();
+        FileHeader header = FileHeader.read(buffer, null);
+        assertNotNull(header);
+        assertEquals(OutputWrapper.Datatype.HITS, header.getDatatype());
+        assertEquals(FileHeader.Dtype.RECORDS, header.getDtype());
+        assertEquals(buffer.capacity() - FileHeader.BYTES, header.getDataBytes());
+
+        buffer.position(header.getHeaderBytes());
+        assertEquals(987654321L, buffer.getLong());
+        assertEquals(4.5f, buffer.getFloat(), 0.f);
+        assertEquals(1, buffer.get());
+        assertEquals(2, buffer.getInt());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(10 + i, buffer.getInt());
+            assertEquals(20 + i, buffer.getInt());
+            assertEquals(300 + i, buffer.getInt());
+            assertEquals(hits.getSignificance(i), buffer.getFloat(), 0.f);
+        }
+        assertEquals(0, buffer.remaining());
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.analysis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sci.crayfis.shramp.GlobalSettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks PixelBufferPool hands returned arrays out again, keeps at most PIXEL_BUFFER_POOL_SIZE
+ * idle arrays per length, keeps lengths and bit depths apart, and drops everything on clear()
+ */
+public class PixelBufferPoolTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // LENGTH.......................................................................................
+    // Pixels per array
+    private static final int LENGTH = 20;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // reset........................................................................................
+    /**
+     * Start and finish with an empty pool (its state is static)
+     */
+    @Before
+    @After
+    public void reset() {
+        PixelBufferPool.clear();
+    }
+
+    // reuse........................................................................................
+    /**
+     * A returned array is the next one leased (most recently returned first)
+     */
+    @Test
+    public void reuse() {
+        short[] first  = PixelBufferPool.lease16bit(LENGTH);
+        short[] second = PixelBufferPool.lease16bit(LENGTH);
+        assertFalse(first == second);
+        assertEquals(LENGTH, first.length);
+
+        PixelBufferPool.release(first);
+        PixelBufferPool.release(second);
+        assertTrue(PixelBufferPool.lease16bit(LENGTH) == second);
+        assertTrue(PixelBufferPool.lease16bit(LENGTH) == first);
+
+        byte[] bytes = PixelBufferPool.lease8bit(LENGTH);
+        PixelBufferPool.release(bytes);
+        assertTrue(PixelBufferPool.lease8bit(LENGTH) == bytes);
+    }
+
+    // bounded......................................................................................
+    /**
+     * Arrays returned to a full pool are dropped, when every array is leased out a new one is made
+     */
+    @Test
+    public void bounded() {
+        int poolSize = GlobalSettings.PIXEL_BUFFER_POOL_SIZE;
+        List<byte[]> leased = new ArrayList<>();
+        for (int i = 0; i <= poolSize; i++) {
+            leased.add(PixelBufferPool.lease8bit(LENGTH));
+        }
+        for (byte[] array : leased) {
+            PixelBufferPool.release(array);
+        }
+
+        Map<byte[], Boolean> pooled = new IdentityHashMap<>();
+        for (byte[] array : leased) {
+            pooled.put(array, true);
+        }
+        int nReused = 0;
+        for (int i = 0; i <= poolSize; i++) {
+            if (pooled.containsKey(PixelBufferPool.lease8bit(LENGTH))) {
+                nReused++;
+            }
+        }
+        assertEquals(poolSize, nReused);
+    }
+
+    // keptApart....................................................................................
+    /**
+     * Arrays only come back for the same length and bit depth, and clear() drops idle arrays (and
+     * ones still leased when they come back)
+     */
+    @Test
+    public void keptApart() {
+        short[] array = PixelBufferPool.lease16bit(LENGTH);
+        PixelBufferPool.release(array);
+        assertFalse(PixelBufferPool.lease16bit(LENGTH + 1) == array);
+        assertTrue(PixelBufferPool.lease16bit(LENGTH) == array);
+
+        short[] leased = PixelBufferPool.lease16bit(LENGTH);
+        PixelBufferPool.release(array);
+        PixelBufferPool.clear();
+        assertFalse(PixelBufferPool.lease16bit(LENGTH) == array);
+
+        PixelBufferPool.clear();
+        PixelBufferPool.release(leased);
+        assertFalse(PixelBufferPool.lease16bit(LENGTH) == leased);
+    }
+
+}
@@ -0,0 +1,397 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import sci.crayfis.shramp.GlobalSettings;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs UploadQueue passes against an in-process stand-in for the remote host (an SCP sink and
+ * md5sum), checking what arrives, what is journaled, resuming and resending on a checksum mismatch
+ */
+public class UploadQueueTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // UTF_8........................................................................................
+    // SCP protocol text encoding
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // REMOTE.......................................................................................
+    // Remote directory uploads go in
+    private static final String REMOTE = GlobalSettings.UPLOAD_REMOTE_DIRECTORY;
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mFolder......................................................................................
+    // Stands in for Transmittable
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    // StandIn......................................................................................
+    // Remote host: "mkdir -p .. && scp -d -t [dir]" and "md5sum < [path] || echo -; .." commands
+    private static class StandIn implements UploadQueue.Remote {
+        // Remote path to contents
+        final Map<String, byte[]> mFiles = new HashMap<>();
+        // Remote paths in the order they arrived
+        final List<String> mReceived = new ArrayList<>();
+        // Remote paths to damage (once) on the way in
+        final Set<String> mCorrupt = new HashSet<>();
+        // Refuse files once this many have arrived (no limit if negative)
+        int mRefuseAfter = -1;
+        // Number of reset() calls
+        int mResets;
+
+        @Override
+        public boolean mayContinue() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public UploadQueue.Exec exec(@NonNull String command) throws IOException {
+            if (command.startsWith("mkdir -p ")) {
+                String directory = unquote(command.substring(command.indexOf(" -t ") + 4));
+                return new ScpSink(this, directory);
+            }
+
+            // One line per file, in order
+            StringBuilder output = new StringBuilder();
+            for (String part : command.split("; ")) {
+                assertTrue(part, part.startsWith("md5sum < ") && part.endsWith(" || echo -"));
+                String path = unquote(part.substring(9, part.length() - 10));
+                byte[] contents = mFiles.get(path);
+                output.append(contents == null ? "-" : md5(contents) + "  -").append("\n");
+            }
+            return new Output(output.toString().getBytes(UTF_8));
+        }
+
+        @Override
+        public void reset() {
+            mResets += 1;
+        }
+    }
+
+    // Output.......................................................................................
+    // A command that only prints
+    private static class Output implements UploadQueue.Exec {
+        final InputStream mOutput;
+
+        Output(@NonNull byte[] output) {
+            mOutput = new ByteArrayInputStream(output);
+        }
+
+        @NonNull
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @NonNull
+        @Override
+        public InputStream getInputStream() {
+            return mOutput;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // ScpSink......................................................................................
+    // "scp -t" receiving end, works through what is written as it is flushed and queues replies
+    private static class ScpSink implements UploadQueue.Exec {
+        final StandIn            mHost;
+        final String             mDirectory;
+        final ArrayDeque<Byte>   mReplies = new ArrayDeque<>();
+        final ByteArrayOutputStream mHeader = new ByteArrayOutputStream();
+        ByteArrayOutputStream    mData;
+        String                   mName;
+        long                     mRemaining;
+
+        ScpSink(@NonNull StandIn host, @NonNull String directory) {
+            mHost      = host;
+            mDirectory = directory;
+            mReplies.add((byte) 0);
+        }
+
+        void receive(int b) {
+            // Header line: "C0644 [size] [name]"
+            if (mData == null) {
+                if (b != '\n') {
+                    mHeader.write(b);
+                    return;
+                }
+                String[] header = new String(mHeader.toByteArray(), UTF_8).split(" ", 3);
+                mHeader.reset();
+                assertEquals("C0644", header[0]);
+                if (mHost.mRefuseAfter >= 0 && mHost.mReceived.size() >= mHost.mRefuseAfter) {
+                    reply(2, "scp: disk full");
+                    return;
+                }
+                mName      = header[2];
+                mRemaining = Long.parseLong(header[1]);
+                mData      = new ByteArrayOutputStream();
+                reply(0, null);
+                return;
+            }
+
+            // Contents, then a 0 byte
+            if (mRemaining > 0L) {
+                mData.write(b);
+                mRemaining -= 1L;
+                return;
+            }
+            assertEquals(0, b);
+            String path = mDirectory + "/" + mName;
+            byte[] contents = mData.toByteArray();
+            if (mHost.mCorrupt.remove(path)) {
+                contents[0] ^= 0x01;
+            }
+            mHost.mFiles.put(path, contents);
+            mHost.mReceived.add(path);
+            mData = null;
+            reply(0, null);
+        }
+
+        void reply(int status, @Nullable String message) {
+            mReplies.add((byte) status);
+            if (message != null) {
+                for (byte b : (message + "\n").getBytes(UTF_8)) {
+                    mReplies.add(b);
+                }
+            }
+        }
+
+        @NonNull
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    receive(b & 0xFF);
+                }
+            };
+        }
+
+        @NonNull
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() {
+                    // Nothing more to say is the channel closing
+                    Byte b = mReplies.poll();
+                    return (b == null) ? -1 : (b & 0xFF);
+                }
+            };
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // uploadAndJournal.............................................................................
+    /**
+     * Everything arrives intact in the matching remote directory (names md5sum would escape
+     * included) and is journaled, a second pass has nothing to do
+     */
+    @Test
+    public void uploadAndJournal() throws IOException {
+        File directory = mFolder.getRoot();
+        byte[] a = makeFile(directory, "a.dat", 1000, 1);
+        byte[] b = makeFile(mFolder.newFolder("run 1"), "frame \\1.dat", 70000, 2);
+        byte[] c = makeFile(directory, "it's.dat", 0, 3);
+
+        StandIn host = new StandIn();
+        Map<String, String> journal = UploadQueue.readJournal(directory.getAbsolutePath());
+        UploadQueue.uploadAll(directory.getAbsolutePath(), journal, host);
+
+        assertArrayEquals(a, host.mFiles.get(REMOTE + "/a.dat"));
+        assertArrayEquals(b, host.mFiles.get(REMOTE + "/run 1/frame \\1.dat"));
+        assertArrayEquals(c, host.mFiles.get(REMOTE + "/it's.dat"));
+        assertEquals(3, journal.size());
+        assertTrue(journal.get("run 1/frame \\1.dat").contains("\t" + md5(b) + "\t"));
+        assertEquals(0, host.mResets);
+
+        // Journaled files are not sent again, a changed one is
+        UploadQueue.uploadAll(directory.getAbsolutePath(), journal, host);
+        assertEquals(3, host.mReceived.size());
+        byte[] a2 = makeFile(directory, "a.dat", 1001, 4);
+        UploadQueue.uploadAll(directory.getAbsolutePath(), journal, host);
+        assertEquals(4, host.mReceived.size());
+        assertArrayEquals(a2, host.mFiles.get(REMOTE + "/a.dat"));
+    }
+
+    // resume.......................................................................................
+    /**
+     * A batch cut off part way keeps the files verified before it, after a restart (journal read
+     * back from disk) uploading picks up with the first file that wasn't, oldest first
+     */
+    @Test
+    public void resume() throws IOException {
+        File directory = mFolder.getRoot();
+        String[] names = {"0.dat", "1.dat", "2.dat", "3.dat", "4.dat"};
+        for (int i = 0; i < names.length; i++) {
+            makeFile(directory, names[i], 100 + i, 10 + i);
+        }
+
+        StandIn host = new StandIn();
+        host.mRefuseAfter = 2;
+        UploadQueue.uploadAll(directory.getAbsolutePath(),
+                              UploadQueue.readJournal(directory.getAbsolutePath()), host);
+        assertEquals(Arrays.asList(REMOTE + "/0.dat", REMOTE + "/1.dat"), host.mReceived);
+        assertEquals(1, host.mResets);
+
+        // Restart
+        Map<String, String> journal = UploadQueue.readJournal(directory.getAbsolutePath());
+        assertEquals(2, journal.size());
+        host.mRefuseAfter = -1;
+        host.mReceived.clear();
+        UploadQueue.uploadAll(directory.getAbsolutePath(), journal, host);
+        assertEquals(Arrays.asList(REMOTE + "/2.dat", REMOTE + "/3.dat", REMOTE + "/4.dat"), host.mReceived);
+        assertEquals(5, UploadQueue.readJournal(directory.getAbsolutePath()).size());
+    }
+
+    // checksumMismatch.............................................................................
+    /**
+     * A file that arrives damaged is not journaled (the rest of the batch is), and is sent again
+     * next pass
+     */
+    @Test
+    public void checksumMismatch() throws IOException {
+        File directory = mFolder.getRoot();
+        byte[] a = makeFile(directory, "a.dat", 500, 20);
+        byte[] b = makeFile(directory, "b.dat", 500, 21);
+        byte[] c = makeFile(directory, "c.dat", 500, 22);
+
+        StandIn host = new StandIn();
+        host.mCorrupt.add(REMOTE + "/b.dat");
+        Map<String, String> journal = UploadQueue.readJournal(directory.getAbsolutePath());
+        UploadQueue.uploadAll(directory.getAbsolutePath(), journal, host);
+        assertEquals(3, host.mReceived.size());
+        assertEquals(new HashSet<>(Arrays.asList("a.dat", "c.dat")), journal.keySet());
+        assertEquals(0, host.mResets);
+
+        host.mReceived.clear();
+        UploadQueue.uploadAll(directory.getAbsolutePath(), journal, host);
+        assertEquals(Arrays.asList(REMOTE + "/b.dat"), host.mReceived);
+        assertArrayEquals(a, host.mFiles.get(REMOTE + "/a.dat"));
+        assertArrayEquals(b, host.mFiles.get(REMOTE + "/b.dat"));
+        assertArrayEquals(c, host.mFiles.get(REMOTE + "/c.dat"));
+        assertEquals(3, UploadQueue.readJournal(directory.getAbsolutePath()).size());
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // makeFile.....................................................................................
+    /**
+     * @param directory Where to make it
+     * @param name File name
+     * @param length Size [bytes]
+     * @param seconds Last modified time [s] (upload order)
+     * @return Its contents
+     */
+    @NonNull
+    private static byte[] makeFile(@NonNull File directory, @NonNull String name, int length,
+                                   long seconds) throws IOException {
+        byte[] contents = new byte[length];
+        for (int i = 0; i < length; i++) {
+            contents[i] = (byte) (i * 31 + seconds);
+        }
+        File file = new File(directory, name);
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(contents);
+        }
+        finally {
+            stream.close();
+        }
+        assertTrue(file.setLastModified(seconds * 1000L));
+        return contents;
+    }
+
+    // unquote......................................................................................
+    /**
+     * @param quoted Path quoted for the remote shell
+     * @return The path
+     */
+    @NonNull
+    private static String unquote(@NonNull String quoted) {
+        assertTrue(quoted, quoted.startsWith("'") && quoted.endsWith("'"));
+        return quoted.substring(1, quoted.length() - 1).replace("'\\''", "'");
+    }
+
+    // md5..........................................................................................
+    /**
+     * @param contents Bytes
+     * @return MD5 (lowercase hexadecimal)
+     */
+    @NonNull
+    private static String md5(@NonNull byte[] contents) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(contents)) {
+                hex.append(String.format(Locale.US, "%02x", b & 0xFF));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import sci.crayfis.shramp.GlobalSettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks CalibrationCatalog builds from a directory of (legacy header) calibrations, finds the
+ * latest / nearest, drops calibrations that have gone and catches up with the directory on load
+ */
+public class CalibrationCatalogTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Calibration filenames........................................................................
+    // Three "cold_fast" means, oldest first
+    private static final String FIRST  = "cold_fast_2019-05-01-10-00-00-000" + GlobalSettings.MEAN_FILE;
+    private static final String SECOND = "cold_fast_2019-05-02-10-00-00-000" + GlobalSettings.MEAN_FILE;
+    private static final String THIRD  = "cold_fast_2019-05-03-10-00-00-000" + GlobalSettings.MEAN_FILE;
+
+    // SECOND_COPY..................................................................................
+    // Another "cold_fast" mean with the same date as SECOND
+    private static final String SECOND_COPY = "cold_fast_2019-05-02-10-00-00-000-copy" + GlobalSettings.MEAN_FILE;
+
+    // CATALOG_FILE.................................................................................
+    // Catalog filename in the calibrations directory
+    private static final String CATALOG_FILE = "calibrations.catalog";
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mFolder......................................................................................
+    // Stands in for ShRAMP/Calibrations
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // buildAndFind.................................................................................
+    /**
+     * With no catalog file, it is built from filenames and headers (other files ignored)
+     */
+    @Test
+    public void buildAndFind() throws IOException {
+        makeCalibration(FIRST,  20.f);
+        makeCalibration(SECOND, 30.f);
+        makeCalibration(THIRD,  40.f);
+        assertTrue(mFolder.newFile("stddev_2019-05-01-10-00-00-000" + GlobalSettings.HISTOGRAM_FILE).exists());
+        CalibrationCatalog.load(mFolder.getRoot().getAbsolutePath());
+
+        assertEquals(3, readCatalog().size());
+        assertFound(THIRD,  CalibrationCatalog.findLatest("cold_fast", GlobalSettings.MEAN_FILE));
+        assertFound(SECOND, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 33.f));
+        assertFound(FIRST,  CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, -5.f));
+        assertEquals(20.f, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 0.f)
+                                             .getTemperature(), 0.f);
+        assertEquals(Long.valueOf(1000L), CalibrationCatalog.findLatest("cold_fast", GlobalSettings.MEAN_FILE)
+                                                            .getNframes());
+        assertNull(CalibrationCatalog.findLatest("hot_fast", GlobalSettings.MEAN_FILE));
+        assertNull(CalibrationCatalog.findNearestExposure("cold_fast", GlobalSettings.MEAN_FILE, 1000L));
+    }
+
+    // dropMissingOnLookup..........................................................................
+    /**
+     * A calibration deleted after load() is never returned, the next best is
+     */
+    @Test
+    public void dropMissingOnLookup() throws IOException {
+        makeCalibration(FIRST,  30.f);
+        makeCalibration(SECOND, 30.f);
+        makeCalibration(THIRD,  40.f);
+        CalibrationCatalog.load(mFolder.getRoot().getAbsolutePath());
+        assertFound(SECOND, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 30.f));
+
+        assertTrue(new File(mFolder.getRoot(), THIRD).delete());
+        assertTrue(new File(mFolder.getRoot(), SECOND).delete());
+        assertFound(FIRST, CalibrationCatalog.findLatest("cold_fast", GlobalSettings.MEAN_FILE));
+        // The older calibration at the same temperature takes its place
+        assertFound(FIRST, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 41.f));
+
+        assertTrue(new File(mFolder.getRoot(), FIRST).delete());
+        assertNull(CalibrationCatalog.findLatest("cold_fast", GlobalSettings.MEAN_FILE));
+        assertNull(CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 30.f));
+    }
+
+    // dropMissingSharedDate........................................................................
+    /**
+     * A calibration that lost its place in the date index to another with the same date is still
+     * dropped once it's gone (lookups don't keep finding it)
+     */
+    @Test(timeout = 10000L)
+    public void dropMissingSharedDate() throws IOException {
+        makeCalibration(FIRST,  20.f);
+        makeCalibration(SECOND, 30.f);
+        CalibrationCatalog.load(mFolder.getRoot().getAbsolutePath());
+        makeCalibration(SECOND_COPY, 40.f);
+        CalibrationCatalog.load(mFolder.getRoot().getAbsolutePath());
+        assertFound(SECOND_COPY, CalibrationCatalog.findLatest("cold_fast", GlobalSettings.MEAN_FILE));
+        assertFound(SECOND, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 30.f));
+
+        assertTrue(new File(mFolder.getRoot(), SECOND).delete());
+        assertFound(FIRST, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 30.f));
+        assertFound(SECOND_COPY, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 31.f));
+        assertFound(SECOND_COPY, CalibrationCatalog.findLatest("cold_fast", GlobalSettings.MEAN_FILE));
+    }
+
+    // catchUpOnLoad................................................................................
+    /**
+     * load() adds calibrations the catalog doesn't have and drops ones that are gone, without
+     * reading the headers of ones it already has
+     */
+    @Test
+    public void catchUpOnLoad() throws IOException {
+        makeCalibration(FIRST,  20.f);
+        makeCalibration(SECOND, 30.f);
+        CalibrationCatalog.load(mFolder.getRoot().getAbsolutePath());
+        assertEquals(2, readCatalog().size());
+
+        // Catalogued headers aren't read again
+        makeCalibration(FIRST, 25.f);
+        assertTrue(new File(mFolder.getRoot(), SECOND).delete());
+        makeCalibration(THIRD, 40.f);
+        CalibrationCatalog.load(mFolder.getRoot().getAbsolutePath());
+
+        List<String> catalog = readCatalog();
+        assertEquals(2, catalog.size());
+        assertFalse(catalog.toString().contains(SECOND));
+        assertFound(THIRD, CalibrationCatalog.findLatest("cold_fast", GlobalSettings.MEAN_FILE));
+        assertFound(FIRST, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 29.f));
+        assertEquals(20.f, CalibrationCatalog.findNearestTemperature("cold_fast", GlobalSettings.MEAN_FILE, 29.f)
+                                             .getTemperature(), 0.f);
+
+        // Nothing changed, nothing written
+        assertTrue(new File(mFolder.getRoot(), CATALOG_FILE).setLastModified(1000L));
+        CalibrationCatalog.load(mFolder.getRoot().getAbsolutePath());
+        assertEquals(1000L, new File(mFolder.getRoot(), CATALOG_FILE).lastModified());
+    }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // makeCalibration..............................................................................
+    /**
+     * Write a small 16-bit "mean" calibration with a legacy header
+     * @param filename Filename
+     * @param temperature Temperature [Celsius]
+     */
+    private void makeCalibration(@NonNull String filename, float temperature) throws IOException {
+        int rows = 2;
+        int columns = 3;
+        ByteBuffer buffer = ByteBuffer.allocate(21 + rows * columns * 4);
+        buffer.put((byte) 16);
+        buffer.putInt(rows);
+        buffer.putInt(columns);
+        buffer.putLong(1000L);
+        buffer.putFloat(temperature);
+        FileOutputStream stream = new FileOutputStream(new File(mFolder.getRoot(), filename));
+        try {
+            stream.write(buffer.array());
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    // readCatalog..................................................................................
+    /**
+     * @return Catalog file lines
+     */
+    @NonNull
+    private List<String> readCatalog() throws IOException {
+        return Files.readAllLines(new File(mFolder.getRoot(), CATALOG_FILE).toPath(), Charset.forName("UTF-8"));
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // assertFound..................................................................................
+    /**
+     * @param filename Expected calibration filename
+     * @param entry Calibration found
+     */
+    private static void assertFound(@NonNull String filename, CalibrationCatalog.Entry entry) {
+        assertTrue("expected " + filename, entry != null);
+        assertEquals(filename, new File(entry.getPath()).getName());
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import sci.crayfis.shramp.analysis.FileHeader;
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks Compression round trips exactly (edge values, every run length around a block, split
+ * sources, both byte orders, float words), meets its size target on a dark frame, and that
+ * RunSegment compresses integer and float data
+ */
+public class CompressionTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // HEADER_BYTES.................................................................................
+    // Leading bytes stored as-is
+    private static final int HEADER_BYTES = 13;
+
+    // Dark frame size..............................................................................
+    // A 1080p RAW frame (16-bit words)
+    private static final int ROWS = 1080;
+    private static final int COLS = 1920;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // edgeValues...................................................................................
+    /**
+     * Extreme values and wrap-around differences (escaped) come back exactly, for every word size
+     * and byte order
+     */
+    @Test
+    public void edgeValues() {
+        int[] edges = {0, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0x7F, 0x80, 0xFF, 0x7FFF,
+                       0x8000, 0xFFFF, 0x10000};
+        for (int wordBytes : new int[] {1, 2, 4}) {
+            for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                // Mostly flat so it compresses, edges every so often
+                ByteBuffer raw = makeRaw(wordBytes, order, 1000);
+                for (int i = 0; i < 1000; i++) {
+                    int value = (i % 50 < edges.length) ? edges[i % 50] : 100;
+                    putWord(raw, HEADER_BYTES + i * wordBytes, wordBytes, value);
+                }
+                assertRoundTrip(new ByteBuffer[] {raw}, wordBytes, order, false, true);
+            }
+        }
+    }
+
+    // runLengths...................................................................................
+    /**
+     * Every number of words from 0 to a few blocks past BLOCK_SIZE, split across two sources at
+     * every word boundary of a short run
+     */
+    @Test
+    public void runLengths() {
+        Random random = new Random(3L);
+        for (int wordBytes : new int[] {1, 2, 4}) {
+            for (int nWords = 0; nWords <= 200; nWords++) {
+                ByteBuffer raw = makeRaw(wordBytes, ByteOrder.BIG_ENDIAN, nWords);
+                for (int i = 0; i < nWords; i++) {
+                    putWord(raw, HEADER_BYTES + i * wordBytes, wordBytes, 64 + random.nextInt(5));
+                }
+                // Too short to get any smaller is fine, otherwise it must come back the same
+                assertRoundTrip(new ByteBuffer[] {raw}, wordBytes, ByteOrder.BIG_ENDIAN, false, nWords >= 64);
+            }
+        }
+
+        ByteBuffer raw = makeRaw(2, ByteOrder.LITTLE_ENDIAN, 100);
+        for (int i = 0; i < 100; i++) {
+            putWord(raw, HEADER_BYTES + 2 * i, 2, 1000 + random.nextInt(9));
+        }
+        for (int split = 0; split <= 100; split++) {
+            int at = HEADER_BYTES + 2 * split;
+            ByteBuffer first  = ByteBuffer.wrap(raw.array(), 0, at).slice();
+            ByteBuffer second = ByteBuffer.wrap(raw.array(), at, raw.capacity() - at).slice();
+            assertRoundTrip(new ByteBuffer[] {first, second}, 2, ByteOrder.LITTLE_ENDIAN, false, true);
+        }
+
+        // Not a whole number of words
+        assertNull(Compression.encode(new ByteBuffer[] {ByteBuffer.allocate(HEADER_BYTES + 3)},
+                                      HEADER_BYTES, 2, ByteOrder.BIG_ENDIAN, false));
+    }
+
+    // incompressible...............................................................................
+    /**
+     * Noise isn't stored any bigger than it is
+     */
+    @Test
+    public void incompressible() {
+        ByteBuffer raw = makeRaw(2, ByteOrder.BIG_ENDIAN, 10000);
+        new Random(4L).nextBytes(raw.array());
+        assertNull(Compression.encode(new ByteBuffer[] {raw}, HEADER_BYTES, 2, ByteOrder.BIG_ENDIAN, false));
+    }
+
+    // darkFrame....................................................................................
+    /**
+     * A synthetic dark frame (black level, read noise, a few hot pixels) shrinks at least 3x (how
+     * long encoding takes is printed, not checked, it depends on the machine)
+     */
+    @Test
+    public void darkFrame() {
+        Random random = new Random(5L);
+        ByteBuffer raw = makeRaw(2, ByteOrder.LITTLE_ENDIAN, ROWS * COLS);
+        for (int i = 0; i < ROWS * COLS; i++) {
+            int value = 64 + (int) Math.round(random.nextGaussian() * 1.5);
+            if (random.nextInt(10000) == 0) {
+                value = 1023;
+            }
+            putWord(raw, HEADER_BYTES + 2 * i, 2, Math.max(0, value));
+        }
+        ByteBuffer[] sources = {raw};
+
+        ByteBuffer compressed = assertRoundTrip(sources, 2, ByteOrder.LITTLE_ENDIAN, false, true);
+        double ratio = raw.capacity() / (double) compressed.limit();
+        assertTrue("compression ratio " + ratio, ratio >= 3.);
+
+        // Best of a few, after warming up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            long start = System.nanoTime();
+            Compression.encode(sources, HEADER_BYTES, 2, ByteOrder.LITTLE_ENDIAN, false);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println("Dark frame encode: " + best / 1e6 + " ms ("
+                + raw.capacity() * 1e3 / best + " MB/s)");
+    }
+
+    // floatValues..................................................................................
+    /**
+     * Float words come back bit for bit (NaN payloads, signed zeros, infinities, subnormals), and a
+     * noisy statistics map straddling a power of two still gets smaller
+     */
+    @Test
+    public void floatValues() {
+        float[] edges = {0.f, -0.f, 1.f, -1.f, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MAX_VALUE,
+                         -Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                         Float.intBitsToFloat(0x7FC00001), Float.intBitsToFloat(0xFFFFFFFF)};
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer raw = makeRaw(4, order, 1000);
+            for (int i = 0; i < 1000; i++) {
+                float value = (i % 50 < edges.length) ? edges[i % 50] : 64.f;
+                raw.putInt(HEADER_BYTES + 4 * i, Float.floatToRawIntBits(value));
+            }
+            assertRoundTrip(new ByteBuffer[] {raw}, 4, order, true, true);
+        }
+
+        // Mean of 1000 frames (black level 64, read noise 1.5, varying pixel to pixel)
+        Random random = new Random(14L);
+        ByteBuffer mean = makeRaw(4, ByteOrder.LITTLE_ENDIAN, 100000);
+        for (int i = 0; i < 100000; i++) {
+            double pedestal = 64. + random.nextGaussian();
+            long sum = Math.round(1000. * pedestal + random.nextGaussian() * 1.5 * Math.sqrt(1000.));
+            mean.putFloat(HEADER_BYTES + 4 * i, sum / 1000.f);
+        }
+        ByteBuffer compressed = assertRoundTrip(new ByteBuffer[] {mean}, 4, ByteOrder.LITTLE_ENDIAN, true, true);
+        double ratio = mean.capacity() / (double) compressed.limit();
+        assertTrue("compression ratio " + ratio, ratio >= 1.4);
+
+        // Integer word sizes only
+        assertNull(Compression.encode(new ByteBuffer[] {makeRaw(2, ByteOrder.BIG_ENDIAN, 1000)},
+                                      HEADER_BYTES, 2, ByteOrder.BIG_ENDIAN, true));
+    }
+
+    // segmentCodecs................................................................................
+    /**
+     * RunSegment compresses integer pixels and float statistics, and hit lists are left as they
+     * are
+     */
+    @Test
+    public void segmentCodecs() {
+        int nPixels = 4096;
+        FakeOutput image = new FakeOutput(OutputWrapper.Datatype.IMAGE, FileHeader.Dtype.UINT16, nPixels);
+        ByteBuffer[] record = RunSegment.encode(image, Compression.Codec.DELTA_RICE);
+        assertEquals(Compression.Codec.DELTA_RICE.ordinal(), record[0].get(5));
+
+        FakeOutput statistics = new FakeOutput(OutputWrapper.Datatype.STATISTICS, FileHeader.Dtype.FLOAT32, nPixels);
+        record = RunSegment.encode(statistics, Compression.Codec.DELTA_RICE);
+        assertEquals(Compression.Codec.DELTA_RICE.ordinal(), record[0].get(5));
+        ByteBuffer decoded = Compression.decode(record[1], statistics.getByteBuffer().capacity());
+        assertNotNull(decoded);
+        assertEquals(0, decoded.compareTo(statistics.getByteBuffer()));
+
+        FakeOutput hits = new FakeOutput(OutputWrapper.Datatype.HITS, FileHeader.Dtype.RECORDS, nPixels);
+        record = RunSegment.encode(hits, Compression.Codec.DELTA_RICE);
+        assertEquals(Compression.Codec.NONE.ordinal(), record[0].get(5));
+        assertTrue(record[1] == hits.getByteBuffer());
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // FakeOutput...................................................................................
+    // Flat (all zero) data behind a version 2 file header
+    private static class FakeOutput extends OutputWrapper {
+        FakeOutput(@NonNull OutputWrapper.Datatype datatype, @NonNull FileHeader.Dtype dtype, int nPixels) {
+            long dataBytes = (long) nPixels * FileHeader.getWordBytes(dtype);
+            mFilename   = "fake";
+            mDatatype   = datatype;
+            mByteBuffer = ByteBuffer.allocate(FileHeader.BYTES + (int) dataBytes);
+            mByteBuffer.put(new byte[] {'S', 'H', 'R', 'P'});
+            mByteBuffer.put(FileHeader.VERSION);
+            mByteBuffer.put((byte) 'B');
+            mByteBuffer.put((byte) datatype.ordinal());
+            mByteBuffer.put((byte) dtype.ordinal());
+            mByteBuffer.put((byte) Compression.Codec.NONE.ordinal());
+            mByteBuffer.put((byte) 16);
+            mByteBuffer.putShort((short) 0);
+            mByteBuffer.putInt(FileHeader.BYTES);
+            mByteBuffer.putInt(1);
+            mByteBuffer.putInt(nPixels);
+            mByteBuffer.putLong(0L);
+            mByteBuffer.putLong(1L);
+            mByteBuffer.putFloat(20.f);
+            mByteBuffer.putInt(0);
+            mByteBuffer.putLong(dataBytes);
+            mByteBuffer.putLong(0L);
+            mByteBuffer.position(0);
+        }
+    }
+
+    // makeRaw......................................................................................
+    /**
+     * @param wordBytes Bytes per word
+     * @param order Byte order of the words
+     * @param nWords Number of words
+     * @return A buffer of HEADER_BYTES (filled in) followed by nWords zero words
+     */
+    @NonNull
+    private static ByteBuffer makeRaw(int wordBytes, @NonNull ByteOrder order, int nWords) {
+        ByteBuffer raw = ByteBuffer.allocate(HEADER_BYTES + nWords * wordBytes).order(order);
+        for (int i = 0; i < HEADER_BYTES; i++) {
+            raw.put(i, (byte) (i * 17));
+        }
+        return raw;
+    }
+
+    // putWord......................................................................................
+    /**
+     * @param raw Buffer (in its word byte order)
+     * @param position Byte position
+     * @param wordBytes Bytes per word
+     * @param value Value, truncated to the word size
+     */
+    private static void putWord(@NonNull ByteBuffer raw, int position, int wordBytes, int value) {
+        if (wordBytes == 1) {
+            raw.put(position, (byte) value);
+        }
+        else if (wordBytes == 2) {
+            raw.putShort(position, (short) value);
+        }
+        else {
+            raw.putInt(position, value);
+        }
+    }
+
+    // assertRoundTrip..............................................................................
+    /**
+     * @param sources Data to compress
+     * @param wordBytes Bytes per word
+     * @param order Byte order of the words
+     * @param isFloat True if the words are floats
+     * @param mustCompress True if it has to get smaller, false if it may not
+     * @return Compressed data (null if it didn't get smaller and didn't have to)
+     */
+    private static ByteBuffer assertRoundTrip(@NonNull ByteBuffer[] sources, int wordBytes,
+                                              @NonNull ByteOrder order, boolean isFloat,
+                                              boolean mustCompress) {
+        ByteBuffer compressed = Compression.encode(sources, HEADER_BYTES, wordBytes, order, isFloat);
+        if (compressed == null) {
+            assertTrue("did not compress", !mustCompress);
+            return null;
+        }
+
+        int rawBytes = 0;
+        for (ByteBuffer source : sources) {
+            rawBytes += source.capacity();
+        }
+        assertTrue(compressed.limit() < rawBytes);
+        ByteBuffer decoded = Compression.decode(compressed, rawBytes);
+        assertNotNull(decoded);
+        assertEquals(order, decoded.order());
+        assertEquals(rawBytes, decoded.limit());
+        int position = 0;
+        for (ByteBuffer source : sources) {
+            for (int i = 0; i < source.capacity(); i++) {
+                assertEquals("byte " + position, source.get(i), decoded.get(position++));
+            }
+        }
+        return compressed;
+    }
+
+}
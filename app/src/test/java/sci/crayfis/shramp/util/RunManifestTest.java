@@ -0,0 +1,228 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks RunManifest rows come back as written (unknown values included) across reopening,
+ * a line cut short is skipped, and relocate() follows a compacted segment
+ */
+public class RunManifestTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // Segment filenames............................................................................
+    // Segments rows point into
+    private static final String SEGMENT   = "000.segment";
+    private static final String SEGMENT_2 = "001.segment";
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mFolder......................................................................................
+    // Stands in for a run directory
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // appendAndRead................................................................................
+    /**
+     * Every field comes back, unknown values as null, rows appended after reopening follow on
+     */
+    @Test
+    public void appendAndRead() {
+        String directory = mFolder.getRoot().getAbsolutePath();
+        assertNull(RunManifest.read(directory));
+
+        RunManifest manifest = RunManifest.open(directory);
+        assertNotNull(manifest);
+        assertEquals(directory, manifest.getDirectory());
+        RunManifest.Row row = new RunManifest.Row(0L, 123456789L, 1000L, 33333L, 31.5f, 1234.5, 7, 2);
+        row.setLocation(SEGMENT, 5L);
+        manifest.append(row);
+        manifest.append(new RunManifest.Row(1L, 123490000L, 2000L, null, null, null, null, null));
+        manifest.close();
+
+        manifest = RunManifest.open(directory);
+        assertNotNull(manifest);
+        manifest.append(new RunManifest.Row(2L, 123520000L, 3000L, 33333L, 31.75f, null, 0, 0));
+        manifest.close();
+
+        List<RunManifest.Row> rows = RunManifest.read(directory);
+        assertNotNull(rows);
+        assertEquals(3, rows.size());
+
+        RunManifest.Row first = rows.get(0);
+        assertEquals(0L, first.getFrameNumber());
+        assertEquals(123456789L, first.getTimestamp());
+        assertEquals(1000L, first.getElapsedNanos());
+        assertEquals(Long.valueOf(33333L), first.getExposure());
+        assertEquals(Float.valueOf(31.5f), first.getTemperature());
+        assertEquals(Double.valueOf(1234.5), first.getPower());
+        assertEquals(Integer.valueOf(7), first.getNhits());
+        assertEquals(Integer.valueOf(2), first.getNclusters());
+        assertEquals(SEGMENT, first.getSegment());
+        assertEquals(Long.valueOf(5L), first.getOffset());
+
+        RunManifest.Row second = rows.get(1);
+        assertEquals(1L, second.getFrameNumber());
+        assertNull(second.getExposure());
+        assertNull(second.getTemperature());
+        assertNull(second.getPower());
+        assertNull(second.getNhits());
+        assertNull(second.getNclusters());
+        assertNull(second.getSegment());
+        assertNull(second.getOffset());
+
+        assertEquals(2L, rows.get(2).getFrameNumber());
+        assertEquals(Integer.valueOf(0), rows.get(2).getNhits());
+    }
+
+    // tornLine.....................................................................................
+    /**
+     * A line cut short (the app died mid-write) is skipped, rows appended after reopening are
+     * still read
+     */
+    @Test
+    public void tornLine() throws IOException {
+        String directory = mFolder.getRoot().getAbsolutePath();
+        RunManifest manifest = RunManifest.open(directory);
+        assertNotNull(manifest);
+        manifest.append(new RunManifest.Row(0L, 100L, 0L, null, null, null, null, null));
+        manifest.close();
+
+        FileOutputStream stream = new FileOutputStream(new File(directory, RunManifest.RUN_MANIFEST), true);
+        try {
+            stream.write("1\t200\t10\t33".getBytes(RunSegment.UTF_8));
+        }
+        finally {
+            stream.close();
+        }
+        List<RunManifest.Row> rows = RunManifest.read(directory);
+        assertNotNull(rows);
+        assertEquals(1, rows.size());
+
+        manifest = RunManifest.open(directory);
+        assertNotNull(manifest);
+        manifest.append(new RunManifest.Row(2L, 300L, 20L, null, null, null, null, null));
+        manifest.close();
+        rows = RunManifest.read(directory);
+        assertNotNull(rows);
+        assertEquals(2, rows.size());
+        assertEquals(2L, rows.get(1).getFrameNumber());
+    }
+
+    // relocate.....................................................................................
+    /**
+     * Rows in the compacted segment follow their records, rows whose records were dropped lose
+     * their location, rows in other segments are left alone
+     */
+    @Test
+    public void relocate() {
+        String directory = mFolder.getRoot().getAbsolutePath();
+        assertTrue(RunManifest.relocate(directory, SEGMENT, new HashMap<Long, Long>()));
+
+        RunManifest manifest = RunManifest.open(directory);
+        assertNotNull(manifest);
+        manifest.append(makeRow(0L, SEGMENT,   5L));
+        manifest.append(makeRow(1L, SEGMENT,   900L));
+        manifest.append(makeRow(2L, SEGMENT_2, 5L));
+        manifest.append(makeRow(3L, SEGMENT,   2000L));
+        manifest.append(new RunManifest.Row(4L, 400L, 4L, null, null, null, 0, 0));
+        manifest.close();
+
+        Map<Long, Long> offsets = new HashMap<>();
+        offsets.put(5L, 5L);
+        offsets.put(2000L, 900L);
+        assertTrue(RunManifest.relocate(directory, SEGMENT, offsets));
+        assertFalse(new File(directory, RunManifest.RUN_MANIFEST + ".relocating").exists());
+
+        List<RunManifest.Row> rows = RunManifest.read(directory);
+        assertNotNull(rows);
+        assertEquals(5, rows.size());
+        assertLocation(rows.get(0), SEGMENT, 5L);
+        assertLocation(rows.get(1), null, null);
+        assertLocation(rows.get(2), SEGMENT_2, 5L);
+        assertLocation(rows.get(3), SEGMENT, 900L);
+        assertLocation(rows.get(4), null, null);
+        assertEquals(Long.valueOf(33333L), rows.get(3).getExposure());
+
+        // Still open for appending afterwards
+        manifest = RunManifest.open(directory);
+        assertNotNull(manifest);
+        manifest.append(makeRow(5L, SEGMENT, 1500L));
+        manifest.close();
+        rows = RunManifest.read(directory);
+        assertNotNull(rows);
+        assertEquals(6, rows.size());
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // makeRow......................................................................................
+    /**
+     * @param frameNumber Frame number
+     * @param segment Segment filename the frame's record is in
+     * @param offset Offset of the record in the segment
+     * @return A frame with a hit list
+     */
+    @NonNull
+    private static RunManifest.Row makeRow(long frameNumber, @NonNull String segment, long offset) {
+        RunManifest.Row row = new RunManifest.Row(frameNumber, 100L * frameNumber, frameNumber,
+                                                  33333L, 30.f, null, 3, 1);
+        row.setLocation(segment, offset);
+        return row;
+    }
+
+    // assertLocation...............................................................................
+    /**
+     * @param row Frame read back
+     * @param segment Expected segment filename (null for none)
+     * @param offset Expected record offset (null for none)
+     */
+    private static void assertLocation(@NonNull RunManifest.Row row, String segment, Long offset) {
+        assertEquals(segment, row.getSegment());
+        assertEquals(offset,  row.getOffset());
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks records written to a RunSegment come back from RunSegmentReader, through the index of a
+ * closed segment or by walking the records of one that wasn't (even with a torn last record),
+ * and that version 1 segments can still be read
+ */
+public class RunSegmentTest {
+
+    // Private Class Constants
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // NAMES........................................................................................
+    // Record names (one not ASCII)
+    private static final String[] NAMES = {"000001.frame", "000001.hist", "000002-\u00e9.hits"};
+
+    // TYPES........................................................................................
+    // Record datatypes
+    private static final OutputWrapper.Datatype[] TYPES = {OutputWrapper.Datatype.IMAGE,
+                                                           OutputWrapper.Datatype.HISTOGRAM,
+                                                           OutputWrapper.Datatype.HITS};
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mFolder......................................................................................
+    // Holds the segments
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    // FakeOutput...................................................................................
+    // Output with random bytes, optionally split into a head and a separate payload buffer
+    private static class FakeOutput extends OutputWrapper {
+        FakeOutput(@NonNull String name, @NonNull Datatype datatype, @NonNull byte[] head,
+                   @Nullable byte[] payload) {
+            mFilename   = name;
+            mDatatype   = datatype;
+            mByteBuffer = ByteBuffer.wrap(head);
+            mPayload    = (payload == null) ? null : ByteBuffer.wrap(payload);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // closedSegment................................................................................
+    /**
+     * Records come back by index, in order, with their names, types and bytes
+     */
+    @Test
+    public void closedSegment() throws IOException {
+        String path = new File(mFolder.getRoot(), "closed.segment").getAbsolutePath();
+        byte[][] contents = writeSegment(path, true);
+
+        RunSegmentReader reader = RunSegmentReader.open(path);
+        assertNotNull(reader);
+        assertRecords(reader, contents);
+        assertNull(reader.getRecord(NAMES.length));
+        assertNull(reader.getName(-1));
+        reader.close();
+    }
+
+    // unclosedSegment..............................................................................
+    /**
+     * Without an index the records are found by walking them, a record cut short by a crash is
+     * left out
+     */
+    @Test
+    public void unclosedSegment() throws IOException {
+        String path = new File(mFolder.getRoot(), "unclosed.segment").getAbsolutePath();
+        byte[][] contents = writeSegment(path, false);
+
+        RunSegmentReader reader = RunSegmentReader.open(path);
+        assertNotNull(reader);
+        assertRecords(reader, contents);
+        reader.close();
+
+        // Tear the last record, and separately leave a few bytes of a record header at the end
+        long complete = new File(path).length();
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(complete - 1L);
+        }
+        finally {
+            file.close();
+        }
+        reader = RunSegmentReader.open(path);
+        assertNotNull(reader);
+        assertEquals(NAMES.length - 1, reader.getRecordCount());
+        reader.close();
+
+        file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(complete);
+            file.seek(complete);
+            file.writeInt(RunSegment.RECORD_MAGIC);
+            file.writeByte(0);
+        }
+        finally {
+            file.close();
+        }
+        reader = RunSegmentReader.open(path);
+        assertNotNull(reader);
+        assertEquals(NAMES.length, reader.getRecordCount());
+        reader.close();
+    }
+
+    // notASegment..................................................................................
+    /**
+     * Files that aren't segments (or aren't there) aren't opened
+     */
+    @Test
+    public void notASegment() throws IOException {
+        File other = mFolder.newFile("other.frame");
+        FileOutputStream stream = new FileOutputStream(other);
+        try {
+            stream.write(new byte[] {'S', 'H', 'R', 'P', 2, 'B', 0, 1});
+        }
+        finally {
+            stream.close();
+        }
+        assertNull(RunSegmentReader.open(other.getAbsolutePath()));
+        assertNull(RunSegmentReader.open(new File(mFolder.getRoot(), "missing.segment").getAbsolutePath()));
+    }
+
+    // version1.....................................................................................
+    /**
+     * Version 1 record headers (no codec or uncompressed length) are still read
+     */
+    @Test
+    public void version1() throws IOException {
+        byte[] name    = "old.frame".getBytes(RunSegment.UTF_8);
+        byte[] payload = new byte[100];
+        new Random(12L).nextBytes(payload);
+
+        ByteBuffer segment = ByteBuffer.allocate(RunSegment.SEGMENT_HEADER_BYTES
+                + 2 * (RunSegment.getRecordHeaderBytes((byte) 1, name.length) + payload.length));
+        segment.putInt(RunSegment.SEGMENT_MAGIC);
+        segment.put((byte) 1);
+        for (int i = 0; i < 2; i++) {
+            segment.putInt(RunSegment.RECORD_MAGIC);
+            segment.put((byte) OutputWrapper.Datatype.IMAGE.ordinal());
+            segment.putShort((short) name.length);
+            segment.put(name);
+            segment.putLong(payload.length);
+            segment.put(payload);
+        }
+        File file = mFolder.newFile("old.segment");
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(segment.array());
+        }
+        finally {
+            stream.close();
+        }
+
+        RunSegmentReader reader = RunSegmentReader.open(file.getAbsolutePath());
+        assertNotNull(reader);
+        assertEquals(1, reader.getVersion());
+        assertEquals(2, reader.getRecordCount());
+        for (int i = 0; i < 2; i++) {
+            assertEquals("old.frame", reader.getName(i));
+            assertEquals(OutputWrapper.Datatype.IMAGE, reader.getType(i));
+            assertBytes(payload, reader.getRecord(i));
+        }
+        reader.close();
+    }
+
+    // Private Class Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // writeSegment.................................................................................
+    /**
+     * Write a record for each of NAMES (the first split into head and payload buffers)
+     * @param path Segment path
+     * @param close True to close the segment (write the index), false to abandon it
+     * @return Contents of each record
+     */
+    @NonNull
+    private static byte[][] writeSegment(@NonNull String path, boolean close) throws IOException {
+        RunSegment segment = RunSegment.open(path);
+        assertNotNull(segment);
+
+        Random random = new Random(13L);
+        byte[][] contents = new byte[NAMES.length][];
+        for (int i = 0; i < NAMES.length; i++) {
+            byte[] head = new byte[50 + 1000 * i];
+            random.nextBytes(head);
+            byte[] payload = null;
+            contents[i] = head;
+            if (i == 0) {
+                payload = new byte[300];
+                random.nextBytes(payload);
+                contents[i] = new byte[head.length + payload.length];
+                System.arraycopy(head, 0, contents[i], 0, head.length);
+                System.arraycopy(payload, 0, contents[i], head.length, payload.length);
+            }
+            FakeOutput output = new FakeOutput(NAMES[i], TYPES[i], head, payload);
+            segment.append(RunSegment.encode(output, Compression.Codec.NONE));
+        }
+        assertEquals(NAMES.length, segment.getRecordCount());
+
+        if (close) {
+            segment.close();
+        }
+        else {
+            segment.abandon();
+        }
+        assertEquals(new File(path).length(), segment.getSize());
+        return contents;
+    }
+
+    // assertRecords................................................................................
+    /**
+     * @param reader Reader for a segment from writeSegment()
+     * @param contents Contents of each record
+     */
+    private static void assertRecords(@NonNull RunSegmentReader reader, @NonNull byte[][] contents) {
+        assertEquals(NAMES.length, reader.getRecordCount());
+        for (int i = 0; i < NAMES.length; i++) {
+            assertEquals(NAMES[i], reader.getName(i));
+            assertEquals(TYPES[i], reader.getType(i));
+            assertBytes(contents[i], reader.getRecord(i));
+        }
+    }
+
+    // assertBytes..................................................................................
+    /**
+     * @param expected Bytes expected
+     * @param actual Buffer read back (positioned at 0)
+     */
+    private static void assertBytes(@NonNull byte[] expected, @Nullable ByteBuffer actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.remaining());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("byte " + i, expected[i], actual.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * @project: (Sh)ower (R)econstructing (A)pplication for (M)obile (P)hones
+ * @version: ShRAMP v0.0
+ *
+ * @objective: To detect extensive air shower radiation using smartphones
+ *             for the scientific study of ultra-high energy cosmic rays
+ *
+ * @institution: University of California, Irvine
+ * @department:  Physics and Astronomy
+ *
+ * @author: Eric Albin
+ * @email:  Eric.K.Albin@gmail.com
+ *
+ * @updated: 3 May 2019
+ */
+
+package sci.crayfis.shramp.util;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import sci.crayfis.shramp.GlobalSettings;
+import sci.crayfis.shramp.analysis.OutputWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks StorageScheduler's priority order, shedding / eviction of debug frames and BOOKKEEPING
+ * barriers.  Writer thread Handlers don't run in local unit tests, jobs are written here with
+ * writeNext() instead.
+ */
+public class StorageSchedulerTest {
+
+    // Private Instance Fields
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // mWritten.....................................................................................
+    // Names of jobs in the order they were written
+    private final List<String> mWritten = new ArrayList<>();
+
+    // FakeOutput...................................................................................
+    // Output with a small buffer that remembers being released
+    private static class FakeOutput extends OutputWrapper {
+        boolean mReleased;
+
+        FakeOutput(@NonNull String name) {
+            mFilename   = name;
+            mByteBuffer = ByteBuffer.allocate(16);
+        }
+
+        @Override
+        public void release() {
+            mReleased = true;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // Tests
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // reset........................................................................................
+    /**
+     * Start and finish with an empty scheduler (its state is static)
+     */
+    @Before
+    @After
+    public void reset() {
+        writeAll();
+        mWritten.clear();
+        assertEquals(0, StorageScheduler.getBacklog());
+    }
+
+    // mostImportantFirst...........................................................................
+    /**
+     * The most important class waiting is written first, first-in first-out within a class
+     */
+    @Test
+    public void mostImportantFirst() {
+        submit(StorageScheduler.Priority.DEBUG_FRAMES, "debug");
+        submit(StorageScheduler.Priority.HISTOGRAMS,   "histogram");
+        submit(StorageScheduler.Priority.EVENTS,       "event 1");
+        submit(StorageScheduler.Priority.CALIBRATION,  "calibration");
+        submit(StorageScheduler.Priority.EVENTS,       "event 2");
+        assertEquals(5, StorageScheduler.getBacklog());
+
+        writeAll();
+        assertEquals(Arrays.asList("calibration", "event 1", "event 2", "histogram", "debug"), mWritten);
+    }
+
+    // shedDebugFrames..............................................................................
+    /**
+     * Debug frames are dropped (and released) once STORAGE_SHED_BACKLOG writes are waiting,
+     * other classes are not
+     */
+    @Test
+    public void shedDebugFrames() {
+        for (int i = 0; i < GlobalSettings.STORAGE_SHED_BACKLOG; i++) {
+            assertTrue(submit(StorageScheduler.Priority.EVENTS, "event " + i).mQueued);
+        }
+        Submitted debug = submit(StorageScheduler.Priority.DEBUG_FRAMES, "debug");
+        assertFalse(debug.mQueued);
+        assertTrue(debug.mOutput.mReleased);
+        assertTrue(submit(StorageScheduler.Priority.HISTOGRAMS, "histogram").mQueued);
+
+        writeAll();
+        assertFalse(mWritten.contains("debug"));
+        assertEquals(GlobalSettings.STORAGE_SHED_BACKLOG + 1, mWritten.size());
+    }
+
+    // evictDebugFrames.............................................................................
+    /**
+     * When the queue is full, the oldest debug frame makes room for a more important write
+     */
+    @Test
+    public void evictDebugFrames() {
+        Submitted oldest = submit(StorageScheduler.Priority.DEBUG_FRAMES, "debug 0");
+        submit(StorageScheduler.Priority.DEBUG_FRAMES, "debug 1");
+        int nEvents = GlobalSettings.STORAGE_QUEUE_CAPACITY - 2;
+        for (int i = 0; i < nEvents; i++) {
+            submit(StorageScheduler.Priority.EVENTS, "event " + i);
+        }
+        assertFalse(oldest.mOutput.mReleased);
+
+        // Queue is full, this would wait if there were no debug frame to evict
+        assertTrue(submit(StorageScheduler.Priority.CALIBRATION, "calibration").mQueued);
+        assertTrue(oldest.mOutput.mReleased);
+
+        writeAll();
+        assertEquals("calibration", mWritten.get(0));
+        assertEquals("debug 1", mWritten.get(mWritten.size() - 1));
+        assertFalse(mWritten.contains("debug 0"));
+        assertEquals(nEvents + 2, mWritten.size());
+    }
+
+    // barrier......................................................................................
+    /**
+     * A BOOKKEEPING job runs after everything submitted before it (even less important jobs),
+     * waits for jobs still being written, and holds back everything submitted after it (even
+     * more important jobs)
+     */
+    @Test
+    public void barrier() {
+        StorageScheduler.submit(StorageScheduler.Priority.EVENTS, new FakeOutput("event"), new Runnable() {
+            @Override
+            public void run() {
+                mWritten.add("event");
+                // While this is being written, the debug frame before the barrier may go, the
+                // barrier may not (and so nothing after it)
+                assertTrue(StorageScheduler.writeNext());
+                assertFalse(StorageScheduler.writeNext());
+            }
+        });
+        submit(StorageScheduler.Priority.DEBUG_FRAMES, "debug");
+        StorageScheduler.submit(StorageScheduler.Priority.BOOKKEEPING, null, new Runnable() {
+            @Override
+            public void run() {
+                mWritten.add("barrier");
+                // Nothing else runs alongside a barrier
+                assertFalse(StorageScheduler.writeNext());
+            }
+        });
+        submit(StorageScheduler.Priority.CALIBRATION, "calibration");
+        StorageScheduler.submit(StorageScheduler.Priority.BOOKKEEPING, null, new Runnable() {
+            @Override
+            public void run() {
+                mWritten.add("barrier 2");
+            }
+        });
+        submit(StorageScheduler.Priority.CALIBRATION, "calibration 2");
+
+        writeAll();
+        assertEquals(Arrays.asList("event", "debug", "barrier", "calibration", "barrier 2", "calibration 2"),
+                     mWritten);
+    }
+
+    // Private Instance Methods
+    //::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+
+    // writeAll.....................................................................................
+    /**
+     * Write everything queued, in the order the writer threads would
+     */
+    private void writeAll() {
+        while (StorageScheduler.writeNext()) {
+            // keep going
+        }
+    }
+
+    // Submitted....................................................................................
+    // A submitted write and whether it was queued
+    private static class Submitted {
+        FakeOutput mOutput;
+        boolean    mQueued;
+    }
+
+    // submit.......................................................................................
+    /**
+     * @param priority Priority class
+     * @param name Recorded in mWritten when written
+     * @return The write submitted
+     */
+    @NonNull
+    private Submitted submit(@NonNull StorageScheduler.Priority priority, @NonNull final String name) {
+        final Submitted submitted = new Submitted();
+        submitted.mOutput = new FakeOutput(name);
+        submitted.mQueued = StorageScheduler.submit(priority, submitted.mOutput, new Runnable() {
+            @Override
+            public void run() {
+                mWritten.add(name);
+                submitted.mOutput.release();
+            }
+        });
+        return submitted;
+    }
+
+}